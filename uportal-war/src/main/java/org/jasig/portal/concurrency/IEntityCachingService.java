@@ -78,4 +78,14 @@ public interface IEntityCachingService {
      * @exception org.jasig.portal.concurrency.CachingException
      */
     public void update(IBasicEntity ent) throws CachingException;
+
+    /**
+     * Returns a version stamp for the entity type that changes whenever an entity
+     * of the type is updated or removed, on this or a peer server.  Can be used to
+     * invalidate data derived from cached entities.
+     * @param type Class
+     * @return String version, never null
+     * @exception CachingException
+     */
+    public String getEntityTypeVersion(Class<? extends IBasicEntity> type) throws CachingException;
 }
@@ -21,6 +21,7 @@ package org.jasig.portal.concurrency.caching;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.UUID;
 
 import org.apache.commons.collections.map.ReferenceMap;
 import org.jasig.portal.IBasicEntity;
@@ -40,8 +41,12 @@ import org.springframework.stereotype.Service;
  */
 @Service("entityCachingService")
 public class CacheFactoryEntityCachingService extends AbstractEntityCachingService {
+    public static final String ENTITY_TYPE_VERSIONS_CACHE_NAME = "org.jasig.portal.concurrency.caching.CacheFactoryEntityCachingService.entityTypeVersions";
+    private static final String INITIAL_VERSION = "0";
+    
     private final EntityCacheCreator entityCacheCreator = new EntityCacheCreator();
     private CacheFactory cacheFactory;
+    private volatile Map<String, String> entityTypeVersions;
     
     /**
      * @return the cacheFactory
@@ -56,7 +61,46 @@ public class CacheFactoryEntityCachingService extends AbstractEntityCachingServi
     public void setCacheFactory(CacheFactory cacheFactory) {
         this.cacheFactory = cacheFactory;
     }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#remove(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public void remove(Class<? extends IBasicEntity> entityType, String key) throws CachingException {
+        super.remove(entityType, key);
+        this.updateEntityTypeVersion(entityType);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#update(org.jasig.portal.IBasicEntity)
+     */
+    @Override
+    public void update(IBasicEntity entity) throws CachingException {
+        super.update(entity);
+        this.updateEntityTypeVersion(entity.getEntityIdentifier().getType());
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.concurrency.IEntityCachingService#getEntityTypeVersion(java.lang.Class)
+     */
+    @Override
+    public String getEntityTypeVersion(Class<? extends IBasicEntity> entityType) throws CachingException {
+        final String version = this.getEntityTypeVersions().get(entityType.getName());
+        return version != null ? version : INITIAL_VERSION;
+    }
+    
+    protected void updateEntityTypeVersion(Class<? extends IBasicEntity> entityType) {
+        this.getEntityTypeVersions().put(entityType.getName(), UUID.randomUUID().toString());
+    }
     
+    protected Map<String, String> getEntityTypeVersions() {
+        Map<String, String> versions = this.entityTypeVersions;
+        if (versions == null) {
+            versions = this.cacheFactory.getCache(ENTITY_TYPE_VERSIONS_CACHE_NAME);
+            this.entityTypeVersions = versions;
+        }
+        return versions;
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.concurrency.caching.AbstractEntityCachingService#getCache(java.lang.Class)
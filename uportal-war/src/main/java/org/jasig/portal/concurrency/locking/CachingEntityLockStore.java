@@ -0,0 +1,787 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+
+/**
+ * Hybrid store for <code>IEntityLocks</code>. The lock table is kept in memory, indexed by entity type
+ * and key and by lock owner, and answers all lookups that name an entity or an owner.
+ * <p/>
+ * Changes that grant or extend a lock ({@link #add(IEntityLock)} and {@link #update(IEntityLock, Date, Integer)})
+ * are written to the persistent store before they are applied in memory, after the write the persistent
+ * store is checked for conflicting locks added by other servers and the change is rolled back if one is
+ * found. Failures are thrown to the caller. Changes that only remove a lock (release and expiration) are
+ * written asynchronously, in order, by a single write-behind thread. A failed removal leaves the lock in the
+ * persistent store until it expires and causes the entity to be reloaded, erring on the side of a lock
+ * being held. Grants for an entity wait for its pending removals so they are not mistaken for conflicts.
+ * <p/>
+ * Cluster visibility uses the replicated {@link #LOCK_VERSION_CACHE_NAME} cache. Once a change for an
+ * entity has been persisted a new version for the entity is put in the cache, servers whose in-memory
+ * copy has a different version reload the entity's locks from the persistent store on next access.
+ * Lookups that name an owner but not an entity only see the locks known to this server, unlike
+ * {@link RDBMEntityLockStore} they do not return locks that were granted on other servers for entities this
+ * server has never looked up. Lookups that name neither an entity nor an owner are answered by the persistent
+ * store after pending writes are flushed.
+ * <p/>
+ * An entity is only kept in the lock table while it has locks, pending writes or threads using it, lookups of
+ * entities without locks do not grow the table.
+ * <p/>
+ * Expired locks are dropped from the in-memory table by an {@link ExpirationTimingWheel} and deleted from
+ * the persistent store by the write-behind thread, no expiration sweeps are needed. Lookups always filter
+ * on expiration so correctness does not depend on the wheel.
+ */
+public class CachingEntityLockStore implements IEntityLockStore {
+    public static final String LOCK_VERSION_CACHE_NAME = "org.jasig.portal.concurrency.locking.CachingEntityLockStore.lockVersions";
+
+    private static final Log log = LogFactory.getLog(CachingEntityLockStore.class);
+    private static final long EXPIRATION_TICK_MILLIS = 1000;
+    private static final int EXPIRATION_WHEEL_SIZE = 512;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+
+    private static CachingEntityLockStore singleton;
+
+    private final ConcurrentMap<String, EntityLocks> lockTable = new ConcurrentHashMap<String, EntityLocks>();
+    //Owner to the cache keys of entities the owner holds locks on, guarded by synchronizing on the map
+    private final Map<String, Set<String>> ownerIndex = new HashMap<String, Set<String>>();
+    private final ExpirationTimingWheel<IEntityLock> expirationWheel = new ExpirationTimingWheel<IEntityLock>(EXPIRATION_TICK_MILLIS, EXPIRATION_WHEEL_SIZE);
+    private final IEntityLockStore persistentStore;
+    private final Map<String, String> lockVersions;
+    private final ExecutorService writeBehindExecutor;
+    private final ScheduledExecutorService expirationExecutor;
+
+    public CachingEntityLockStore(IEntityLockStore persistentStore, Map<String, String> lockVersions) {
+        this.persistentStore = persistentStore;
+        this.lockVersions = lockVersions;
+
+        this.writeBehindExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("EntityLockWriteBehind"));
+        this.expirationExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("EntityLockExpiration"));
+        this.expirationExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                expireLocks();
+            }
+        }, EXPIRATION_TICK_MILLIS, EXPIRATION_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The CachingEntityLockStore backed by {@link RDBMEntityLockStore}
+     */
+    public static synchronized IEntityLockStore singleton() throws LockingException {
+        if (singleton == null) {
+            final Map<String, String> lockVersions = CacheFactoryLocator.getCacheFactory().getCache(LOCK_VERSION_CACHE_NAME);
+            singleton = new CachingEntityLockStore(RDBMEntityLockStore.singleton(), lockVersions);
+        }
+        return singleton;
+    }
+
+    /**
+     * Destroys the singleton if it has been created, see {@link #destroy()}
+     */
+    public static synchronized void shutdown() {
+        if (singleton != null) {
+            singleton.destroy();
+            singleton = null;
+        }
+    }
+
+    /**
+     * Stops expiring locks and waits for pending writes to be applied to the persistent store before
+     * stopping the write-behind thread. The store must not be used after it is destroyed.
+     */
+    public void destroy() {
+        this.expirationExecutor.shutdownNow();
+        this.writeBehindExecutor.shutdown();
+
+        try {
+            if (!this.writeBehindExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("Pending lock writes were not completed within " + SHUTDOWN_TIMEOUT_MILLIS + "ms of shutdown, the persistent store will clean up on expiration");
+                this.writeBehindExecutor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.writeBehindExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void add(IEntityLock lock) throws LockingException {
+        final IEntityLock snapshot = snapshot(lock, lock.getExpirationTime(), lock.getLockType());
+
+        final EntityLocks entityLocks = this.lockEntity(lock.getEntityType(), lock.getEntityKey());
+        try {
+            this.removeExpired(entityLocks, System.currentTimeMillis());
+            this.awaitPendingWrites(entityLocks);
+
+            this.persistentStore.add(snapshot);
+            if (this.hasConflicts(snapshot, snapshot.getLockType())) {
+                this.rollback(entityLocks, new LockStoreOperation() {
+                    @Override
+                    public void execute() throws LockingException {
+                        persistentStore.delete(snapshot);
+                    }
+                });
+                throw new LockingException("Could not create lock: entity already locked.");
+            }
+
+            this.addLock(entityLocks, snapshot);
+            this.publishVersion(entityLocks);
+        }
+        finally {
+            this.unlockEntity(entityLocks);
+        }
+
+        this.expirationWheel.schedule(snapshot, snapshot.getExpirationTime().getTime());
+    }
+
+    @Override
+    public void delete(IEntityLock lock) throws LockingException {
+        final IEntityLock snapshot = snapshot(lock, lock.getExpirationTime(), lock.getLockType());
+
+        final EntityLocks entityLocks = this.lockEntity(lock.getEntityType(), lock.getEntityKey());
+        try {
+            this.removeLock(entityLocks, snapshot);
+            this.writeBehind(entityLocks, true, new LockStoreOperation() {
+                @Override
+                public void execute() throws LockingException {
+                    persistentStore.delete(snapshot);
+                }
+            });
+        }
+        finally {
+            this.unlockEntity(entityLocks);
+        }
+    }
+
+    @Override
+    public void deleteAll() throws LockingException {
+        this.flush();
+        this.lockTable.clear();
+        synchronized (this.ownerIndex) {
+            this.ownerIndex.clear();
+        }
+        this.persistentStore.deleteAll();
+    }
+
+    @Override
+    public void deleteExpired(Date expiration) throws LockingException {
+        final long expirationTime = expiration.getTime();
+        for (final EntityLocks entityLocks : this.lockTable.values()) {
+            entityLocks.lock.lock();
+            try {
+                for (final Iterator<IEntityLock> lockItr = entityLocks.locks.iterator(); lockItr.hasNext();) {
+                    final IEntityLock lock = lockItr.next();
+                    if (lock.getExpirationTime().getTime() <= expirationTime) {
+                        lockItr.remove();
+                        this.unindexOwner(entityLocks, lock.getLockOwner());
+                    }
+                }
+                this.removeIfUnused(entityLocks);
+            }
+            finally {
+                entityLocks.lock.unlock();
+            }
+        }
+
+        this.flush();
+        this.persistentStore.deleteExpired(expiration);
+    }
+
+    /**
+     * Finds locks by entity, answered from memory after reloading the entity if another server changed it. Finds
+     * by owner alone only see the locks on entities known to this server, see the class documentation.
+     */
+    @Override
+    public IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner)
+            throws LockingException {
+
+        final List<IEntityLock> locks = new ArrayList<IEntityLock>();
+        if (entityType != null && entityKey != null) {
+            this.findEntityLocks(entityType, entityKey, lockType, expiration, lockOwner, locks);
+        }
+        else if (lockOwner != null) {
+            final List<String> cacheKeys;
+            synchronized (this.ownerIndex) {
+                final Set<String> ownerKeys = this.ownerIndex.get(lockOwner);
+                if (ownerKeys == null) {
+                    return new IEntityLock[0];
+                }
+                cacheKeys = new ArrayList<String>(ownerKeys);
+            }
+
+            for (final String cacheKey : cacheKeys) {
+                final EntityLocks entityLocks = this.lockTable.get(cacheKey);
+                if (entityLocks != null &&
+                        (entityType == null || entityType.equals(entityLocks.entityType)) &&
+                        (entityKey == null || entityKey.equals(entityLocks.entityKey))) {
+
+                    this.findEntityLocks(entityLocks.entityType, entityLocks.entityKey, lockType, expiration, lockOwner, locks);
+                }
+            }
+        }
+        else {
+            this.flush();
+            return this.persistentStore.find(entityType, entityKey, lockType, expiration, lockOwner);
+        }
+
+        return locks.toArray(new IEntityLock[locks.size()]);
+    }
+
+    @Override
+    public IEntityLock[] findUnexpired(Date expiration, Class entityType, String entityKey, Integer lockType, String lockOwner)
+            throws LockingException {
+
+        if ((entityType == null || entityKey == null) && lockOwner == null) {
+            this.flush();
+            return this.persistentStore.findUnexpired(expiration, entityType, entityKey, lockType, lockOwner);
+        }
+
+        final IEntityLock[] locks = this.find(entityType, entityKey, lockType, null, lockOwner);
+        final List<IEntityLock> unexpiredLocks = new ArrayList<IEntityLock>(locks.length);
+        for (final IEntityLock lock : locks) {
+            if (lock.getExpirationTime().after(expiration)) {
+                unexpiredLocks.add(lock);
+            }
+        }
+        return unexpiredLocks.toArray(new IEntityLock[unexpiredLocks.size()]);
+    }
+
+    @Override
+    public void update(IEntityLock lock, Date newExpiration) throws LockingException {
+        this.update(lock, newExpiration, null);
+    }
+
+    @Override
+    public void update(IEntityLock lock, final Date newExpiration, final Integer newLockType) throws LockingException {
+        final IEntityLock oldSnapshot = snapshot(lock, lock.getExpirationTime(), lock.getLockType());
+        final int lockType = newLockType == null ? lock.getLockType() : newLockType.intValue();
+        final IEntityLock newSnapshot = snapshot(lock, newExpiration, lockType);
+
+        final EntityLocks entityLocks = this.lockEntity(lock.getEntityType(), lock.getEntityKey());
+        try {
+            if (!entityLocks.locks.contains(oldSnapshot)) {
+                throw new LockingException("Problem updating " + lock + " : not found in store.");
+            }
+
+            final boolean upgrade = lockType == IEntityLockService.WRITE_LOCK && oldSnapshot.getLockType() != lockType;
+            if (upgrade) {
+                this.awaitPendingWrites(entityLocks);
+            }
+
+            this.persistentStore.update(oldSnapshot, newExpiration, newLockType);
+            if (upgrade && this.hasConflicts(newSnapshot, lockType)) {
+                this.rollback(entityLocks, new LockStoreOperation() {
+                    @Override
+                    public void execute() throws LockingException {
+                        persistentStore.update(newSnapshot, oldSnapshot.getExpirationTime(), oldSnapshot.getLockType());
+                    }
+                });
+                throw new LockingException("Could not convert " + lock + " : another lock already exists.");
+            }
+
+            this.removeLock(entityLocks, oldSnapshot);
+            this.addLock(entityLocks, newSnapshot);
+            this.publishVersion(entityLocks);
+        }
+        finally {
+            this.unlockEntity(entityLocks);
+        }
+
+        this.expirationWheel.schedule(newSnapshot, newExpiration.getTime());
+    }
+
+    /**
+     * Blocks until all pending writes have been applied to the persistent store
+     */
+    public void flush() throws LockingException {
+        final Future<?> flushFuture = this.writeBehindExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                //Executes after all previously queued writes
+            }
+        });
+
+        try {
+            flushFuture.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockingException("Interrupted while waiting for pending lock writes", e);
+        }
+        catch (ExecutionException e) {
+            throw new LockingException("Failed to wait for pending lock writes", e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of entities in the in-memory lock table
+     */
+    int getLockTableSize() {
+        return this.lockTable.size();
+    }
+
+    /**
+     * Get the locks for the entity, loading them from the persistent store if they are not in memory or
+     * have been changed by another server. The returned EntityLocks is locked by the current thread, the caller
+     * MUST release it with {@link #unlockEntity(EntityLocks)}.
+     */
+    protected EntityLocks lockEntity(Class entityType, String entityKey) throws LockingException {
+        final String cacheKey = getCacheKey(entityType, entityKey);
+
+        while (true) {
+            EntityLocks entityLocks = this.lockTable.get(cacheKey);
+            if (entityLocks == null) {
+                entityLocks = new EntityLocks(entityType, entityKey, cacheKey);
+                final EntityLocks existing = this.lockTable.putIfAbsent(cacheKey, entityLocks);
+                if (existing != null) {
+                    entityLocks = existing;
+                }
+            }
+
+            //Referenced before locking so the entity is not dropped from the table while this thread waits for it
+            entityLocks.references.incrementAndGet();
+            entityLocks.lock.lock();
+            if (entityLocks.removed) {
+                //Dropped from the table after we retrieved it, try again
+                entityLocks.references.decrementAndGet();
+                entityLocks.lock.unlock();
+                continue;
+            }
+
+            try {
+                this.loadIfStale(entityLocks);
+            }
+            catch (LockingException e) {
+                this.unlockEntity(entityLocks);
+                throw e;
+            }
+            catch (RuntimeException e) {
+                this.unlockEntity(entityLocks);
+                throw e;
+            }
+
+            return entityLocks;
+        }
+    }
+
+    /**
+     * Release an EntityLocks returned by {@link #lockEntity(Class, String)}, dropping it from the lock table if
+     * it is no longer in use.
+     */
+    protected void unlockEntity(EntityLocks entityLocks) {
+        try {
+            entityLocks.references.decrementAndGet();
+            this.removeIfUnused(entityLocks);
+        }
+        finally {
+            entityLocks.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the entity from the lock table if it has no locks, no pending writes and no thread is using it.
+     * MUST be called while holding the entity lock.
+     */
+    protected void removeIfUnused(EntityLocks entityLocks) {
+        if (!entityLocks.removed && entityLocks.locks.isEmpty() && entityLocks.pendingWrites == 0 &&
+                entityLocks.references.get() == 0) {
+            entityLocks.removed = true;
+            this.lockTable.remove(entityLocks.cacheKey, entityLocks);
+        }
+    }
+
+    /**
+     * Reload the entity's locks if they have never been loaded or if another server has changed them. Local
+     * changes that have not yet been written take precedence over a reload. MUST be called while holding the
+     * entity lock.
+     */
+    protected void loadIfStale(EntityLocks entityLocks) throws LockingException {
+        final String currentVersion = this.lockVersions.get(entityLocks.cacheKey);
+        if (entityLocks.loaded) {
+            if (entityLocks.pendingWrites > 0 || equals(currentVersion, entityLocks.version)) {
+                return;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Reloading locks for " + entityLocks.cacheKey + ", version changed from " + entityLocks.version + " to " + currentVersion);
+            }
+        }
+
+        //Queued removals must reach the persistent store first or the removed locks would be loaded again
+        this.awaitPendingWrites(entityLocks);
+        final IEntityLock[] locks = this.persistentStore.find(entityLocks.entityType, entityLocks.entityKey, null, null, null);
+
+        for (final IEntityLock lock : new ArrayList<IEntityLock>(entityLocks.locks)) {
+            this.removeLock(entityLocks, lock);
+        }
+
+        final long now = System.currentTimeMillis();
+        for (final IEntityLock lock : locks) {
+            final long expiration = lock.getExpirationTime().getTime();
+            if (expiration > now) {
+                this.addLock(entityLocks, lock);
+                this.expirationWheel.schedule(lock, expiration);
+            }
+            else {
+                this.deleteExpiredLock(entityLocks, lock);
+            }
+        }
+
+        entityLocks.version = currentVersion;
+        entityLocks.loaded = true;
+    }
+
+    /**
+     * Check the persistent store for locks that conflict with a lock that was just written to it. The write
+     * is visible to other servers so concurrent grants on different servers both see a conflict and both roll
+     * back rather than both succeeding. MUST be called while holding the entity lock.
+     *
+     * @param lock The lock that was written
+     * @param lockType The type the lock was written with
+     * @return true if the lock conflicts with another lock in the persistent store
+     */
+    protected boolean hasConflicts(IEntityLock lock, int lockType) throws LockingException {
+        final IEntityLock[] storedLocks = this.persistentStore.findUnexpired(new Date(), lock.getEntityType(), lock.getEntityKey(), null, null);
+
+        if (lockType == IEntityLockService.WRITE_LOCK) {
+            //The written lock must be the only one
+            return storedLocks.length > 1;
+        }
+
+        for (final IEntityLock storedLock : storedLocks) {
+            if (storedLock.getLockType() == IEntityLockService.WRITE_LOCK) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Undo a conflicting write in the persistent store and reload the entity on next access since the
+     * in-memory copy missed the conflicting lock. MUST be called while holding the entity lock.
+     */
+    protected void rollback(EntityLocks entityLocks, LockStoreOperation operation) {
+        try {
+            operation.execute();
+        }
+        catch (Exception e) {
+            log.error("Failed to roll back conflicting lock write for " + entityLocks.cacheKey + ", the lock will remain in the persistent store until it expires", e);
+        }
+        entityLocks.loaded = false;
+    }
+
+    /**
+     * Wait for queued writes for the entity to be applied to the persistent store. MUST be called while holding
+     * the entity lock, the lock is released while waiting.
+     */
+    protected void awaitPendingWrites(EntityLocks entityLocks) throws LockingException {
+        while (entityLocks.pendingWrites > 0) {
+            try {
+                entityLocks.writesComplete.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LockingException("Interrupted while waiting for pending writes for " + entityLocks.cacheKey, e);
+            }
+        }
+    }
+
+    /**
+     * Drop expired locks from the entity and queue their deletion from the persistent store. MUST be called while
+     * holding the entity lock.
+     */
+    protected void removeExpired(EntityLocks entityLocks, long now) {
+        for (final IEntityLock lock : new ArrayList<IEntityLock>(entityLocks.locks)) {
+            if (lock.getExpirationTime().getTime() <= now) {
+                this.removeLock(entityLocks, lock);
+                this.deleteExpiredLock(entityLocks, lock);
+            }
+        }
+    }
+
+    /**
+     * Queue the deletion of an expired lock from the persistent store. Expired locks are ignored by all servers
+     * so no new version is published. MUST be called while holding the entity lock.
+     */
+    protected void deleteExpiredLock(EntityLocks entityLocks, final IEntityLock expiredLock) {
+        this.writeBehind(entityLocks, false, new LockStoreOperation() {
+            @Override
+            public void execute() throws LockingException {
+                persistentStore.delete(expiredLock);
+            }
+        });
+    }
+
+    /**
+     * Queue the operation to be applied to the persistent store. If the operation fails the entity is reloaded
+     * from the persistent store on next access. MUST be called while holding the entity lock.
+     *
+     * @param publish If true a new version is published for the entity once the operation succeeds
+     */
+    protected void writeBehind(final EntityLocks entityLocks, final boolean publish, final LockStoreOperation operation) {
+        entityLocks.pendingWrites++;
+
+        this.writeBehindExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean persisted = false;
+                try {
+                    operation.execute();
+                    persisted = true;
+                }
+                catch (Exception e) {
+                    log.error("Failed to persist lock change for " + entityLocks.cacheKey + ", the locks will be reloaded from the persistent store", e);
+                }
+                finally {
+                    entityLocks.lock.lock();
+                    try {
+                        entityLocks.pendingWrites--;
+
+                        if (!persisted) {
+                            entityLocks.loaded = false;
+                        }
+                        else if (publish) {
+                            publishVersion(entityLocks);
+                        }
+
+                        if (entityLocks.pendingWrites == 0) {
+                            entityLocks.writesComplete.signalAll();
+                            removeIfUnused(entityLocks);
+                        }
+                    }
+                    finally {
+                        entityLocks.lock.unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Publish a new version so other servers reload the entity's locks. MUST be called while holding the entity lock.
+     */
+    protected void publishVersion(EntityLocks entityLocks) {
+        final String version = UUID.randomUUID().toString();
+        entityLocks.version = version;
+        this.lockVersions.put(entityLocks.cacheKey, version);
+    }
+
+    /**
+     * Called by the expiration thread once per tick to drop expired locks
+     */
+    protected void expireLocks() {
+        try {
+            final long now = System.currentTimeMillis();
+            final List<IEntityLock> expiredLocks = this.expirationWheel.advance(now);
+
+            for (final IEntityLock expiredLock : expiredLocks) {
+                final String cacheKey = getCacheKey(expiredLock.getEntityType(), expiredLock.getEntityKey());
+                final EntityLocks entityLocks = this.lockTable.get(cacheKey);
+                if (entityLocks == null) {
+                    continue;
+                }
+
+                entityLocks.lock.lock();
+                try {
+                    //Only remove the exact instance, updates replace the snapshot and schedule the new one
+                    boolean removed = false;
+                    for (final IEntityLock lock : entityLocks.locks) {
+                        if (lock == expiredLock) {
+                            removed = true;
+                            break;
+                        }
+                    }
+
+                    if (removed) {
+                        this.removeLock(entityLocks, expiredLock);
+                        this.deleteExpiredLock(entityLocks, expiredLock);
+                    }
+                    else {
+                        this.removeIfUnused(entityLocks);
+                    }
+                }
+                finally {
+                    entityLocks.lock.unlock();
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            log.error("Failed to expire entity locks", e);
+        }
+    }
+
+    /**
+     * Lookup matching locks for a single entity
+     */
+    private void findEntityLocks(Class entityType, String entityKey, Integer lockType, Date expiration,
+            String lockOwner, List<IEntityLock> matches) throws LockingException {
+
+        final EntityLocks entityLocks = this.lockEntity(entityType, entityKey);
+        try {
+            for (final IEntityLock lock : entityLocks.locks) {
+                if ((lockType == null || lockType.intValue() == lock.getLockType()) &&
+                    (lockOwner == null || lockOwner.equals(lock.getLockOwner())) &&
+                    (expiration == null || expiration.equals(lock.getExpirationTime()))) {
+
+                    matches.add(lock);
+                }
+            }
+        }
+        finally {
+            this.unlockEntity(entityLocks);
+        }
+    }
+
+    /**
+     * Add the lock to the entity and the owner index. MUST be called while holding the entity lock.
+     */
+    private void addLock(EntityLocks entityLocks, IEntityLock lock) {
+        entityLocks.locks.add(lock);
+
+        synchronized (this.ownerIndex) {
+            Set<String> cacheKeys = this.ownerIndex.get(lock.getLockOwner());
+            if (cacheKeys == null) {
+                cacheKeys = new HashSet<String>();
+                this.ownerIndex.put(lock.getLockOwner(), cacheKeys);
+            }
+            cacheKeys.add(entityLocks.cacheKey);
+        }
+    }
+
+    /**
+     * Remove the lock from the entity and the owner index. MUST be called while holding the entity lock.
+     */
+    private void removeLock(EntityLocks entityLocks, IEntityLock lock) {
+        if (entityLocks.locks.remove(lock)) {
+            this.unindexOwner(entityLocks, lock.getLockOwner());
+        }
+    }
+
+    /**
+     * Remove the entity from the owner's index entry if the owner no longer holds a lock on it. MUST be
+     * called while holding the entity lock.
+     */
+    private void unindexOwner(EntityLocks entityLocks, String owner) {
+        for (final IEntityLock lock : entityLocks.locks) {
+            if (owner.equals(lock.getLockOwner())) {
+                return;
+            }
+        }
+
+        synchronized (this.ownerIndex) {
+            final Set<String> cacheKeys = this.ownerIndex.get(owner);
+            if (cacheKeys != null) {
+                cacheKeys.remove(entityLocks.cacheKey);
+                if (cacheKeys.isEmpty()) {
+                    this.ownerIndex.remove(owner);
+                }
+            }
+        }
+    }
+
+    protected static String getCacheKey(Class entityType, String entityKey) {
+        return entityType.getName() + "|" + entityKey;
+    }
+
+    /**
+     * Immutable copy of the lock as stored, the service mutates the locks it hands out
+     */
+    protected static IEntityLock snapshot(IEntityLock lock, Date expiration, int lockType) {
+        return new EntityLockImpl(lock.getEntityType(), lock.getEntityKey(), lockType, new Date(expiration.getTime()), lock.getLockOwner());
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * A change to apply to the persistent store
+     */
+    protected interface LockStoreOperation {
+        void execute() throws LockingException;
+    }
+
+    /**
+     * The in-memory locks for a single entity, all fields are guarded by {@link #lock}
+     */
+    protected static final class EntityLocks {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition writesComplete = this.lock.newCondition();
+        //Threads that have retrieved the entity from the table and not yet released it
+        private final AtomicInteger references = new AtomicInteger();
+        private final Class entityType;
+        private final String entityKey;
+        private final String cacheKey;
+        private final List<IEntityLock> locks = new ArrayList<IEntityLock>(2);
+        private String version;
+        private int pendingWrites = 0;
+        private boolean loaded = false;
+        private boolean removed = false;
+
+        private EntityLocks(Class entityType, String entityKey, String cacheKey) {
+            this.entityType = entityType;
+            this.entityKey = entityKey;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+
+        private DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, this.name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -19,13 +19,19 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jasig.portal.IPortalInfoProvider;
@@ -59,12 +65,22 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         }
     });
 
+    //Locks held by this server, maintained by the LockRenewalWorker
+    private final ConcurrentMap<String, HeldLock> heldLocks = new ConcurrentHashMap<String, HeldLock>();
+    //Local view of locks seen held by other servers, mutex name to the end of the holder's lease
+    private final ConcurrentMap<String, Long> remoteLockExpirations = new ConcurrentHashMap<String, Long>();
+    private final AtomicInteger activeLockAttempts = new AtomicInteger();
+    private final Object lockRenewalMonitor = new Object();
+    private LockRenewalWorker lockRenewalWorker;
+
     private IPortalInfoProvider portalInfoProvider;
     private ExecutorService lockMonitorExecutorService;
     private IClusterLockDao clusterLockDao;
     private ReadableDuration updateLockRate = Duration.standardSeconds(1);
     private ReadableDuration maximumLockDuration = Duration.standardMinutes(60);
     private ReadableDuration dbLockTimeout = Duration.standardSeconds(30);
+    private ReadableDuration remoteLockCacheDuration = Duration.standardSeconds(5);
+    private ReadableDuration abandonedLockAge = Duration.standardSeconds(60);
     
     @Autowired
     public void setPortalInfoProvider(IPortalInfoProvider portalInfoProvider) {
@@ -81,7 +97,7 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         this.lockMonitorExecutorService = lockMonitorExecutorService;
     }
     /**
-     * Rate at which {@link IClusterLockDao#updateLock(String)} is called while a mutex is locked, defaults to 500ms
+     * Rate at which {@link IClusterLockDao#updateLocks(Set)} is called while any mutex is locked, defaults to 1s
      */
     @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.updateLockRate:PT1S}")
     public void setUpdateLockRate(ReadableDuration updateLockRate) {
@@ -97,11 +113,33 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         this.maximumLockDuration = maximumLockDuration;
     }
 
+    /**
+     * Maximum time to wait for the lock renewal thread to start before giving up on acquiring the lock
+     */
     @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.dbLockAcquireTimeout:PT30S}")
     public void setDbLockTimeout(ReadableDuration dbLockTimeout) {
 		this.dbLockTimeout = dbLockTimeout;
 	}
 
+    /**
+     * Maximum duration that a mutex which failed to lock is assumed to still be held by another server. Lock
+     * attempts for the mutex during this time are skipped without going to the database, the holder's lease
+     * ending sooner ends it early. Set to 0 to disable.
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.remoteLockCacheDuration:PT5S}")
+    public void setRemoteLockCacheDuration(ReadableDuration remoteLockCacheDuration) {
+        this.remoteLockCacheDuration = remoteLockCacheDuration;
+    }
+
+    /**
+     * Time after its last update that a lock held by another server is considered abandoned, this is the
+     * end of the holder's lease. Must match the value used by the {@link IClusterLockDao}
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockDao.abandonedLockAge:PT60S}")
+    public void setAbandonedLockAge(ReadableDuration abandonedLockAge) {
+        this.abandonedLockAge = abandonedLockAge;
+    }
+
 	@Override
     public ClusterMutex getClusterMutex(String mutexName) {
         return this.clusterLockDao.getClusterMutex(mutexName);
@@ -117,27 +155,22 @@ public class ClusterLockServiceImpl implements IClusterLockService {
 			LockOptions lockOptions, Function<ClusterMutex, T> lockFunction)
 			throws InterruptedException {
         /*
-         * locking strategy requires 2 threads
-         * the caller thread is the 'work thread', it executes the lockFunction
-         * an additional 'lock thread' is used to acquire and maintain the database lock
+         * the caller thread is the 'work thread', it acquires the database lock and executes the lockFunction
+         * a single shared 'lock renewal thread' maintains all of the database locks held by this server
          */
         
         this.logger.trace("doInLock({})", mutexName);
         
-        //Thread coordination objects
-        final CountDownLatch dbLockLatch = new CountDownLatch(1);
-        final CountDownLatch workCompleteLatch = new CountDownLatch(1);
-        final AtomicReference<ClusterMutex> mutexRef = new AtomicReference<ClusterMutex>(null);
-        
-        
-        Future<Boolean> lockFuture = null;
-        
         final ReentrantLock lock = getLocalLock(mutexName);
         final boolean lockedLocally = lock.tryLock();
         if (!lockedLocally) {
             this.logger.trace("local lock already held for {}", mutexName);
             return TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
         }
+        
+        //Keeps the lock renewal worker alive while this attempt is in progress
+        this.activeLockAttempts.incrementAndGet();
+        HeldLock heldLock = null;
         try {
             this.logger.trace("acquired local lock for {}", mutexName);
             
@@ -173,29 +206,30 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 }
             }
             
-            final Thread currentThread = Thread.currentThread();
-            final DatabaseLockWorker databaseLockWorker = new DatabaseLockWorker(currentThread, mutexRef, mutexName, dbLockLatch, workCompleteLatch);
-            lockFuture = this.lockMonitorExecutorService.submit(databaseLockWorker);
+            //Check the local view of locks recently seen held by other servers, avoids a DB hit for the miss
+            if (this.isLockedRemotely(mutexName)) {
+                this.logger.trace("db lock recently seen held by another server for {}", mutexName);
+                return TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
+            }
             
-            //Wait for DB lock acquisition
-            final boolean dbLocked = dbLockLatch.await(dbLockTimeout.getMillis(), TimeUnit.MILLISECONDS);
-            if (!dbLocked) {
-            	//Worker never started or got to db level mutex acquisition
-            	
-            	//Cancel the lock worker
-            	lockFuture.cancel(true);
-
-            	//Return skipped result
-            	this.logger.trace("failed to aquire database lock due to DatabaseLockWorker not executing, returning notExecuted result for: {}", mutexName);
+            //The lock renewal worker must be running before the db lock is acquired so that the lock is kept fresh
+            if (!this.startLockRenewalWorker()) {
+                this.logger.trace("failed to aquire database lock due to LockRenewalWorker not executing, returning notExecuted result for: {}", mutexName);
                 return TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
             }
             
-            final ClusterMutex mutex = mutexRef.get();
+            final ClusterMutex mutex = this.clusterLockDao.getLock(mutexName);
             if (mutex == null) {
-                //Failed to get DB lock, stop now
+                //Failed to get DB lock, remember that another server has it and stop now
+                this.markLockedRemotely(mutexName);
                 this.logger.trace("failed to aquire database lock, returning notExecuted result for: {}", mutexName);
                 return TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
             }
+            this.remoteLockExpirations.remove(mutexName);
+            this.logger.trace("acquired db lock for: {}", mutexName);
+            
+            heldLock = new HeldLock(Thread.currentThread(), System.currentTimeMillis());
+            this.heldLocks.put(mutexName, heldLock);
             
             //Execute the lockFunction
             final T result = lockFunction.apply(mutex);
@@ -204,19 +238,13 @@ public class ClusterLockServiceImpl implements IClusterLockService {
             return new TryLockFunctionResultImpl<T>(result);
         }
         finally {
-            //Signal db lock worker to release the lock
-            workCompleteLatch.countDown();
-            
-            if (lockFuture != null) {
-                //Wait for the db lock worker to complete 
-                try {
-                    lockFuture.get();
-                }
-                catch (ExecutionException e) {
-                    this.logger.warn("Lock manager thread for " + mutexName + " failed with an exception. Everything is cleaned up but this could indicate a problem with cluster locking", e.getCause());
-                }
+            //Release the db lock if the renewal worker hasn't already given up on it
+            if (heldLock != null && this.heldLocks.remove(mutexName, heldLock)) {
+                this.releaseDatabaseLock(mutexName);
             }
             
+            this.activeLockAttempts.decrementAndGet();
+            
             //Release the local lock
             lock.unlock();
             this.logger.trace("released local lock for: {}", mutexName);
@@ -256,91 +284,185 @@ public class ClusterLockServiceImpl implements IClusterLockService {
     }
 
     /**
-     * Callable that acquires, maintains, and releases a database lock
+     * @return true if the mutex was recently seen locked by another server
+     */
+    protected boolean isLockedRemotely(String mutexName) {
+        final Long expiration = this.remoteLockExpirations.get(mutexName);
+        if (expiration == null) {
+            return false;
+        }
+        
+        if (expiration > System.currentTimeMillis()) {
+            return true;
+        }
+        
+        this.remoteLockExpirations.remove(mutexName, expiration);
+        return false;
+    }
+    
+    /**
+     * Record that the mutex is locked by another server. The lock row is read and the mutex is treated as
+     * locked until the holder's lease ends, its last update plus the abandonedLockAge, but for no longer than
+     * the remoteLockCacheDuration as the holder may release the lock at any time.
      */
-    private final class DatabaseLockWorker implements Callable<Boolean> {
+    protected void markLockedRemotely(String mutexName) {
+        final long remoteLockCacheMillis = this.remoteLockCacheDuration.getMillis();
+        if (remoteLockCacheMillis <= 0) {
+            return;
+        }
+        
+        final ClusterMutex clusterMutex = this.clusterLockDao.getClusterMutex(mutexName);
+        if (clusterMutex == null || !clusterMutex.isLocked()) {
+            //Released since the lock attempt, the next attempt can go to the database
+            return;
+        }
+        
+        final long now = System.currentTimeMillis();
+        final long leaseEnd = clusterMutex.getLastUpdate() + this.abandonedLockAge.getMillis();
+        final long expiration = Math.min(leaseEnd, now + remoteLockCacheMillis);
+        if (expiration > now) {
+            this.remoteLockExpirations.put(mutexName, expiration);
+        }
+    }
+    
+    /**
+     * Ensures the {@link LockRenewalWorker} is running, starting it if needed.
+     * 
+     * @return false if the worker could not be started within the dbLockAcquireTimeout
+     */
+    protected boolean startLockRenewalWorker() throws InterruptedException {
+        synchronized (this.lockRenewalMonitor) {
+            if (this.lockRenewalWorker != null) {
+                return true;
+            }
+            
+            final LockRenewalWorker worker = new LockRenewalWorker();
+            final Future<Void> workerFuture;
+            try {
+                workerFuture = this.lockMonitorExecutorService.submit(worker);
+            }
+            catch (RejectedExecutionException e) {
+                this.logger.warn("Failed to start LockRenewalWorker, the lock executor rejected it", e);
+                return false;
+            }
+            
+            if (!worker.startedLatch.await(dbLockTimeout.getMillis(), TimeUnit.MILLISECONDS)) {
+                //Worker never started, cancel it
+                workerFuture.cancel(true);
+                return false;
+            }
+            
+            this.lockRenewalWorker = worker;
+            return true;
+        }
+    }
+    
+    /**
+     * Release the database lock, logging any failure
+     */
+    protected void releaseDatabaseLock(String mutexName) {
+        try {
+            this.clusterLockDao.releaseLock(mutexName);
+            this.logger.trace("released db lock for: {}", mutexName);
+        }
+        catch (IllegalMonitorStateException e) {
+            this.logger.error("failed to released db lock for: {}", mutexName, e);
+        }
+    }
+
+    /**
+     * A database lock held by a thread on this server
+     */
+    private static final class HeldLock {
         private final Thread worker;
-        private final AtomicReference<ClusterMutex> mutexRef;
-        private final String mutexName;
-        private final CountDownLatch dbLockLatch;
-        private final CountDownLatch workCompleteLatch;
+        private final long lockStart;
 
-        private DatabaseLockWorker(Thread worker, AtomicReference<ClusterMutex> mutexRef, String mutexName, CountDownLatch dbLockLatch,
-                CountDownLatch workCompleteLatch) {
+        private HeldLock(Thread worker, long lockStart) {
             this.worker = worker;
-            this.mutexRef = mutexRef;
-            this.mutexName = mutexName;
-            this.dbLockLatch = dbLockLatch;
-            this.workCompleteLatch = workCompleteLatch;
+            this.lockStart = lockStart;
         }
+    }
+
+    /**
+     * Callable that maintains all of the database locks held by this server. The locks are updated using a single
+     * call to {@link IClusterLockDao#updateLocks(Set)} every updateLockRate. The worker exits once there are
+     * no lock attempts in progress.
+     */
+    private final class LockRenewalWorker implements Callable<Void> {
+        private final CountDownLatch startedLatch = new CountDownLatch(1);
 
         @Override
-        public Boolean call() throws Exception {
+        public Void call() throws Exception {
             final Thread currentThread = Thread.currentThread();
             final String currentName = currentThread.getName();
             try {
-                currentThread.setName(currentName + "-" + mutexName);
-                final long lockTimeout = System.currentTimeMillis() + maximumLockDuration.getMillis();
-                try {
-                    //Try to acquire the lock, set the success to the dbLocked holder
-                    final ClusterMutex mutex = clusterLockDao.getLock(this.mutexName);
-                    this.mutexRef.set(mutex);
-
-                    //If acquisition failed return immediately
-                    if (mutex == null) {
-                        logger.trace("failed to acquire db lock for: {}", this.mutexName);
-                        return false;
+                currentThread.setName(currentName + "-LockRenewal");
+                this.startedLatch.countDown();
+                logger.trace("LockRenewalWorker started");
+                
+                while (true) {
+                    Thread.sleep(updateLockRate.getMillis());
+                    
+                    synchronized (lockRenewalMonitor) {
+                        if (activeLockAttempts.get() == 0) {
+                            lockRenewalWorker = null;
+                            logger.trace("No lock attempts in progress, LockRenewalWorker stopping");
+                            return null;
+                        }
                     }
-                    logger.trace("acquired db lock for: {}", this.mutexName);
-                }
-                finally {
-                    //Signal the work thread that we've attempted to get the DB lock, done in finally so
-                    //the work thread won't hang if something goes wrong during acquisition
-                    this.dbLockLatch.countDown();
-                    logger.trace("Signaled dbLockLatch for: {}", this.mutexName);
-                }
-            
-                //wait for the work to complete using the updateLockRate as the wait duration, if the wait time
-                //passes without the work thread signaling completion update the mutex (signal we still have the lock)
-                //and wait again
-                while (!this.workCompleteLatch.await(updateLockRate.getMillis(), TimeUnit.MILLISECONDS)) {
-                    clusterLockDao.updateLock(this.mutexName);
                     
-                    if (lockTimeout < System.currentTimeMillis()) {
-                        //Interrupt the worker thread to notify it that the lock has been given up on
-                        this.worker.interrupt();
-                        throw new RuntimeException("The database lock has been held for more than " + maximumLockDuration + ", giving up and releasing the DB lock for " + mutexName + ". The corresponding worker thread " + this.worker.getName() + " will be interrupted");
+                    try {
+                        this.renewLocks();
+                    }
+                    catch (Exception e) {
+                        //Keep trying, locks are only considered abandoned after abandonedLockAge
+                        logger.warn("Failed to renew database locks " + heldLocks.keySet() + ", will retry in " + updateLockRate, e);
                     }
                 }
             }
-            catch (Exception e) {
-                logger.warn("DB Lock Worker failed for " + mutexName + " due to an exception.", e);
-                throw e;
-            }
             finally {
                 currentThread.setName(currentName);
                 
-                //If the db lock was acquired release it
-                if (this.mutexRef.get() != null) {
-                    if (this.workCompleteLatch.getCount() != 0) {
-                        //Worker isn't done but we're in the finally block, must have hit an exception
-                        //Interrupt the worker thread to notify it that the lock has been given up on
-                        this.worker.interrupt();
-                        logger.trace("Work thread {} for lock {} is not complete, interrupting.", this.worker.getName(), this.mutexName);
+                synchronized (lockRenewalMonitor) {
+                    if (lockRenewalWorker == this) {
+                        lockRenewalWorker = null;
                     }
+                }
+            }
+        }
+        
+        private void renewLocks() {
+            final Map<String, HeldLock> locks = new HashMap<String, HeldLock>(heldLocks);
+            if (locks.isEmpty()) {
+                return;
+            }
+            
+            //Give up on any lock that has been held for too long
+            final long lockTimeout = System.currentTimeMillis() - maximumLockDuration.getMillis();
+            for (final Iterator<Map.Entry<String, HeldLock>> lockItr = locks.entrySet().iterator(); lockItr.hasNext();) {
+                final Map.Entry<String, HeldLock> lockEntry = lockItr.next();
+                final String mutexName = lockEntry.getKey();
+                final HeldLock heldLock = lockEntry.getValue();
+                if (heldLock.lockStart < lockTimeout && heldLocks.remove(mutexName, heldLock)) {
+                    lockItr.remove();
                     
-                    try {
-                        clusterLockDao.releaseLock(this.mutexName);
-                        logger.trace("released db lock for: {}", this.mutexName);
-                    }
-                    catch (IllegalMonitorStateException e) {
-                        logger.error("failed to released db lock for: {}", this.mutexName, e);
-                    }
+                    //Interrupt the worker thread to notify it that the lock has been given up on
+                    heldLock.worker.interrupt();
+                    logger.warn("The database lock has been held for more than " + maximumLockDuration + ", giving up and releasing the DB lock for " + mutexName + ". The corresponding worker thread " + heldLock.worker.getName() + " will be interrupted");
+                    releaseDatabaseLock(mutexName);
                 }
             }
             
-            logger.trace("DB lock worker returning true: {}", this.mutexName);
-            return Boolean.TRUE;
+            //Update all remaining locks in one batch
+            final Set<String> lostMutexNames = clusterLockDao.updateLocks(locks.keySet());
+            for (final String mutexName : lostMutexNames) {
+                final HeldLock heldLock = locks.get(mutexName);
+                if (heldLock != null && heldLocks.remove(mutexName, heldLock)) {
+                    //Interrupt the worker thread to notify it that the lock has been lost
+                    heldLock.worker.interrupt();
+                    logger.warn("The database lock for " + mutexName + " is no longer held by this server. The corresponding worker thread " + heldLock.worker.getName() + " will be interrupted");
+                }
+            }
         }
     }
     
@@ -0,0 +1,128 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel that tracks items by expiration time. Scheduling is O(1) and thread-safe,
+ * {@link #advance(long)} must only be called by a single thread and returns the items whose expiration
+ * has passed. An item is never returned before its expiration and is normally returned within one tick of it.
+ *
+ * @param <T> The type of item being expired
+ */
+class ExpirationTimingWheel<T> {
+    private final long startTime;
+    private final long tickMillis;
+    private final int mask;
+    private final List<Queue<Entry<T>>> buckets;
+
+    //Last tick processed by advance, only written by the advancing thread
+    private volatile long processedTick;
+
+    /**
+     * @param tickMillis Duration of each tick of the wheel
+     * @param wheelSize Number of buckets in the wheel, rounded up to the next power of 2
+     */
+    public ExpirationTimingWheel(long tickMillis, int wheelSize) {
+        this(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    ExpirationTimingWheel(long tickMillis, int wheelSize, long startTime) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("wheelSize must be greater than 0");
+        }
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.startTime = startTime;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<Queue<Entry<T>>>(size);
+        for (int i = 0; i < size; i++) {
+            this.buckets.add(new ConcurrentLinkedQueue<Entry<T>>());
+        }
+        this.processedTick = 0;
+    }
+
+    /**
+     * Schedule the item to be returned by {@link #advance(long)} once the expiration has passed
+     */
+    public void schedule(T item, long expiration) {
+        //Round up so the item is never returned before it expires
+        long tick = (Math.max(expiration - this.startTime, 0) + this.tickMillis - 1) / this.tickMillis;
+
+        //Items that are already due go in the next bucket to be processed
+        tick = Math.max(tick, this.processedTick + 1);
+
+        this.buckets.get((int) (tick & this.mask)).add(new Entry<T>(item, tick));
+    }
+
+    /**
+     * Advance the wheel to the specified time
+     *
+     * @return All items that expired since the last call to advance
+     */
+    public List<T> advance(long now) {
+        final long targetTick = Math.max(now - this.startTime, 0) / this.tickMillis;
+        final long lastTick = this.processedTick;
+        if (targetTick <= lastTick) {
+            return new ArrayList<T>(0);
+        }
+
+        final List<T> expired = new ArrayList<T>();
+
+        //No need to visit a bucket more than once per call
+        final long ticks = Math.min(targetTick - lastTick, this.mask + 1);
+        for (long tick = targetTick - ticks + 1; tick <= targetTick; tick++) {
+            final Queue<Entry<T>> bucket = this.buckets.get((int) (tick & this.mask));
+            for (final Iterator<Entry<T>> entryItr = bucket.iterator(); entryItr.hasNext();) {
+                final Entry<T> entry = entryItr.next();
+                if (entry.tick <= targetTick) {
+                    entryItr.remove();
+                    expired.add(entry.item);
+                }
+            }
+        }
+
+        this.processedTick = targetTick;
+        return expired;
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long tick;
+
+        private Entry(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.Set;
 
 /**
  * DB based locking DAO.
@@ -55,6 +56,15 @@ interface IClusterLockDao {
      */
     void updateLock(String mutexName);
     
+    /**
+     * Update all of the specified mutexes in a single batch, each mutex should already be locked by this server.
+     * Used to renew every lock held by this server once per update interval instead of once per lock.
+     * 
+     * @param mutexNames The mutexes to update
+     * @return The names of the mutexes that could not be updated as they are not currently locked by this server, never null
+     */
+    Set<String> updateLocks(Set<String> mutexNames);
+    
     /**
      * Release the specified mutex, the mutex must already be locked by this server.
      * 
@@ -19,10 +19,18 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import javax.persistence.EntityManager;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.RollbackException;
+import javax.persistence.TypedQuery;
 
 import org.hibernate.exception.ConstraintViolationException;
 import org.jasig.portal.IPortalInfoProvider;
@@ -62,6 +70,8 @@ public class JpaClusterLockDao extends BasePortalJpaDao implements IClusterLockD
     private IPortalInfoProvider portalInfoProvider;
     private TransactionTemplate newTransactionTemplate;
     private EntityManagerCache entityManagerCache;
+    private String updateLocksQuery;
+    private String selectOwnedLocksQuery;
     
     /**
      * Maximum age of the {@link ClusterMutex#getLastUpdate()} field for a locked mutex. A ClusterMutex with an
@@ -91,6 +101,25 @@ public class JpaClusterLockDao extends BasePortalJpaDao implements IClusterLockD
         this.entityManagerCache = entityManagerCache;
     }
 
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        //The version is incremented so concurrent abandoned lock checks on other servers see the update
+        this.updateLocksQuery = 
+                "UPDATE " + ClusterMutex.class.getName() + " m " +
+                "SET m." + ClusterMutex_.lastUpdate.getName() + " = :lastUpdate, " +
+                    "m." + ClusterMutex_.entityVersion.getName() + " = m." + ClusterMutex_.entityVersion.getName() + " + 1 " +
+                "WHERE m." + ClusterMutex_.name.getName() + " IN (:mutexNames) " +
+                    "AND m." + ClusterMutex_.locked.getName() + " = true " +
+                    "AND m." + ClusterMutex_.serverId.getName() + " = :serverId";
+        
+        this.selectOwnedLocksQuery = 
+                "SELECT m." + ClusterMutex_.name.getName() + " " +
+                "FROM " + ClusterMutex.class.getName() + " m " +
+                "WHERE m." + ClusterMutex_.name.getName() + " IN (:mutexNames) " +
+                    "AND m." + ClusterMutex_.locked.getName() + " = true " +
+                    "AND m." + ClusterMutex_.serverId.getName() + " = :serverId";
+    }
+
     @Override
     public ClusterMutex getClusterMutex(final String mutexName) {
         //Do a get first
@@ -182,6 +211,50 @@ public class JpaClusterLockDao extends BasePortalJpaDao implements IClusterLockD
         });
     }
 
+    @Override
+    public Set<String> updateLocks(final Set<String> mutexNames) {
+        if (mutexNames.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        final Set<String> notUpdated = this.executeIgnoreRollback(new TransactionCallback<Set<String>>() {
+            @Override
+            public Set<String> doInTransaction(TransactionStatus status) {
+                final EntityManager entityManager = getEntityManager();
+                final String uniqueServerName = portalInfoProvider.getUniqueServerName();
+                
+                final Query updateQuery = entityManager.createQuery(updateLocksQuery);
+                updateQuery.setParameter("lastUpdate", new Date());
+                updateQuery.setParameter("mutexNames", mutexNames);
+                updateQuery.setParameter("serverId", uniqueServerName);
+                final int updated = updateQuery.executeUpdate();
+                
+                if (updated == mutexNames.size()) {
+                    logger.trace("Updated {}", mutexNames);
+                    return Collections.emptySet();
+                }
+                
+                //Some of the mutexes are no longer owned by this server, figure out which ones
+                final TypedQuery<String> ownedQuery = entityManager.createQuery(selectOwnedLocksQuery, String.class);
+                ownedQuery.setParameter("mutexNames", mutexNames);
+                ownedQuery.setParameter("serverId", uniqueServerName);
+                final List<String> ownedMutexNames = ownedQuery.getResultList();
+                
+                final Set<String> lostMutexNames = new HashSet<String>(mutexNames);
+                lostMutexNames.removeAll(ownedMutexNames);
+                logger.trace("Updated {} but failed to update {} as they are not locked by {}", new Object[] { ownedMutexNames, lostMutexNames, uniqueServerName });
+                return lostMutexNames;
+            }
+        });
+        
+        if (notUpdated == null) {
+            //Rolled back, same as updateLock the rollback is ignored
+            return Collections.emptySet();
+        }
+        
+        return notUpdated;
+    }
+
     @Override
     public void releaseLock(final String mutexName) {
         this.executeIgnoreRollback(new TransactionCallbackWithoutResult() {
@@ -159,9 +159,17 @@ private void initialize() throws LockingException
     {
         multiServer = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.multiServer", false);
 
-        lockStore = ( multiServer )
-            ? RDBMEntityLockStore.singleton()
-            : MemoryEntityLockStore.singleton();
+        if ( multiServer )
+        {
+            boolean writeBehind = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.writeBehindLockStore", false);
+            lockStore = ( writeBehind )
+                ? CachingEntityLockStore.singleton()
+                : RDBMEntityLockStore.singleton();
+        }
+        else
+        {
+            lockStore = MemoryEntityLockStore.singleton();
+        }
     }
     catch ( Exception e )
     {
@@ -0,0 +1,631 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Application event multicaster that dispatches {@link PortalEvent}s asynchronously. Publishing a portal event
+ * only places it in a bounded queue, dedicated dispatch threads take events from the queue and invoke the
+ * listeners for the event's type. The listeners for each event type are resolved once and kept in a routing
+ * table that is cleared whenever the registered listeners change. All other application events are
+ * multicast synchronously as before.
+ * <p/>
+ * Events with cache or security effects that must be complete before the publishing request continues are
+ * dispatched on the publishing thread: all listeners for the {@link #setSynchronousEventTypes(Set)} event types,
+ * {@link LogoutEvent} by default, any listener that is an instance of one of the
+ * {@link #setSynchronousListenerTypes(Set)} types and any listener that implements
+ * {@link SynchronousPortalEventListener}. Application events that are not portal events, such as
+ * HttpSessionDestroyedEvent, are always dispatched on the publishing thread.
+ * <p/>
+ * If the queue is full the publishing thread blocks for up to {@link #setQueueFullTimeout(long)} ms waiting for
+ * space. If there is still no space the publishing thread dispatches the event itself and it is counted in
+ * {@link #getCallerDispatchedEventCount()}. Events are never dropped, an event dispatched by the publishing thread
+ * may be seen by listeners ahead of events still in the queue. With more than one dispatch thread listeners may
+ * see events out of order, the default is a single dispatch thread.
+ */
+@ManagedResource("uPortal:section=Framework,name=PortalEventMulticaster")
+public class AsyncPortalEventMulticaster extends SimpleApplicationEventMulticaster 
+        implements InitializingBean, DisposableBean, AsyncPortalEventMulticasterMXBean {
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ConcurrentMap<Class<?>, EventRoutes> routingTable = new ConcurrentHashMap<Class<?>, EventRoutes>();
+    private final ConcurrentMap<Class<?>, Boolean> synchronousCreationTable = new ConcurrentHashMap<Class<?>, Boolean>();
+    private final ConcurrentMap<ApplicationListener<?>, ListenerStatistics> listenerStatistics = new ConcurrentHashMap<ApplicationListener<?>, ListenerStatistics>();
+    private final AtomicLong dispatchedEventCount = new AtomicLong();
+    private final AtomicLong blockedEventCount = new AtomicLong();
+    private final AtomicLong callerDispatchedEventCount = new AtomicLong();
+    
+    private Set<Class<? extends ApplicationEvent>> synchronousEventTypes = ImmutableSet.<Class<? extends ApplicationEvent>>of(LogoutEvent.class);
+    private Set<Class<?>> synchronousListenerTypes = ImmutableSet.of();
+    private long queueFullTimeout = TimeUnit.SECONDS.toMillis(1);
+    private int queueCapacity = 10000;
+    private int dispatchThreadCount = 1;
+    private long shutdownTimeout = TimeUnit.SECONDS.toMillis(10);
+    
+    private BlockingQueue<QueuedEvent> eventQueue;
+    private List<Thread> dispatchThreads;
+    private volatile boolean running = false;
+
+    /**
+     * Event types, including subclasses, that are dispatched to all of their listeners on the publishing thread.
+     * Defaults to {@link LogoutEvent} so user scoped caches are purged before the logout request completes.
+     */
+    public void setSynchronousEventTypes(Set<Class<? extends ApplicationEvent>> synchronousEventTypes) {
+        this.synchronousEventTypes = ImmutableSet.copyOf(synchronousEventTypes);
+        this.clearRoutes();
+    }
+
+    /**
+     * Listener types, including subclasses, that are always invoked on the publishing thread. Used for listeners
+     * that must see each event before the request continues but can't implement {@link SynchronousPortalEventListener}.
+     */
+    public void setSynchronousListenerTypes(Set<Class<?>> synchronousListenerTypes) {
+        this.synchronousListenerTypes = ImmutableSet.copyOf(synchronousListenerTypes);
+        this.clearRoutes();
+    }
+
+    /**
+     * Maximum time in ms the publishing thread waits for space when the queue is full before dispatching the
+     * event itself, defaults to 1 second
+     */
+    public void setQueueFullTimeout(long queueFullTimeout) {
+        this.queueFullTimeout = queueFullTimeout;
+    }
+
+    /**
+     * Maximum number of events waiting to be dispatched, defaults to 10000
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Number of threads dispatching events to listeners, defaults to 1. Listeners may see events
+     * out of order if more than one thread is used.
+     */
+    public void setDispatchThreadCount(int dispatchThreadCount) {
+        this.dispatchThreadCount = dispatchThreadCount;
+    }
+
+    /**
+     * Maximum time in ms to wait for queued events to be dispatched on shutdown, defaults to 10 seconds
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.eventQueue = new ArrayBlockingQueue<QueuedEvent>(this.queueCapacity);
+        this.running = true;
+        
+        final List<Thread> threads = new ArrayList<Thread>(this.dispatchThreadCount);
+        for (int i = 0; i < this.dispatchThreadCount; i++) {
+            final Thread dispatchThread = new Thread(new EventDispatcher(), "PortalEventDispatcher-" + i);
+            dispatchThread.setDaemon(true);
+            dispatchThread.start();
+            threads.add(dispatchThread);
+        }
+        this.dispatchThreads = threads;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws Exception {
+        this.running = false;
+        
+        //Give the dispatch threads a chance to drain the queue
+        final long waitUntil = System.currentTimeMillis() + this.shutdownTimeout;
+        for (final Thread dispatchThread : this.dispatchThreads) {
+            final long wait = waitUntil - System.currentTimeMillis();
+            if (wait > 0) {
+                dispatchThread.join(wait);
+            }
+            dispatchThread.interrupt();
+        }
+        
+        final int remaining = this.eventQueue.size();
+        if (remaining > 0) {
+            this.logger.warn("{} portal events were not dispatched before shutdown", remaining);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.context.event.SimpleApplicationEventMulticaster#multicastEvent(org.springframework.context.ApplicationEvent)
+     */
+    @Override
+    public void multicastEvent(ApplicationEvent event) {
+        if (!(event instanceof PortalEvent) || !this.running) {
+            super.multicastEvent(event);
+            return;
+        }
+        
+        final EventRoutes routes = this.getRoutes(event);
+        final long publishTime = System.nanoTime();
+        this.invokeListeners(event, routes.synchronousRoutes, publishTime);
+        
+        if (routes.asynchronousRoutes.length > 0) {
+            final QueuedEvent queuedEvent = new QueuedEvent(event, null);
+            if (!this.enqueue(queuedEvent)) {
+                this.dispatch(queuedEvent);
+            }
+        }
+    }
+    
+    /**
+     * Multicast an event that is created on a dispatch thread. Used for events that are expensive
+     * to create so that the cost isn't paid by the publishing thread. If the event type is dispatched
+     * synchronously or has synchronous listeners the event is created and multicast on the publishing
+     * thread.
+     * 
+     * @param eventType The type of event the factory creates
+     * @param eventFactory Creates the event to multicast, if it returns null nothing is multicast
+     */
+    public <E extends ApplicationEvent> void multicastEvent(Class<E> eventType, Callable<E> eventFactory) {
+        if (!this.running) {
+            final ApplicationEvent event = createEvent(eventFactory);
+            if (event != null) {
+                super.multicastEvent(event);
+            }
+            return;
+        }
+        
+        if (this.isCreatedSynchronously(eventType)) {
+            final ApplicationEvent event = createEvent(eventFactory);
+            if (event != null) {
+                this.multicastEvent(event);
+            }
+            return;
+        }
+        
+        final QueuedEvent queuedEvent = new QueuedEvent(null, eventFactory);
+        if (!this.enqueue(queuedEvent)) {
+            this.dispatch(queuedEvent);
+        }
+    }
+    
+    /*
+     * The routing table is cleared whenever the registered listeners change
+     */
+
+    @Override
+    public void addApplicationListener(ApplicationListener listener) {
+        super.addApplicationListener(listener);
+        this.clearRoutes();
+    }
+
+    @Override
+    public void addApplicationListenerBean(String listenerBeanName) {
+        super.addApplicationListenerBean(listenerBeanName);
+        this.clearRoutes();
+    }
+
+    @Override
+    public void removeApplicationListener(ApplicationListener listener) {
+        super.removeApplicationListener(listener);
+        this.clearRoutes();
+    }
+
+    @Override
+    public void removeApplicationListenerBean(String listenerBeanName) {
+        super.removeApplicationListenerBean(listenerBeanName);
+        this.clearRoutes();
+    }
+
+    @Override
+    public void removeAllListeners() {
+        super.removeAllListeners();
+        this.clearRoutes();
+    }
+
+    @Override
+    public int getQueuedEventCount() {
+        final BlockingQueue<QueuedEvent> queue = this.eventQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    @Override
+    public long getDispatchedEventCount() {
+        return this.dispatchedEventCount.get();
+    }
+
+    @Override
+    public long getBlockedEventCount() {
+        return this.blockedEventCount.get();
+    }
+
+    @Override
+    public long getCallerDispatchedEventCount() {
+        return this.callerDispatchedEventCount.get();
+    }
+
+    @Override
+    public int getRoutedEventTypeCount() {
+        return this.routingTable.size();
+    }
+
+    @Override
+    public Map<String, Long> getListenerLastLag() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            result.put(statistics.name, TimeUnit.NANOSECONDS.toMillis(statistics.lastLag));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerAverageLag() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            final long count = statistics.eventCount.get();
+            final long averageLag = count == 0 ? 0 : statistics.totalLag.get() / count;
+            result.put(statistics.name, TimeUnit.NANOSECONDS.toMillis(averageLag));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerMaxLag() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            result.put(statistics.name, TimeUnit.NANOSECONDS.toMillis(statistics.maxLag.get()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerEventCount() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            result.put(statistics.name, statistics.eventCount.get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getListenerFailureCount() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            result.put(statistics.name, statistics.failureCount.get());
+        }
+        return result;
+    }
+
+    @Override
+    public void resetListenerStatistics() {
+        for (final ListenerStatistics statistics : this.listenerStatistics.values()) {
+            statistics.reset();
+        }
+    }
+
+    /**
+     * Place the event in the queue. If the queue is full wait up to the queue full timeout for space.
+     * 
+     * @return false if there is still no space, the caller must dispatch the event itself
+     */
+    protected boolean enqueue(QueuedEvent queuedEvent) {
+        if (this.eventQueue.offer(queuedEvent)) {
+            return true;
+        }
+        
+        this.blockedEventCount.incrementAndGet();
+        try {
+            if (this.eventQueue.offer(queuedEvent, this.queueFullTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        final long callerDispatched = this.callerDispatchedEventCount.incrementAndGet();
+        if (callerDispatched == 1 || callerDispatched % 1000 == 0) {
+            this.logger.warn("Portal event queue is full, {} events have been dispatched on the publishing thread. Consider increasing the queue capacity or the number of dispatch threads", callerDispatched);
+        }
+        return false;
+    }
+    
+    /**
+     * Invoke each asynchronous listener routed to for the event. Events created from a factory have not been seen
+     * by any listener yet so they are dispatched to all listeners.
+     */
+    protected void dispatch(QueuedEvent queuedEvent) {
+        final ApplicationEvent event;
+        final ListenerRoute[] routes;
+        if (queuedEvent.event != null) {
+            event = queuedEvent.event;
+            routes = this.getRoutes(event).asynchronousRoutes;
+        }
+        else {
+            event = createEvent(queuedEvent.eventFactory);
+            if (event == null) {
+                return;
+            }
+            routes = this.getRoutes(event).allRoutes;
+        }
+        
+        this.invokeListeners(event, routes, queuedEvent.queuedTime);
+        this.dispatchedEventCount.incrementAndGet();
+    }
+    
+    /**
+     * Invoke the listeners, exceptions thrown by listeners are logged
+     */
+    protected void invokeListeners(ApplicationEvent event, ListenerRoute[] routes, long publishTime) {
+        for (final ListenerRoute route : routes) {
+            final ListenerStatistics statistics = route.statistics;
+            statistics.recordLag(System.nanoTime() - publishTime);
+            
+            try {
+                route.listener.onApplicationEvent(event);
+            }
+            catch (Throwable t) {
+                statistics.failureCount.incrementAndGet();
+                this.logger.error("Listener " + statistics.name + " failed to handle event: " + event, t);
+            }
+        }
+    }
+    
+    /**
+     * @return The listener routes for the event's type, resolved from the registered listeners the first time the type is seen
+     */
+    @SuppressWarnings("unchecked")
+    protected EventRoutes getRoutes(ApplicationEvent event) {
+        final Class<?> eventType = event.getClass();
+        EventRoutes routes = this.routingTable.get(eventType);
+        if (routes != null) {
+            return routes;
+        }
+        
+        final boolean synchronousEvent = this.isSynchronousEventType(eventType);
+        final Collection<ApplicationListener> listeners = this.getApplicationListeners(event);
+        final List<ListenerRoute> synchronousRoutes = new ArrayList<ListenerRoute>(listeners.size());
+        final List<ListenerRoute> asynchronousRoutes = new ArrayList<ListenerRoute>(listeners.size());
+        final List<ListenerRoute> allRoutes = new ArrayList<ListenerRoute>(listeners.size());
+        for (final ApplicationListener listener : listeners) {
+            final ListenerRoute route = new ListenerRoute(listener, this.getListenerStatistics(listener));
+            if (synchronousEvent || this.isSynchronousListener(listener)) {
+                synchronousRoutes.add(route);
+            }
+            else {
+                asynchronousRoutes.add(route);
+            }
+            allRoutes.add(route);
+        }
+        
+        routes = new EventRoutes(synchronousRoutes, asynchronousRoutes, allRoutes);
+        this.routingTable.put(eventType, routes);
+        return routes;
+    }
+    
+    /**
+     * @return true if events of the type must be created on the publishing thread since they are dispatched synchronously
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean isCreatedSynchronously(Class<? extends ApplicationEvent> eventType) {
+        Boolean synchronous = this.synchronousCreationTable.get(eventType);
+        if (synchronous != null) {
+            return synchronous;
+        }
+        
+        synchronous = this.isSynchronousEventType(eventType);
+        if (!synchronous) {
+            for (final ApplicationListener listener : this.getApplicationListeners()) {
+                if (this.isSynchronousListener(listener) && this.supportsEvent(listener, eventType, null)) {
+                    synchronous = true;
+                    break;
+                }
+            }
+        }
+        
+        this.synchronousCreationTable.put(eventType, synchronous);
+        return synchronous;
+    }
+    
+    protected boolean isSynchronousEventType(Class<?> eventType) {
+        for (final Class<? extends ApplicationEvent> synchronousEventType : this.synchronousEventTypes) {
+            if (synchronousEventType.isAssignableFrom(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    protected boolean isSynchronousListener(ApplicationListener<?> listener) {
+        if (listener instanceof SynchronousPortalEventListener) {
+            return true;
+        }
+        for (final Class<?> synchronousListenerType : this.synchronousListenerTypes) {
+            if (synchronousListenerType.isInstance(listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    protected void clearRoutes() {
+        this.routingTable.clear();
+        this.synchronousCreationTable.clear();
+    }
+    
+    protected ListenerStatistics getListenerStatistics(ApplicationListener<?> listener) {
+        ListenerStatistics statistics = this.listenerStatistics.get(listener);
+        if (statistics == null) {
+            final String name = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener));
+            statistics = new ListenerStatistics(name);
+            
+            final ListenerStatistics existing = this.listenerStatistics.putIfAbsent(listener, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+    
+    protected ApplicationEvent createEvent(Callable<? extends ApplicationEvent> eventFactory) {
+        try {
+            return eventFactory.call();
+        }
+        catch (Exception e) {
+            this.logger.error("Failed to create event from factory: " + eventFactory, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Takes events from the queue and dispatches them until the multicaster is shut down and the queue is empty
+     */
+    private final class EventDispatcher implements Runnable {
+        @Override
+        public void run() {
+            while (running || !eventQueue.isEmpty()) {
+                final QueuedEvent queuedEvent;
+                try {
+                    queuedEvent = eventQueue.poll(1, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    logger.debug("Portal event dispatcher interrupted, stopping");
+                    return;
+                }
+                
+                if (queuedEvent != null) {
+                    try {
+                        dispatch(queuedEvent);
+                    }
+                    catch (Throwable t) {
+                        logger.error("Failed to dispatch portal event", t);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * An event or factory waiting to be dispatched
+     */
+    protected static final class QueuedEvent {
+        private final ApplicationEvent event;
+        private final Callable<? extends ApplicationEvent> eventFactory;
+        private final long queuedTime = System.nanoTime();
+        
+        QueuedEvent(ApplicationEvent event, Callable<? extends ApplicationEvent> eventFactory) {
+            this.event = event;
+            this.eventFactory = eventFactory;
+        }
+    }
+    
+    /**
+     * The listeners for an event type split by where they are invoked
+     */
+    protected static final class EventRoutes {
+        private final ListenerRoute[] synchronousRoutes;
+        private final ListenerRoute[] asynchronousRoutes;
+        private final ListenerRoute[] allRoutes;
+        
+        EventRoutes(List<ListenerRoute> synchronousRoutes, List<ListenerRoute> asynchronousRoutes, List<ListenerRoute> allRoutes) {
+            this.synchronousRoutes = synchronousRoutes.toArray(new ListenerRoute[synchronousRoutes.size()]);
+            this.asynchronousRoutes = asynchronousRoutes.toArray(new ListenerRoute[asynchronousRoutes.size()]);
+            this.allRoutes = allRoutes.toArray(new ListenerRoute[allRoutes.size()]);
+        }
+    }
+    
+    /**
+     * A listener and its statistics
+     */
+    protected static final class ListenerRoute {
+        private final ApplicationListener listener;
+        private final ListenerStatistics statistics;
+        
+        ListenerRoute(ApplicationListener listener, ListenerStatistics statistics) {
+            this.listener = listener;
+            this.statistics = statistics;
+        }
+    }
+    
+    /**
+     * Lag and failure tracking for a listener
+     */
+    protected static final class ListenerStatistics {
+        private final String name;
+        private final AtomicLong eventCount = new AtomicLong();
+        private final AtomicLong failureCount = new AtomicLong();
+        private final AtomicLong totalLag = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+        private volatile long lastLag = 0;
+        
+        ListenerStatistics(String name) {
+            this.name = name;
+        }
+        
+        void recordLag(long lag) {
+            this.eventCount.incrementAndGet();
+            this.totalLag.addAndGet(lag);
+            this.lastLag = lag;
+            
+            long max = this.maxLag.get();
+            while (lag > max && !this.maxLag.compareAndSet(max, lag)) {
+                max = this.maxLag.get();
+            }
+        }
+        
+        void reset() {
+            this.eventCount.set(0);
+            this.failureCount.set(0);
+            this.totalLag.set(0);
+            this.maxLag.set(0);
+            this.lastLag = 0;
+        }
+    }
+}
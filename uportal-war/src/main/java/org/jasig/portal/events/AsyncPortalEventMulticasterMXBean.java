@@ -0,0 +1,88 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import java.util.Map;
+
+/**
+ * JMX stats for AsyncPortalEventMulticaster
+ */
+public interface AsyncPortalEventMulticasterMXBean {
+    
+    /**
+     * @return Number of events waiting to be dispatched
+     */
+    int getQueuedEventCount();
+    
+    /**
+     * @return Maximum number of events that can be waiting to be dispatched
+     */
+    int getQueueCapacity();
+    
+    /**
+     * @return Total number of events dispatched by the dispatch threads
+     */
+    long getDispatchedEventCount();
+    
+    /**
+     * @return Number of events where the publishing thread had to wait because the queue was full
+     */
+    long getBlockedEventCount();
+    
+    /**
+     * @return Number of events dispatched on the publishing thread because the queue was still full after waiting
+     */
+    long getCallerDispatchedEventCount();
+    
+    /**
+     * @return Number of event types in the listener routing table
+     */
+    int getRoutedEventTypeCount();
+    
+    /**
+     * @return Time in ms between the most recent event being queued and being handled, by listener
+     */
+    Map<String, Long> getListenerLastLag();
+    
+    /**
+     * @return Average time in ms between events being queued and being handled, by listener
+     */
+    Map<String, Long> getListenerAverageLag();
+    
+    /**
+     * @return Maximum time in ms between an event being queued and being handled, by listener
+     */
+    Map<String, Long> getListenerMaxLag();
+    
+    /**
+     * @return Number of events handled, by listener
+     */
+    Map<String, Long> getListenerEventCount();
+    
+    /**
+     * @return Number of events that the listener threw an exception for, by listener
+     */
+    Map<String, Long> getListenerFailureCount();
+    
+    /**
+     * Reset the per listener statistics
+     */
+    void resetListenerStatistics();
+}
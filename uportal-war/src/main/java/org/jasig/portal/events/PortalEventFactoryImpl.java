@@ -29,6 +29,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
@@ -38,6 +39,7 @@ import javax.xml.namespace.QName;
 import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.IPortalInfoProvider;
 import org.jasig.portal.events.PortalEvent.PortalEventBuilder;
+import org.jasig.portal.events.metrics.PortalMetrics;
 import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.logging.ConditionalExceptionLogger;
 import org.jasig.portal.logging.ConditionalExceptionLoggerImpl;
@@ -93,6 +95,8 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
     private IPortalRequestUtils portalRequestUtils;
     private IPersonManager personManager;
     private ApplicationEventPublisher applicationEventPublisher;
+    private AsyncPortalEventMulticaster asyncPortalEventMulticaster;
+    private PortalMetrics portalMetrics;
     
     /**
      * Maximum number of parameters to allow in an event, also used
@@ -159,6 +163,22 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
         this.applicationEventPublisher = applicationEventPublisher;
     }
 
+    /**
+     * If set expensive events, such as {@link LoginEvent}, are created on the multicaster's dispatch thread
+     */
+    @Autowired(required = false)
+    public void setAsyncPortalEventMulticaster(AsyncPortalEventMulticaster asyncPortalEventMulticaster) {
+        this.asyncPortalEventMulticaster = asyncPortalEventMulticaster;
+    }
+
+    /**
+     * If set live request, session and render time metrics are recorded as events are published
+     */
+    @Autowired(required = false)
+    public void setPortalMetrics(PortalMetrics portalMetrics) {
+        this.portalMetrics = portalMetrics;
+    }
+
     @Autowired
     public void setPersonAttributeDao(@Qualifier("personAttributeDao") IPersonAttributeDao personAttributeDao) {
         this.personAttributeDao = personAttributeDao;
@@ -175,9 +195,27 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
     }
 
     @Override
-    public void publishLoginEvent(HttpServletRequest request, Object source, IPerson person) {
+    public void publishLoginEvent(HttpServletRequest request, Object source, final IPerson person) {
         final PortalEventBuilder portalEventBuilder = this.createPortalEventBuilder(source, person, request);
         
+        if (this.portalMetrics != null) {
+            this.portalMetrics.recordLogin(this.getPortalEventSessionId(request, person));
+        }
+        
+        if (this.asyncPortalEventMulticaster != null) {
+            //Group and attribute resolution can be slow, do it on the dispatch thread
+            this.asyncPortalEventMulticaster.multicastEvent(LoginEvent.class, new Callable<LoginEvent>() {
+                @Override
+                public LoginEvent call() throws Exception {
+                    final Set<String> groups = getGroupsForUser(person);
+                    final Map<String, List<String>> attributes = getAttributesForUser(person);
+                    
+                    return new LoginEvent(portalEventBuilder, groups, attributes);
+                }
+            });
+            return;
+        }
+        
         final Set<String> groups = this.getGroupsForUser(person);
         final Map<String, List<String>> attributes = this.getAttributesForUser(person);
         
@@ -191,6 +229,10 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
         
         final LogoutEvent logoutEvent = new LogoutEvent(portalEventBuilder);
         this.applicationEventPublisher.publishEvent(logoutEvent);
+        
+        if (this.portalMetrics != null) {
+            this.portalMetrics.recordLogout(logoutEvent.getEventSessionId());
+        }
     }
     
     @Override
@@ -336,6 +378,10 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
         final PortalEventBuilder eventBuilder = this.createPortalEventBuilder(source, request);
         final PortletRenderExecutionEvent portletRenderExecutionEvent = new PortletRenderExecutionEvent(eventBuilder, fname, executionTime, parameters, targeted, cached);
         this.applicationEventPublisher.publishEvent(portletRenderExecutionEvent);
+        
+        if (this.portalMetrics != null) {
+            this.portalMetrics.recordPortletRender(fname, executionTime);
+        }
     }
 
     @Override
@@ -360,6 +406,10 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
                 portalRequestInfo.getTargetedLayoutNodeId());
         
         this.applicationEventPublisher.publishEvent(portalRenderEvent);
+        
+        if (this.portalMetrics != null) {
+            this.portalMetrics.recordPortalRender(portalRenderEvent.getEventSessionId(), executionTimeNano);
+        }
     }
     
     protected PortalEventBuilder createPortalEventBuilder(Object source, HttpServletRequest request) {
@@ -167,6 +167,18 @@ public abstract class BasePortalEventAggregator<
         
         //Instruct the DAO to remove the aggregation from cache after updating, once closed it will never be visited again
         aggregationDao.updateAggregations(updatedAggregations, true);
+        
+        this.onIntervalClosed(interval, updatedAggregations);
+    }
+    
+    /**
+     * Called by {@link #handleIntervalBoundary(AggregationInterval, EventAggregationContext, Map)} after the
+     * aggregations for the interval have been closed and updated. Does nothing by default.
+     * 
+     * @param interval The interval that was closed
+     * @param closedAggregations The aggregations that were closed
+     */
+    protected void onIntervalClosed(AggregationInterval interval, Collection<T> closedAggregations) {
     }
 
     
@@ -25,6 +25,7 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
@@ -32,6 +33,7 @@ import javax.persistence.Transient;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
 
 /**
  * Base for aggregate entities that track timed statistics
@@ -41,7 +43,7 @@ import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
 @Access(AccessType.FIELD)
 @MappedSuperclass
 public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey, D extends BaseGroupedAggregationDiscriminator>
-        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, Serializable {
+        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, TimedAggregationHistogram, Serializable {
     private static final long serialVersionUID = 1L;
         
     @Column(name = "TIME_COUNT", nullable = false)
@@ -80,6 +82,10 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Column(name = "SECOND_MOMENT_TIME", nullable = false)
     private double secondMoment;
     
+    @Column(name = "TIME_HISTOGRAM", length = LatencyHistogram.MAX_COMPACT_STRING_LENGTH)
+    @Lob
+    private String histogramData;
+    
     @Embedded
     private JpaStatisticalSummary statisticalSummary;
     
@@ -89,6 +95,10 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Transient
     private boolean modified = false;
     
+    //Lazily parsed from histogramData
+    @Transient
+    private LatencyHistogram histogram;
+    
     
     protected BaseTimedAggregationStatsImpl() {
         super();
@@ -159,6 +169,25 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         updateStats();
         return this.secondMoment;
     }
+    
+    @Override
+    public final LatencyHistogram getLatencyHistogram() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this.getHistogram());
+        return copy;
+    }
+
+    @Override
+    public final double getPercentile(double percentile) {
+        return this.getHistogram().getPercentile(percentile);
+    }
+    
+    private LatencyHistogram getHistogram() {
+        if (this.histogram == null) {
+            this.histogram = LatencyHistogram.fromCompactString(this.histogramData);
+        }
+        return this.histogram;
+    }
 
     /**
      * Check if the interval is complete, must be called by super classes if overridden
@@ -194,6 +223,7 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         }
         
         this.statisticalSummary.addValue(v);
+        this.getHistogram().recordValue(v);
         
         this.modified = true;
     }
@@ -222,6 +252,7 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         this.geometricMean = this.statisticalSummary.getGeometricMean();
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
+        this.histogramData = this.histogram.toCompactString();
         
         this.modified = false;
     }
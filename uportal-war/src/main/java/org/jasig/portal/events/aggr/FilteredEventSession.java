@@ -21,6 +21,7 @@ package org.jasig.portal.events.aggr;
 import java.util.Set;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.session.AggregatedGroupSignatureImpl;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.joda.time.DateTime;
 
@@ -39,18 +40,32 @@ class FilteredEventSession implements EventSession {
     private final EventSession parent;
     private final AggregatedGroupConfig aggregatedGroupConfig;
     private final Set<AggregatedGroupMapping> filteredGroupMappings;
+    private String groupSignature;
     
     FilteredEventSession(EventSession parent, AggregatedGroupConfig aggregatedGroupConfig) {
+        this(parent, aggregatedGroupConfig, filterGroupMappings(parent.getGroupMappings(), aggregatedGroupConfig));
+    }
+    
+    /**
+     * @param filteredGroupMappings The result of {@link #filterGroupMappings(Set, AggregatedGroupConfig)} for the parent's groups
+     */
+    FilteredEventSession(EventSession parent, AggregatedGroupConfig aggregatedGroupConfig, Set<AggregatedGroupMapping> filteredGroupMappings) {
         this.parent = parent;
         this.aggregatedGroupConfig = aggregatedGroupConfig;
-        
+        this.filteredGroupMappings = filteredGroupMappings;
+    }
+    
+    /**
+     * @return Immutable set of the group mappings included by the config
+     */
+    static Set<AggregatedGroupMapping> filterGroupMappings(Set<AggregatedGroupMapping> groupMappings, AggregatedGroupConfig aggregatedGroupConfig) {
         final Builder<AggregatedGroupMapping> filteredGroupMappingsBuilder = ImmutableSet.builder();
-        for (final AggregatedGroupMapping aggregatedGroupMapping : parent.getGroupMappings()) {
-            if (FilteredEventSession.this.aggregatedGroupConfig.isIncluded(aggregatedGroupMapping)) {
+        for (final AggregatedGroupMapping aggregatedGroupMapping : groupMappings) {
+            if (aggregatedGroupConfig.isIncluded(aggregatedGroupMapping)) {
                 filteredGroupMappingsBuilder.add(aggregatedGroupMapping);
             }
         }
-        this.filteredGroupMappings = filteredGroupMappingsBuilder.build();
+        return filteredGroupMappingsBuilder.build();
     }
     
     @Override
@@ -68,6 +83,16 @@ class FilteredEventSession implements EventSession {
         return this.filteredGroupMappings;
     }
 
+    @Override
+    public String getGroupSignature() {
+        String gs = this.groupSignature;
+        if (gs == null) {
+            gs = AggregatedGroupSignatureImpl.createSignature(this.filteredGroupMappings);
+            this.groupSignature = gs;
+        }
+        return gs;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
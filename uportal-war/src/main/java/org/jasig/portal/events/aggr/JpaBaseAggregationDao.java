@@ -108,6 +108,13 @@ public abstract class JpaBaseAggregationDao<
      */
     protected abstract void addFetches(Root<T> root);
     
+    /**
+     * Add fetches for the relations a subclass adds to the aggregation, used when finding aggregations by date range
+     * so the relations can still be read after the persistence context is closed
+     */
+    protected void addRelationFetches(Root<T> root) {
+    }
+    
     /**
      * Add the additional predicate needed to find the unclosed aggregates 
      */
@@ -219,6 +226,11 @@ public abstract class JpaBaseAggregationDao<
                 final Join<T, DateDimensionImpl> dd = ba.join(BaseAggregationImpl_.dateDimension, JoinType.LEFT);
                 final Join<T, TimeDimensionImpl> td = ba.join(BaseAggregationImpl_.timeDimension, JoinType.LEFT);
                 
+                //Reports cache closed aggregations and read them from other requests, fetch everything they read
+                ba.fetch(BaseAggregationImpl_.dateDimension, JoinType.LEFT);
+                ba.fetch(BaseAggregationImpl_.timeDimension, JoinType.LEFT);
+                ba.fetch(BaseAggregationImpl_.aggregatedGroup, JoinType.LEFT);
+                addRelationFetches(ba);
 
                 final List<Predicate> keyPredicates = new ArrayList<Predicate>();
                 keyPredicates.add(cb.and( //Restrict results by outer date range
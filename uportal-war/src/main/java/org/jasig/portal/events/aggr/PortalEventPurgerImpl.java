@@ -105,11 +105,14 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
             oldestEventDate = this.portalEventDao.getOldestPortalEventTimestamp();
         }
 
-        //Make sure purgeEnd is no more than 1 hour after the oldest event date to limit delete scope
-        final DateTime purgeEndLimit = oldestEventDate.plusHours(1);
-        if (purgeEndLimit.isBefore(purgeEnd)) {
-            purgeEnd = purgeEndLimit;
-            complete = false;
+        //Make sure purgeEnd is no more than 1 hour after the oldest event date to limit delete scope, bucketed
+        //storage drops whole buckets so the purge scope doesn't need to be limited
+        if (!this.portalEventDao.isBucketedStorage()) {
+            final DateTime purgeEndLimit = oldestEventDate.plusHours(1);
+            if (purgeEndLimit.isBefore(purgeEnd)) {
+                purgeEnd = purgeEndLimit;
+                complete = false;
+            }
         }
         
         final Thread currentThread = Thread.currentThread();
@@ -126,7 +129,8 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
             currentThread.setName(currentName);
         }
         
-        //Update the status object and store it
+        //Update the status object and store it, bucketed storage keeps the bucket containing purgeEnd
+        purgeEnd = this.portalEventDao.getDeletedBefore(purgeEnd);
         purgeEnd = purgeEnd.minusMillis(100); //decrement by 100ms since deletePortalEventsBefore uses lessThan and not lessThanEqualTo
         eventPurgerStatus.setLastEventDate(purgeEnd); 
         eventPurgerStatus.setLastEnd(new DateTime());
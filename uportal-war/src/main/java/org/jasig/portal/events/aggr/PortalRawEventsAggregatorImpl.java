@@ -49,6 +49,7 @@ import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.DateDimensionDao;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
@@ -76,6 +77,7 @@ import com.google.common.collect.Sets;
 @Service
 public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implements PortalRawEventsAggregator, DisposableBean {
     private static final String EVENT_SESSION_CACHE_KEY_SOURCE = AggregateEventsHandler.class.getName() + "-EventSession";
+    private static final String EVENT_SESSION_GROUPS_CACHE_KEY_SOURCE = AggregateEventsHandler.class.getName() + "-EventSessionGroups";
 
     private IClusterLockService clusterLockService;
     private IPortalEventProcessingManager portalEventAggregationManager;
@@ -648,7 +650,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             logger.trace("Aggregating event {} - {}", eventCounter, item);
             
             //Load or create the event session
-            EventSession eventSession = getEventSession(item);
+            final EventSession eventSession = getEventSession(item);
             
             //Give each aggregator a chance at the event
             for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
@@ -659,20 +661,29 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                     final Map<AggregationInterval, AggregationIntervalInfo> aggregatorIntervalInfo = this.getAggregatorIntervalInfo(aggregatorType);
                     
                     //If there is an event session get the aggregator specific version of it
+                    EventSession aggregatorEventSession = eventSession;
                     if (eventSession != null) {
                         final AggregatedGroupConfig aggregatorGroupConfig = getAggregatorGroupConfig(aggregatorType);
                         
                         final CacheKey key = CacheKey.build(EVENT_SESSION_CACHE_KEY_SOURCE, eventSession, aggregatorGroupConfig);
                         EventSession filteredEventSession = this.eventAggregationContext.getAttribute(key);
                         if (filteredEventSession == null) {
-                            filteredEventSession = new FilteredEventSession(eventSession, aggregatorGroupConfig);
+                            //Sessions with the same group signature share the filtered groups
+                            final CacheKey groupsKey = CacheKey.build(EVENT_SESSION_GROUPS_CACHE_KEY_SOURCE, eventSession.getGroupSignature(), aggregatorGroupConfig);
+                            Set<AggregatedGroupMapping> filteredGroupMappings = this.eventAggregationContext.getAttribute(groupsKey);
+                            if (filteredGroupMappings == null) {
+                                filteredGroupMappings = FilteredEventSession.filterGroupMappings(eventSession.getGroupMappings(), aggregatorGroupConfig);
+                                this.eventAggregationContext.setAttribute(groupsKey, filteredGroupMappings);
+                            }
+                            
+                            filteredEventSession = new FilteredEventSession(eventSession, aggregatorGroupConfig, filteredGroupMappings);
                             this.eventAggregationContext.setAttribute(key, filteredEventSession);
                         }
-                        eventSession = filteredEventSession;
+                        aggregatorEventSession = filteredEventSession;
                     }
                     
                     //Aggregation magic happens here!
-                    portalEventAggregator.aggregateEvent(item, eventSession, eventAggregationContext, aggregatorIntervalInfo);
+                    portalEventAggregator.aggregateEvent(item, aggregatorEventSession, eventAggregationContext, aggregatorIntervalInfo);
                 }
             }
         }
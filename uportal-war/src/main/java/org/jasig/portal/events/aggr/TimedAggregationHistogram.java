@@ -0,0 +1,44 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.events.aggr;
+
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+
+/**
+ * Distribution of the values in an aggregation that includes timing info. All values are
+ * returned in nanoseconds
+ */
+public interface TimedAggregationHistogram {
+    /**
+     * @return A copy of the histogram of the values that have been added, can be merged with the histograms of other aggregations
+     */
+    LatencyHistogram getLatencyHistogram();
+    
+    /**
+     * Returns an estimate of the value at the specified percentile.
+     * <p>
+     * Double.NaN is returned if no values have been added.
+     * </p>
+     * @param percentile The percentile, from 0 to 100
+     * @return the estimated value at the percentile
+     */
+    double getPercentile(double percentile);
+}
@@ -70,6 +70,11 @@ public class JpaPortletExecutionAggregationDao extends
         root.fetch(PortletExecutionAggregationImpl_.statisticalSummary, JoinType.LEFT);
     }
 
+    @Override
+    protected void addRelationFetches(Root<PortletExecutionAggregationImpl> root) {
+        root.fetch(PortletExecutionAggregationImpl_.aggregatedPortlet, JoinType.LEFT);
+    }
+
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<PortletExecutionAggregationImpl> root,
             List<Predicate> keyPredicates) {
@@ -116,6 +116,11 @@ public class JpaPortletLayoutAggregationDao extends
     protected void addFetches(Root<PortletLayoutAggregationImpl> root) {
     }
 
+    @Override
+    protected void addRelationFetches(Root<PortletLayoutAggregationImpl> root) {
+        root.fetch(PortletLayoutAggregationImpl_.aggregatedPortlet, JoinType.LEFT);
+    }
+
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<PortletLayoutAggregationImpl> root, List<Predicate> keyPredicates) {
         keyPredicates.add(cb.isFalse(root.get(PortletLayoutAggregationImpl_.complete)));
@@ -35,6 +35,7 @@ import org.jasig.portal.events.aggr.portlets.AggregatedPortletLookupDao;
 import org.jasig.portal.events.aggr.portlets.AggregatedPortletMapping;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -48,12 +49,18 @@ public class PortletLayoutAggregator extends BasePortalEventAggregator<PortletLa
 
     private PortletLayoutAggregationPrivateDao portletLayoutAggregationDao;
     private AggregatedPortletLookupDao aggregatedPortletLookupDao;
+    private PortletLayoutRankingService portletLayoutRankingService;
 
     @Autowired
     public void setAggregatedPortletLookupDao(AggregatedPortletLookupDao aggregatedPortletLookupDao) {
         this.aggregatedPortletLookupDao = aggregatedPortletLookupDao;
     }
 
+    @Autowired
+    public void setPortletLayoutRankingService(PortletLayoutRankingService portletLayoutRankingService) {
+        this.portletLayoutRankingService = portletLayoutRankingService;
+    }
+
     @Autowired
     public void setPortletAddAggregationDao(PortletLayoutAggregationPrivateDao portletAddAggregationDao) {
         this.portletLayoutAggregationDao = portletAddAggregationDao;
@@ -69,6 +76,11 @@ public class PortletLayoutAggregator extends BasePortalEventAggregator<PortletLa
         return this.portletLayoutAggregationDao;
     }
 
+    @Override
+    protected void onIntervalClosed(AggregationInterval interval, Collection<PortletLayoutAggregationImpl> closedAggregations) {
+        this.portletLayoutRankingService.intervalClosed(interval);
+    }
+
     @Override
     protected void updateAggregation(PortletLayoutPortalEvent e, EventAggregationContext eventAggregationContext,
                                      AggregationIntervalInfo intervalInfo, PortletLayoutAggregationImpl aggregation) {
@@ -0,0 +1,67 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.portletlayout;
+
+import java.io.Serializable;
+
+/**
+ * Immutable entry in a {@link PortletLayoutRankingService} ranking
+ */
+public final class PortletLayoutRanking implements Comparable<PortletLayoutRanking>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String fname;
+    private final int addCount;
+
+    public PortletLayoutRanking(String fname, int addCount) {
+        this.fname = fname;
+        this.addCount = addCount;
+    }
+
+    /**
+     * @return The fname of the portlet
+     */
+    public String getFname() {
+        return this.fname;
+    }
+
+    /**
+     * @return Number of times the portlet was added to a layout in the ranking's window
+     */
+    public int getAddCount() {
+        return this.addCount;
+    }
+
+    /**
+     * Orders by add count, highest first, then by fname
+     */
+    @Override
+    public int compareTo(PortletLayoutRanking o) {
+        if (this.addCount != o.addCount) {
+            return this.addCount > o.addCount ? -1 : 1;
+        }
+        return this.fname.compareTo(o.fname);
+    }
+
+    @Override
+    public String toString() {
+        return "PortletLayoutRanking [fname=" + this.fname + ", addCount=" + this.addCount + "]";
+    }
+}
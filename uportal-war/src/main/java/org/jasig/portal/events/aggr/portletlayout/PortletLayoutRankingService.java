@@ -0,0 +1,42 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.portletlayout;
+
+import java.util.List;
+
+import org.jasig.portal.events.aggr.AggregationInterval;
+
+/**
+ * Maintains rolling rankings of the portlets most frequently added to layouts by all users. Rankings
+ * are kept in memory for a fixed set of windows and are updated as {@link PortletLayoutAggregator}
+ * closes intervals.
+ */
+public interface PortletLayoutRankingService {
+    /**
+     * @param days Number of days, ending with the last fully aggregated day, to rank portlets over
+     * @return Portlets sorted by add count, highest first. null if no ranking is maintained for the number of days.
+     */
+    List<PortletLayoutRanking> getRanking(int days);
+
+    /**
+     * Notification that the aggregations for an interval have been closed
+     */
+    void intervalClosed(AggregationInterval interval);
+}
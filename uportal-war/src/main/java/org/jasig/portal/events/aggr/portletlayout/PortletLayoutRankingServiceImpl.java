@@ -0,0 +1,292 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.portletlayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.jasig.portal.events.aggr.AggregationInterval;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupLookupDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.services.GroupService;
+import org.joda.time.DateMidnight;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Keeps the daily add counts for the Everyone group for the largest ranking window in memory and
+ * derives the ranking for each window from them. Only days that have been completely aggregated are
+ * included, each server loads newly completed days from the database as they become available so
+ * the steady state cost is one query per day rather than one per request.
+ */
+@Service
+public class PortletLayoutRankingServiceImpl implements PortletLayoutRankingService {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Object refreshMutex = new Object();
+    private volatile RankingState rankingState;
+    private volatile long nextRefresh = 0;
+
+    private PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao;
+    private AggregatedGroupLookupDao aggregatedGroupLookupDao;
+    private IEventAggregationManagementDao eventAggregationManagementDao;
+    private SortedSet<Integer> rankingWindows = ImmutableSortedSet.of(1, 7, 30);
+    private int maxRankingSize = 100;
+    private ReadableDuration refreshInterval = Duration.standardMinutes(1);
+
+    @Autowired
+    public void setPortletLayoutDao(PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao) {
+        this.portletLayoutDao = portletLayoutDao;
+    }
+
+    @Autowired
+    public void setAggregatedGroupLookupDao(AggregatedGroupLookupDao aggregatedGroupLookupDao) {
+        this.aggregatedGroupLookupDao = aggregatedGroupLookupDao;
+    }
+
+    @Autowired
+    public void setEventAggregationManagementDao(IEventAggregationManagementDao eventAggregationManagementDao) {
+        this.eventAggregationManagementDao = eventAggregationManagementDao;
+    }
+
+    /**
+     * Number of days in each of the rankings to maintain, defaults to 1, 7 and 30
+     */
+    public void setRankingWindows(Set<Integer> rankingWindows) {
+        this.rankingWindows = ImmutableSortedSet.copyOf(rankingWindows);
+        this.nextRefresh = 0;
+        this.rankingState = null;
+    }
+
+    /**
+     * Maximum number of portlets to keep in each ranking
+     */
+    @Value("${org.jasig.portal.events.aggr.portletlayout.PortletLayoutRankingService.maxRankingSize:100}")
+    public void setMaxRankingSize(int maxRankingSize) {
+        this.maxRankingSize = maxRankingSize;
+    }
+
+    /**
+     * How often to check for newly completed days of aggregation data
+     */
+    @Value("${org.jasig.portal.events.aggr.portletlayout.PortletLayoutRankingService.refreshInterval:PT60S}")
+    public void setRefreshInterval(ReadableDuration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public List<PortletLayoutRanking> getRanking(int days) {
+        if (!this.rankingWindows.contains(days)) {
+            return null;
+        }
+
+        final RankingState state = this.getRankingState();
+        if (state == null) {
+            return Collections.emptyList();
+        }
+
+        return state.rankings.get(days);
+    }
+
+    @Override
+    public void intervalClosed(AggregationInterval interval) {
+        if (interval == AggregationInterval.DAY) {
+            //Check for the newly closed day on the next request
+            this.nextRefresh = 0;
+        }
+    }
+
+    /**
+     * @return The current rankings, refreshing them if the refresh interval has passed
+     */
+    protected RankingState getRankingState() {
+        RankingState state = this.rankingState;
+        if (state != null && System.currentTimeMillis() < this.nextRefresh) {
+            return state;
+        }
+
+        synchronized (this.refreshMutex) {
+            state = this.rankingState;
+            if (state != null && System.currentTimeMillis() < this.nextRefresh) {
+                return state;
+            }
+
+            try {
+                state = this.refreshRankingState(state);
+                this.rankingState = state;
+            }
+            catch (RuntimeException e) {
+                //Keep serving the existing rankings, the refresh will be retried after the refresh interval
+                this.logger.warn("Failed to refresh portlet layout rankings", e);
+            }
+
+            this.nextRefresh = System.currentTimeMillis() + this.refreshInterval.getMillis();
+            return state;
+        }
+    }
+
+    /**
+     * Load any days that have been completely aggregated since the state was built and rebuild the rankings
+     */
+    protected RankingState refreshRankingState(RankingState state) {
+        final DateMidnight lastCompleteDay = this.getLastCompleteDay();
+        if (lastCompleteDay == null) {
+            return state;
+        }
+        if (state != null && !state.lastDay.isBefore(lastCompleteDay)) {
+            //No new days to add
+            return state;
+        }
+
+        final DateMidnight firstDay = lastCompleteDay.minusDays(this.rankingWindows.last() - 1);
+
+        //Retain the days from the existing state that are still in the largest window
+        final SortedMap<DateMidnight, Map<String, Integer>> dailyAddCounts = new TreeMap<DateMidnight, Map<String, Integer>>();
+        DateMidnight loadStart = firstDay;
+        if (state != null) {
+            dailyAddCounts.putAll(state.dailyAddCounts.tailMap(firstDay));
+            final DateMidnight nextDay = state.lastDay.plusDays(1);
+            if (nextDay.isAfter(loadStart)) {
+                loadStart = nextDay;
+            }
+        }
+
+        this.loadDailyAddCounts(loadStart, lastCompleteDay, dailyAddCounts);
+
+        final Map<Integer, List<PortletLayoutRanking>> rankings = new HashMap<Integer, List<PortletLayoutRanking>>();
+        for (final Integer days : this.rankingWindows) {
+            final DateMidnight windowStart = lastCompleteDay.minusDays(days - 1);
+            rankings.put(days, this.buildRanking(dailyAddCounts.tailMap(windowStart)));
+        }
+
+        this.logger.debug("Updated portlet layout rankings through {}, loaded days starting {}", lastCompleteDay, loadStart);
+
+        return new RankingState(lastCompleteDay, dailyAddCounts, rankings);
+    }
+
+    /**
+     * @return The last day that all events have been aggregated for, null if no events have been aggregated
+     */
+    protected DateMidnight getLastCompleteDay() {
+        final IEventAggregatorStatus eventAggregatorStatus = this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, false);
+        if (eventAggregatorStatus == null || eventAggregatorStatus.getLastEventDate() == null) {
+            return null;
+        }
+
+        return eventAggregatorStatus.getLastEventDate().toDateMidnight().minusDays(1);
+    }
+
+    /**
+     * @return The group mapping the rankings are built for
+     */
+    protected AggregatedGroupMapping getRankingGroup() {
+        final IEntityGroup everyone = GroupService.getRootGroup(IPerson.class);
+        return this.aggregatedGroupLookupDao.getGroupMapping(everyone.getKey());
+    }
+
+    /**
+     * Add the add counts for each fname for each day from start to end (inclusive) to dailyAddCounts
+     */
+    protected void loadDailyAddCounts(DateMidnight start, DateMidnight end, SortedMap<DateMidnight, Map<String, Integer>> dailyAddCounts) {
+        if (start.isAfter(end)) {
+            return;
+        }
+
+        final AggregatedGroupMapping group = this.getRankingGroup();
+        final List<PortletLayoutAggregation> aggregations = this.portletLayoutDao.getAggregationsForAllPortlets(
+                start.toDateTime(), end.plusDays(1).toDateTime(), AggregationInterval.DAY, group);
+
+        for (final PortletLayoutAggregation aggregation : aggregations) {
+            final DateMidnight day = aggregation.getDateDimension().getDate();
+            Map<String, Integer> addCounts = dailyAddCounts.get(day);
+            if (addCounts == null) {
+                addCounts = new HashMap<String, Integer>();
+                dailyAddCounts.put(day, addCounts);
+            }
+
+            final String fname = aggregation.getPortletMapping().getFname();
+            final Integer addCount = addCounts.get(fname);
+            addCounts.put(fname, (addCount == null ? 0 : addCount) + aggregation.getAddCount());
+        }
+    }
+
+    /**
+     * Sum the add counts across the days and return the top {@link #setMaxRankingSize(int)} portlets
+     */
+    protected List<PortletLayoutRanking> buildRanking(SortedMap<DateMidnight, Map<String, Integer>> dailyAddCounts) {
+        final Map<String, Integer> totalAddCounts = new HashMap<String, Integer>();
+        for (final Map<String, Integer> addCounts : dailyAddCounts.values()) {
+            for (final Map.Entry<String, Integer> addCountEntry : addCounts.entrySet()) {
+                final String fname = addCountEntry.getKey();
+                final Integer total = totalAddCounts.get(fname);
+                totalAddCounts.put(fname, (total == null ? 0 : total) + addCountEntry.getValue());
+            }
+        }
+
+        final SortedSet<PortletLayoutRanking> ranking = new TreeSet<PortletLayoutRanking>();
+        for (final Map.Entry<String, Integer> totalEntry : totalAddCounts.entrySet()) {
+            ranking.add(new PortletLayoutRanking(totalEntry.getKey(), totalEntry.getValue()));
+
+            //Keep the set trimmed to the max size
+            if (ranking.size() > this.maxRankingSize) {
+                ranking.remove(ranking.last());
+            }
+        }
+
+        return ImmutableList.copyOf(ranking);
+    }
+
+    /**
+     * Immutable snapshot of the rankings and the data they were built from
+     */
+    protected static final class RankingState {
+        private final DateMidnight lastDay;
+        private final SortedMap<DateMidnight, Map<String, Integer>> dailyAddCounts;
+        private final Map<Integer, List<PortletLayoutRanking>> rankings;
+
+        RankingState(DateMidnight lastDay, SortedMap<DateMidnight, Map<String, Integer>> dailyAddCounts,
+                Map<Integer, List<PortletLayoutRanking>> rankings) {
+            this.lastDay = lastDay;
+            this.dailyAddCounts = Collections.unmodifiableSortedMap(dailyAddCounts);
+            this.rankings = Collections.unmodifiableMap(rankings);
+        }
+    }
+}
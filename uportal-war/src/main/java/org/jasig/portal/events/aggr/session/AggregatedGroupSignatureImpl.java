@@ -0,0 +1,176 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.session;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
+import javax.persistence.ManyToMany;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Transient;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMappingImpl;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Interned set of group mappings shared by all event sessions with the same groups. The signature is a hash
+ * of the group mapping ids, sets are never modified once created.
+ */
+@Entity
+@Table(name = "UP_AGGR_GROUP_SIGNATURE")
+@SequenceGenerator(
+        name="UP_AGGR_GROUP_SIGNATURE_GEN",
+        sequenceName="UP_AGGR_GROUP_SIGNATURE_SEQ",
+        allocationSize=10
+    )
+@TableGenerator(
+        name="UP_AGGR_GROUP_SIGNATURE_GEN",
+        pkColumnValue="UP_AGGR_GROUP_SIGNATURE_PROP",
+        allocationSize=10
+    )
+@Immutable
+@NaturalIdCache
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+public final class AggregatedGroupSignatureImpl implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    @Id
+    @GeneratedValue(generator = "UP_AGGR_GROUP_SIGNATURE_GEN")
+    @Column(name="ID")
+    private final long id;
+    
+    @NaturalId
+    @Column(name = "SIGNATURE", length=40, nullable = false)
+    private final String signature;
+    
+    @ManyToMany(targetEntity=AggregatedGroupMappingImpl.class, fetch=FetchType.EAGER)
+    @JoinTable(name="UP_AGGR_GROUP_SIGNATURE_GROUPS", 
+            joinColumns = @JoinColumn(name = "SIGNATURE_ID"), 
+            inverseJoinColumns = @JoinColumn(name = "GROUP_ID"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+    @Fetch(FetchMode.JOIN)
+    @Immutable
+    private final Set<AggregatedGroupMapping> groupMappings;
+    
+    @Transient
+    private Set<AggregatedGroupMapping> unmodifiableGroupMappings;
+    
+    @SuppressWarnings("unused")
+    private AggregatedGroupSignatureImpl() {
+        this.id = -1;
+        this.signature = null;
+        this.groupMappings = null;
+    }
+    
+    AggregatedGroupSignatureImpl(String signature, Set<AggregatedGroupMapping> groupMappings) {
+        this.id = -1;
+        this.signature = signature;
+        this.groupMappings = new LinkedHashSet<AggregatedGroupMapping>(groupMappings);
+    }
+    
+    /**
+     * Create the signature for a set of group mappings, the order of the mappings does not matter
+     */
+    public static String createSignature(Collection<AggregatedGroupMapping> groupMappings) {
+        final long[] ids = new long[groupMappings.size()];
+        int index = 0;
+        for (final AggregatedGroupMapping groupMapping : groupMappings) {
+            ids[index++] = groupMapping.getId();
+        }
+        Arrays.sort(ids);
+        
+        final Hasher hasher = Hashing.sha1().newHasher();
+        for (final long id : ids) {
+            hasher.putLong(id);
+        }
+        return hasher.hash().toString();
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public String getSignature() {
+        return this.signature;
+    }
+
+    public Set<AggregatedGroupMapping> getGroupMappings() {
+        Set<AggregatedGroupMapping> ugm = this.unmodifiableGroupMappings;
+        if (ugm == null) {
+            ugm = Collections.unmodifiableSet(this.groupMappings);
+            this.unmodifiableGroupMappings = ugm;
+        }
+        return ugm;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.signature == null ? 0 : this.signature.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        AggregatedGroupSignatureImpl other = (AggregatedGroupSignatureImpl) obj;
+        if (this.signature == null) {
+            if (other.signature != null)
+                return false;
+        }
+        else if (!this.signature.equals(other.signature))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregatedGroupSignatureImpl [id=" + this.id + ", signature=" + this.signature + ", groupMappings="
+                + this.groupMappings + "]";
+    }
+}
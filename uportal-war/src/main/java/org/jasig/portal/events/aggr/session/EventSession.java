@@ -45,4 +45,9 @@ public interface EventSession extends Serializable {
      * @return The event store resolved group mappings for the event session, immutable
      */
     Set<AggregatedGroupMapping> getGroupMappings();
+    
+    /**
+     * @return Hash of the group mappings, event sessions with the same signature have the same group mappings
+     */
+    String getGroupSignature();
 }
@@ -20,7 +20,6 @@
 package org.jasig.portal.events.aggr.session;
 
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.Set;
 
 import javax.persistence.Cacheable;
@@ -32,24 +31,19 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
-import javax.persistence.Transient;
 
 import org.apache.commons.lang.Validate;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
-import org.hibernate.annotations.Fetch;
-import org.hibernate.annotations.FetchMode;
 import org.hibernate.annotations.Index;
 import org.hibernate.annotations.NaturalId;
 import org.hibernate.annotations.NaturalIdCache;
 import org.hibernate.annotations.Type;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
-import org.jasig.portal.events.aggr.groups.AggregatedGroupMappingImpl;
 import org.joda.time.DateTime;
 
 /**
@@ -88,33 +82,28 @@ public class EventSessionImpl implements EventSession, Serializable {
     @Column(name="SESSION_ID", length=500, nullable=false, updatable=false)
     private final String eventSessionId;
     
-    @ManyToMany(targetEntity=AggregatedGroupMappingImpl.class, fetch=FetchType.EAGER)
-    @JoinTable(name="UP_EVENT_SESSION_GROUPS", inverseJoinColumns = @JoinColumn(name = "GROUP_ID"))
-    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
-    @Fetch(FetchMode.JOIN)
-    private final Set<AggregatedGroupMapping> groupMappings;
+    @ManyToOne(fetch=FetchType.EAGER, optional=false)
+    @JoinColumn(name="GROUP_SIGNATURE_ID", nullable=false, updatable=false)
+    private final AggregatedGroupSignatureImpl groupSignature;
     
     @Column(name="LAST_ACCESSED", nullable=false)
     @Type(type="dateTime")
     private DateTime lastAccessed;
     
-    @Transient
-    private Set<AggregatedGroupMapping> unmodifiableGroupMappings;
-    
    @SuppressWarnings("unused")
     private EventSessionImpl() {
         this.id = -1;
         this.eventSessionId = null;
-        this.groupMappings = null;
+        this.groupSignature = null;
     }
     
-    EventSessionImpl(String eventSessionId, DateTime eventDate, Set<AggregatedGroupMapping> groupMappings) {
+    EventSessionImpl(String eventSessionId, DateTime eventDate, AggregatedGroupSignatureImpl groupSignature) {
         Validate.notNull(eventSessionId);
-        Validate.notNull(groupMappings);
+        Validate.notNull(groupSignature);
         
         this.id = -1;
         this.eventSessionId = eventSessionId;
-        this.groupMappings = groupMappings;
+        this.groupSignature = groupSignature;
         this.lastAccessed = eventDate;
     }
     
@@ -130,17 +119,12 @@ public class EventSessionImpl implements EventSession, Serializable {
 
     @Override
     public Set<AggregatedGroupMapping> getGroupMappings() {
-        Set<AggregatedGroupMapping> ugm = this.unmodifiableGroupMappings;
-        if (ugm == null) {
-            ugm = Collections.unmodifiableSet(this.groupMappings);
-            this.unmodifiableGroupMappings = ugm;
-        }
-        return ugm;
+        return this.groupSignature.getGroupMappings();
     }
 
-    public void addGroupMappings(Set<AggregatedGroupMapping> groupMappings) {
-        this.groupMappings.addAll(groupMappings);
-        this.unmodifiableGroupMappings = null;
+    @Override
+    public String getGroupSignature() {
+        return this.groupSignature.getSignature();
     }
 
     @Override
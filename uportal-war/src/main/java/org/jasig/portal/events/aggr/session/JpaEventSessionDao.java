@@ -55,6 +55,7 @@ import com.google.common.base.Function;
 @Repository("eventSessionDao")
 public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSessionDao {
     private final static String EVENT_SESSION_CACHE_SOURCE = JpaEventSessionDao.class.getName() + "_EVENT_SESSION";
+    private final static String GROUP_SIGNATURE_CACHE_SOURCE = JpaEventSessionDao.class.getName() + "_GROUP_SIGNATURE";
 
     private String deleteByEventSessionIdQuery;
     private CriteriaQuery<EventSessionImpl> findExpiredEventSessionsQuery;
@@ -129,9 +130,10 @@ public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSes
         if (eventSession == null) {
             //No event session, somehow we missed the login event. Look at the groups the user is currently a member of
             final Set<AggregatedGroupMapping> groupMappings = this.getGroupsForEvent(event);
+            final AggregatedGroupSignatureImpl groupSignature = this.getGroupSignature(groupMappings);
             
             final DateTime eventDate = event.getTimestampAsDate();
-            eventSession = new EventSessionImpl(eventSessionId, eventDate, groupMappings);
+            eventSession = new EventSessionImpl(eventSessionId, eventDate, groupSignature);
             
             this.getEntityManager().persist(eventSession);
             this.entityManagerCache.put(PERSISTENCE_UNIT_NAME, key, eventSession);
@@ -161,6 +163,33 @@ public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSes
         return resultList.size();
     }
     
+    /**
+     * Get the interned signature for the set of groups, creating it if needed
+     */
+    protected AggregatedGroupSignatureImpl getGroupSignature(Set<AggregatedGroupMapping> groupMappings) {
+        final String signature = AggregatedGroupSignatureImpl.createSignature(groupMappings);
+        
+        final CacheKey key = CacheKey.build(GROUP_SIGNATURE_CACHE_SOURCE, signature);
+        AggregatedGroupSignatureImpl groupSignature = this.entityManagerCache.get(PERSISTENCE_UNIT_NAME, key);
+        if (groupSignature != null) {
+            return groupSignature;
+        }
+        
+        final NaturalIdQuery<AggregatedGroupSignatureImpl> naturalIdQuery = this.createNaturalIdQuery(AggregatedGroupSignatureImpl.class);
+        naturalIdQuery.using(AggregatedGroupSignatureImpl_.signature, signature);
+        
+        groupSignature = naturalIdQuery.load();
+        if (groupSignature == null) {
+            groupSignature = new AggregatedGroupSignatureImpl(signature, groupMappings);
+            this.getEntityManager().persist(groupSignature);
+            
+            logger.debug("Created {}", groupSignature);
+        }
+        
+        this.entityManagerCache.put(PERSISTENCE_UNIT_NAME, key, groupSignature);
+        return groupSignature;
+    }
+    
     /**
      * Get groups for the event
      */
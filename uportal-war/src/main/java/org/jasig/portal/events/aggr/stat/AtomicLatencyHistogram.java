@@ -0,0 +1,69 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe, lock-free version of {@link LatencyHistogram} used to record values as they happen.
+ * Recording a value is a single atomic increment, {@link #snapshot()} creates a {@link LatencyHistogram}
+ * that can be used for percentile calculations.
+ */
+public final class AtomicLatencyHistogram {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    
+    /**
+     * Record a value, negative values are recorded as 0
+     */
+    public void recordValue(long value) {
+        this.counts.incrementAndGet(LatencyHistogram.getBucketIndex(value < 0 ? 0 : value));
+    }
+    
+    /**
+     * @return A copy of the current state of the histogram, values recorded while the copy is made may or may not be included
+     */
+    public LatencyHistogram snapshot() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        this.addTo(histogram);
+        return histogram;
+    }
+    
+    /**
+     * Add the current state of this histogram to the specified histogram, values recorded while the counts
+     * are copied may or may not be included
+     */
+    public void addTo(LatencyHistogram histogram) {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            final long count = this.counts.get(i);
+            if (count > 0) {
+                histogram.recordValue(LatencyHistogram.getBucketLowerBound(i), count);
+            }
+        }
+    }
+    
+    /**
+     * Clear all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            this.counts.set(i, 0);
+        }
+    }
+}
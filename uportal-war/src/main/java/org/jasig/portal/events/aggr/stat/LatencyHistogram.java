@@ -0,0 +1,214 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.events.aggr.stat;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Fixed size, log-bucketed histogram of non-negative long values. Each power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets so a recorded value is known to within 12.5%. Histograms can be
+ * merged by adding bucket counts which makes them suitable for combining aggregations across intervals.
+ * <p>
+ * The histogram is stored in the database using {@link #toCompactString()}, only non-empty buckets are
+ * written.
+ */
+public final class LatencyHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    
+    /**
+     * Longest possible {@link #toCompactString()}, every bucket written with a two character index and a
+     * thirteen character count (the length of {@link Long#MAX_VALUE} in base 36) plus the two separators
+     */
+    public static final int MAX_COMPACT_STRING_LENGTH = BUCKET_COUNT * (2 + 1 + 13 + 1);
+    
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+    
+    public LatencyHistogram() {
+    }
+    
+    /**
+     * Parse a histogram created by {@link #toCompactString()}, null or empty strings result in an empty histogram
+     */
+    public static LatencyHistogram fromCompactString(String compact) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        if (compact == null || compact.length() == 0) {
+            return histogram;
+        }
+        
+        for (final String bucket : compact.split(",")) {
+            final int separator = bucket.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid histogram bucket '" + bucket + "' in: " + compact);
+            }
+            final int index = Integer.parseInt(bucket.substring(0, separator), Character.MAX_RADIX);
+            final long count = Long.parseLong(bucket.substring(separator + 1), Character.MAX_RADIX);
+            if (index < 0 || index >= BUCKET_COUNT || count < 0) {
+                throw new IllegalArgumentException("Invalid histogram bucket '" + bucket + "' in: " + compact);
+            }
+            histogram.counts[index] += count;
+            histogram.totalCount += count;
+        }
+        
+        return histogram;
+    }
+    
+    /**
+     * Record a value, negative values are recorded as 0
+     */
+    public void recordValue(double value) {
+        recordValue(value, 1);
+    }
+    
+    /**
+     * Record a value count times, negative values are recorded as 0
+     */
+    public void recordValue(double value, long count) {
+        this.counts[getBucketIndex(value < 0 ? 0 : (long) value)] += count;
+        this.totalCount += count;
+    }
+    
+    /**
+     * Add all of the counts from the specified histogram to this histogram
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+    }
+    
+    /**
+     * @return The number of recorded values
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * Estimate the value at the specified percentile
+     * 
+     * @param percentile The percentile to return, from 0 to 100
+     * @return The midpoint of the bucket that contains the percentile or Double.NaN if no values have been recorded
+     */
+    public double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        if (this.totalCount == 0) {
+            return Double.NaN;
+        }
+        
+        //Rank of the value at the percentile, always at least the first value
+        final long rank = Math.max(1, (long) Math.ceil(this.totalCount * percentile / 100));
+        
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                final long lowerBound = getBucketLowerBound(i);
+                return lowerBound + (getBucketWidth(i) - 1) / 2d;
+            }
+        }
+        
+        //Not reachable as long as totalCount is accurate
+        throw new IllegalStateException("Histogram total count " + this.totalCount + " is larger than the sum of the buckets " + seen);
+    }
+    
+    /**
+     * @return Compact representation of the histogram of the form <code>index:count,index:count</code> where both
+     * values are base 36 and only non-empty buckets are included
+     */
+    public String toCompactString() {
+        final StringBuilder compact = new StringBuilder();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = this.counts[i];
+            if (count == 0) {
+                continue;
+            }
+            if (compact.length() > 0) {
+                compact.append(',');
+            }
+            compact.append(Integer.toString(i, Character.MAX_RADIX))
+                .append(':')
+                .append(Long.toString(count, Character.MAX_RADIX));
+        }
+        return compact.toString();
+    }
+    
+    /**
+     * Values below {@link #SUB_BUCKETS} get their own bucket, larger values are bucketed by their
+     * highest bit and the next {@link #SUB_BUCKET_BITS} bits
+     */
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        
+        final int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int shift = highestBit - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+    
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+    }
+    
+    static long getBucketWidth(int index) {
+        if (index < SUB_BUCKETS) {
+            return 1;
+        }
+        
+        return 1l << ((index >>> SUB_BUCKET_BITS) - 1);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.counts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        LatencyHistogram other = (LatencyHistogram) obj;
+        return Arrays.equals(this.counts, other.counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [totalCount=" + this.totalCount + ", buckets=" + this.toCompactString() + "]";
+    }
+}
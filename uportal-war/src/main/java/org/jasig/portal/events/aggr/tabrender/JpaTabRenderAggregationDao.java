@@ -66,6 +66,11 @@ public class JpaTabRenderAggregationDao extends
         root.fetch(TabRenderAggregationImpl_.statisticalSummary, JoinType.LEFT);
     }
 
+    @Override
+    protected void addRelationFetches(Root<TabRenderAggregationImpl> root) {
+        root.fetch(TabRenderAggregationImpl_.aggregatedTab, JoinType.LEFT);
+    }
+
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<TabRenderAggregationImpl> root,
             List<Predicate> keyPredicates) {
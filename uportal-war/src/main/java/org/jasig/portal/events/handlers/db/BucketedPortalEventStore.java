@@ -0,0 +1,511 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.mutable.MutableInt;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.jasig.portal.concurrency.FunctionWithoutResult;
+import org.jasig.portal.events.PortalEvent;
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.lob.DefaultLobHandler;
+import org.springframework.jdbc.support.lob.LobCreator;
+import org.springframework.jdbc.support.lob.LobHandler;
+import org.springframework.util.ClassUtils;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Stores raw portal events in one table per day instead of the JPA mapped UP_RAW_EVENTS tables. Bucket tables
+ * are named UP_RAW_EVENTS_yyyyMMdd and are created when the first event for the day is stored. Reads walk the
+ * buckets in time order and purging drops whole buckets, avoiding a bulk DELETE that competes with event inserts
+ * and the aggregator.
+ * <p>
+ * Row level work is done on the JDBC connection of the current RawEventsDb transaction. Bucket DDL and drops use
+ * a separate connection so databases that implicitly commit on DDL don't commit the caller's transaction.
+ */
+final class BucketedPortalEventStore {
+    static final String BUCKET_TABLE_PREFIX = "UP_RAW_EVENTS_";
+    private static final Pattern BUCKET_TABLE_PATTERN = Pattern.compile(BUCKET_TABLE_PREFIX + "(\\d{8})", Pattern.CASE_INSENSITIVE);
+    private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormat.forPattern("yyyyMMdd");
+    
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    //Unique per server when combined with SERVER_ID, seeded from the clock so values aren't reused after a restart
+    private final AtomicLong eventSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final ConcurrentMap<String, Class<? extends PortalEvent>> eventTypes = new ConcurrentHashMap<String, Class<? extends PortalEvent>>();
+    private final LobHandler lobHandler = new DefaultLobHandler();
+    private final JpaPortalEventStore portalEventStore;
+    private final int batchSize;
+    
+    private volatile ImmutableSortedSet<DateMidnight> buckets;
+    
+    /**
+     * @param portalEventStore Used to serialize and deserialize event data
+     * @param batchSize Number of rows to insert or mark as aggregated per JDBC batch
+     */
+    BucketedPortalEventStore(JpaPortalEventStore portalEventStore, int batchSize) {
+        this.portalEventStore = portalEventStore;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+    
+    public void storePortalEvents(Session session, Iterable<? extends PortalEvent> portalEvents) {
+        //Group events by bucket so each bucket gets a single batched insert
+        final Map<DateMidnight, List<PortalEvent>> eventsByBucket = new TreeMap<DateMidnight, List<PortalEvent>>();
+        for (final PortalEvent portalEvent : portalEvents) {
+            final DateMidnight bucket = portalEvent.getTimestampAsDate().toDateMidnight();
+            List<PortalEvent> bucketEvents = eventsByBucket.get(bucket);
+            if (bucketEvents == null) {
+                bucketEvents = new ArrayList<PortalEvent>();
+                eventsByBucket.put(bucket, bucketEvents);
+            }
+            bucketEvents.add(portalEvent);
+        }
+        
+        for (final Map.Entry<DateMidnight, List<PortalEvent>> bucketEntry : eventsByBucket.entrySet()) {
+            final DateMidnight bucket = bucketEntry.getKey();
+            final List<PortalEvent> bucketEvents = bucketEntry.getValue();
+            this.ensureBucket(session, bucket);
+            
+            final String insertSql = 
+                    "INSERT INTO " + getTableName(bucket) + " " +
+                    "(SERVER_ID, EVENT_SEQ, EVENT_TIMESTAMP, SESSION_ID, USER_NAME, EVENT_TYPE, EVENT_DATA, AGGREGATED) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+            
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    final PreparedStatement ps = connection.prepareStatement(insertSql);
+                    final LobCreator lobCreator = lobHandler.getLobCreator();
+                    try {
+                        int batched = 0;
+                        for (final PortalEvent portalEvent : bucketEvents) {
+                            ps.setString(1, portalEvent.getServerId());
+                            ps.setLong(2, eventSequence.incrementAndGet());
+                            ps.setTimestamp(3, new Timestamp(portalEvent.getTimestampAsDate().getMillis()));
+                            ps.setString(4, portalEvent.getEventSessionId());
+                            ps.setString(5, portalEvent.getUserName());
+                            ps.setString(6, portalEvent.getClass().getName());
+                            lobCreator.setClobAsString(ps, 7, portalEventStore.toString(portalEvent));
+                            ps.setBoolean(8, false);
+                            ps.addBatch();
+                            
+                            if (++batched % batchSize == 0) {
+                                ps.executeBatch();
+                            }
+                        }
+                        if (batched % batchSize != 0) {
+                            ps.executeBatch();
+                        }
+                    }
+                    finally {
+                        lobCreator.close();
+                        JdbcUtils.closeStatement(ps);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * @see IPortalEventDao#aggregatePortalEvents(DateTime, DateTime, int, Function)
+     */
+    public boolean aggregatePortalEvents(Session session, DateTime startTime, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler) {
+        return this.readPortalEvents(session, startTime, endTime, maxEvents, true, handler);
+    }
+    
+    /**
+     * @see IPortalEventDao#getPortalEvents(DateTime, DateTime, int, FunctionWithoutResult)
+     */
+    public void getPortalEvents(Session session, DateTime startTime, DateTime endTime, int maxEvents, final FunctionWithoutResult<PortalEvent> handler) {
+        this.readPortalEvents(session, startTime, endTime, maxEvents, false, new Function<PortalEvent, Boolean>() {
+            @Override
+            public Boolean apply(PortalEvent input) {
+                handler.apply(input);
+                return true;
+            }
+        });
+    }
+    
+    public DateTime getOldestPortalEventTimestamp(Session session) {
+        for (final DateMidnight bucket : this.getBuckets(session, true)) {
+            final DateTime oldest = this.selectTimestamp(session, "SELECT MIN(EVENT_TIMESTAMP) FROM " + getTableName(bucket));
+            if (oldest != null) {
+                return oldest;
+            }
+        }
+        return null;
+    }
+    
+    public DateTime getNewestPortalEventTimestamp(Session session) {
+        for (final DateMidnight bucket : this.getBuckets(session, true).descendingSet()) {
+            final DateTime newest = this.selectTimestamp(session, "SELECT MAX(EVENT_TIMESTAMP) FROM " + getTableName(bucket));
+            if (newest != null) {
+                return newest;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return The start of the bucket containing the time, {@link #deleteBucketsBefore(Session, DateTime)} drops
+     * every bucket before it
+     */
+    static DateTime getBucketStart(DateTime time) {
+        return new DateMidnight(time.getMillis()).toDateTime();
+    }
+    
+    /**
+     * Drops all buckets that end on or before the specified time, events in the bucket containing the time are
+     * not deleted.
+     * 
+     * @return The number of events in the dropped buckets
+     */
+    public int deleteBucketsBefore(Session session, DateTime time) {
+        final SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+        
+        int events = 0;
+        for (final DateMidnight bucket : this.getBuckets(session, true)) {
+            if (bucket.plusDays(1).isAfter(time)) {
+                break;
+            }
+            
+            final String tableName = getTableName(bucket);
+            events += this.executeOnSeparateConnection(sessionFactory, new ReturningWork<Integer>() {
+                @Override
+                public Integer execute(Connection connection) throws SQLException {
+                    final Statement statement = connection.createStatement();
+                    ResultSet rs = null;
+                    try {
+                        rs = statement.executeQuery("SELECT COUNT(*) FROM " + tableName);
+                        final int count = rs.next() ? rs.getInt(1) : 0;
+                        statement.execute("DROP TABLE " + tableName);
+                        return count;
+                    }
+                    finally {
+                        JdbcUtils.closeResultSet(rs);
+                        JdbcUtils.closeStatement(statement);
+                    }
+                }
+            });
+            
+            this.logger.debug("Dropped raw event bucket {}", tableName);
+        }
+        
+        this.buckets = null;
+        return events;
+    }
+    
+    private boolean readPortalEvents(Session session, final DateTime startTime, final DateTime endTime, int maxEvents, 
+            final boolean markAggregated, final Function<PortalEvent, Boolean> handler) {
+        
+        final MutableInt eventCount = new MutableInt();
+        for (final DateMidnight bucket : this.getBuckets(session, true).tailSet(startTime.toDateMidnight())) {
+            if (!bucket.isBefore(endTime)) {
+                break;
+            }
+            
+            final int maxBucketEvents;
+            if (maxEvents > 0) {
+                maxBucketEvents = maxEvents - eventCount.intValue();
+                if (maxBucketEvents <= 0) {
+                    return true;
+                }
+            }
+            else {
+                maxBucketEvents = -1;
+            }
+            
+            final String tableName = getTableName(bucket);
+            final String selectSql = 
+                    "SELECT SERVER_ID, EVENT_SEQ, EVENT_TYPE, EVENT_DATA " +
+                    "FROM " + tableName + " " +
+                    "WHERE EVENT_TIMESTAMP >= ? AND EVENT_TIMESTAMP < ? " +
+                    (markAggregated ? "AND (AGGREGATED IS NULL OR AGGREGATED = ?) " : "") +
+                    "ORDER BY EVENT_TIMESTAMP ASC";
+            final String updateSql = 
+                    "UPDATE " + tableName + " SET AGGREGATED = ? WHERE SERVER_ID = ? AND EVENT_SEQ = ?";
+            
+            final boolean completed = session.doReturningWork(new ReturningWork<Boolean>() {
+                @Override
+                public Boolean execute(Connection connection) throws SQLException {
+                    final PreparedStatement selectPs = connection.prepareStatement(selectSql);
+                    PreparedStatement updatePs = null;
+                    ResultSet rs = null;
+                    try {
+                        selectPs.setTimestamp(1, new Timestamp(startTime.getMillis()));
+                        selectPs.setTimestamp(2, new Timestamp(endTime.getMillis()));
+                        if (markAggregated) {
+                            selectPs.setBoolean(3, false);
+                            updatePs = connection.prepareStatement(updateSql);
+                        }
+                        if (maxBucketEvents > 0) {
+                            selectPs.setMaxRows(maxBucketEvents);
+                        }
+                        selectPs.setFetchSize(batchSize);
+                        
+                        int marked = 0;
+                        try {
+                            rs = selectPs.executeQuery();
+                            while (rs.next()) {
+                                final String eventData = lobHandler.getClobAsString(rs, "EVENT_DATA");
+                                final PortalEvent portalEvent = portalEventStore.toPortalEvent(eventData, getEventType(rs.getString("EVENT_TYPE")));
+                                eventCount.increment();
+                                
+                                final Boolean eventHandled = handler.apply(portalEvent);
+                                if (!eventHandled) {
+                                    logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+                                    return false;
+                                }
+                                
+                                if (updatePs != null) {
+                                    //Mark the event as aggregated
+                                    updatePs.setBoolean(1, true);
+                                    updatePs.setString(2, rs.getString("SERVER_ID"));
+                                    updatePs.setLong(3, rs.getLong("EVENT_SEQ"));
+                                    updatePs.addBatch();
+                                    
+                                    if (++marked % batchSize == 0) {
+                                        updatePs.executeBatch();
+                                    }
+                                }
+                            }
+                        }
+                        finally {
+                            //Store marks for events that were handled before stopping or failing
+                            if (updatePs != null && marked % batchSize != 0) {
+                                updatePs.executeBatch();
+                            }
+                        }
+                        
+                        return true;
+                    }
+                    finally {
+                        JdbcUtils.closeResultSet(rs);
+                        JdbcUtils.closeStatement(updatePs);
+                        JdbcUtils.closeStatement(selectPs);
+                    }
+                }
+            });
+            
+            if (!completed) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private DateTime selectTimestamp(Session session, final String sql) {
+        return session.doReturningWork(new ReturningWork<DateTime>() {
+            @Override
+            public DateTime execute(Connection connection) throws SQLException {
+                final Statement statement = connection.createStatement();
+                ResultSet rs = null;
+                try {
+                    rs = statement.executeQuery(sql);
+                    final Timestamp timestamp = rs.next() ? rs.getTimestamp(1) : null;
+                    return timestamp != null ? new DateTime(timestamp.getTime()) : null;
+                }
+                finally {
+                    JdbcUtils.closeResultSet(rs);
+                    JdbcUtils.closeStatement(statement);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Creates the bucket table if it doesn't exist, the following day's bucket is created at the same time
+     * so that the first events after midnight don't all wait on DDL.
+     */
+    private void ensureBucket(Session session, DateMidnight bucket) {
+        if (this.getBuckets(session, false).contains(bucket)) {
+            return;
+        }
+        
+        synchronized (this) {
+            //Refresh the bucket list, another thread or server may have created the bucket
+            final SortedSet<DateMidnight> buckets = this.getBuckets(session, true);
+            if (buckets.contains(bucket)) {
+                return;
+            }
+            
+            final SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+            this.createBucket(sessionFactory, bucket);
+            
+            final DateMidnight nextBucket = bucket.plusDays(1);
+            if (!buckets.contains(nextBucket)) {
+                this.createBucket(sessionFactory, nextBucket);
+            }
+            
+            this.buckets = null;
+        }
+    }
+    
+    private void createBucket(SessionFactoryImplementor sessionFactory, DateMidnight bucket) {
+        final Dialect dialect = sessionFactory.getDialect();
+        final String tableName = getTableName(bucket);
+        
+        final String createTableSql = 
+                dialect.getCreateTableString() + " " + tableName + " (" +
+                    "SERVER_ID " + dialect.getTypeName(Types.VARCHAR, 200, 0, 0) + " not null, " +
+                    "EVENT_SEQ " + dialect.getTypeName(Types.BIGINT) + " not null, " +
+                    "EVENT_TIMESTAMP " + dialect.getTypeName(Types.TIMESTAMP) + " not null, " +
+                    "SESSION_ID " + dialect.getTypeName(Types.VARCHAR, 500, 0, 0) + " not null, " +
+                    "USER_NAME " + dialect.getTypeName(Types.VARCHAR, 35, 0, 0) + " not null, " +
+                    "EVENT_TYPE " + dialect.getTypeName(Types.VARCHAR, 200, 0, 0) + " not null, " +
+                    "EVENT_DATA " + dialect.getTypeName(Types.CLOB) + " not null, " +
+                    "AGGREGATED " + dialect.getTypeName(Types.BIT) + ", " +
+                    "primary key (SERVER_ID, EVENT_SEQ)" +
+                ")" + dialect.getTableTypeString();
+        final String createIndexSql = "create index IDX_" + tableName + "_TS on " + tableName + " (EVENT_TIMESTAMP)";
+        
+        try {
+            this.executeOnSeparateConnection(sessionFactory, new ReturningWork<Object>() {
+                @Override
+                public Object execute(Connection connection) throws SQLException {
+                    final Statement statement = connection.createStatement();
+                    try {
+                        statement.execute(createTableSql);
+                        statement.execute(createIndexSql);
+                        return null;
+                    }
+                    finally {
+                        JdbcUtils.closeStatement(statement);
+                    }
+                }
+            });
+            
+            this.logger.info("Created raw event bucket {}", tableName);
+        }
+        catch (UncategorizedSQLException e) {
+            //Another server may have created the bucket first
+            final SortedSet<DateMidnight> buckets = this.executeOnSeparateConnection(sessionFactory, new BucketListWork());
+            if (!buckets.contains(bucket)) {
+                throw e;
+            }
+        }
+    }
+    
+    private <T> T executeOnSeparateConnection(SessionFactoryImplementor sessionFactory, ReturningWork<T> work) {
+        final ConnectionProvider connectionProvider = sessionFactory.getConnectionProvider();
+        try {
+            final Connection connection = connectionProvider.getConnection();
+            try {
+                connection.setAutoCommit(true);
+                return work.execute(connection);
+            }
+            finally {
+                connectionProvider.closeConnection(connection);
+            }
+        }
+        catch (SQLException e) {
+            throw new UncategorizedSQLException("Raw event bucket maintenance", null, e);
+        }
+    }
+    
+    private ImmutableSortedSet<DateMidnight> getBuckets(Session session, boolean refresh) {
+        ImmutableSortedSet<DateMidnight> buckets = this.buckets;
+        if (buckets == null || refresh) {
+            buckets = session.doReturningWork(new BucketListWork());
+            this.buckets = buckets;
+        }
+        return buckets;
+    }
+    
+    private Class<? extends PortalEvent> getEventType(String eventType) {
+        Class<? extends PortalEvent> type = this.eventTypes.get(eventType);
+        if (type == null) {
+            try {
+                type = ClassUtils.forName(eventType, PortalEvent.class.getClassLoader()).asSubclass(PortalEvent.class);
+            }
+            catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Raw event bucket contains unknown PortalEvent type: " + eventType, e);
+            }
+            this.eventTypes.put(eventType, type);
+        }
+        return type;
+    }
+    
+    static String getTableName(DateMidnight bucket) {
+        return BUCKET_TABLE_PREFIX + BUCKET_FORMAT.print(bucket);
+    }
+    
+    /**
+     * Lists the existing bucket tables from the database metadata
+     */
+    private static final class BucketListWork implements ReturningWork<ImmutableSortedSet<DateMidnight>> {
+        @Override
+        public ImmutableSortedSet<DateMidnight> execute(Connection connection) throws SQLException {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            String tableNamePattern = BUCKET_TABLE_PREFIX + "%";
+            if (metaData.storesLowerCaseIdentifiers()) {
+                tableNamePattern = tableNamePattern.toLowerCase();
+            }
+            
+            final ImmutableSortedSet.Builder<DateMidnight> buckets = ImmutableSortedSet.naturalOrder();
+            final ResultSet tables = metaData.getTables(null, null, tableNamePattern, new String[] { "TABLE" });
+            try {
+                while (tables.next()) {
+                    final Matcher tableNameMatcher = BUCKET_TABLE_PATTERN.matcher(tables.getString("TABLE_NAME"));
+                    if (tableNameMatcher.matches()) {
+                        buckets.add(BUCKET_FORMAT.parseDateTime(tableNameMatcher.group(1)).toDateMidnight());
+                    }
+                }
+            }
+            finally {
+                JdbcUtils.closeResultSet(tables);
+            }
+            return buckets.build();
+        }
+    }
+}
@@ -77,7 +77,20 @@ public interface IPortalEventDao {
     DateTime getNewestPortalEventTimestamp();
     
     /**
-     * Delete events with timestamps from before the specified date (exclusive)
+     * Delete events with timestamps from before the specified date (exclusive). If {@link #isBucketedStorage()}
+     * is true only whole buckets of events that end before the specified date are deleted.
      */
     int deletePortalEventsBefore(DateTime endTime);
+    
+    /**
+     * @return The time before which {@link #deletePortalEventsBefore(DateTime)} deletes every event for the specified
+     * end time. This is the end time unless {@link #isBucketedStorage()} is true, then it is the end of the last
+     * bucket that is deleted.
+     */
+    DateTime getDeletedBefore(DateTime endTime);
+    
+    /**
+     * @return true if events are stored in time buckets that are deleted as a whole
+     */
+    boolean isBucketedStorage();
 }
@@ -20,6 +20,8 @@
 package org.jasig.portal.events.handlers.db;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.Query;
@@ -65,6 +67,8 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private boolean bucketedStorage = false;
+    private BucketedPortalEventStore bucketedPortalEventStore;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -86,6 +90,16 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
     
+    /**
+     * If raw events should be stored in daily bucket tables instead of UP_RAW_EVENTS, purging then drops whole
+     * days of events at a time. Events already stored in UP_RAW_EVENTS are not read once this is enabled so it
+     * should only be turned on after all stored events have been aggregated. Defaults to false.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.bucketedStorage:false}")
+    public void setBucketedStorage(boolean bucketedStorage) {
+        this.bucketedStorage = bucketedStorage;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -138,12 +152,26 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                 return criteriaQuery;
             }
         });
+        
+        if (this.bucketedStorage) {
+            this.bucketedPortalEventStore = new BucketedPortalEventStore(this, this.flushPeriod);
+        }
+    }
+    
+    @Override
+    public boolean isBucketedStorage() {
+        return this.bucketedPortalEventStore != null;
     }
     
     
     @Override
     @RawEventsTransactional
     public void storePortalEvent(PortalEvent portalEvent) {
+        if (this.bucketedPortalEventStore != null) {
+            this.bucketedPortalEventStore.storePortalEvents(this.getSession(), Collections.singleton(portalEvent));
+            return;
+        }
+        
         final PersistentPortalEvent persistentPortalEvent = this.wrapPortalEvent(portalEvent);
         this.getEntityManager().persist(persistentPortalEvent);
     }
@@ -151,6 +179,11 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
+        if (this.bucketedPortalEventStore != null) {
+            this.bucketedPortalEventStore.storePortalEvents(this.getSession(), Arrays.asList(portalEvents));
+            return;
+        }
+        
         for (final PortalEvent portalEvent : portalEvents) {
             try {
                 storePortalEvent(portalEvent);
@@ -164,6 +197,11 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        if (this.bucketedPortalEventStore != null) {
+            this.bucketedPortalEventStore.storePortalEvents(this.getSession(), portalEvents);
+            return;
+        }
+        
         for (final PortalEvent portalEvent : portalEvents) {
             try {
                 storePortalEvent(portalEvent);
@@ -176,6 +214,10 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     
     @Override
     public DateTime getOldestPortalEventTimestamp() {
+        if (this.bucketedPortalEventStore != null) {
+            return this.bucketedPortalEventStore.getOldestPortalEventTimestamp(this.getSession());
+        }
+        
         final TypedQuery<DateTime> query = this.createQuery(this.findOldestPersistentPortalEventTimestampQuery);
         final List<DateTime> results = query.getResultList();
         return DataAccessUtils.uniqueResult(results);
@@ -183,6 +225,10 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     
     @Override
     public DateTime getNewestPortalEventTimestamp() {
+        if (this.bucketedPortalEventStore != null) {
+            return this.bucketedPortalEventStore.getNewestPortalEventTimestamp(this.getSession());
+        }
+        
         final TypedQuery<DateTime> query = this.createQuery(this.findNewestPersistentPortalEventTimestampQuery);
         final List<DateTime> results = query.getResultList();
         return DataAccessUtils.uniqueResult(results);
@@ -191,7 +237,11 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public boolean aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler) {
-        final Session session = this.getEntityManager().unwrap(Session.class);
+        final Session session = this.getSession();
+        if (this.bucketedPortalEventStore != null) {
+            return this.bucketedPortalEventStore.aggregatePortalEvents(session, startTime, endTime, maxEvents, handler);
+        }
+        
         session.setFlushMode(FlushMode.COMMIT);
         final org.hibernate.Query query = session.createQuery(this.selectUnaggregatedQuery);
         query.setParameter(this.startTimeParameter.getName(), startTime);
@@ -232,7 +282,12 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     
     @Override
     public void getPortalEvents(DateTime startTime, DateTime endTime, int maxEvents, FunctionWithoutResult<PortalEvent> handler) {
-        final Session session = this.getEntityManager().unwrap(Session.class);
+        final Session session = this.getSession();
+        if (this.bucketedPortalEventStore != null) {
+            this.bucketedPortalEventStore.getPortalEvents(session, startTime, endTime, maxEvents, handler);
+            return;
+        }
+        
         final org.hibernate.Query query = session.createQuery(this.selectQuery);
         query.setParameter(this.startTimeParameter.getName(), startTime);
         query.setParameter(this.endTimeParameter.getName(), endTime);
@@ -252,11 +307,28 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public int deletePortalEventsBefore(DateTime time) {
+        if (this.bucketedPortalEventStore != null) {
+            return this.bucketedPortalEventStore.deleteBucketsBefore(this.getSession(), time);
+        }
+        
         final Query query = this.getEntityManager().createQuery(this.deleteQuery);
         query.setParameter(this.endTimeParameter.getName(), time);
         return query.executeUpdate();
     }
     
+    @Override
+    public DateTime getDeletedBefore(DateTime time) {
+        if (this.bucketedPortalEventStore != null) {
+            return BucketedPortalEventStore.getBucketStart(time);
+        }
+        
+        return time;
+    }
+    
+    protected final Session getSession() {
+        return this.getEntityManager().unwrap(Session.class);
+    }
+    
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
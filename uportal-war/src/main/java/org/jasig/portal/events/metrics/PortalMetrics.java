@@ -0,0 +1,285 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-memory registry of live portal load metrics. Fed directly by the portal event factory as events are
+ * published so the numbers are current without waiting for event aggregation and without the database.
+ * All recording methods are lock-free, reading the metrics does the heavier work of summing windows and
+ * computing percentiles. Render time percentiles cover a sliding window of recent renders rather than
+ * everything since startup so they show the current state of the portal.
+ */
+@ManagedResource("uPortal:section=Framework,name=PortalMetrics")
+@Service("portalMetrics")
+public class PortalMetrics implements PortalMetricsMXBean {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    private final SlidingWindowCounter renderRequests = new SlidingWindowCounter(60, TimeUnit.SECONDS.toMillis(1));
+    private final SlidingWindowCounter logins = new SlidingWindowCounter(60, TimeUnit.SECONDS.toMillis(1));
+    private final SlidingWindowHistogram portalRenderTimes = createRenderTimeHistogram();
+    private final ConcurrentMap<String, SlidingWindowHistogram> portletRenderTimes = new ConcurrentHashMap<String, SlidingWindowHistogram>();
+    
+    //Time of the last request by event session id
+    private final ConcurrentMap<String, Long> sessionLastRequest = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong lastSessionPurge = new AtomicLong(System.currentTimeMillis());
+    
+    private long sessionActivityWindow = TimeUnit.MINUTES.toMillis(5);
+    private ThreadPoolExecutor portletThreadPool;
+    
+    /**
+     * Time in ms a session is counted as concurrent after its last request, defaults to 5 minutes
+     */
+    @Value("${org.jasig.portal.events.metrics.PortalMetrics.sessionActivityWindow:300000}")
+    public void setSessionActivityWindow(long sessionActivityWindow) {
+        this.sessionActivityWindow = sessionActivityWindow;
+    }
+
+    @Autowired
+    public void setPortletThreadPool(@Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
+        //Note this is injected as a ExecutorService then cast due to the original object being created by a FactoryBean that declares itself as an ExecutorService
+        this.portletThreadPool = (ThreadPoolExecutor)portletThreadPool;
+    }
+    
+    /**
+     * Record a portal render request
+     * 
+     * @param eventSessionId The event session id of the request, may be null
+     * @param executionTimeNano Time taken to render the request
+     */
+    public void recordPortalRender(String eventSessionId, long executionTimeNano) {
+        final long now = System.currentTimeMillis();
+        this.renderRequests.increment(now);
+        this.portalRenderTimes.recordValue(now, executionTimeNano);
+        this.recordSessionActivity(eventSessionId, now);
+    }
+    
+    /**
+     * Record the render of a portlet
+     * 
+     * @param fname The fname of the portlet
+     * @param executionTimeNano Time taken to render the portlet
+     */
+    public void recordPortletRender(String fname, long executionTimeNano) {
+        SlidingWindowHistogram histogram = this.portletRenderTimes.get(fname);
+        if (histogram == null) {
+            histogram = ConcurrentMapUtils.putIfAbsent(this.portletRenderTimes, fname, createRenderTimeHistogram());
+        }
+        histogram.recordValue(System.currentTimeMillis(), executionTimeNano);
+    }
+    
+    /**
+     * Record a login
+     * 
+     * @param eventSessionId The event session id of the login, may be null
+     */
+    public void recordLogin(String eventSessionId) {
+        final long now = System.currentTimeMillis();
+        this.logins.increment(now);
+        this.recordSessionActivity(eventSessionId, now);
+    }
+    
+    /**
+     * Record a logout, the session is no longer counted as concurrent
+     * 
+     * @param eventSessionId The event session id of the logout, may be null
+     */
+    public void recordLogout(String eventSessionId) {
+        if (eventSessionId != null) {
+            this.sessionLastRequest.remove(eventSessionId);
+        }
+    }
+    
+    private void recordSessionActivity(String eventSessionId, long now) {
+        if (eventSessionId == null) {
+            return;
+        }
+        
+        //Avoid writing to the shared map more than once a second per session
+        final Long lastRequest = this.sessionLastRequest.get(eventSessionId);
+        if (lastRequest == null || now - lastRequest > 1000) {
+            this.sessionLastRequest.put(eventSessionId, now);
+        }
+        
+        //Periodically remove inactive sessions, only one thread does the purge
+        final long lastPurge = this.lastSessionPurge.get();
+        if (now - lastPurge > this.sessionActivityWindow && this.lastSessionPurge.compareAndSet(lastPurge, now)) {
+            this.purgeInactiveSessions(now);
+        }
+    }
+    
+    private int purgeInactiveSessions(long now) {
+        final long oldestActive = now - this.sessionActivityWindow;
+        
+        int activeCount = 0;
+        for (final Iterator<Long> lastRequestItr = this.sessionLastRequest.values().iterator(); lastRequestItr.hasNext(); ) {
+            if (lastRequestItr.next() < oldestActive) {
+                lastRequestItr.remove();
+            }
+            else {
+                activeCount++;
+            }
+        }
+        return activeCount;
+    }
+
+    @Override
+    public double getRenderRequestsPerSecond() {
+        final long count = this.renderRequests.getCount(System.currentTimeMillis());
+        return count / (this.renderRequests.getWindow() / 1000d);
+    }
+
+    @Override
+    public long getLoginCount() {
+        return this.logins.getCount(System.currentTimeMillis());
+    }
+
+    @Override
+    public long getRequestRateWindow() {
+        return this.renderRequests.getWindow();
+    }
+
+    @Override
+    public int getConcurrentSessionCount() {
+        return this.purgeInactiveSessions(System.currentTimeMillis());
+    }
+
+    @Override
+    public long getSessionActivityWindow() {
+        return this.sessionActivityWindow;
+    }
+
+    @Override
+    public long getRenderTimeWindow() {
+        return this.portalRenderTimes.getWindow();
+    }
+
+    @Override
+    public double getPortalRenderTimeMedian() {
+        return toMillis(this.getPortalRenderTimes().getPercentile(50));
+    }
+
+    @Override
+    public double getPortalRenderTime95thPercentile() {
+        return toMillis(this.getPortalRenderTimes().getPercentile(95));
+    }
+
+    @Override
+    public double getPortalRenderTime99thPercentile() {
+        return toMillis(this.getPortalRenderTimes().getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getPortletRenderTimeMedian() {
+        return this.getPortletRenderTimePercentile(50);
+    }
+
+    @Override
+    public Map<String, Double> getPortletRenderTime95thPercentile() {
+        return this.getPortletRenderTimePercentile(95);
+    }
+
+    @Override
+    public Map<String, Double> getPortletRenderTime99thPercentile() {
+        return this.getPortletRenderTimePercentile(99);
+    }
+    
+    /**
+     * @return Snapshot of the render time histogram over the render time window for each portlet rendered in the window, by fname
+     */
+    public SortedMap<String, LatencyHistogram> getPortletRenderTimes() {
+        final long now = System.currentTimeMillis();
+        final SortedMap<String, LatencyHistogram> renderTimes = new TreeMap<String, LatencyHistogram>();
+        for (final Map.Entry<String, SlidingWindowHistogram> renderTimeEntry : this.portletRenderTimes.entrySet()) {
+            final LatencyHistogram histogram = renderTimeEntry.getValue().snapshot(now);
+            if (histogram.getTotalCount() > 0) {
+                renderTimes.put(renderTimeEntry.getKey(), histogram);
+            }
+        }
+        return renderTimes;
+    }
+    
+    /**
+     * @return Snapshot of the portal render time histogram over the render time window
+     */
+    public LatencyHistogram getPortalRenderTimes() {
+        return this.portalRenderTimes.snapshot(System.currentTimeMillis());
+    }
+
+    @Override
+    public int getPortletWorkerActiveCount() {
+        return this.portletThreadPool.getActiveCount();
+    }
+
+    @Override
+    public int getPortletWorkerMaximumCount() {
+        return this.portletThreadPool.getMaximumPoolSize();
+    }
+
+    @Override
+    public double getPortletWorkerSaturation() {
+        return ((double) this.portletThreadPool.getActiveCount()) / this.portletThreadPool.getMaximumPoolSize();
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.renderRequests.reset();
+        this.logins.reset();
+        this.portalRenderTimes.reset();
+        this.portletRenderTimes.clear();
+    }
+    
+    private Map<String, Double> getPortletRenderTimePercentile(double percentile) {
+        final SortedMap<String, Double> renderTimes = new TreeMap<String, Double>();
+        for (final Map.Entry<String, LatencyHistogram> renderTimeEntry : this.getPortletRenderTimes().entrySet()) {
+            renderTimes.put(renderTimeEntry.getKey(), toMillis(renderTimeEntry.getValue().getPercentile(percentile)));
+        }
+        return renderTimes;
+    }
+    
+    /**
+     * Render times are kept for 5 minutes in 1 minute slots
+     */
+    private static SlidingWindowHistogram createRenderTimeHistogram() {
+        return new SlidingWindowHistogram(5, TimeUnit.MINUTES.toMillis(1));
+    }
+    
+    static double toMillis(double nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
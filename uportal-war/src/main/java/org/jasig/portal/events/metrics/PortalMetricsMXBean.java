@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the real-time portal metrics tracked by {@link PortalMetrics}
+ */
+public interface PortalMetricsMXBean {
+    
+    /**
+     * @return Average number of portal render requests per second over the request rate window
+     */
+    double getRenderRequestsPerSecond();
+    
+    /**
+     * @return Number of logins in the request rate window
+     */
+    long getLoginCount();
+    
+    /**
+     * @return Duration of the request rate window in ms
+     */
+    long getRequestRateWindow();
+    
+    /**
+     * @return Number of distinct sessions that made a request within the session activity window
+     */
+    int getConcurrentSessionCount();
+    
+    /**
+     * @return Time in ms a session is counted as concurrent after its last request
+     */
+    long getSessionActivityWindow();
+    
+    /**
+     * @return Duration of the window the render time percentiles are computed over in ms
+     */
+    long getRenderTimeWindow();
+    
+    /**
+     * @return Median portal render time in ms over the render time window
+     */
+    double getPortalRenderTimeMedian();
+    
+    /**
+     * @return 95th percentile portal render time in ms over the render time window
+     */
+    double getPortalRenderTime95thPercentile();
+    
+    /**
+     * @return 99th percentile portal render time in ms over the render time window
+     */
+    double getPortalRenderTime99thPercentile();
+    
+    /**
+     * @return Median portlet render time in ms over the render time window, by fname
+     */
+    Map<String, Double> getPortletRenderTimeMedian();
+    
+    /**
+     * @return 95th percentile portlet render time in ms over the render time window, by fname
+     */
+    Map<String, Double> getPortletRenderTime95thPercentile();
+    
+    /**
+     * @return 99th percentile portlet render time in ms over the render time window, by fname
+     */
+    Map<String, Double> getPortletRenderTime99thPercentile();
+    
+    /**
+     * @return Number of portlet worker threads that are currently executing a portlet
+     */
+    int getPortletWorkerActiveCount();
+    
+    /**
+     * @return Maximum number of portlet worker threads
+     */
+    int getPortletWorkerMaximumCount();
+    
+    /**
+     * @return Fraction of the portlet worker threads that are in use, from 0 to 1
+     */
+    double getPortletWorkerSaturation();
+    
+    /**
+     * Reset the render time histograms and request rate counters
+     */
+    void resetStatistics();
+}
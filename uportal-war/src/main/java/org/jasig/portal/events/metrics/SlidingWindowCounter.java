@@ -0,0 +1,103 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter of events over a sliding window of time. The window is split into a ring of fixed
+ * size slots, each slot counts the events for one resolution period and is reset when the ring wraps
+ * around to it. Counts are approximate, an increment racing with a slot reset may be lost.
+ */
+final class SlidingWindowCounter {
+    private final long resolution;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray periods;
+    
+    /**
+     * @param slots Number of slots in the window
+     * @param resolution Duration of each slot in milliseconds
+     */
+    public SlidingWindowCounter(int slots, long resolution) {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots must be greater than 0");
+        }
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be greater than 0");
+        }
+        
+        this.resolution = resolution;
+        this.counts = new AtomicLongArray(slots);
+        this.periods = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            this.periods.set(i, -1);
+        }
+    }
+    
+    /**
+     * @return The duration of the window in milliseconds
+     */
+    public long getWindow() {
+        return this.resolution * this.counts.length();
+    }
+    
+    /**
+     * Count an event that happened at the specified time
+     */
+    public void increment(long now) {
+        final long period = now / this.resolution;
+        final int slot = (int) (period % this.counts.length());
+        
+        final long slotPeriod = this.periods.get(slot);
+        if (slotPeriod < period && this.periods.compareAndSet(slot, slotPeriod, period)) {
+            //First event in the slot for this period, clear the count from the last time around the ring
+            this.counts.set(slot, 0);
+        }
+        
+        this.counts.incrementAndGet(slot);
+    }
+    
+    /**
+     * @return The number of events in the window ending at the specified time
+     */
+    public long getCount(long now) {
+        final long period = now / this.resolution;
+        final long oldestPeriod = period - this.counts.length() + 1;
+        
+        long count = 0;
+        for (int slot = 0; slot < this.counts.length(); slot++) {
+            final long slotPeriod = this.periods.get(slot);
+            if (slotPeriod >= oldestPeriod && slotPeriod <= period) {
+                count += this.counts.get(slot);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Clear all counts
+     */
+    public void reset() {
+        for (int slot = 0; slot < this.counts.length(); slot++) {
+            this.periods.set(slot, -1);
+            this.counts.set(slot, 0);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jasig.portal.events.aggr.stat.AtomicLatencyHistogram;
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+
+/**
+ * Lock-free latency histogram over a sliding window of time. Uses the same ring of slots as
+ * {@link SlidingWindowCounter}, each slot is an {@link AtomicLatencyHistogram} for one resolution period
+ * that is cleared when the ring wraps around to it, so percentiles only reflect recent values. Values
+ * recorded while a slot is being cleared may be lost.
+ */
+final class SlidingWindowHistogram {
+    private final long resolution;
+    private final AtomicLatencyHistogram[] histograms;
+    private final AtomicLongArray periods;
+    
+    /**
+     * @param slots Number of slots in the window
+     * @param resolution Duration of each slot in milliseconds
+     */
+    public SlidingWindowHistogram(int slots, long resolution) {
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots must be greater than 0");
+        }
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be greater than 0");
+        }
+        
+        this.resolution = resolution;
+        this.histograms = new AtomicLatencyHistogram[slots];
+        this.periods = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            this.histograms[i] = new AtomicLatencyHistogram();
+            this.periods.set(i, -1);
+        }
+    }
+    
+    /**
+     * @return The duration of the window in milliseconds
+     */
+    public long getWindow() {
+        return this.resolution * this.histograms.length;
+    }
+    
+    /**
+     * Record a value at the specified time
+     */
+    public void recordValue(long now, long value) {
+        final long period = now / this.resolution;
+        final int slot = (int) (period % this.histograms.length);
+        
+        final long slotPeriod = this.periods.get(slot);
+        if (slotPeriod < period && this.periods.compareAndSet(slot, slotPeriod, period)) {
+            //First value in the slot for this period, clear the values from the last time around the ring
+            this.histograms[slot].reset();
+        }
+        
+        this.histograms[slot].recordValue(value);
+    }
+    
+    /**
+     * @return A histogram of the values in the window ending at the specified time
+     */
+    public LatencyHistogram snapshot(long now) {
+        final long period = now / this.resolution;
+        final long oldestPeriod = period - this.histograms.length + 1;
+        
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int slot = 0; slot < this.histograms.length; slot++) {
+            final long slotPeriod = this.periods.get(slot);
+            if (slotPeriod >= oldestPeriod && slotPeriod <= period) {
+                this.histograms[slot].addTo(histogram);
+            }
+        }
+        return histogram;
+    }
+    
+    /**
+     * Clear all values
+     */
+    public void reset() {
+        for (int slot = 0; slot < this.histograms.length; slot++) {
+            this.periods.set(slot, -1);
+            this.histograms[slot].reset();
+        }
+    }
+}
@@ -21,9 +21,12 @@ package org.jasig.portal.groups;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.naming.Name;
@@ -513,11 +516,19 @@ public boolean hasMembers() throws GroupsException
  * Cache the <code>IEntityGroup</code> members.
  */
 private void initializeMembers() throws GroupsException
+{
+    initializeMembers(getLocalGroupService().findMembers(this));
+}
+/**
+ * Cache the <code>IEntityGroup</code> members.
+ * @param members Iterator over the IGroupMembers of this group
+ */
+private void initializeMembers(Iterator members) throws GroupsException
 {
     Set groupKeys = new HashSet();
     Set entityKeys = new HashSet(100);
     
-    for ( Iterator it = getLocalGroupService().findMembers(this); it.hasNext(); )
+    for ( Iterator it = members; it.hasNext(); )
     {
         IGroupMember gm = (IGroupMember) it.next();
         Set cache = ( gm.isGroup() ) ? groupKeys : entityKeys;
@@ -596,16 +607,70 @@ protected java.util.Set primGetAllEntities(Set entities) throws GroupsException
  */
 protected java.util.Set primGetAllMembers(Set s) throws GroupsException
 {
-    Iterator i = getMembers();
-    while ( i.hasNext() )
+    Collection level = Collections.singletonList(this);
+    while ( ! level.isEmpty() )
     {
-        GroupMemberImpl gmi = (GroupMemberImpl) i.next();
-        s.add(gmi);
-        if ( gmi.isGroup() )
-            { ((EntityGroupImpl)gmi).primGetAllMembers(s); }
+        initializeMembers(level);
+        Collection nextLevel = new ArrayList();
+        for ( Iterator groups = level.iterator(); groups.hasNext(); )
+        {
+            for ( Iterator i = ((EntityGroupImpl) groups.next()).getMembers(); i.hasNext(); )
+            {
+                GroupMemberImpl gmi = (GroupMemberImpl) i.next();
+                // avoid looping in case of circular group dependencies
+                if ( s.add(gmi) && gmi.isGroup() )
+                    { nextLevel.add(gmi); }
+            }
+        }
+        level = nextLevel;
     }
     return s;
 }
+/**
+ * Cache the members of each of the uninitialized <code>EntityGroupImpls</code>
+ * in <code>groups</code>.  The member group keys of the groups from each
+ * <code>ReferenceIndividualGroupService</code> are found together.
+ * @param groups Collection of EntityGroupImpls
+ */
+private static void initializeMembers(Collection groups) throws GroupsException
+{
+    Map<ReferenceIndividualGroupService, List<IEntityGroup>> groupsByService =
+      new HashMap<ReferenceIndividualGroupService, List<IEntityGroup>>();
+    for ( Iterator it = groups.iterator(); it.hasNext(); )
+    {
+        EntityGroupImpl group = (EntityGroupImpl) it.next();
+        if ( group.areMemberKeysInitialized() || ! (group.getLocalGroupService() instanceof ReferenceIndividualGroupService) )
+            { continue; }
+        ReferenceIndividualGroupService service = (ReferenceIndividualGroupService) group.getLocalGroupService();
+        List<IEntityGroup> serviceGroups = groupsByService.get(service);
+        if ( serviceGroups == null )
+        {
+            serviceGroups = new ArrayList<IEntityGroup>();
+            groupsByService.put(service, serviceGroups);
+        }
+        serviceGroups.add(group);
+    }
+
+    for ( Map.Entry<ReferenceIndividualGroupService, List<IEntityGroup>> entry : groupsByService.entrySet() )
+    {
+        List<IEntityGroup> serviceGroups = entry.getValue();
+        // A single group is no cheaper to initialize in a batch
+        if ( serviceGroups.size() < 2 )
+            { continue; }
+
+        ReferenceIndividualGroupService service = entry.getKey();
+        Map<String, String[]> memberGroupKeys = service.findMemberGroupKeys(serviceGroups);
+        for ( IEntityGroup eg : serviceGroups )
+        {
+            EntityGroupImpl group = (EntityGroupImpl) eg;
+            synchronized (group)
+            {
+                if ( ! group.areMemberKeysInitialized() )
+                    { group.initializeMembers(service.findMembers(group, memberGroupKeys.get(group.getKey()))); }
+            }
+        }
+    }
+}
 /**
  * Removes the <code>IGroupMember</code> key from the appropriate key cache, by
  * copying the cache, removing the key from the copy and replacing the original
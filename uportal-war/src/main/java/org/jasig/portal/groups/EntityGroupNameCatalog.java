@@ -0,0 +1,284 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of group names used by {@link RDBMEntityGroupStore} to answer name searches
+ * without a LIKE scan of UP_GROUP. Names are matched case-insensitively. Each entity type has a
+ * sorted map of names for exact and prefix matches, substring and suffix matches use a trigram
+ * index to find candidate groups which are then verified against the full name.
+ */
+class EntityGroupNameCatalog {
+    static final int NGRAM_LENGTH = 3;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+    private final Map<Integer, NavigableMap<String, Set<String>>> namesByType = new HashMap<Integer, NavigableMap<String, Set<String>>>();
+    private final Map<String, Set<String>> keysByNgram = new HashMap<String, Set<String>>();
+    
+    /**
+     * Add or replace the name of a group
+     * 
+     * @param key The local key of the group
+     * @param entityTypeId The entity type id of the group's leaf type
+     * @param name The name of the group
+     */
+    public void put(String key, int entityTypeId, String name) {
+        final CatalogEntry entry = new CatalogEntry(key, entityTypeId, normalize(name));
+        
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.removeEntry(key);
+            
+            this.entries.put(key, entry);
+            
+            NavigableMap<String, Set<String>> names = this.namesByType.get(entityTypeId);
+            if (names == null) {
+                names = new TreeMap<String, Set<String>>();
+                this.namesByType.put(entityTypeId, names);
+            }
+            addKey(names, entry.name, key);
+            
+            for (final String ngram : getNgrams(entry.name)) {
+                addKey(this.keysByNgram, ngram, key);
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Remove a group from the catalog, does nothing if the group is not in the catalog
+     * 
+     * @param key The local key of the group
+     */
+    public void remove(String key) {
+        final Lock writeLock = this.lock.writeLock();
+        writeLock.lock();
+        try {
+            this.removeEntry(key);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of groups in the catalog
+     */
+    public int size() {
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        try {
+            return this.entries.size();
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Find the groups of the specified entity type whose name matches the query
+     * 
+     * @param query The text to match against group names, case is ignored
+     * @param method One of {@link IGroupConstants#IS}, {@link IGroupConstants#STARTS_WITH},
+     *  {@link IGroupConstants#ENDS_WITH} or {@link IGroupConstants#CONTAINS}
+     * @param entityTypeId The entity type id of the groups to search
+     * @return The local keys of the matching groups
+     * @throws IllegalArgumentException if the method is not one of the supported search methods
+     */
+    public List<String> search(String query, int method, int entityTypeId) {
+        if (method != IGroupConstants.IS && method != IGroupConstants.STARTS_WITH &&
+                method != IGroupConstants.ENDS_WITH && method != IGroupConstants.CONTAINS) {
+            throw new IllegalArgumentException("Unknown search method: " + method);
+        }
+        
+        final String normalizedQuery = normalize(query);
+        
+        final Lock readLock = this.lock.readLock();
+        readLock.lock();
+        try {
+            final NavigableMap<String, Set<String>> names = this.namesByType.get(entityTypeId);
+            if (names == null) {
+                return Collections.emptyList();
+            }
+            
+            final List<String> keys = new ArrayList<String>();
+            switch (method) {
+                case IGroupConstants.IS: {
+                    final Set<String> nameKeys = names.get(normalizedQuery);
+                    if (nameKeys != null) {
+                        keys.addAll(nameKeys);
+                    }
+                    break;
+                }
+                case IGroupConstants.STARTS_WITH: {
+                    for (final Map.Entry<String, Set<String>> nameEntry : names.tailMap(normalizedQuery, true).entrySet()) {
+                        if (!nameEntry.getKey().startsWith(normalizedQuery)) {
+                            break;
+                        }
+                        keys.addAll(nameEntry.getValue());
+                    }
+                    break;
+                }
+                default: {
+                    if (normalizedQuery.length() < NGRAM_LENGTH) {
+                        //Too short to use the ngram index, check every name of the type
+                        for (final Map.Entry<String, Set<String>> nameEntry : names.entrySet()) {
+                            if (matches(nameEntry.getKey(), normalizedQuery, method)) {
+                                keys.addAll(nameEntry.getValue());
+                            }
+                        }
+                    }
+                    else {
+                        for (final String key : this.getNgramCandidates(normalizedQuery)) {
+                            final CatalogEntry entry = this.entries.get(key);
+                            if (entry.entityTypeId == entityTypeId && matches(entry.name, normalizedQuery, method)) {
+                                keys.add(key);
+                            }
+                        }
+                    }
+                }
+            }
+            
+            return keys;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * @return The smallest set of keys indexed under one of the query's ngrams, every group containing the query is in this set
+     */
+    private Collection<String> getNgramCandidates(String normalizedQuery) {
+        Set<String> candidates = null;
+        for (final String ngram : getNgrams(normalizedQuery)) {
+            final Set<String> ngramKeys = this.keysByNgram.get(ngram);
+            if (ngramKeys == null) {
+                return Collections.emptySet();
+            }
+            if (candidates == null || ngramKeys.size() < candidates.size()) {
+                candidates = ngramKeys;
+            }
+        }
+        
+        return candidates;
+    }
+    
+    /**
+     * Must be called while holding the write lock
+     */
+    private void removeEntry(String key) {
+        final CatalogEntry entry = this.entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        
+        final NavigableMap<String, Set<String>> names = this.namesByType.get(entry.entityTypeId);
+        if (names != null) {
+            removeKey(names, entry.name, key);
+        }
+        
+        for (final String ngram : getNgrams(entry.name)) {
+            removeKey(this.keysByNgram, ngram, key);
+        }
+    }
+    
+    private static boolean matches(String name, String normalizedQuery, int method) {
+        if (method == IGroupConstants.ENDS_WITH) {
+            return name.endsWith(normalizedQuery);
+        }
+        return name.contains(normalizedQuery);
+    }
+    
+    private static void addKey(Map<String, Set<String>> index, String indexKey, String key) {
+        Set<String> keys = index.get(indexKey);
+        if (keys == null) {
+            keys = new HashSet<String>();
+            index.put(indexKey, keys);
+        }
+        keys.add(key);
+    }
+    
+    private static void removeKey(Map<String, Set<String>> index, String indexKey, String key) {
+        final Set<String> keys = index.get(indexKey);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+    
+    static Set<String> getNgrams(String normalizedName) {
+        final int ngramCount = normalizedName.length() - NGRAM_LENGTH + 1;
+        if (ngramCount <= 0) {
+            return Collections.emptySet();
+        }
+        
+        final Set<String> ngrams = new HashSet<String>(ngramCount * 2);
+        for (int i = 0; i < ngramCount; i++) {
+            ngrams.add(normalizedName.substring(i, i + NGRAM_LENGTH));
+        }
+        return ngrams;
+    }
+    
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.toUpperCase(Locale.ENGLISH);
+    }
+    
+    private static final class CatalogEntry {
+        private final String key;
+        private final int entityTypeId;
+        private final String name;
+        
+        public CatalogEntry(String key, int entityTypeId, String name) {
+            this.key = key;
+            this.entityTypeId = entityTypeId;
+            this.name = name;
+        }
+        
+        @Override
+        public String toString() {
+            return "CatalogEntry [key=" + this.key + ", entityTypeId=" + this.entityTypeId + ", name=" + this.name + "]";
+        }
+    }
+}
@@ -21,8 +21,10 @@ package org.jasig.portal.groups;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import org.jasig.portal.EntityIdentifier;
@@ -286,6 +288,41 @@ private void initializeContainingGroupKeys() throws GroupsException
     setGroupKeys(keys);
     setGroupKeysInitialized(true);
 }
+/**
+ * Cache the keys of the containing groups for each of the uninitialized
+ * <code>IEntityGroups</code> in <code>members</code>, asking the group service
+ * for all of them at once.
+ * @param members Collection of IGroupMembers
+ */
+private void initializeContainingGroupKeys(Collection members) throws GroupsException
+{
+    ICompositeGroupService service = getCompositeGroupService();
+    if ( ! (service instanceof ReferenceCompositeGroupService) )
+        { return; }
+
+    Collection<IEntityGroup> groups = new ArrayList<IEntityGroup>();
+    for ( Iterator it = members.iterator(); it.hasNext(); )
+    {
+        IGroupMember gm = (IGroupMember) it.next();
+        if ( gm instanceof GroupMemberImpl && gm.isGroup() && ! ((GroupMemberImpl)gm).areGroupKeysInitialized() )
+            { groups.add((IEntityGroup)gm); }
+    }
+    // A single group is no cheaper to initialize in a batch
+    if ( groups.size() < 2 )
+        { return; }
+
+    Map<String, Collection<IEntityGroup>> containingGroups =
+      ((ReferenceCompositeGroupService)service).findContainingGroups(groups);
+    for ( IEntityGroup eg : groups )
+    {
+        Set keys = new HashSet(10);
+        for ( IEntityGroup containingGroup : containingGroups.get(eg.getKey()) )
+            { keys.add(containingGroup.getEntityIdentifier().getKey()); }
+        GroupMemberImpl group = (GroupMemberImpl) eg;
+        group.setGroupKeys(keys);
+        group.setGroupKeysInitialized(true);
+    }
+}
 
 /**
  * Answers if this <code>IGroupMember</code> is, recursively, a member of <code>IGroupMember</code> gm.
@@ -334,22 +371,31 @@ public boolean isMemberOf(IGroupMember gm) throws GroupsException
 }
 /**
  * Returns the <code>Set</code> of groups in our member <code>Collection</code> and,
- * recursively, in the <code>Collections</code> of our members.
- * @param member org.jasig.portal.groups.IGroupMember - The current group member in the recursive execution.
+ * recursively, in the <code>Collections</code> of our members.  The groups are
+ * walked one level at a time so the containing groups of each level can be
+ * found together.
+ * @param member org.jasig.portal.groups.IGroupMember - The group member the walk starts from.
  * @param s java.lang.Set - A Set that groups are added to.
  * @return java.util.Set
  */
 protected java.util.Set primGetAllContainingGroups(IGroupMember member, Set s) throws GroupsException
 {
-    Iterator i = member.getContainingGroups();
-    while ( i.hasNext() )
+    Collection level = Collections.singletonList(member);
+    while ( ! level.isEmpty() )
     {
-        IGroupMember gm = (IGroupMember) i.next();
-        // avoid stack overflow in case of circular group dependencies
-        if (!s.contains(gm)) {
-            s.add(gm);
-            primGetAllContainingGroups(gm, s);
+        initializeContainingGroupKeys(level);
+        Collection nextLevel = new ArrayList();
+        for ( Iterator i = level.iterator(); i.hasNext(); )
+        {
+            for ( Iterator groups = ((IGroupMember) i.next()).getContainingGroups(); groups.hasNext(); )
+            {
+                IGroupMember gm = (IGroupMember) groups.next();
+                // avoid looping in case of circular group dependencies
+                if ( s.add(gm) )
+                    { nextLevel.add(gm); }
+            }
         }
+        level = nextLevel;
     }
     return s;
 }
@@ -26,14 +26,21 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.EntityTypes;
 import org.jasig.portal.RDBMServices;
+import org.jasig.portal.concurrency.CachingException;
+import org.jasig.portal.properties.PropertiesManager;
+import org.jasig.portal.services.EntityCachingService;
 import org.jasig.portal.services.GroupService;
 import org.jasig.portal.spring.locator.CounterStoreLocator;
 import org.jasig.portal.utils.SqlTransaction;
@@ -99,7 +106,21 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     // SQL group search string
     private static String searchGroupsPartial = "SELECT "+GROUP_ID_COLUMN+" FROM "+GROUP_TABLE+" WHERE "+GROUP_TYPE_COLUMN+"=? AND UPPER("+GROUP_NAME_COLUMN+") LIKE UPPER(?)";
     private static String searchGroups = "SELECT "+GROUP_ID_COLUMN+" FROM "+GROUP_TABLE+" WHERE "+GROUP_TYPE_COLUMN+"=? AND UPPER("+GROUP_NAME_COLUMN+") = UPPER(?)";
+    private static String findAllGroupNamesSql = "SELECT "+GROUP_ID_COLUMN+", "+GROUP_TYPE_COLUMN+", "+GROUP_NAME_COLUMN+" FROM "+GROUP_TABLE;
 
+    // Maximum number of keys bound in the IN clause of a batched query
+    private static int BATCH_SIZE = 100;
+
+    // In-memory group name catalog used by searchForGroups
+    private static String GROUP_NAME_CATALOG_MAX_AGE_PROPERTY = "org.jasig.portal.groups.RDBMEntityGroupStore.groupNameCatalogMaxAge";
+    private static long DEFAULT_GROUP_NAME_CATALOG_MAX_AGE = 300000;
+    private final Object groupNameCatalogLock = new Object();
+    private final AtomicLong groupNameCatalogModifications = new AtomicLong();
+    private long groupNameCatalogMaxAge;
+    private volatile EntityGroupNameCatalog groupNameCatalog;
+    private volatile String groupNameCatalogVersion;
+    private volatile long groupNameCatalogLoaded;
+    private volatile boolean groupNameCatalogComplete;
 
 
 /**
@@ -125,6 +146,8 @@ private void initialize() {
     if (log.isDebugEnabled()) {
         log.debug("RDBMEntityGroupStore.initialize(): Node separator set to " + sep);
     }
+    groupNameCatalogMaxAge = PropertiesManager.getPropertyAsLong(
+            GROUP_NAME_CATALOG_MAX_AGE_PROPERTY, DEFAULT_GROUP_NAME_CATALOG_MAX_AGE);
 }
 
 /**
@@ -284,6 +307,7 @@ public void delete(IEntityGroup group) throws GroupsException
             { primDelete(group); }
         catch (SQLException sqle)
             { throw new GroupsException("Problem deleting " + group, sqle); }
+        groupNameCatalogRemove(group);
     }
 }
 
@@ -460,6 +484,87 @@ throws GroupsException
     return groups.iterator();
 }
 
+/**
+ * Find the groups that each of these groups belongs to.  Groups are batched by
+ * service and leaf type, up to BATCH_SIZE member keys are bound to each query
+ * and all of the queries share one connection.
+ * @param groups the org.jasig.portal.groups.IEntityGroups in question
+ * @return Map of group key to the groups containing it, groups with no containing groups map to an empty List
+ */
+public Map<String, List<IEntityGroup>> findContainingGroups(Collection<IEntityGroup> groups) throws GroupsException
+{
+    Map<String, List<IEntityGroup>> containingGroups = new LinkedHashMap<String, List<IEntityGroup>>();
+    Map<String, List<IEntityGroup>> groupsByServiceAndType = new LinkedHashMap<String, List<IEntityGroup>>();
+    for (IEntityGroup group : groups)
+    {
+        containingGroups.put(group.getKey(), new ArrayList<IEntityGroup>());
+        String batchKey = group.getServiceName() + GROUP_NODE_SEPARATOR + EntityTypes.getEntityTypeID(group.getLeafType());
+        List<IEntityGroup> batchGroups = groupsByServiceAndType.get(batchKey);
+        if ( batchGroups == null )
+        {
+            batchGroups = new ArrayList<IEntityGroup>();
+            groupsByServiceAndType.put(batchKey, batchGroups);
+        }
+        batchGroups.add(group);
+    }
+
+    java.sql.Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        for (List<IEntityGroup> batchGroups : groupsByServiceAndType.values())
+        {
+            String serviceName = batchGroups.get(0).getServiceName().toString();
+            int type = EntityTypes.getEntityTypeID(batchGroups.get(0).getLeafType()).intValue();
+            for (int start = 0; start < batchGroups.size(); start += BATCH_SIZE)
+            {
+                List<IEntityGroup> batch = batchGroups.subList(start, Math.min(start + BATCH_SIZE, batchGroups.size()));
+                Map<String, String> groupKeysByLocalKey = new HashMap<String, String>();
+                PreparedStatement ps = conn.prepareStatement(getFindContainingGroupsForGroupsSql(batch.size()));
+                try
+                {
+                    ps.setString(1, serviceName);
+                    ps.setInt(2, type);
+                    for (int i = 0; i < batch.size(); i++)
+                    {
+                        IEntityGroup group = batch.get(i);
+                        groupKeysByLocalKey.put(group.getLocalKey(), group.getKey());
+                        ps.setString(i + 3, group.getLocalKey());
+                    }
+                    if (log.isDebugEnabled())
+                        log.debug(
+                                "RDBMEntityGroupStore.findContainingGroups(): " + ps +
+                                " (" + serviceName + ", " + type + ", " + groupKeysByLocalKey.keySet() + ", memberIsGroup = T)");
+                    java.sql.ResultSet rs = ps.executeQuery();
+                    try
+                    {
+                        while (rs.next())
+                        {
+                            IEntityGroup eg = instanceFromResultSet(rs);
+                            String groupKey = groupKeysByLocalKey.get(rs.getString(6));
+                            if ( eg != null && groupKey != null )
+                                { containingGroups.get(groupKey).add(eg); }
+                        }
+                    }
+                    finally
+                        { rs.close(); }
+                }
+                finally
+                    { ps.close(); }
+            }
+        }
+    }
+    catch (Exception e)
+    {
+        log.error( "RDBMEntityGroupStore.findContainingGroups(): " + e);
+        throw new GroupsException("Problem retrieving containing groups: " + e);
+    }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return containingGroups;
+}
+
 /**
  * Find the <code>IEntities</code> that are members of the <code>IEntityGroup</code>.
  * @param group the entity group in question
@@ -613,6 +718,69 @@ public String[] findMemberGroupKeys(IEntityGroup group) throws GroupsException
 
     return (String[]) groupKeys.toArray(new String[groupKeys.size()]);
 }
+
+/**
+ * Find the keys of groups that are members of each of these groups.  Up to
+ * BATCH_SIZE groups are bound to each query and all of the queries share one
+ * connection.
+ * @param groups the org.jasig.portal.groups.IEntityGroups in question
+ * @return Map of group key to the keys of its member groups, groups with no member groups map to an empty array
+ */
+public Map<String, String[]> findMemberGroupKeys(Collection<IEntityGroup> groups) throws GroupsException
+{
+    Map<String, List<String>> memberGroupKeys = new LinkedHashMap<String, List<String>>();
+    for (IEntityGroup group : groups)
+        { memberGroupKeys.put(group.getLocalKey(), new ArrayList<String>()); }
+
+    java.sql.Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        List<String> localKeys = new ArrayList<String>(memberGroupKeys.keySet());
+        for (int start = 0; start < localKeys.size(); start += BATCH_SIZE)
+        {
+            List<String> batch = localKeys.subList(start, Math.min(start + BATCH_SIZE, localKeys.size()));
+            PreparedStatement ps = conn.prepareStatement(getFindMemberGroupKeysForGroupsSql(batch.size()));
+            try
+            {
+                for (int i = 0; i < batch.size(); i++)
+                    { ps.setString(i + 1, batch.get(i)); }
+                if (log.isDebugEnabled())
+                    log.debug(
+                            "RDBMEntityGroupStore.findMemberGroupKeys(): " + ps + " " + batch);
+                java.sql.ResultSet rs = ps.executeQuery();
+                try
+                {
+                    while (rs.next())
+                    {
+                        List<String> keys = memberGroupKeys.get(rs.getString(1));
+                        if ( keys != null )
+                            { keys.add(rs.getString(2) + GROUP_NODE_SEPARATOR + rs.getString(3)); }
+                    }
+                }
+                finally
+                    { rs.close(); }
+            }
+            finally
+                { ps.close(); }
+        }
+    }
+    catch (Exception sqle)
+        {
+            log.error( "RDBMEntityGroupStore.findMemberGroupKeys(): " + sqle);
+            throw new GroupsException("Problem retrieving member group keys: " + sqle);
+        }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+    for (IEntityGroup group : groups)
+    {
+        List<String> keys = memberGroupKeys.get(group.getLocalKey());
+        result.put(group.getKey(), keys.toArray(new String[keys.size()]));
+    }
+    return result;
+}
 /**
  * Find the IUserGroups that are members of the group.
  * @param group org.jasig.portal.groups.IEntityGroup
@@ -914,6 +1082,36 @@ private static java.lang.String getFindContainingGroupsForGroupSql()
     }
     return findContainingGroupsForGroupSql;
 }
+/**
+ * @param count the number of member keys bound to the query
+ * @return java.lang.String
+ */
+private static java.lang.String getFindContainingGroupsForGroupsSql(int count)
+{
+    StringBuffer buff = new StringBuffer(500 + count * 2);
+    buff.append("SELECT ");
+    buff.append(getAllGroupColumnsWithTableAlias());
+    buff.append(", ");
+    buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN));
+    buff.append(" FROM ");
+    buff.append(GROUP_TABLE_WITH_ALIAS);
+    buff.append(", ");
+    buff.append(MEMBER_TABLE_WITH_ALIAS);
+    buff.append(" WHERE ");
+    buff.append(groupAlias(GROUP_ID_COLUMN) + EQ);
+    buff.append(memberAlias(MEMBER_GROUP_ID_COLUMN));
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_MEMBER_SERVICE_COLUMN) + EQUALS_PARAM);
+    buff.append(" AND ");
+    buff.append(groupAlias(GROUP_TYPE_COLUMN) + EQUALS_PARAM);
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_IS_GROUP_COLUMN) + EQ + sqlQuote(MEMBER_IS_GROUP));
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN));
+    appendInParams(buff, count);
+
+    return buff.toString();
+}
 /**
  * @return java.lang.String
  */
@@ -976,6 +1174,26 @@ private static java.lang.String getFindMemberGroupKeysSql()
 
     return findMemberGroupKeysSql;
 }
+/**
+ * @param count the number of group keys bound to the query
+ * @return java.lang.String
+ */
+private static java.lang.String getFindMemberGroupKeysForGroupsSql(int count)
+{
+    StringBuffer buff = new StringBuffer(200 + count * 2);
+    buff.append("SELECT ");
+    buff.append(MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_SERVICE_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+    buff.append(" FROM ");
+    buff.append(MEMBER_TABLE);
+    buff.append(" WHERE ");
+    buff.append(MEMBER_IS_GROUP_COLUMN + EQ);
+    buff.append(sqlQuote(MEMBER_IS_GROUP));
+    buff.append(" AND ");
+    buff.append(MEMBER_GROUP_ID_COLUMN);
+    appendInParams(buff, count);
+
+    return buff.toString();
+}
 /**
  * @return java.lang.String
  */
@@ -1191,6 +1409,23 @@ private ILockableEntityGroup newLockableInstance
     group.setDescription(newDescription);
     return group;
 }
+/**
+ * Append an IN clause with count parameters.
+ * @param buff the SQL being built
+ * @param count the number of parameters
+ */
+private static void appendInParams(StringBuffer buff, int count)
+{
+    buff.append(" IN (");
+    for (int i = 0; i < count; i++)
+    {
+        if ( i > 0 )
+            { buff.append(", "); }
+        buff.append("?");
+    }
+    buff.append(")");
+}
+
 /**
  * @return java.lang.String
  */
@@ -1548,6 +1783,10 @@ protected static void rollback(Connection conn) throws java.sql.SQLException
     Connection conn = null;
     PreparedStatement ps = null;
     int type = EntityTypes.getEntityTypeID(leaftype).intValue();
+
+    EntityIdentifier[] catalogResults = searchGroupNameCatalog(query, method, type);
+    if ( catalogResults != null )
+        { return catalogResults; }
     //System.out.println("Checking out groups of leaftype "+leaftype.getName()+" or "+type);
 
         try {
@@ -1597,6 +1836,170 @@ protected static void rollback(Connection conn) throws java.sql.SQLException
       return (EntityIdentifier[]) ar.toArray(r);
   }
 
+/**
+ * Search the in-memory group name catalog.  Queries containing LIKE wildcards
+ * are left to the database.
+ * @return the matching groups or null if the catalog cannot answer the search
+ */
+private EntityIdentifier[] searchGroupNameCatalog(String query, int method, int type)
+{
+    if ( query == null || query.indexOf('%') >= 0 || query.indexOf('_') >= 0 )
+        { return null; }
+    if ( method != IS && method != STARTS_WITH && method != ENDS_WITH && method != CONTAINS )
+        { return null; }
+
+    EntityGroupNameCatalog catalog;
+    try
+        { catalog = getGroupNameCatalog(); }
+    catch (Exception e)
+    {
+        log.warn("RDBMEntityGroupStore.searchGroupNameCatalog(): failed to load group name catalog, searching " + GROUP_TABLE, e);
+        return null;
+    }
+    if ( catalog == null )
+        { return null; }
+
+    List<String> keys = catalog.search(query, method, type);
+    EntityIdentifier[] results = new EntityIdentifier[keys.size()];
+    for (int i = 0; i < results.length; i++)
+        { results[i] = new EntityIdentifier(keys.get(i), EntityTypes.GROUP_ENTITY_TYPE); }
+    return results;
+}
+
+/**
+ * @param maxAge maximum age of the group name catalog in milliseconds, 0 disables the catalog
+ */
+void setGroupNameCatalogMaxAge(long maxAge)
+{
+    groupNameCatalogMaxAge = maxAge;
+}
+
+/**
+ * Returns the group name catalog, reloading it from the database if it has
+ * not been loaded, is older than the configured maximum age or if a group
+ * has been changed on another server.
+ * @return the catalog or null if the catalog is disabled
+ */
+EntityGroupNameCatalog getGroupNameCatalog() throws GroupsException
+{
+    if ( groupNameCatalogMaxAge <= 0 )
+        { return null; }
+
+    String version = getGroupNameCatalogVersion();
+    EntityGroupNameCatalog catalog = groupNameCatalog;
+    if ( isGroupNameCatalogCurrent(catalog, version) )
+        { return catalog; }
+
+    synchronized (groupNameCatalogLock)
+    {
+        catalog = groupNameCatalog;
+        if ( isGroupNameCatalogCurrent(catalog, version) )
+            { return catalog; }
+
+        long modifications = groupNameCatalogModifications.get();
+        long loaded = System.currentTimeMillis();
+        catalog = loadGroupNameCatalog();
+
+        groupNameCatalog = catalog;
+        groupNameCatalogVersion = version;
+        groupNameCatalogLoaded = loaded;
+        // A group changed on this server while loading may be missing, load again on the next search
+        groupNameCatalogComplete = modifications == groupNameCatalogModifications.get();
+        return catalog;
+    }
+}
+
+/**
+ * @return boolean
+ */
+private boolean isGroupNameCatalogCurrent(EntityGroupNameCatalog catalog, String version)
+{
+    return catalog != null && groupNameCatalogComplete &&
+        System.currentTimeMillis() - groupNameCatalogLoaded < groupNameCatalogMaxAge &&
+        (version == null ? groupNameCatalogVersion == null : version.equals(groupNameCatalogVersion));
+}
+
+/**
+ * The version of IEntityGroup in the entity cache changes whenever a group is
+ * updated or deleted on any server.
+ * @return the current version or null if it is not available
+ */
+String getGroupNameCatalogVersion()
+{
+    try
+        { return EntityCachingService.instance().getEntityTypeVersion(EntityTypes.GROUP_ENTITY_TYPE); }
+    catch (CachingException ce)
+    {
+        log.warn("RDBMEntityGroupStore.getGroupNameCatalogVersion(): " + ce);
+        return null;
+    }
+}
+
+/**
+ * Load the name of every group into a new catalog.
+ * @return org.jasig.portal.groups.EntityGroupNameCatalog
+ */
+EntityGroupNameCatalog loadGroupNameCatalog() throws GroupsException
+{
+    EntityGroupNameCatalog catalog = new EntityGroupNameCatalog();
+    java.sql.Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        Statement stmnt = conn.createStatement();
+        try
+        {
+            if (log.isDebugEnabled())
+                log.debug("RDBMEntityGroupStore.loadGroupNameCatalog(): " + findAllGroupNamesSql);
+            ResultSet rs = stmnt.executeQuery(findAllGroupNamesSql);
+            try
+            {
+                while (rs.next())
+                    { catalog.put(rs.getString(1), rs.getInt(2), rs.getString(3)); }
+            }
+            finally
+                { close(rs); }
+        }
+        finally
+            { close(stmnt); }
+    }
+    catch (SQLException sqle)
+        { throw new GroupsException("Problem loading group name catalog", sqle); }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    if (log.isDebugEnabled())
+        log.debug("RDBMEntityGroupStore.loadGroupNameCatalog(): loaded " + catalog.size() + " group names");
+    return catalog;
+}
+
+/**
+ * Add or update the group in the catalog after it has been committed.
+ * @param group org.jasig.portal.groups.IEntityGroup
+ */
+void groupNameCatalogPut(IEntityGroup group)
+{
+    groupNameCatalogModifications.incrementAndGet();
+    EntityGroupNameCatalog catalog = groupNameCatalog;
+    if ( catalog != null )
+    {
+        Integer typeID = EntityTypes.getEntityTypeID(group.getLeafType());
+        catalog.put(group.getLocalKey(), typeID.intValue(), group.getName());
+    }
+}
+
+/**
+ * Remove the group from the catalog after it has been deleted.
+ * @param group org.jasig.portal.groups.IEntityGroup
+ */
+void groupNameCatalogRemove(IEntityGroup group)
+{
+    groupNameCatalogModifications.incrementAndGet();
+    EntityGroupNameCatalog catalog = groupNameCatalog;
+    if ( catalog != null )
+        { catalog.remove(group.getLocalKey()); }
+}
+
 /**
  * @param conn java.sql.Connection
  * @param newValue boolean
@@ -1645,6 +2048,7 @@ public void update(IEntityGroup group) throws GroupsException
                 { primAdd(group, conn); }
             primUpdateMembers((EntityGroupImpl)group, conn);
             commit(conn);
+            groupNameCatalogPut(group);
         }
 
         catch (Exception ex)
@@ -21,6 +21,7 @@ package org.jasig.portal.groups;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -80,6 +81,50 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
     }
     return allGroups.iterator();
 }
+/**
+ * Returns the groups that contain each of the <code>IEntityGroups</code>.  Each
+ * component service is asked once for all of the groups it might hold a
+ * membership for.
+ * @param groups Collection of IEntityGroups
+ * @return Map of group key to the groups containing it
+ */
+public Map<String, Collection<IEntityGroup>> findContainingGroups(Collection<IEntityGroup> groups) throws GroupsException
+{
+    Map<String, Collection<IEntityGroup>> allGroups = new HashMap<String, Collection<IEntityGroup>>();
+    for ( IEntityGroup eg : groups )
+        { allGroups.put(eg.getKey(), new ArrayList<IEntityGroup>()); }
+
+    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
+    {
+        IIndividualGroupService service = (IIndividualGroupService) services.next();
+        Collection<IEntityGroup> serviceGroups = new ArrayList<IEntityGroup>();
+        for ( IEntityGroup eg : groups )
+        {
+            if ( service.isEditable() || getComponentService(eg.getServiceName()) == service )
+                { serviceGroups.add(eg); }
+        }
+
+        if ( serviceGroups.isEmpty() )
+            { continue; }
+
+        if ( service instanceof ReferenceIndividualGroupService )
+        {
+            Map<String, Collection<IEntityGroup>> serviceContainingGroups =
+              ((ReferenceIndividualGroupService)service).findContainingGroups(serviceGroups);
+            for ( Map.Entry<String, Collection<IEntityGroup>> entry : serviceContainingGroups.entrySet() )
+                { allGroups.get(entry.getKey()).addAll(entry.getValue()); }
+        }
+        else
+        {
+            for ( IEntityGroup eg : serviceGroups )
+            {
+                for ( Iterator it = service.findContainingGroups(eg); it.hasNext(); )
+                    { allGroups.get(eg.getKey()).add((IEntityGroup) it.next()); }
+            }
+        }
+    }
+    return allGroups;
+}
 /**
  * Returns a pre-existing <code>IEntityGroup</code> or null if the
  * <code>IGroupMember</code> does not exist.
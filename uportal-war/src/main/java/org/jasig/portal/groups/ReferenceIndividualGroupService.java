@@ -202,9 +202,41 @@ public void deleteGroup(ILockableEntityGroup group) throws GroupsException
  */
 public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
 {
-    Collection groups = new ArrayList(10);
+    return prepareContainingGroups(getGroupStore().findContainingGroups(gm)).iterator();
+}
+
+/**
+ * Returns and caches the containing groups for each of the <code>IEntityGroups</code>.
+ * An <code>RDBMEntityGroupStore</code> is asked for all of the groups at once.
+ * @param groups Collection of IEntityGroups
+ * @return Map of group key to the groups containing it
+ */
+public Map<String, Collection<IEntityGroup>> findContainingGroups(Collection<IEntityGroup> groups) throws GroupsException
+{
+    Map<String, Collection<IEntityGroup>> containingGroups = new HashMap<String, Collection<IEntityGroup>>();
+    if ( getGroupStore() instanceof RDBMEntityGroupStore )
+    {
+        Map<String, List<IEntityGroup>> storeGroups = ((RDBMEntityGroupStore)getGroupStore()).findContainingGroups(groups);
+        for ( Map.Entry<String, List<IEntityGroup>> entry : storeGroups.entrySet() )
+            { containingGroups.put(entry.getKey(), prepareContainingGroups(entry.getValue().iterator())); }
+    }
+    else
+    {
+        for ( IEntityGroup eg : groups )
+            { containingGroups.put(eg.getKey(), prepareContainingGroups(getGroupStore().findContainingGroups(eg))); }
+    }
+    return containingGroups;
+}
+
+/**
+ * Sets this service on the containing groups found by the store and caches them.
+ * @param it Iterator over the IEntityGroups from the store
+ */
+private Collection<IEntityGroup> prepareContainingGroups(Iterator it) throws GroupsException
+{
+    Collection<IEntityGroup> groups = new ArrayList<IEntityGroup>(10);
     IEntityGroup group = null;
-    for ( Iterator it = getGroupStore().findContainingGroups(gm); it.hasNext(); )
+    while ( it.hasNext() )
     {
         group = (IEntityGroup) it.next();
         group.setLocalGroupService(this);
@@ -220,7 +252,7 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
                 { throw new GroupsException("Problem finding containing groups", ce); }
         }
     }
-    return groups.iterator();
+    return groups;
 }
 
 /**
@@ -366,6 +398,18 @@ public Iterator findMemberEntities(IEntityGroup group) throws GroupsException
  * @param eg IEntityGroup
  */
 public Iterator findMemberGroups(IEntityGroup eg) throws GroupsException
+{
+    return findMemberGroups(eg, getGroupStore().findMemberGroupKeys(eg));
+}
+
+/**
+ * Returns member groups for the <code>IEntityGroup</code> using member
+ * group keys that have already been retrieved from the store.
+ *
+ * @param eg IEntityGroup
+ * @param memberGroupKeys the keys of all of the member groups of eg
+ */
+protected Iterator findMemberGroups(IEntityGroup eg, String[] memberGroupKeys) throws GroupsException
 {
     Map groups = new HashMap();
     IEntityGroup group = null;
@@ -375,7 +419,6 @@ public Iterator findMemberGroups(IEntityGroup eg) throws GroupsException
         groups.put(group.getKey(), group);
     }
 
-    String[] memberGroupKeys = getGroupStore().findMemberGroupKeys(eg);
     for (int i=0; i<memberGroupKeys.length; i++)
     {
         if ( ! groups.containsKey(memberGroupKeys[i]) )
@@ -388,6 +431,42 @@ public Iterator findMemberGroups(IEntityGroup eg) throws GroupsException
     return groups.values().iterator();
 }
 
+/**
+ * Returns the keys of the member groups of each of the <code>IEntityGroups</code>.
+ * An <code>RDBMEntityGroupStore</code> is asked for all of the groups at once.
+ * @param groups Collection of IEntityGroups
+ * @return Map of group key to the keys of its member groups
+ */
+public Map<String, String[]> findMemberGroupKeys(Collection<IEntityGroup> groups) throws GroupsException
+{
+    if ( getGroupStore() instanceof RDBMEntityGroupStore )
+        { return ((RDBMEntityGroupStore)getGroupStore()).findMemberGroupKeys(groups); }
+
+    Map<String, String[]> memberGroupKeys = new HashMap<String, String[]>();
+    for ( IEntityGroup eg : groups )
+        { memberGroupKeys.put(eg.getKey(), getGroupStore().findMemberGroupKeys(eg)); }
+    return memberGroupKeys;
+}
+
+/**
+ * Returns the members for the <code>IEntityGroup</code> using member group
+ * keys that have already been retrieved with findMemberGroupKeys(Collection).
+ * @param eg IEntityGroup
+ * @param memberGroupKeys the keys of all of the member groups of eg
+ */
+public Iterator findMembers(IEntityGroup eg, String[] memberGroupKeys) throws GroupsException
+{
+    Collection members = new ArrayList(10);
+    Iterator it = null;
+
+    for ( it = findMemberGroups(eg, memberGroupKeys); it.hasNext(); )
+       { members.add(it.next()); }
+    for ( it = findMemberEntities(eg); it.hasNext(); )
+       { members.add(it.next()); }
+
+    return members.iterator();
+}
+
 /**
  * Returns and members for the <code>IEntityGroup</code>.
  * @param eg IEntityGroup
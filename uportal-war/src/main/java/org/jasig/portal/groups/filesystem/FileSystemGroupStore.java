@@ -160,6 +160,10 @@ IEntitySearcher
     
     private Class defaultEntityType;
 
+    // Membership indexes by entity type, minimum time in ms between checks of the files for changes.
+    private Map indexes;
+    protected long indexRefreshInterval = 10000;
+
     // Value holder adds last modified timestamp.
     private class GroupHolder {
         private long lastModified = 0;
@@ -176,6 +180,136 @@ IEntitySearcher
         }
     }
     
+    /**
+     * Inverted index of the memberships in the group files below the root for an entity type.
+     * Maps member entity keys and member group keys to the files that contain them. The index
+     * is refreshed incrementally, only files whose last modified time changed are re-read.
+     */
+    private class MembershipIndex {
+        private final File root;
+        private final Map<File, Long> fileLastModified = new HashMap<File, Long>();
+        private final Map<File, Collection<String>> entityIdsByFile = new HashMap<File, Collection<String>>();
+        private final Map<File, Collection<String>> groupIdsByFile = new HashMap<File, Collection<String>>();
+        private final Map<String, Set<File>> filesByEntityId = new HashMap<String, Set<File>>();
+        private final Map<String, Set<File>> filesByGroupId = new HashMap<String, Set<File>>();
+        private long lastRefresh = 0;
+
+        protected MembershipIndex(File root) {
+            this.root = root;
+        }
+
+        /**
+         * @return The files that contain the entity key
+         */
+        protected synchronized List<File> getFilesContainingEntity(String key) throws GroupsException {
+            refresh();
+            return copy(filesByEntityId.get(key));
+        }
+
+        /**
+         * @return The files that contain the group key
+         */
+        protected synchronized List<File> getFilesContainingGroup(String key) throws GroupsException {
+            refresh();
+            return copy(filesByGroupId.get(key));
+        }
+
+        /**
+         * @return true if the file contains the key
+         */
+        protected synchronized boolean fileContains(File file, String key, boolean isEntity) throws GroupsException {
+            refresh();
+            Collection<String> ids = ( isEntity ) ? entityIdsByFile.get(file) : groupIdsByFile.get(file);
+            return ids != null && ids.contains(key);
+        }
+
+        private List<File> copy(Set<File> files) {
+            return ( files == null ) ? new ArrayList<File>(0) : new ArrayList<File>(files);
+        }
+
+        private void refresh() throws GroupsException {
+            long now = System.currentTimeMillis();
+            if ( lastRefresh > 0 && now - lastRefresh < indexRefreshInterval )
+                { return; }
+
+            File[] files = getAllFilesBelow(root);
+            Set<File> currentFiles = new HashSet<File>();
+            try
+            {
+                for (int i=0; i<files.length; i++)
+                {
+                    File file = files[i];
+                    currentFiles.add(file);
+
+                    long lastModified = file.lastModified();
+                    Long indexedLastModified = fileLastModified.get(file);
+                    if ( indexedLastModified == null || indexedLastModified.longValue() != lastModified )
+                    {
+                        remove(file);
+                        add(file, lastModified);
+                    }
+                }
+            }
+            catch (IOException ex)
+                { throw new GroupsException("Problem reading group files", ex); }
+
+            // Remove deleted files from the index
+            List<File> deletedFiles = new ArrayList<File>(fileLastModified.keySet());
+            deletedFiles.removeAll(currentFiles);
+            for (File deletedFile : deletedFiles)
+                { remove(deletedFile); }
+
+            lastRefresh = now;
+        }
+
+        private void add(File file, long lastModified) throws IOException {
+            if (log.isDebugEnabled())
+                log.debug(DEBUG_CLASS_NAME + ".MembershipIndex.add(): indexing " + file.getPath());
+
+            Collection<String> entityIds = getEntityIdsFromFile(file);
+            Collection<String> groupIds = getGroupIdsFromFile(file);
+            fileLastModified.put(file, lastModified);
+            entityIdsByFile.put(file, entityIds);
+            groupIdsByFile.put(file, groupIds);
+            addAll(filesByEntityId, entityIds, file);
+            addAll(filesByGroupId, groupIds, file);
+        }
+
+        private void remove(File file) {
+            fileLastModified.remove(file);
+            removeAll(filesByEntityId, entityIdsByFile.remove(file), file);
+            removeAll(filesByGroupId, groupIdsByFile.remove(file), file);
+        }
+
+        private void addAll(Map<String, Set<File>> filesById, Collection<String> ids, File file) {
+            for (String id : ids)
+            {
+                Set<File> idFiles = filesById.get(id);
+                if ( idFiles == null )
+                {
+                    idFiles = new HashSet<File>();
+                    filesById.put(id, idFiles);
+                }
+                idFiles.add(file);
+            }
+        }
+
+        private void removeAll(Map<String, Set<File>> filesById, Collection<String> ids, File file) {
+            if ( ids == null )
+                { return; }
+            for (String id : ids)
+            {
+                Set<File> idFiles = filesById.get(id);
+                if ( idFiles != null )
+                {
+                    idFiles.remove(file);
+                    if ( idFiles.isEmpty() )
+                        { filesById.remove(id); }
+                }
+            }
+        }
+    }
+
     private class FileFilter implements FilenameFilter {
         /**
          * Tests if a specified file should be included in a file list.
@@ -294,22 +428,12 @@ protected Iterator findContainingGroups(IEntity ent) throws GroupsException
                 DEBUG_CLASS_NAME + ".findContainingGroups(): for " + ent);
 
     List groups = new ArrayList();
-    File root = getFileRoot(ent.getType());
-    if ( root != null )
+    MembershipIndex index = getMembershipIndex(ent.getType());
+    if ( index != null )
     {
-        File[] files = getAllFilesBelow(root);
-
-       try
-        {
-            for (int i=0; i<files.length; i++)
-            {
-                Collection ids = getEntityIdsFromFile(files[i]);
-                if ( ids.contains(ent.getKey()) )
-                    { groups.add(find(files[i])); }
-            }
-        }
-        catch (IOException ex)
-            { throw new GroupsException("Problem reading group files", ex); }
+        List<File> files = index.getFilesContainingEntity(ent.getKey());
+        for (File file : files)
+            { groups.add(find(file)); }
     }
 
     return groups.iterator();
@@ -333,19 +457,13 @@ protected Iterator findContainingGroups(IEntityGroup group) throws GroupsExcepti
         if ( ! parent.getName().equals(typeName) )
             { groups.add(find(parent)); }
 
-        File root = getFileRoot(group.getLeafType());
-        File[] files = getAllFilesBelow(root);
-        try
+        MembershipIndex index = getMembershipIndex(group.getLeafType());
+        if ( index != null )
         {
-            for (int i=0; i<files.length; i++)
-            {
-                Collection ids = getGroupIdsFromFile(files[i]);
-                if ( ids.contains(group.getLocalKey()) )
-                    { groups.add(find(files[i])); }
-            }
+            List<File> files = index.getFilesContainingGroup(group.getLocalKey());
+            for (File file : files)
+                { groups.add(find(file)); }
         }
-        catch (IOException ex)
-            { throw new GroupsException("Problem reading group files", ex); }
     }
     return groups.iterator();
 }
@@ -602,6 +720,27 @@ protected File getFileRoot(Class type)
     File f = new File(path);
     return ( f.exists() ) ? f : null;
 }
+/**
+ * Returns the membership index for groups of the given type, null if there
+ * is no root for the type.
+ */
+private MembershipIndex getMembershipIndex(Class type)
+{
+    File root = getFileRoot(type);
+    if ( root == null )
+        { return null; }
+
+    synchronized (indexes)
+    {
+        MembershipIndex index = (MembershipIndex) indexes.get(type);
+        if ( index == null )
+        {
+            index = new MembershipIndex(root);
+            indexes.put(type, index);
+        }
+        return index;
+    }
+}
 /**
  * Returns the filesystem separator character in use.
  * @return char
@@ -693,6 +832,7 @@ protected String getKeyFromFile(File f)
 protected void initialize(GroupServiceConfiguration cfg)
 {
     cache = Collections.synchronizedMap(new HashMap());
+    indexes = new HashMap();
 
     goodSeparator = File.separatorChar;
     badSeparator = ( goodSeparator == FORWARD_SLASH ) ? BACK_SLASH : FORWARD_SLASH;
@@ -920,6 +1060,11 @@ throws GroupsException
 private boolean fileContains(File file, IGroupMember member)
 throws GroupsException
 {
+    Class type = getEntityType(file);
+    MembershipIndex index = ( type == null ) ? null : getMembershipIndex(type);
+    if ( index != null )
+        { return index.fileContains(file, member.getKey(), member.isEntity()); }
+
     Collection ids=null;
     try 
     {
@@ -19,13 +19,23 @@
 package org.jasig.portal.i18n;
 
 import java.text.MessageFormat;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.i18n.dao.IMessageDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
 import org.springframework.context.support.AbstractMessageSource;
 
+import com.google.common.collect.ImmutableMap;
+
 /**
  * <p>
  * DB based {@link MessageSource}. This is used for enabling i18n on database entities that does not
@@ -43,11 +53,19 @@ import org.springframework.context.support.AbstractMessageSource;
  * will be set as parent to this message source, then this message source will become the primary
  * one.
  * </p>
+ * <p>
+ * All messages for a locale are loaded in a single query and held as an immutable snapshot of
+ * pre-compiled {@link MessageFormat}s. The snapshot is replaced when the messages version reported
+ * by the {@link IMessageDao} changes.
+ * </p>
  * 
  * @author Arvids Grabovskis
  * @version $Revision$
  */
 public class DatabaseMessageSource extends AbstractMessageSource implements MessageSource {
+    protected final Log logger = LogFactory.getLog(this.getClass());
+    
+    private final ConcurrentMap<Locale, LocaleMessages> localeMessages = new ConcurrentHashMap<Locale, LocaleMessages>();
     
     private IMessageDao messageDao;
     
@@ -62,8 +80,7 @@ public class DatabaseMessageSource extends AbstractMessageSource implements Mess
             return null;
         }
         
-        Message message = messageDao.getMessage(code, locale);
-        return message != null ? new MessageFormat(message.getValue(), locale) : null;
+        return this.getLocaleMessages(locale).getMessageFormat(code);
     }
     
     @Override
@@ -72,7 +89,71 @@ public class DatabaseMessageSource extends AbstractMessageSource implements Mess
             return null;
         }
         
-        Message message = messageDao.getMessage(code, locale);
-        return message != null ? message.getValue() : null;
+        return this.getLocaleMessages(locale).getMessage(code);
+    }
+    
+    /**
+     * Get all messages for the locale, reloading them if the messages version in the DAO has changed
+     * since they were loaded.
+     */
+    protected LocaleMessages getLocaleMessages(Locale locale) {
+        //Read the version before loading so a concurrent change results in another reload
+        final String version = this.messageDao.getMessagesVersion();
+        
+        LocaleMessages messages = this.localeMessages.get(locale);
+        if (messages != null && ObjectUtils.equals(version, messages.version)) {
+            return messages;
+        }
+        
+        messages = new LocaleMessages(version, locale, this.messageDao.getMessagesByLocale(locale));
+        this.localeMessages.put(locale, messages);
+        
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Loaded " + messages.messages.size() + " messages for locale " + locale + " at version " + version);
+        }
+        
+        return messages;
+    }
+    
+    /**
+     * Immutable snapshot of the messages and pre-compiled formats for a single locale 
+     */
+    protected final class LocaleMessages {
+        private final String version;
+        private final Map<String, String> messages;
+        private final Map<String, MessageFormat> messageFormats;
+        
+        LocaleMessages(String version, Locale locale, Set<Message> localeMessages) {
+            this.version = version;
+            
+            final Map<String, String> messages = new HashMap<String, String>(localeMessages.size() * 2);
+            final Map<String, MessageFormat> messageFormats = new HashMap<String, MessageFormat>(localeMessages.size() * 2);
+            for (final Message message : localeMessages) {
+                final String code = message.getCode();
+                final String value = message.getValue();
+                if (value == null) {
+                    continue;
+                }
+                
+                messages.put(code, value);
+                try {
+                    messageFormats.put(code, createMessageFormat(value, locale));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warn("Ignoring invalid message format for code '" + code + "' and locale " + locale + ": " + value, e);
+                }
+            }
+            
+            this.messages = ImmutableMap.copyOf(messages);
+            this.messageFormats = ImmutableMap.copyOf(messageFormats);
+        }
+        
+        public String getMessage(String code) {
+            return this.messages.get(code);
+        }
+        
+        public MessageFormat getMessageFormat(String code) {
+            return this.messageFormats.get(code);
+        }
     }
 }
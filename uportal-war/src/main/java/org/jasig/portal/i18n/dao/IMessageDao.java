@@ -89,4 +89,9 @@ public interface IMessageDao {
      * @since uPortal 4.0.2
      */
     Set<String> getCodes();
+    
+    /**
+     * @return An opaque stamp that changes every time any message is created, updated or deleted, may be null
+     */
+    String getMessagesVersion();
 }
@@ -22,6 +22,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.UUID;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
@@ -30,17 +31,27 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.apache.commons.lang.Validate;
 import org.jasig.portal.i18n.Message;
 import org.jasig.portal.i18n.dao.IMessageDao;
 import org.jasig.portal.jpa.BasePortalJpaDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Function;
 
 @Repository
 public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
+    public static final String MESSAGES_VERSION_CACHE_NAME = "org.jasig.portal.i18n.dao.jpa.JpaMessageDao.messagesVersion";
+    private static final String MESSAGES_VERSION_KEY = "messagesVersion";
+    
     private CriteriaQuery<MessageImpl> findMessageByCodeAndLocaleQuery;
     private CriteriaQuery<MessageImpl> findMessageByCodeQuery;
     private CriteriaQuery<MessageImpl> findMessageByLocaleQuery;
@@ -49,6 +60,18 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
     private ParameterExpression<String> codeParameter;
     private ParameterExpression<Locale> localeParameter;
     
+    private Ehcache messagesVersionCache;
+    private volatile String localMessagesVersion = UUID.randomUUID().toString();
+    
+    /**
+     * Replicated cache used to share the messages version with the rest of the cluster, if not set the
+     * version is only tracked locally
+     */
+    @Autowired(required = false)
+    public void setMessagesVersionCache(@Qualifier(MESSAGES_VERSION_CACHE_NAME) Ehcache messagesVersionCache) {
+        this.messagesVersionCache = messagesVersionCache;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         this.codeParameter = this.createParameterExpression(String.class, "code");
@@ -117,6 +140,7 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
         final Message msg = new MessageImpl(code, locale, value);
         
         this.getEntityManager().persist(msg);
+        this.updateMessagesVersion();
         
         return msg;
     }
@@ -127,6 +151,7 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
         Validate.notNull(message, "message can not be null");
         
         this.getEntityManager().persist(message);
+        this.updateMessagesVersion();
         
         return message;
     }
@@ -144,6 +169,7 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
             msg = entityManager.merge(message);
         }
         entityManager.remove(msg);
+        this.updateMessagesVersion();
     }
     
     @Override
@@ -178,4 +204,42 @@ public class JpaMessageDao extends BasePortalJpaDao implements IMessageDao {
         final List<String> codes = query.getResultList();
         return new LinkedHashSet<String>(codes);
     }
+    
+    @Override
+    public String getMessagesVersion() {
+        if (this.messagesVersionCache != null) {
+            final Element element = this.messagesVersionCache.get(MESSAGES_VERSION_KEY);
+            if (element != null) {
+                return (String) element.getObjectValue();
+            }
+        }
+        
+        return this.localMessagesVersion;
+    }
+    
+    /**
+     * Publish a new messages version once the current transaction completes, publishing before the commit
+     * would let readers cache the old messages under the new version.
+     */
+    protected void updateMessagesVersion() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    publishMessagesVersion();
+                }
+            });
+        }
+        else {
+            this.publishMessagesVersion();
+        }
+    }
+    
+    protected void publishMessagesVersion() {
+        final String version = UUID.randomUUID().toString();
+        this.localMessagesVersion = version;
+        if (this.messagesVersionCache != null) {
+            this.messagesVersionCache.put(new Element(MESSAGES_VERSION_KEY, version));
+        }
+    }
 }
@@ -31,6 +31,7 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -41,9 +42,11 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -85,6 +88,7 @@ import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
 import org.apache.tools.ant.DirectoryScanner;
 import org.jasig.portal.concurrency.CallableWithoutResult;
+import org.jasig.portal.io.xml.PortalDataImportGraph.ImportNode;
 import org.jasig.portal.utils.AntPatternFileFilter;
 import org.jasig.portal.utils.ConcurrentDirectoryScanner;
 import org.jasig.portal.utils.PeriodicFlushingBufferedWriter;
@@ -144,6 +148,10 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
     private List<PortalDataKey> dataKeyImportOrder = Collections.emptyList();
     // Map to lookup the associated IPortalDataType for each known PortalDataKey
     private Map<PortalDataKey, IPortalDataType> dataKeyTypes = Collections.emptyMap();
+    // Data types that must be completely imported before each data type is imported
+    private Map<IPortalDataType, Set<IPortalDataType>> dataTypeImportDependencies = Collections.emptyMap();
+    // Data types that must be imported for the same user before each data type is imported
+    private Map<IPortalDataType, Set<IPortalDataType>> dataTypeUserImportDependencies = Collections.emptyMap();
     
     // Ant path matcher patterns that a file must match when scanning directories (unless a pattern is explicitly specified)
     private Set<String> dataFileIncludes = Collections.emptySet();
@@ -221,6 +229,26 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         this.dataKeyTypes = Collections.unmodifiableMap(dataKeyTypes);
     }
     
+    /**
+     * Data types that must be completely imported before data of each data type is imported. Only data types
+     * earlier in {@link #setDataTypeImportOrder(List)} are considered. Data types without an entry here or in
+     * {@link #setDataTypeUserImportDependencies(Map)} depend on every data type before them in the import order.
+     */
+    @javax.annotation.Resource(name="dataTypeImportDependencies")
+    public void setDataTypeImportDependencies(Map<IPortalDataType, Set<IPortalDataType>> dataTypeImportDependencies) {
+        this.dataTypeImportDependencies = dataTypeImportDependencies;
+    }
+    
+    /**
+     * Data types that must be imported for the same user before data of each data type is imported. The user is
+     * determined by the username attribute of the root element, data without one waits for all data of the
+     * dependency type.
+     */
+    @javax.annotation.Resource(name="dataTypeUserImportDependencies")
+    public void setDataTypeUserImportDependencies(Map<IPortalDataType, Set<IPortalDataType>> dataTypeUserImportDependencies) {
+        this.dataTypeUserImportDependencies = dataTypeUserImportDependencies;
+    }
+    
     /**
      * Ant path matching patterns that files must match to be included
      */
@@ -544,68 +572,36 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
 	        //Map of files to import, grouped by type
 	        final ConcurrentMap<PortalDataKey, Queue<Resource>> dataToImport = fileProcessor.getDataToImport();
 	        
-	        //Import the data files
+	        //Order the files to import by type
+	        final Map<PortalDataKey, Queue<Resource>> orderedDataToImport = new LinkedHashMap<PortalDataKey, Queue<Resource>>();
 	        for (final PortalDataKey portalDataKey : this.dataKeyImportOrder) {
 	            final Queue<Resource> files = dataToImport.remove(portalDataKey);
 	            if (files == null) {
 	                continue;
 	            }
-	
-	            final Queue<ImportFuture<?>> importFutures = new LinkedList<ImportFuture<?>>();
-	            final List<FutureHolder<?>> failedFutures = new LinkedList<FutureHolder<?>>();
 	            
 	            final int fileCount = files.size();
 	            logger.info("Importing {} files of type {}", fileCount, portalDataKey);
-                reportWriter.println(portalDataKey + "," + fileCount);
-	            
-                while (!files.isEmpty()) {
-                    final Resource file = files.poll();
-                    
-	                //Check for completed futures on every iteration, needed to fail as fast as possible on an import exception
-	                final List<FutureHolder<?>> newFailed = waitForFutures(importFutures, reportWriter, logDirectory, false);
-	                failedFutures.addAll(newFailed);
-	                
-	                final AtomicLong importTime = new AtomicLong(-1);
-	                
-	                //Create import task
-	                final Callable<Object> task = new CallableWithoutResult() {
-                        @Override
-                        protected void callWithoutResult() {
-	                    	IMPORT_BASE_DIR.set(directoryUriStr);
-	                    	importTime.set(System.nanoTime());
-	                        try {
-	                        	importData(file, portalDataKey);
-	                        }
-	                        finally {
-	                            importTime.set(System.nanoTime() - importTime.get());
-	                        	IMPORT_BASE_DIR.remove();
-	                        }
-	                    }
-	                };
-	                
-	                //Submit the import task
-	                final Future<?> importFuture = this.importExportThreadPool.submit(task);
-	                
-	                //Add the future for tracking
-	                importFutures.offer(new ImportFuture(importFuture, file, portalDataKey, importTime));
-	            }
-	            
-	            //Wait for all of the imports on of this type to complete
-	            final List<FutureHolder<?>> newFailed = waitForFutures(importFutures, reportWriter, logDirectory, true);
-                failedFutures.addAll(newFailed);
-                
-                if (failOnError && !failedFutures.isEmpty()) {
-                    throw new RuntimeException(failedFutures.size() + " " + portalDataKey + " entities failed to import.\n\n" +
-                    		"\tPer entity exception logs and a full report can be found in " + logDirectory + "\n");
-                }
-                
-                reportWriter.flush();
+	            reportWriter.println(portalDataKey + "," + fileCount);
+	            orderedDataToImport.put(portalDataKey, files);
 	        }
 	        
 	        if (!dataToImport.isEmpty()) {
 	            throw new IllegalStateException("The following PortalDataKeys are not listed in the dataTypeImportOrder List: " + dataToImport.keySet());
 	        }
 	        
+	        //Import the data files, each file is imported as soon as all of the data it depends on has been imported
+	        final PortalDataImportGraph importGraph = new PortalDataImportGraph(orderedDataToImport, this.dataKeyTypes, 
+	                this.dataTypeImportDependencies, this.dataTypeUserImportDependencies, fileProcessor.getResourceUsernames());
+	        final List<FutureHolder<?>> failedFutures = this.importData(importGraph, directoryUriStr, failOnError, reportWriter, logDirectory);
+	        
+	        if (failOnError && !failedFutures.isEmpty()) {
+	            throw new RuntimeException(failedFutures.size() + " entities failed to import.\n\n" +
+	                    "\tPer entity exception logs and a full report can be found in " + logDirectory + "\n");
+	        }
+	        
+	        this.reportCriticalPath(importGraph, reportWriter);
+	        
 	        logger.info("For a detailed report on the data import see " + importReport);
         }
         catch (InterruptedException e) {
@@ -617,6 +613,124 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         }
     }
 
+    /**
+     * Import every entity in the graph, submitting each entity once its dependencies have been imported. If failOnError
+     * is true no more entities are submitted after the first failure.
+     * 
+     * @return a list of the imports that either threw exceptions or timed out
+     */
+    private List<FutureHolder<?>> importData(PortalDataImportGraph importGraph, final String directoryUriStr,
+            boolean failOnError, PrintWriter reportWriter, File logDirectory) throws InterruptedException {
+        
+        final CompletionService<Object> completionService = new ExecutorCompletionService<Object>(this.importExportThreadPool);
+        final Map<Future<Object>, ImportFuture<Object>> runningImports = new HashMap<Future<Object>, ImportFuture<Object>>();
+        final List<FutureHolder<?>> failedFutures = new LinkedList<FutureHolder<?>>();
+        
+        List<ImportNode> readyNodes = importGraph.getReadyNodes();
+        while (true) {
+            if (!failOnError || failedFutures.isEmpty()) {
+                for (final ImportNode importNode : readyNodes) {
+                    final ImportFuture<Object> importFuture = this.submitImport(completionService, importNode, directoryUriStr);
+                    runningImports.put(importFuture.getFuture(), importFuture);
+                }
+            }
+            
+            if (runningImports.isEmpty()) {
+                break;
+            }
+            
+            //Wait for the next import to complete
+            final Future<Object> completedFuture;
+            if (this.maxWait > 0) {
+                completedFuture = completionService.poll(this.maxWait, this.maxWaitTimeUnit);
+            }
+            else {
+                completedFuture = completionService.take();
+            }
+            
+            if (completedFuture == null) {
+                //Nothing completed in maxWait, cancel any imports that have been running longer than that
+                final long maxWaitNanos = this.maxWaitTimeUnit.toNanos(this.maxWait);
+                for (final ImportFuture<Object> importFuture : runningImports.values()) {
+                    final ImportNode importNode = importFuture.getImportNode();
+                    final long startTime = importNode.getStartTime();
+                    if (startTime >= 0 && System.nanoTime() - startTime >= maxWaitNanos && importFuture.getFuture().cancel(true)) {
+                        logger.warn("Failed: " + importFuture);
+                        
+                        importFuture.setError(new TimeoutException());
+                        failedFutures.add(importFuture);
+                        reportWriter.printf(REPORT_FORMAT, "TIMEOUT", importFuture.getDescription(), importNode.getExecutionTimeMillis());
+                    }
+                }
+                
+                readyNodes = Collections.emptyList();
+                continue;
+            }
+            
+            //Report on the completed import, canceled imports have already been reported
+            final ImportFuture<Object> importFuture = runningImports.remove(completedFuture);
+            final Queue<ImportFuture<Object>> completedImports = new LinkedList<ImportFuture<Object>>();
+            completedImports.add(importFuture);
+            failedFutures.addAll(this.waitForFutures(completedImports, reportWriter, logDirectory, true));
+            
+            readyNodes = importGraph.complete(importFuture.getImportNode());
+        }
+        
+        reportWriter.flush();
+        return failedFutures;
+    }
+    
+    private ImportFuture<Object> submitImport(CompletionService<Object> completionService, final ImportNode importNode, final String directoryUriStr) {
+        final Resource file = importNode.getResource();
+        final PortalDataKey portalDataKey = importNode.getDataKey();
+        final AtomicLong importTime = new AtomicLong(-1);
+        
+        //Create import task
+        final Callable<Object> task = new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                IMPORT_BASE_DIR.set(directoryUriStr);
+                importNode.markStarted();
+                importTime.set(System.nanoTime());
+                try {
+                    importData(file, portalDataKey);
+                }
+                finally {
+                    importTime.set(System.nanoTime() - importTime.get());
+                    importNode.markCompleted();
+                    IMPORT_BASE_DIR.remove();
+                }
+            }
+        };
+        
+        //Submit the import task
+        final Future<Object> importFuture = completionService.submit(task);
+        return new ImportFuture<Object>(importFuture, importNode, importTime);
+    }
+    
+    /**
+     * Report the chain of imports that determined how long the whole import took
+     */
+    private void reportCriticalPath(PortalDataImportGraph importGraph, PrintWriter reportWriter) {
+        final List<ImportNode> criticalPath = importGraph.getCriticalPath();
+        if (criticalPath.isEmpty()) {
+            return;
+        }
+        
+        double importTime = 0;
+        for (final ImportNode importNode : criticalPath) {
+            final double executionTime = importNode.getExecutionTimeMillis();
+            importTime += executionTime;
+            reportWriter.printf(REPORT_FORMAT, "CRITICAL_PATH", importNode, executionTime);
+        }
+        
+        final ImportNode first = criticalPath.get(0);
+        final ImportNode last = criticalPath.get(criticalPath.size() - 1);
+        final double elapsedTime = (last.getEndTime() - first.getStartTime()) / 1000000.0;
+        logger.info(String.format("Import critical path is %d entities ending with %s, %.2fms elapsed of which %.2fms importing", 
+                criticalPath.size(), last, elapsedTime, importTime));
+    }
+
     /**
      * Determine directory to log import/export reports to
      */
@@ -1149,13 +1263,19 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
     }
     
     private static class ImportFuture<T> extends FutureHolder<T> {
+        private final ImportNode importNode;
         private final Resource resource;
         private final PortalDataKey dataKey;
 
-        public ImportFuture(Future<T> future, Resource resource, PortalDataKey dataKey, AtomicLong importTime) {
+        public ImportFuture(Future<T> future, ImportNode importNode, AtomicLong importTime) {
             super(future, importTime);
-            this.resource = resource;
-            this.dataKey = dataKey;
+            this.importNode = importNode;
+            this.resource = importNode.getResource();
+            this.dataKey = importNode.getDataKey();
+        }
+        
+        public ImportNode getImportNode() {
+            return this.importNode;
         }
 
         @Override
@@ -0,0 +1,304 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Dependency graph of the individual entities in a batch import. Each data type depends on the data types configured
+ * for it, or on every data type before it in the import order if none are configured. A dependency on a per-user
+ * type only waits for the entities of that type for the same user, for example a user's layout can be imported as
+ * soon as the user and their profile are imported instead of waiting for every user and profile.
+ * <p>
+ * Dependencies are only ever resolved against data keys earlier in the import order so the graph can never contain
+ * a cycle. Not thread-safe, the graph is driven by the thread running the import.
+ */
+final class PortalDataImportGraph {
+    private final List<ImportNode> readyNodes = new LinkedList<ImportNode>();
+    private final List<ImportNode> completedNodes = new ArrayList<ImportNode>();
+    private int remainingCount = 0;
+    
+    /**
+     * @param dataToImport Resources to import grouped by data key, iteration order must match the import order 
+     * @param dataKeyTypes The data type for each data key
+     * @param typeDependencies Data types that must be completely imported before a data type is imported
+     * @param userTypeDependencies Data types that must be imported for the same user before a data type is imported
+     * @param resourceUsernames The user each resource is for, resources missing from the map are not for a specific user
+     */
+    PortalDataImportGraph(
+            Map<PortalDataKey, ? extends Collection<Resource>> dataToImport, 
+            Map<PortalDataKey, IPortalDataType> dataKeyTypes,
+            Map<IPortalDataType, Set<IPortalDataType>> typeDependencies,
+            Map<IPortalDataType, Set<IPortalDataType>> userTypeDependencies,
+            Map<Resource, String> resourceUsernames) {
+        
+        //Node that completes once all entities of a data key are imported
+        final Map<PortalDataKey, ImportNode> keyBarriers = new LinkedHashMap<PortalDataKey, ImportNode>();
+        //Entities of each data key grouped by user
+        final Map<PortalDataKey, Map<String, List<ImportNode>>> keyUserNodes = new HashMap<PortalDataKey, Map<String, List<ImportNode>>>();
+        final Set<IPortalDataType> earlierTypes = new HashSet<IPortalDataType>();
+        
+        for (final Map.Entry<PortalDataKey, ? extends Collection<Resource>> dataEntry : dataToImport.entrySet()) {
+            final PortalDataKey dataKey = dataEntry.getKey();
+            final IPortalDataType dataType = dataKeyTypes.get(dataKey);
+            
+            //Determine the data types this data key depends on, earlier keys of the same type are always depended on
+            final Set<IPortalDataType> dependencyTypes = new HashSet<IPortalDataType>();
+            final Set<IPortalDataType> userDependencyTypes;
+            if (typeDependencies.containsKey(dataType) || userTypeDependencies.containsKey(dataType)) {
+                dependencyTypes.addAll(nullToEmpty(typeDependencies.get(dataType)));
+                userDependencyTypes = nullToEmpty(userTypeDependencies.get(dataType));
+            }
+            else {
+                dependencyTypes.addAll(earlierTypes);
+                userDependencyTypes = Collections.emptySet();
+            }
+            dependencyTypes.add(dataType);
+            
+            final ImportNode keyBarrier = new ImportNode(dataKey, null, null);
+            final Map<String, List<ImportNode>> userNodes = new HashMap<String, List<ImportNode>>();
+            
+            for (final Resource resource : dataEntry.getValue()) {
+                final String username = resourceUsernames.get(resource);
+                final ImportNode node = new ImportNode(dataKey, resource, username);
+                
+                for (final Map.Entry<PortalDataKey, ImportNode> keyBarrierEntry : keyBarriers.entrySet()) {
+                    final PortalDataKey earlierKey = keyBarrierEntry.getKey();
+                    final IPortalDataType earlierType = dataKeyTypes.get(earlierKey);
+                    
+                    if (username != null && userDependencyTypes.contains(earlierType)) {
+                        //Only wait on the earlier entities for the same user, or that aren't for any specific user
+                        final Map<String, List<ImportNode>> earlierUserNodes = keyUserNodes.get(earlierKey);
+                        for (final ImportNode dependency : nullToEmpty(earlierUserNodes.get(username))) {
+                            addDependency(node, dependency);
+                        }
+                        for (final ImportNode dependency : nullToEmpty(earlierUserNodes.get(null))) {
+                            addDependency(node, dependency);
+                        }
+                    }
+                    else if (dependencyTypes.contains(earlierType) || userDependencyTypes.contains(earlierType)) {
+                        addDependency(node, keyBarrierEntry.getValue());
+                    }
+                }
+                
+                addDependency(keyBarrier, node);
+                
+                List<ImportNode> nodes = userNodes.get(username);
+                if (nodes == null) {
+                    nodes = new LinkedList<ImportNode>();
+                    userNodes.put(username, nodes);
+                }
+                nodes.add(node);
+                
+                if (node.pendingDependencies == 0) {
+                    this.readyNodes.add(node);
+                }
+                this.remainingCount++;
+            }
+            
+            keyBarriers.put(dataKey, keyBarrier);
+            keyUserNodes.put(dataKey, userNodes);
+            earlierTypes.add(dataType);
+        }
+    }
+    
+    /**
+     * @return Entities whose dependencies have all been imported since the last call, the caller is responsible for importing them
+     */
+    public List<ImportNode> getReadyNodes() {
+        final List<ImportNode> nodes = new ArrayList<ImportNode>(this.readyNodes);
+        this.readyNodes.clear();
+        return nodes;
+    }
+    
+    /**
+     * Mark the entity as imported, successfully or not
+     * 
+     * @return Entities that became ready to import as a result
+     */
+    public List<ImportNode> complete(ImportNode node) {
+        if (node.endTime < 0) {
+            //Timed out imports may still be running, use now as the completion time
+            node.endTime = System.nanoTime();
+        }
+        this.completedNodes.add(node);
+        this.remainingCount--;
+        
+        this.release(node);
+        return this.getReadyNodes();
+    }
+    
+    /**
+     * @return Number of entities that have not completed importing
+     */
+    public int getRemainingCount() {
+        return this.remainingCount;
+    }
+    
+    /**
+     * @return The chain of entities, each waiting on the previous, that ends with the last entity to complete. Speeding up
+     * any other entity would not have reduced the total import time.
+     */
+    public List<ImportNode> getCriticalPath() {
+        ImportNode last = null;
+        for (final ImportNode node : this.completedNodes) {
+            if (last == null || node.endTime >= last.endTime) {
+                last = node;
+            }
+        }
+        
+        final LinkedList<ImportNode> criticalPath = new LinkedList<ImportNode>();
+        for (ImportNode node = last; node != null; node = node.gatingDependency) {
+            if (node.isEntity()) {
+                criticalPath.addFirst(node);
+            }
+        }
+        return criticalPath;
+    }
+    
+    private void release(ImportNode node) {
+        for (final ImportNode dependent : node.dependents) {
+            dependent.pendingDependencies--;
+            if (dependent.pendingDependencies == 0) {
+                //The dependency that completed last is what held up the dependent
+                dependent.gatingDependency = node;
+                
+                if (dependent.isEntity()) {
+                    this.readyNodes.add(dependent);
+                }
+                else {
+                    //Data key barriers complete with the last entity of the key
+                    dependent.endTime = node.endTime;
+                    this.release(dependent);
+                }
+            }
+        }
+    }
+    
+    private static void addDependency(ImportNode node, ImportNode dependency) {
+        dependency.dependents.add(node);
+        node.pendingDependencies++;
+    }
+    
+    private static <T> Collection<T> nullToEmpty(Collection<T> c) {
+        if (c == null) {
+            return Collections.emptyList();
+        }
+        return c;
+    }
+    
+    private static <T> Set<T> nullToEmpty(Set<T> s) {
+        if (s == null) {
+            return Collections.emptySet();
+        }
+        return s;
+    }
+    
+    /**
+     * A single entity to import, or the barrier that completes once all entities of a data key are imported.
+     */
+    static final class ImportNode {
+        private final PortalDataKey dataKey;
+        private final Resource resource;
+        private final String username;
+        private final List<ImportNode> dependents = new LinkedList<ImportNode>();
+        private int pendingDependencies = 0;
+        private ImportNode gatingDependency;
+        private volatile long startTime = -1;
+        private volatile long endTime = -1;
+        
+        private ImportNode(PortalDataKey dataKey, Resource resource, String username) {
+            this.dataKey = dataKey;
+            this.resource = resource;
+            this.username = username;
+        }
+
+        public PortalDataKey getDataKey() {
+            return this.dataKey;
+        }
+
+        public Resource getResource() {
+            return this.resource;
+        }
+
+        public String getUsername() {
+            return this.username;
+        }
+        
+        public boolean isEntity() {
+            return this.resource != null;
+        }
+        
+        /**
+         * Called by the importing thread before the import starts
+         */
+        public void markStarted() {
+            this.startTime = System.nanoTime();
+        }
+        
+        /**
+         * Called by the importing thread once the import completes
+         */
+        public void markCompleted() {
+            this.endTime = System.nanoTime();
+        }
+        
+        /**
+         * @return nanoTime the import started, -1 if it hasn't started
+         */
+        public long getStartTime() {
+            return this.startTime;
+        }
+        
+        /**
+         * @return nanoTime the import completed, -1 if it hasn't completed
+         */
+        public long getEndTime() {
+            return this.endTime;
+        }
+        
+        public double getExecutionTimeMillis() {
+            if (this.startTime < 0) {
+                return 0;
+            }
+            final long end = this.endTime < 0 ? System.nanoTime() : this.endTime;
+            return (end - this.startTime) / 1000000.0;
+        }
+
+        @Override
+        public String toString() {
+            if (this.resource == null) {
+                return "all " + this.dataKey;
+            }
+            return this.resource.getDescription();
+        }
+    }
+}
@@ -29,8 +29,10 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.StartElement;
 
 import org.apache.commons.io.IOUtils;
@@ -48,10 +50,13 @@ import com.ctc.wstx.api.WstxInputProperties;
 import com.google.common.base.Function;
 
 public final class PortalDataKeyFileProcessor implements Function<Resource, Object> {
+    private static final QName USERNAME_ATTRIBUTE = new QName("username");
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private final AtomicLong count = new AtomicLong();
     private final ConcurrentMap<PortalDataKey, Queue<Resource>> dataToImport = new ConcurrentHashMap<PortalDataKey, Queue<Resource>>();
+    private final ConcurrentMap<Resource, String> resourceUsernames = new ConcurrentHashMap<Resource, String>();
     private final Map<PortalDataKey, IPortalDataType> dataKeyTypes;
     private final XMLInputFactory xmlInputFactory;
     private final BatchImportOptions options;
@@ -84,6 +89,12 @@ public final class PortalDataKeyFileProcessor implements Function<Resource, Obje
 		return dataToImport;
 	}
 
+	/**
+	 * @return Map of the user each resource is for, based on the username attribute of the root element
+	 */
+	public ConcurrentMap<Resource, String> getResourceUsernames() {
+		return resourceUsernames;
+	}
 
 
 	@Override
@@ -103,11 +114,13 @@ public final class PortalDataKeyFileProcessor implements Function<Resource, Obje
         
         final PortalDataKey portalDataKey;
         final BufferedXMLEventReader xmlEventReader;
+        final Attribute usernameAttribute;
         try {
             xmlEventReader = new BufferedXMLEventReader(this.xmlInputFactory.createXMLEventReader(fis), -1);
             
             final StartElement rootElement = StaxUtils.getRootElement(xmlEventReader);
             portalDataKey = new PortalDataKey(rootElement);
+            usernameAttribute = rootElement.getAttributeByName(USERNAME_ATTRIBUTE);
         }
         catch (Exception e) {
             if (this.options != null && !this.options.isIngoreNonDataFiles()) {
@@ -133,6 +146,11 @@ public final class PortalDataKeyFileProcessor implements Function<Resource, Obje
         final Set<PortalDataKey> processedPortalDataKeys = portalDataType.postProcessPortalDataKey(resourceUri, portalDataKey, xmlEventReader);
         xmlEventReader.reset();
         
+        //Track the user the data is for, used to allow imports for different users to run independently
+        if (usernameAttribute != null) {
+            this.resourceUsernames.put(input, usernameAttribute.getValue());
+        }
+        
         for (final PortalDataKey processedPortalDataKey : processedPortalDataKeys) {
             //Add the PortalDataKey and File into the map
             Queue<Resource> queue = this.dataToImport.get(processedPortalDataKey);
@@ -0,0 +1,275 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+import org.springframework.stereotype.Service;
+
+/**
+ * Coalesces layout saves triggered by layout customization requests. Instead of persisting the layout
+ * after every change the save is deferred until the layout has not been changed for {@link #setSaveDelay(long)}
+ * ms, or until it has been pending for {@link #setMaxSaveDelay(long)} ms, so a burst of drag-and-drop operations
+ * results in a single write. Pending saves are flushed when the session is destroyed (including logout) and
+ * must be flushed via {@link #flushUserLayout(HttpServletRequest)} before the layout is reloaded from the store.
+ * <p>
+ * A save that fails is put back in the queue and retried after {@link #setRetryDelay(long)} ms, doubling with each
+ * consecutive failure up to 5 minutes, so changes are not lost if the user makes no further change. Flushes throw
+ * the failure to the caller after putting the save back in the queue.
+ * <p>
+ * Deferred saves run on the scheduler thread while holding the {@link IUserLayoutManager}'s monitor, callers
+ * must hold the same monitor while modifying the layout so a save never runs in the middle of a change.
+ */
+@Service("userLayoutWriteBehindManager")
+public class UserLayoutWriteBehindManager implements ApplicationListener<HttpSessionDestroyedEvent>, DisposableBean {
+    protected final Log logger = LogFactory.getLog(this.getClass());
+    
+    private static final long MAX_RETRY_DELAY = 300000;
+    
+    private final ConcurrentMap<String, PendingSave> pendingSaves = new ConcurrentHashMap<String, PendingSave>();
+    
+    private long saveDelay = 2000;
+    private long maxSaveDelay = 10000;
+    private long retryDelay = 5000;
+    
+    /**
+     * Time in ms since the last change to a layout before it is saved, if less than or equal to 0 layouts
+     * are saved immediately
+     */
+    @Value("${org.jasig.portal.layout.UserLayoutWriteBehindManager.saveDelay:2000}")
+    public void setSaveDelay(long saveDelay) {
+        this.saveDelay = saveDelay;
+    }
+
+    /**
+     * Maximum time in ms a layout change can remain unsaved while the user continues to modify the layout
+     */
+    @Value("${org.jasig.portal.layout.UserLayoutWriteBehindManager.maxSaveDelay:10000}")
+    public void setMaxSaveDelay(long maxSaveDelay) {
+        this.maxSaveDelay = maxSaveDelay;
+    }
+
+    /**
+     * Time in ms before a failed save is retried, doubled for each consecutive failure
+     */
+    @Value("${org.jasig.portal.layout.UserLayoutWriteBehindManager.retryDelay:5000}")
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Schedule a save of the layout managed by the specified {@link IUserLayoutManager}. If a save is
+     * already pending for the request's session the two are coalesced.
+     */
+    public void saveUserLayout(HttpServletRequest request, IUserLayoutManager userLayoutManager) {
+        final HttpSession session = request.getSession(false);
+        if (this.saveDelay <= 0 || session == null) {
+            userLayoutManager.saveUserLayout();
+            return;
+        }
+        
+        final String sessionId = session.getId();
+        final long now = System.currentTimeMillis();
+        while (true) {
+            PendingSave pendingSave = this.pendingSaves.get(sessionId);
+            if (pendingSave == null) {
+                pendingSave = ConcurrentMapUtils.putIfAbsent(this.pendingSaves, sessionId, new PendingSave(userLayoutManager, now));
+            }
+            
+            if (pendingSave.userLayoutManager != userLayoutManager) {
+                //The session switched layout managers, persist the old one before tracking the new one
+                this.flushUserLayout(sessionId);
+                continue;
+            }
+            
+            if (pendingSave.touch(now)) {
+                return;
+            }
+            
+            //The pending save was claimed by a flush before this change was recorded, make sure it isn't lost
+            this.pendingSaves.remove(sessionId, pendingSave);
+        }
+    }
+    
+    /**
+     * Immediately save any pending layout changes for the request's session. Must be called before the
+     * layout is reloaded from the layout store.
+     * 
+     * @throws RuntimeException If the save fails, the save is retried later
+     */
+    public void flushUserLayout(HttpServletRequest request) {
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            this.flushUserLayout(session.getId());
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(HttpSessionDestroyedEvent event) {
+        final HttpSession session = event.getSession();
+        this.flushUserLayout(session.getId());
+    }
+    
+    @Override
+    public void destroy() throws Exception {
+        RuntimeException failure = null;
+        for (final String sessionId : this.pendingSaves.keySet()) {
+            try {
+                this.flushUserLayout(sessionId);
+            }
+            catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Save all layouts that have been idle for saveDelay ms or pending for maxSaveDelay ms
+     */
+    @Scheduled(fixedDelay=1000)
+    public void flushPendingSaves() {
+        this.flushPendingSaves(System.currentTimeMillis());
+    }
+    
+    protected void flushPendingSaves(long now) {
+        for (final Map.Entry<String, PendingSave> pendingSaveEntry : this.pendingSaves.entrySet()) {
+            final PendingSave pendingSave = pendingSaveEntry.getValue();
+            if (pendingSave.claimIfDue(now, this.saveDelay, this.maxSaveDelay)) {
+                this.pendingSaves.remove(pendingSaveEntry.getKey(), pendingSave);
+                try {
+                    this.save(pendingSaveEntry.getKey(), pendingSave);
+                }
+                catch (RuntimeException e) {
+                    //Already logged and queued for retry
+                }
+            }
+        }
+    }
+    
+    protected void flushUserLayout(String sessionId) {
+        final PendingSave pendingSave = this.pendingSaves.get(sessionId);
+        if (pendingSave != null && pendingSave.claimIfDue(Long.MAX_VALUE, 0, 0)) {
+            this.pendingSaves.remove(sessionId, pendingSave);
+            this.save(sessionId, pendingSave);
+        }
+    }
+    
+    /**
+     * Save the layout, if the save fails it is queued for retry and the failure is thrown
+     */
+    protected void save(String sessionId, PendingSave pendingSave) {
+        final IUserLayoutManager userLayoutManager = pendingSave.userLayoutManager;
+        try {
+            synchronized (userLayoutManager) {
+                userLayoutManager.saveUserLayout();
+            }
+        }
+        catch (RuntimeException e) {
+            this.retrySave(sessionId, pendingSave, e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Put a failed save back in the queue to be retried after the backoff delay. If the session already has a new
+     * pending save for the same layout manager that save includes the failed changes.
+     */
+    protected void retrySave(String sessionId, PendingSave failedSave, RuntimeException cause) {
+        final int failures = failedSave.failures + 1;
+        final long delay = Math.min(this.retryDelay << Math.min(failures - 1, 16), MAX_RETRY_DELAY);
+        final long now = System.currentTimeMillis();
+        
+        final PendingSave retrySave = new PendingSave(failedSave.userLayoutManager, now, failures, now + delay);
+        final PendingSave existing = this.pendingSaves.putIfAbsent(sessionId, retrySave);
+        if (existing != null && existing.userLayoutManager != failedSave.userLayoutManager) {
+            this.logger.error("Failed to save pending layout changes for session " + sessionId + 
+                    " and the session has switched layout managers, the changes will not be retried", cause);
+            return;
+        }
+        
+        this.logger.warn("Failed to save pending layout changes for session " + sessionId + 
+                ", retrying in " + delay + "ms (failure " + failures + ")", cause);
+    }
+    
+    private static final class PendingSave {
+        private final IUserLayoutManager userLayoutManager;
+        private final long firstChange;
+        private final int failures;
+        private final long retryAt;
+        private long lastChange;
+        private boolean claimed = false;
+        
+        public PendingSave(IUserLayoutManager userLayoutManager, long now) {
+            this(userLayoutManager, now, 0, 0);
+        }
+        
+        public PendingSave(IUserLayoutManager userLayoutManager, long now, int failures, long retryAt) {
+            this.userLayoutManager = userLayoutManager;
+            this.firstChange = now;
+            this.lastChange = now;
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+        
+        /**
+         * @return false if the save has already been claimed by a flush
+         */
+        public synchronized boolean touch(long now) {
+            if (this.claimed) {
+                return false;
+            }
+            this.lastChange = now;
+            return true;
+        }
+        
+        /**
+         * @return true if the save is due and was claimed by the caller
+         */
+        public synchronized boolean claimIfDue(long now, long saveDelay, long maxSaveDelay) {
+            if (this.claimed || now < this.retryAt) {
+                return false;
+            }
+            if (now - this.lastChange < saveDelay && now - this.firstChange < maxSaveDelay) {
+                return false;
+            }
+            this.claimed = true;
+            return true;
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.jasig.portal.layout.IStylesheetUserPreferencesService;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.jasig.portal.layout.IUserLayoutManager;
 import org.jasig.portal.layout.IUserLayoutStore;
+import org.jasig.portal.layout.UserLayoutWriteBehindManager;
 import org.jasig.portal.layout.dlm.Constants;
 import org.jasig.portal.layout.dlm.DistributedUserLayout;
 import org.jasig.portal.layout.dlm.UserPrefsHandler;
@@ -78,6 +79,10 @@ import org.w3c.dom.NodeList;
 /**
  * Provides targets for AJAX preference setting calls.
  * 
+ * Layout changes are made while holding the {@link IUserLayoutManager}'s monitor, the
+ * {@link UserLayoutWriteBehindManager} holds the same monitor when it saves the layout so a deferred
+ * save never sees a partially applied change.
+ * 
  * @author jennifer.bourey@yale.edu
  * @version $Revision$ $Date$
  */
@@ -100,6 +105,12 @@ public class UpdatePreferencesServlet {
 	private IUserInstanceManager userInstanceManager;
 	private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
 	private IUserLayoutStore userLayoutStore;
+	private UserLayoutWriteBehindManager userLayoutWriteBehindManager;
+
+	@Autowired
+    public void setUserLayoutWriteBehindManager(UserLayoutWriteBehindManager userLayoutWriteBehindManager) {
+        this.userLayoutWriteBehindManager = userLayoutWriteBehindManager;
+    }
 
 	@Autowired
     public void setUserLayoutStore(IUserLayoutStore userLayoutStore) {
@@ -153,30 +164,34 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-        try {
+        synchronized (ulm) {
+            try {
             
-            // if the element ID starts with the fragment prefix and is a folder, 
-            // attempt first to treat it as a pulled fragment subscription
-            String elementId = request.getParameter("elementID");
-            if (elementId != null && elementId.startsWith(Constants.FRAGMENT_ID_USER_PREFIX) && 
-                    ulm.getNode( elementId ) instanceof org.jasig.portal.layout.node.UserLayoutFolderDescription) {
+                // if the element ID starts with the fragment prefix and is a folder, 
+                // attempt first to treat it as a pulled fragment subscription
+                String elementId = request.getParameter("elementID");
+                if (elementId != null && elementId.startsWith(Constants.FRAGMENT_ID_USER_PREFIX) && 
+                        ulm.getNode( elementId ) instanceof org.jasig.portal.layout.node.UserLayoutFolderDescription) {
                 
-                removeSubscription(per, elementId, ulm);
+                    // removing a subscription reloads the layout, persist any pending changes first
+                    this.userLayoutWriteBehindManager.flushUserLayout(request);
+                    removeSubscription(per, elementId, ulm);
                 
-            } else {
-                // Delete the requested element node.  This code is the same for 
-                // all node types, so we can just have a generic action.
-               ulm.deleteNode(elementId);
-            }
+                } else {
+                    // Delete the requested element node.  This code is the same for 
+                    // all node types, so we can just have a generic action.
+                   ulm.deleteNode(elementId);
+                }
 
-            ulm.saveUserLayout();
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
 
-            return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+                return new ModelAndView("jsonView", Collections.EMPTY_MAP);
             
-        } catch (Exception e) {
-            log.warn("Failed to remove element from layout", e);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-            return null;
+            } catch (Exception e) {
+                log.warn("Failed to remove element from layout", e);
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return null;
+            }
         }
     }
 
@@ -198,64 +213,67 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-        // Get the fragment owner's name from the request and construct 
-        // an IPerson object representing that user
-        String fragmentOwnerName = request.getParameter("sourceID");
-        if (StringUtils.isBlank(fragmentOwnerName)) {
-            log.warn("Attempted to subscribe to tab with null owner ID");
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-            return null;
-        }
-        RestrictedPerson fragmentOwner = PersonFactory.createRestrictedPerson();
-        fragmentOwner.setUserName(fragmentOwnerName);
-
-        // Mark the currently-authenticated user as subscribed to this fragment.
-        // If an inactivated fragment registration already exists, update it
-        // as an active subscription.  Otherwise, create a new fragment
-        // subscription.
-        IUserFragmentSubscription userFragmentInfo = userFragmentInfoDao
-            .getUserFragmentInfo(per, fragmentOwner);
-        if (userFragmentInfo == null) {
-            userFragmentInfo = userFragmentInfoDao.createUserFragmentInfo(per,
-                    fragmentOwner);
-        } else {
-            userFragmentInfo.setActive(true);
-            userFragmentInfoDao.updateUserFragmentInfo(userFragmentInfo);
-        }
+        synchronized (ulm) {
+            // Get the fragment owner's name from the request and construct 
+            // an IPerson object representing that user
+            String fragmentOwnerName = request.getParameter("sourceID");
+            if (StringUtils.isBlank(fragmentOwnerName)) {
+                log.warn("Attempted to subscribe to tab with null owner ID");
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return null;
+            }
+            RestrictedPerson fragmentOwner = PersonFactory.createRestrictedPerson();
+            fragmentOwner.setUserName(fragmentOwnerName);
+
+            // Mark the currently-authenticated user as subscribed to this fragment.
+            // If an inactivated fragment registration already exists, update it
+            // as an active subscription.  Otherwise, create a new fragment
+            // subscription.
+            IUserFragmentSubscription userFragmentInfo = userFragmentInfoDao
+                .getUserFragmentInfo(per, fragmentOwner);
+            if (userFragmentInfo == null) {
+                userFragmentInfo = userFragmentInfoDao.createUserFragmentInfo(per,
+                        fragmentOwner);
+            } else {
+                userFragmentInfo.setActive(true);
+                userFragmentInfoDao.updateUserFragmentInfo(userFragmentInfo);
+            }
         
-        try {
-            // reload user layout and stylesheet to incorporate new DLM fragment
-            ulm.loadUserLayout(true);
-
-            // get the target node this new tab should be moved after
-            String destinationId = request.getParameter("elementID");
-
-            // get the user layout for the currently-authenticated user
-            int uid = userIdentityStore.getPortalUID(fragmentOwner, false);
-            final DistributedUserLayout userLayout = userLayoutStore.getUserLayout(per, upm.getUserProfile());
-            Document layoutDocument = userLayout.getLayout();
-
-            // attempt to find the new subscribed tab in the layout so we can
-            // move it
-            StringBuilder expression = new StringBuilder("//folder[@type='root']/folder[starts-with(@ID,'")
-                                       .append(Constants.FRAGMENT_ID_USER_PREFIX)
-                                       .append(uid)
-                                       .append("')]");
-            XPathFactory fac = XPathFactory.newInstance();
-            XPath xpath = fac.newXPath();
-            NodeList nodes = (NodeList) xpath.evaluate(expression.toString(), layoutDocument,  XPathConstants.NODESET);
-            String sourceId = nodes.item(0).getAttributes().getNamedItem("ID").getTextContent();
-            ulm.moveNode(sourceId, ulm.getParentId(destinationId), destinationId);
-
-            ulm.saveUserLayout();
-
-            return new ModelAndView("jsonView", Collections.singletonMap("tabId", sourceId));
+            try {
+                // persist any pending changes then reload user layout and stylesheet to incorporate new DLM fragment
+                this.userLayoutWriteBehindManager.flushUserLayout(request);
+                ulm.loadUserLayout(true);
+
+                // get the target node this new tab should be moved after
+                String destinationId = request.getParameter("elementID");
+
+                // get the user layout for the currently-authenticated user
+                int uid = userIdentityStore.getPortalUID(fragmentOwner, false);
+                final DistributedUserLayout userLayout = userLayoutStore.getUserLayout(per, upm.getUserProfile());
+                Document layoutDocument = userLayout.getLayout();
+
+                // attempt to find the new subscribed tab in the layout so we can
+                // move it
+                StringBuilder expression = new StringBuilder("//folder[@type='root']/folder[starts-with(@ID,'")
+                                           .append(Constants.FRAGMENT_ID_USER_PREFIX)
+                                           .append(uid)
+                                           .append("')]");
+                XPathFactory fac = XPathFactory.newInstance();
+                XPath xpath = fac.newXPath();
+                NodeList nodes = (NodeList) xpath.evaluate(expression.toString(), layoutDocument,  XPathConstants.NODESET);
+                String sourceId = nodes.item(0).getAttributes().getNamedItem("ID").getTextContent();
+                ulm.moveNode(sourceId, ulm.getParentId(destinationId), destinationId);
+
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+
+                return new ModelAndView("jsonView", Collections.singletonMap("tabId", sourceId));
             
-        } catch (Exception e) {
-            log.warn("Error subscribing to fragment owned by "
-                    + fragmentOwnerName, e);
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-            return null;
+            } catch (Exception e) {
+                log.warn("Error subscribing to fragment owned by "
+                        + fragmentOwnerName, e);
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return null;
+            }
         }
 
     }
@@ -279,69 +297,71 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-		// portlet to be moved
-		String sourceId = request.getParameter("sourceID");
+        synchronized (ulm) {
+			// portlet to be moved
+			String sourceId = request.getParameter("sourceID");
 
-		// Either "insertBefore" or "appendAfter".
-		String method = request.getParameter("method");
+			// Either "insertBefore" or "appendAfter".
+			String method = request.getParameter("method");
 
-		// Target element to move the source element in front of.  This parameter
-		// isn't actually relevant if we're appending the source element.
-		String destinationId = request.getParameter("elementID");
+			// Target element to move the source element in front of.  This parameter
+			// isn't actually relevant if we're appending the source element.
+			String destinationId = request.getParameter("elementID");
 
 		
-		if (isTab(ulm, destinationId)) {
-			// if the target is a tab type node, move the portlet to 
-			// the end of the first column
-		    @SuppressWarnings("unchecked")
-			Enumeration<String> columns = ulm.getChildIds(destinationId);
-			if (columns.hasMoreElements()) {
-				ulm.moveNode(sourceId, columns.nextElement(), null);
-			} else {
-
-				IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
-				newColumn.setName("Column");
-				newColumn.setId("tbd");
-				newColumn
-						.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
-				newColumn.setHidden(false);
-				newColumn.setUnremovable(false);
-				newColumn.setImmutable(false);
-
-				// add the column to our layout
-				IUserLayoutNodeDescription col = ulm.addNode(newColumn,
-						destinationId, null);
-
-				// move the channel
-				ulm.moveNode(sourceId, col.getId(), null);
-			}
-
-		} else if (ulm.getRootFolderId().equals(
-			// if the target is a column type node, we need to just move the portlet
-			// to the end of the column
-			ulm.getParentId(ulm.getParentId(destinationId)))) {
-			ulm.moveNode(sourceId, destinationId, null);
+			if (isTab(ulm, destinationId)) {
+				// if the target is a tab type node, move the portlet to 
+				// the end of the first column
+			    @SuppressWarnings("unchecked")
+				Enumeration<String> columns = ulm.getChildIds(destinationId);
+				if (columns.hasMoreElements()) {
+					ulm.moveNode(sourceId, columns.nextElement(), null);
+				} else {
+
+					IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
+					newColumn.setName("Column");
+					newColumn.setId("tbd");
+					newColumn
+							.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
+					newColumn.setHidden(false);
+					newColumn.setUnremovable(false);
+					newColumn.setImmutable(false);
+
+					// add the column to our layout
+					IUserLayoutNodeDescription col = ulm.addNode(newColumn,
+							destinationId, null);
+
+					// move the channel
+					ulm.moveNode(sourceId, col.getId(), null);
+				}
 
-		} else {
-			// If we're moving this element before another one, we need
-			// to know what the target is. If there's no target, just
-			// assume we're moving it to the very end of the column.
-			String siblingId = null;
-			if (method.equals("insertBefore"))
-				siblingId = destinationId;
+			} else if (ulm.getRootFolderId().equals(
+				// if the target is a column type node, we need to just move the portlet
+				// to the end of the column
+				ulm.getParentId(ulm.getParentId(destinationId)))) {
+				ulm.moveNode(sourceId, destinationId, null);
 
-			// move the node as requested and save the layout
-			ulm.moveNode(sourceId, ulm.getParentId(destinationId), siblingId);
-		}
+			} else {
+				// If we're moving this element before another one, we need
+				// to know what the target is. If there's no target, just
+				// assume we're moving it to the very end of the column.
+				String siblingId = null;
+				if (method.equals("insertBefore"))
+					siblingId = destinationId;
+
+				// move the node as requested and save the layout
+				ulm.moveNode(sourceId, ulm.getParentId(destinationId), siblingId);
+			}
 
-		try {
-			// save the user's layout
-            ulm.saveUserLayout();
-		} catch (Exception e) {
-			log.warn("Error saving layout", e);
-		}
+			try {
+				// save the user's layout
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+			} catch (Exception e) {
+				log.warn("Error saving layout", e);
+			}
 
-        return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+            return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+        }
 
 	}
 	
@@ -372,90 +392,92 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-		int newColumnCount = widths.length;
+        synchronized (ulm) {
+			int newColumnCount = widths.length;
         
-		// build a list of the current columns for this tab
-        @SuppressWarnings("unchecked")
-		Enumeration<String> columns = ulm.getChildIds(tabId);
-		List<String> columnList = new ArrayList<String>();
-		while (columns.hasMoreElements()) {
-			columnList.add(columns.nextElement());
-		}
-        int oldColumnCount = columnList.size();
+			// build a list of the current columns for this tab
+            @SuppressWarnings("unchecked")
+			Enumeration<String> columns = ulm.getChildIds(tabId);
+			List<String> columnList = new ArrayList<String>();
+			while (columns.hasMoreElements()) {
+				columnList.add(columns.nextElement());
+			}
+            int oldColumnCount = columnList.size();
         
-        Map<String, Object> model = new HashMap<String, Object>();
-
-        // if the new layout has more columns 
-		if (newColumnCount > oldColumnCount) {
-	        List<String> newColumnIds = new ArrayList<String>();
-			for (int i = columnList.size(); i < newColumnCount; i++) {
-
-				// create new column element
-				IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
-				newColumn.setName("Column");
-				newColumn.setId("tbd");
-				newColumn
-						.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
-				newColumn.setHidden(false);
-				newColumn.setUnremovable(false);
-				newColumn.setImmutable(false);
-
-				// add the column to our layout
-				IUserLayoutNodeDescription node = ulm.addNode(newColumn, tabId,
-						null);
-				newColumnIds.add(node.getId());
+            Map<String, Object> model = new HashMap<String, Object>();
+
+            // if the new layout has more columns 
+			if (newColumnCount > oldColumnCount) {
+		        List<String> newColumnIds = new ArrayList<String>();
+				for (int i = columnList.size(); i < newColumnCount; i++) {
+
+					// create new column element
+					IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
+					newColumn.setName("Column");
+					newColumn.setId("tbd");
+					newColumn
+							.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
+					newColumn.setHidden(false);
+					newColumn.setUnremovable(false);
+					newColumn.setImmutable(false);
+
+					// add the column to our layout
+					IUserLayoutNodeDescription node = ulm.addNode(newColumn, tabId,
+							null);
+					newColumnIds.add(node.getId());
 				
-	            model.put("newColumnIds", newColumnIds);
-				columnList.add(node.getId());
+		            model.put("newColumnIds", newColumnIds);
+					columnList.add(node.getId());
 
-			}
+				}
 
-		} 
+			} 
 		
-		// if the new layout has fewer columns
-		else if (deleted != null && deleted.length > 0) {
+			// if the new layout has fewer columns
+			else if (deleted != null && deleted.length > 0) {
 		    
-	        if (columnList.size() != widths.length + deleted.length) {
-	            // TODO: error?
-	        }
+		        if (columnList.size() != widths.length + deleted.length) {
+		            // TODO: error?
+		        }
 	        
-		    for (String columnId : deleted) {
+			    for (String columnId : deleted) {
 		        
-                // move all channels in the current column to the last valid column
-                @SuppressWarnings("unchecked")
-                Enumeration channels = ulm.getChildIds(columnId);
-                while (channels.hasMoreElements()) {
-                    ulm.addNode(ulm.getNode((String) channels.nextElement()),
-                            acceptor, null);
-                }
-
-                // delete the column from the user's layout
-                ulm.deleteNode(columnId); 
+                    // move all channels in the current column to the last valid column
+                    @SuppressWarnings("unchecked")
+                    Enumeration channels = ulm.getChildIds(columnId);
+                    while (channels.hasMoreElements()) {
+                        ulm.addNode(ulm.getNode((String) channels.nextElement()),
+                                acceptor, null);
+                    }
+
+                    // delete the column from the user's layout
+                    ulm.deleteNode(columnId); 
                 
-                columnList.remove(columnId);
-            }
-		}
+                    columnList.remove(columnId);
+                }
+			}
 
-		int count = 0;
-		for (String columnId : columnList) {
-		    this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, columnId, "width", widths[count] + "%");
+			int count = 0;
+			for (String columnId : columnList) {
+			    this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, columnId, "width", widths[count] + "%");
+				try {
+					// This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
+		            Element folder = ulm.getUserLayoutDOM().getElementById(columnId);
+					UserPrefsHandler.setUserPreference(folder, "width", per);
+				} catch (Exception e) {
+					log.error("Error saving new column widths", e);
+				}
+				count++;
+			}
+		
 			try {
-				// This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
-	            Element folder = ulm.getUserLayoutDOM().getElementById(columnId);
-				UserPrefsHandler.setUserPreference(folder, "width", per);
+			    this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
 			} catch (Exception e) {
-				log.error("Error saving new column widths", e);
+				log.warn("Error saving layout", e);
 			}
-			count++;
-		}
-		
-		try {
-		    ulm.saveUserLayout();
-		} catch (Exception e) {
-			log.warn("Error saving layout", e);
-		}
 
-        return new ModelAndView("jsonView", model);
+            return new ModelAndView("jsonView", model);
+        }
 
 	}
 
@@ -479,30 +501,32 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-		// gather the parameters we need to move a channel
-		String destinationId = request.getParameter("elementID");
-		String sourceId = request.getParameter("sourceID");
-		String method = request.getParameter("method");
-
-		// If we're moving this element before another one, we need
-		// to know what the target is. If there's no target, just
-		// assume we're moving it to the very end of the list.
-		String siblingId = null;
-		if (method.equals("insertBefore"))
-			siblingId = destinationId;
-
-		// move the node as requested and save the layout
-		ulm.moveNode(sourceId, ulm.getParentId(destinationId), siblingId);
-
-		try {
-            ulm.saveUserLayout();
-		} catch (Exception e) {
-			log.warn("Failed to move tab in user layout", e);
-			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-			return null;
-		}
+        synchronized (ulm) {
+			// gather the parameters we need to move a channel
+			String destinationId = request.getParameter("elementID");
+			String sourceId = request.getParameter("sourceID");
+			String method = request.getParameter("method");
 
-		return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+			// If we're moving this element before another one, we need
+			// to know what the target is. If there's no target, just
+			// assume we're moving it to the very end of the list.
+			String siblingId = null;
+			if (method.equals("insertBefore"))
+				siblingId = destinationId;
+
+			// move the node as requested and save the layout
+			ulm.moveNode(sourceId, ulm.getParentId(destinationId), siblingId);
+
+			try {
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+			} catch (Exception e) {
+				log.warn("Failed to move tab in user layout", e);
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return null;
+			}
+
+			return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+        }
 
 	}
 
@@ -525,76 +549,78 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-		// gather the parameters we need to move a channel
-		String destinationId = request.getParameter("elementID");
-		String sourceId = request.getParameter("channelID");
-		String method = request.getParameter("position");
+        synchronized (ulm) {
+			// gather the parameters we need to move a channel
+			String destinationId = request.getParameter("elementID");
+			String sourceId = request.getParameter("channelID");
+			String method = request.getParameter("position");
 
-		IPortletDefinition definition = portletDefinitionRegistry.getPortletDefinition(sourceId);
+			IPortletDefinition definition = portletDefinitionRegistry.getPortletDefinition(sourceId);
 		
-        IUserLayoutChannelDescription channel = new UserLayoutChannelDescription(definition);
+            IUserLayoutChannelDescription channel = new UserLayoutChannelDescription(definition);
 
-		IUserLayoutNodeDescription node = null;
-		if (isTab(ulm, destinationId)) {
-            @SuppressWarnings("unchecked")
-			Enumeration<String> columns = ulm.getChildIds(destinationId);
-			if (columns.hasMoreElements()) {
-				while (columns.hasMoreElements()) {
-					// attempt to add this channel to the column
-					node = ulm.addNode(channel, columns.nextElement(), null);
-					// if it couldn't be added to this column, go on and try the next
-					// one.  otherwise, we're set.
-					if (node != null)
-						break;
+			IUserLayoutNodeDescription node = null;
+			if (isTab(ulm, destinationId)) {
+                @SuppressWarnings("unchecked")
+				Enumeration<String> columns = ulm.getChildIds(destinationId);
+				if (columns.hasMoreElements()) {
+					while (columns.hasMoreElements()) {
+						// attempt to add this channel to the column
+						node = ulm.addNode(channel, columns.nextElement(), null);
+						// if it couldn't be added to this column, go on and try the next
+						// one.  otherwise, we're set.
+						if (node != null)
+							break;
+					}
+				} else {
+
+					IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
+					newColumn.setName("Column");
+					newColumn.setId("tbd");
+					newColumn
+							.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
+					newColumn.setHidden(false);
+					newColumn.setUnremovable(false);
+					newColumn.setImmutable(false);
+
+					// add the column to our layout
+					IUserLayoutNodeDescription col = ulm.addNode(newColumn,
+							destinationId, null);
+
+					// add the channel
+					node = ulm.addNode(channel, col.getId(), null);
 				}
-			} else {
 
-				IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
-				newColumn.setName("Column");
-				newColumn.setId("tbd");
-				newColumn
-						.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
-				newColumn.setHidden(false);
-				newColumn.setUnremovable(false);
-				newColumn.setImmutable(false);
-
-				// add the column to our layout
-				IUserLayoutNodeDescription col = ulm.addNode(newColumn,
-						destinationId, null);
-
-				// add the channel
-				node = ulm.addNode(channel, col.getId(), null);
+			} else if (isColumn(ulm, destinationId)) {
+				// move the channel into the column
+				node = ulm.addNode(channel, destinationId, null);
+			} else {
+				// If we're moving this element before another one, we need
+				// to know what the target is. If there's no target, just
+				// assume we're moving it to the very end of the column.
+				String siblingId = null;
+				if (method.equals("insertBefore"))
+					siblingId = destinationId;
+
+				// move the node as requested and save the layout
+				node = ulm.addNode(channel, ulm.getParentId(destinationId),
+						siblingId);
 			}
 
-		} else if (isColumn(ulm, destinationId)) {
-			// move the channel into the column
-			node = ulm.addNode(channel, destinationId, null);
-		} else {
-			// If we're moving this element before another one, we need
-			// to know what the target is. If there's no target, just
-			// assume we're moving it to the very end of the column.
-			String siblingId = null;
-			if (method.equals("insertBefore"))
-				siblingId = destinationId;
-
-			// move the node as requested and save the layout
-			node = ulm.addNode(channel, ulm.getParentId(destinationId),
-					siblingId);
-		}
-
-		String nodeId = node.getId();
+			String nodeId = node.getId();
 
-		try {
-			// save the user's layout
-            ulm.saveUserLayout();
-		} catch (Exception e) {
-			log.warn("Error saving layout", e);
-		}
+			try {
+				// save the user's layout
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+			} catch (Exception e) {
+				log.warn("Error saving layout", e);
+			}
 
-		Map<String, String> model = new HashMap<String, String>();
-		model.put("response", "Added new channel");
-		model.put("newNodeId", nodeId);
-		return new ModelAndView("jsonView", model);
+			Map<String, String> model = new HashMap<String, String>();
+			model.put("response", "Added new channel");
+			model.put("newNodeId", nodeId);
+			return new ModelAndView("jsonView", model);
+        }
 
 	}
 
@@ -635,90 +661,92 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-        // Verify that the user has permission to add this tab
-        final IAuthorizationPrincipal authPrincipal = this.getUserPrincipal(per.getUserName());
-        if (!authPrincipal.hasPermission(ADDTAB_PERMISSION_OWNER, ADDTAB_PERMISSION_ACTIVITY, ADDTAB_PERMISSION_TARGET)) {
-            log.warn("Attempt to add a tab through the REST API by unauthorized user '" + per.getUserName() + "'");
-            response.sendError(HttpServletResponse.SC_FORBIDDEN);
-            return null;
-        }
+        synchronized (ulm) {
+            // Verify that the user has permission to add this tab
+            final IAuthorizationPrincipal authPrincipal = this.getUserPrincipal(per.getUserName());
+            if (!authPrincipal.hasPermission(ADDTAB_PERMISSION_OWNER, ADDTAB_PERMISSION_ACTIVITY, ADDTAB_PERMISSION_TARGET)) {
+                log.warn("Attempt to add a tab through the REST API by unauthorized user '" + per.getUserName() + "'");
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return null;
+            }
         
-		// construct a brand new tab
-		String id = "tbd";
-        String tabName = request.getParameter("tabName");
-        if (StringUtils.isBlank(tabName)) tabName = DEFAULT_TAB_NAME;
-		IUserLayoutFolderDescription newTab = new UserLayoutFolderDescription();
-		newTab.setName(tabName);
-		newTab.setId(id);
-		newTab.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
-		newTab.setHidden(false);
-		newTab.setUnremovable(false);
-		newTab.setImmutable(false);
-
-		// add the tab to the layout
-		ulm.addNode(newTab, ulm.getRootFolderId(), null);
-
-		try {
-			// save the user's layout
-            ulm.saveUserLayout();
-		} catch (Exception e) {
-			log.warn("Error saving layout", e);
-		}
-
-		// get the id of the newly added tab
-		String tabId = newTab.getId();
-
-        for (String width : widths) {
-
-            // create new column element
-            IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
-            newColumn.setName("Column");
-            newColumn.setId("tbd");
-            newColumn
-                    .setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
-            newColumn.setHidden(false);
-            newColumn.setUnremovable(false);
-            newColumn.setImmutable(false);
-
-            // add the column to our layout
-            ulm.addNode(newColumn, tabId, null);
+			// construct a brand new tab
+			String id = "tbd";
+            String tabName = request.getParameter("tabName");
+            if (StringUtils.isBlank(tabName)) tabName = DEFAULT_TAB_NAME;
+			IUserLayoutFolderDescription newTab = new UserLayoutFolderDescription();
+			newTab.setName(tabName);
+			newTab.setId(id);
+			newTab.setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
+			newTab.setHidden(false);
+			newTab.setUnremovable(false);
+			newTab.setImmutable(false);
+
+			// add the tab to the layout
+			ulm.addNode(newTab, ulm.getRootFolderId(), null);
+
+			try {
+				// save the user's layout
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+			} catch (Exception e) {
+				log.warn("Error saving layout", e);
+			}
+
+			// get the id of the newly added tab
+			String tabId = newTab.getId();
+
+            for (String width : widths) {
+
+                // create new column element
+                IUserLayoutFolderDescription newColumn = new UserLayoutFolderDescription();
+                newColumn.setName("Column");
+                newColumn.setId("tbd");
+                newColumn
+                        .setFolderType(IUserLayoutFolderDescription.REGULAR_TYPE);
+                newColumn.setHidden(false);
+                newColumn.setUnremovable(false);
+                newColumn.setImmutable(false);
+
+                // add the column to our layout
+                ulm.addNode(newColumn, tabId, null);
             
-            this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, newColumn.getId(), "width", width + "%");
-            try {
-                // This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
-                Element folder = ulm.getUserLayoutDOM().getElementById(newColumn.getId());
-                UserPrefsHandler.setUserPreference(folder, "width", per);
-            } catch (Exception e) {
-                log.error("Error saving new column widths", e);
+                this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, newColumn.getId(), "width", width + "%");
+                try {
+                    // This sets the column attribute in memory but doesn't persist it.  Comment says saves changes "prior to persisting"
+                    Element folder = ulm.getUserLayoutDOM().getElementById(newColumn.getId());
+                    UserPrefsHandler.setUserPreference(folder, "width", per);
+                } catch (Exception e) {
+                    log.error("Error saving new column widths", e);
+                }
+
             }
 
-        }
+            // ## 'tabGroup' value (optional feature)
+            // Set the 'tabGroup' attribute on the folder element that describes 
+            // this new tab;  use the currently active tabGroup.
+            if (request.getParameter(TAB_GROUP_PARAMETER)!= null) {
 
-        // ## 'tabGroup' value (optional feature)
-        // Set the 'tabGroup' attribute on the folder element that describes 
-        // this new tab;  use the currently active tabGroup.
-        if (request.getParameter(TAB_GROUP_PARAMETER)!= null) {
+                String tabGroup = request.getParameter(TAB_GROUP_PARAMETER).trim();
+                if (log.isDebugEnabled()) {
+                    log.debug(TAB_GROUP_PARAMETER + "=" + tabGroup);
+                }
 
-            String tabGroup = request.getParameter(TAB_GROUP_PARAMETER).trim();
-            if (log.isDebugEnabled()) {
-                log.debug(TAB_GROUP_PARAMETER + "=" + tabGroup);
-            }
+                if (!TAB_GROUP_DEFAULT.equals(tabGroup) && tabGroup.length() != 0) {
+                    // Persists SSUP values to the database
+                    this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, TAB_GROUP_PARAMETER , tabGroup);
+                }
 
-            if (!TAB_GROUP_DEFAULT.equals(tabGroup) && tabGroup.length() != 0) {
-                // Persists SSUP values to the database
-                this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, TAB_GROUP_PARAMETER , tabGroup);
             }
 
-        }
+            try {
+                // save the user's layout
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+            } catch (Exception e) {
+                log.warn("Error saving layout", e);
+            }
 
-        try {
-            // save the user's layout
-            ulm.saveUserLayout();
-        } catch (Exception e) {
-            log.warn("Error saving layout", e);
+			return new ModelAndView("jsonView", Collections.singletonMap("tabId", tabId));
         }
-
-		return new ModelAndView("jsonView", Collections.singletonMap("tabId", tabId));
 	}
 
 	/**
@@ -734,40 +762,42 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-		// element ID of the tab to be renamed
-		String tabId = request.getParameter("tabId");
-        IUserLayoutFolderDescription tab = (IUserLayoutFolderDescription) ulm
-            .getNode(tabId);
+        synchronized (ulm) {
+			// element ID of the tab to be renamed
+			String tabId = request.getParameter("tabId");
+            IUserLayoutFolderDescription tab = (IUserLayoutFolderDescription) ulm
+                .getNode(tabId);
 
-		// desired new name
-		String tabName = request.getParameter("tabName");
+			// desired new name
+			String tabName = request.getParameter("tabName");
 
-		if (!ulm.canUpdateNode(tab)) {
-		    log.warn("Attempting to rename an immutable tab");
-		    response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-		    return null;
-		}
+			if (!ulm.canUpdateNode(tab)) {
+			    log.warn("Attempting to rename an immutable tab");
+			    response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			    return null;
+			}
 		
-		/*
-		 * Update the tab and save the layout
-		 */
-	    tab.setName(StringUtils.isBlank(tabName) ? DEFAULT_TAB_NAME : tabName);
-		final boolean updated = ulm.updateNode(tab);
+			/*
+			 * Update the tab and save the layout
+			 */
+		    tab.setName(StringUtils.isBlank(tabName) ? DEFAULT_TAB_NAME : tabName);
+			final boolean updated = ulm.updateNode(tab);
 		
-		if (updated) {
-    		try {
-    			// save the user's layout
-                ulm.saveUserLayout();
-    		} catch (Exception e) {
-    			log.warn("Error saving layout", e);
-    		}
+			if (updated) {
+        		try {
+        			// save the user's layout
+                    this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+        		} catch (Exception e) {
+        			log.warn("Error saving layout", e);
+        		}
     
-    		//TODO why do we have to do this, shouldn't modifying the layout be enough to trigger a full re-render (layout's cache key changes)
-    		this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, "name", tabName);
-		}
+        		//TODO why do we have to do this, shouldn't modifying the layout be enough to trigger a full re-render (layout's cache key changes)
+        		this.stylesheetUserPreferencesService.setLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, "name", tabName);
+			}
 
-        Map<String, String> model = Collections.singletonMap("message", "saved new tab name");
-        return new ModelAndView("jsonView", model);
+            Map<String, String> model = Collections.singletonMap("message", "saved new tab name");
+            return new ModelAndView("jsonView", model);
+        }
 
 	}
 
@@ -778,45 +808,47 @@ public class UpdatePreferencesServlet {
         UserPreferencesManager upm = (UserPreferencesManager) ui.getPreferencesManager();
         IUserLayoutManager ulm = upm.getUserLayoutManager();
 
-        String elementId = request.getParameter("elementID");
-        IUserLayoutNodeDescription node = ulm.getNode(elementId);
+        synchronized (ulm) {
+            String elementId = request.getParameter("elementID");
+            IUserLayoutNodeDescription node = ulm.getNode(elementId);
         
-        if (node == null){
-            log.warn("Failed to locate node for permissions update");
-            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
-            return null;
-        }
+            if (node == null){
+                log.warn("Failed to locate node for permissions update");
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return null;
+            }
         
-        String deletable = request.getParameter("deletable");
-        if (!StringUtils.isBlank(deletable)) {
-            node.setDeleteAllowed(Boolean.valueOf(deletable));
-        }
+            String deletable = request.getParameter("deletable");
+            if (!StringUtils.isBlank(deletable)) {
+                node.setDeleteAllowed(Boolean.valueOf(deletable));
+            }
 
-        String movable = request.getParameter("movable");
-        if (!StringUtils.isBlank(movable)) {
-            node.setMoveAllowed(Boolean.valueOf(movable));
-        }
+            String movable = request.getParameter("movable");
+            if (!StringUtils.isBlank(movable)) {
+                node.setMoveAllowed(Boolean.valueOf(movable));
+            }
 
-        String editable = request.getParameter("editable");
-        if (!StringUtils.isBlank(editable)) {
-            node.setEditAllowed(Boolean.valueOf(editable));
-        }
+            String editable = request.getParameter("editable");
+            if (!StringUtils.isBlank(editable)) {
+                node.setEditAllowed(Boolean.valueOf(editable));
+            }
         
-        String canAddChildren = request.getParameter("addChildAllowed");
-        if (!StringUtils.isBlank(canAddChildren)) {
-            node.setAddChildAllowed(Boolean.valueOf(canAddChildren));
-        }
+            String canAddChildren = request.getParameter("addChildAllowed");
+            if (!StringUtils.isBlank(canAddChildren)) {
+                node.setAddChildAllowed(Boolean.valueOf(canAddChildren));
+            }
         
-        ulm.updateNode(node);
+            ulm.updateNode(node);
         
-        try {
-            // save the user's layout
-            ulm.saveUserLayout();
-        } catch (Exception e) {
-            log.warn("Error saving layout", e);
-        }
+            try {
+                // save the user's layout
+                this.userLayoutWriteBehindManager.saveUserLayout(request, ulm);
+            } catch (Exception e) {
+                log.warn("Error saving layout", e);
+            }
 
-        return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+            return new ModelAndView("jsonView", Collections.EMPTY_MAP);
+        }
 
     }
     
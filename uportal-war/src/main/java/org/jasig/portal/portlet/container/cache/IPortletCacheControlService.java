@@ -76,6 +76,16 @@ public interface IPortletCacheControlService {
     void cachePortletRenderOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest,
             CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState, CachedPortletData<PortletRenderResult> cachedPortletData);
     
+    /**
+     * Store the output of a render request that completed after the page it was requested for had already been
+     * returned. The output is stored in the private scoped cache so that it can be displayed on the next page
+     * render if the portlet is still not done by the page render deadline. Valid cached data is never replaced.
+     * 
+     * @param cacheState The render cache state for the portlet, retrieved while the original request was active 
+     */
+    void cacheLatePortletRenderOutput(CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState,
+            CachedPortletData<PortletRenderResult> cachedPortletData);
+    
     /**
      * Store the output of a resource request in the cache for the portlet and request. This method internally will determine
      * if the content needs to be stored in a public or private scoped cache.
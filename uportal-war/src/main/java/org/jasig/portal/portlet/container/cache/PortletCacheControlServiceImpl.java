@@ -423,6 +423,32 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 this.privateScopePortletResourceOutputCache);
 	}
 
+    @Override
+    public void cacheLatePortletRenderOutput(
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState,
+            CachedPortletData<PortletRenderResult> cachedPortletData) {
+        
+        //Private key is null if publicly cached data was found, that data will be used for the next render
+        final PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
+        if (privateCacheKey == null) {
+            return;
+        }
+        
+        //Don't replace data cached by the portlet that is still valid
+        final Element existingElement = this.privateScopePortletRenderOutputCache.getQuiet(privateCacheKey);
+        if (existingElement != null && !existingElement.isExpired()) {
+            @SuppressWarnings("unchecked")
+            final CachedPortletData<PortletRenderResult> existingData = (CachedPortletData<PortletRenderResult>) existingElement.getObjectValue();
+            final long expirationTime = existingData.getExpirationTime();
+            if (existingData.getEtag() != null || expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+                return;
+            }
+        }
+        
+        this.privateScopePortletRenderOutputCache.put(new Element(privateCacheKey, cachedPortletData));
+        logger.debug("Cached late render output under key {}", privateCacheKey);
+    }
+
     private <D extends CachedPortletResultHolder<T>, T extends Serializable> void cachePortletOutput(IPortletWindowId portletWindowId, HttpServletRequest httpRequest,
             CacheState<D, T> cacheState, D cachedPortletData, Ehcache publicOutputCache, Ehcache privateOutputCache) {
         
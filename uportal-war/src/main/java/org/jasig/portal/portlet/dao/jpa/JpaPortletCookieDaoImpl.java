@@ -21,20 +21,15 @@ package org.jasig.portal.portlet.dao.jpa;
 
 import java.security.SecureRandom;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
-import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.ParameterExpression;
-import javax.persistence.criteria.Root;
 import javax.servlet.http.Cookie;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.jpa.OpenEntityManager;
@@ -42,9 +37,10 @@ import org.jasig.portal.portlet.dao.IPortletCookieDao;
 import org.jasig.portal.portlet.om.IPortalCookie;
 import org.jasig.portal.portlet.om.IPortletCookie;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
-
-import com.google.common.base.Function;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
 
 /**
  * JPA implementation of {@link IPortletCookieDao}.
@@ -59,8 +55,18 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
 
 	private String deletePortalCookieQueryString;
 	private String deletePortletCookieQueryString;
-	private CriteriaQuery<PortletCookieImpl> findExpiredByParentPortletCookiesQuery;
+	private String deleteExpiredByParentPortletCookiesQueryString;
     private ParameterExpression<Date> nowParameter;
+    private long portletCookieExpirationUpdateInterval = TimeUnit.MINUTES.toMillis(5);
+    
+    /**
+     * @param portletCookieExpirationUpdateInterval If a portlet re-sets an unchanged cookie the stored expiration is only
+     * updated if it moves by more than this many ms. Defaults to 5 minutes.
+     */
+    @Value("${org.jasig.portal.portlet.dao.jpa.JpaPortletCookieDaoImpl.portletCookieExpirationUpdateInterval:300000}")
+    public void setPortletCookieExpirationUpdateInterval(long portletCookieExpirationUpdateInterval) {
+        this.portletCookieExpirationUpdateInterval = portletCookieExpirationUpdateInterval;
+    }
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -74,17 +80,11 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
                 "DELETE FROM " + PortletCookieImpl.class.getName() + " e " +
                 "WHERE e." + PortletCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName();
         
-        this.findExpiredByParentPortletCookiesQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<PortletCookieImpl>>() {
-            @Override
-            public CriteriaQuery<PortletCookieImpl> apply(CriteriaBuilder cb) {
-                final CriteriaQuery<PortletCookieImpl> criteriaQuery = cb.createQuery(PortletCookieImpl.class);
-                final Root<PortletCookieImpl> typeRoot = criteriaQuery.from(PortletCookieImpl.class);
-                criteriaQuery.select(typeRoot);
-                criteriaQuery.where(cb.lessThanOrEqualTo(typeRoot.get(PortletCookieImpl_.portalCookie).get(PortalCookieImpl_.expires), nowParameter));
-                
-                return criteriaQuery;
-            }
-        });
+        this.deleteExpiredByParentPortletCookiesQueryString = 
+                "DELETE FROM " + PortletCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortletCookieImpl_.portalCookie.getName() + " IN (" +
+                    "SELECT p FROM " + PortalCookieImpl.class.getName() + " p " +
+                    "WHERE p." + PortalCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName() + ")";
     }
 	
 	/**
@@ -153,15 +153,12 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
             logger.debug("finished purging " + deletedPortletCookies + " directly expired portlet cookies");
         }
         
-        final TypedQuery<PortletCookieImpl> expiredByParentCookiesQuery = this.createQuery(findExpiredByParentPortletCookiesQuery);
-        expiredByParentCookiesQuery.setParameter(this.nowParameter.getName(), now);
-        final List<PortletCookieImpl> indirectlyExpiredCookies = expiredByParentCookiesQuery.getResultList();
-        for (final PortletCookieImpl portletCookieImpl : indirectlyExpiredCookies) {
-            entityManager.remove(portletCookieImpl);
-        }
+        final Query deleteExpiredByParentPortletCookiesQuery = entityManager.createQuery(this.deleteExpiredByParentPortletCookiesQueryString);
+        deleteExpiredByParentPortletCookiesQuery.setParameter(this.nowParameter.getName(), now);
+        final int indirectlyExpiredCookies = deleteExpiredByParentPortletCookiesQuery.executeUpdate();
         
         if(logger.isDebugEnabled()) {
-            logger.debug("finished purging " + indirectlyExpiredCookies.size() + " indirectly expired portlet cookies");
+            logger.debug("finished purging " + indirectlyExpiredCookies + " indirectly expired portlet cookies");
         }
 
 		logger.debug("begin portal cookie expiration");
@@ -180,39 +177,88 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
 	 * @see org.jasig.portal.portlet.dao.IPortletCookieDao#updatePortletCookie(org.jasig.portal.portlet.om.IPortalCookie, javax.servlet.http.Cookie)
 	 */
 	@Override
-	@PortalTransactional
-	public IPortalCookie addOrUpdatePortletCookie(IPortalCookie portalCookie, Cookie cookie) {
-	    final Set<IPortletCookie> portletCookies = portalCookie.getPortletCookies();
+	public IPortalCookie addOrUpdatePortletCookie(final IPortalCookie portalCookie, final Cookie cookie) {
+	    final IPortletCookie existingPortletCookie = this.findPortletCookie(portalCookie, cookie.getName());
 	    
-	    boolean found = false;
-	    final String name = cookie.getName();
-        final EntityManager entityManager = this.getEntityManager();
-        for (final Iterator<IPortletCookie> portletCookieItr = portletCookies.iterator(); portletCookieItr.hasNext(); ) {
-	        final IPortletCookie portletCookie = portletCookieItr.next();
+	    //Skip the transaction entirely if nothing about the stored cookie would change
+	    if (existingPortletCookie == null) {
+	        if (cookie.getMaxAge() == 0) {
+	            return portalCookie;
+	        }
+	    }
+	    else if (cookie.getMaxAge() != 0 && !this.isModified(existingPortletCookie, cookie)) {
+	        return portalCookie;
+	    }
+	    
+	    return this.getTransactionOperations().execute(new TransactionCallback<IPortalCookie>() {
+            @Override
+            public IPortalCookie doInTransaction(TransactionStatus status) {
+                final EntityManager entityManager = getEntityManager();
+                
+                if (existingPortletCookie == null) {
+                    final IPortletCookie newPortletCookie = new PortletCookieImpl(portalCookie, cookie);
+                    addPortletCookie(portalCookie, newPortletCookie);
+                }
+                //Delete cookies with a maxAge of 0
+                else if (cookie.getMaxAge() == 0) {
+                    removePortletCookie(portalCookie, existingPortletCookie);
+                    entityManager.remove(existingPortletCookie);
+                }
+                else {
+                    existingPortletCookie.updateFromCookie(cookie);
+                }
+                
+                entityManager.persist(portalCookie);
+                
+                return portalCookie;
+            }
+        });
+	}
+	
+	/**
+	 * @return true if applying the cookie to the portlet cookie would change the stored state
+	 */
+	protected boolean isModified(IPortletCookie portletCookie, Cookie cookie) {
+	    if (!ObjectUtils.equals(portletCookie.getValue(), cookie.getValue()) ||
+	            !ObjectUtils.equals(portletCookie.getDomain(), cookie.getDomain()) ||
+	            !ObjectUtils.equals(portletCookie.getPath(), cookie.getPath()) ||
+	            !ObjectUtils.equals(portletCookie.getComment(), cookie.getComment()) ||
+	            portletCookie.isSecure() != cookie.getSecure()) {
+	        return true;
+	    }
+	    
+	    final long expires = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cookie.getMaxAge());
+	    return Math.abs(expires - portletCookie.getExpires().getTime()) > this.portletCookieExpirationUpdateInterval;
+	}
+	
+	protected IPortletCookie findPortletCookie(IPortalCookie portalCookie, String name) {
+	    if (portalCookie instanceof PortalCookieImpl) {
+	        return ((PortalCookieImpl) portalCookie).getPortletCookie(name);
+	    }
+	    
+	    for (final IPortletCookie portletCookie : portalCookie.getPortletCookies()) {
 	        if (name.equals(portletCookie.getName())) {
-	            //Delete cookies with a maxAge of 0
-	            if (cookie.getMaxAge() == 0) {
-	                portletCookieItr.remove();
-	                entityManager.remove(portletCookie);
-	            }
-	            else {
-	                portletCookie.updateFromCookie(cookie);
-	            }
-	            
-	            found = true;
-	            break;
+	            return portletCookie;
 	        }
-        }
-        
-        if (!found) {
-            IPortletCookie newPortletCookie = new PortletCookieImpl(portalCookie, cookie);
-            portletCookies.add(newPortletCookie);
-        }
-        
-		entityManager.persist(portalCookie);
-		
-		return portalCookie;
+	    }
+	    return null;
 	}
 	
+	protected void addPortletCookie(IPortalCookie portalCookie, IPortletCookie portletCookie) {
+	    if (portalCookie instanceof PortalCookieImpl) {
+	        ((PortalCookieImpl) portalCookie).addPortletCookie(portletCookie);
+	    }
+	    else {
+	        portalCookie.getPortletCookies().add(portletCookie);
+	    }
+	}
 	
+	protected void removePortletCookie(IPortalCookie portalCookie, IPortletCookie portletCookie) {
+	    if (portalCookie instanceof PortalCookieImpl) {
+	        ((PortalCookieImpl) portalCookie).removePortletCookie(portletCookie);
+	    }
+	    else {
+	        portalCookie.getPortletCookies().remove(portletCookie);
+	    }
+	}
 }
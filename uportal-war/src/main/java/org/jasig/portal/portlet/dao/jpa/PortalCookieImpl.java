@@ -19,8 +19,11 @@
 
 package org.jasig.portal.portlet.dao.jpa;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.Cacheable;
@@ -35,6 +38,7 @@ import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
+import javax.persistence.Transient;
 import javax.persistence.Version;
 
 import org.hibernate.annotations.Cache;
@@ -100,6 +104,9 @@ class PortalCookieImpl implements IPortalCookie {
     @Fetch(FetchMode.JOIN)
     private Set<IPortletCookie> portletCookies;
 	
+	@Transient
+	private transient Map<String, IPortletCookie> portletCookiesByName;
+	
 	/**
 	 * For ORM internal use only
 	 */
@@ -160,11 +167,12 @@ class PortalCookieImpl implements IPortalCookie {
 	}
 
 	/**
-	 * @return the portletCookies
+	 * @return read-only view of the portletCookies, use {@link #addPortletCookie(IPortletCookie)} and
+	 * {@link #removePortletCookie(IPortletCookie)} to modify them
 	 */
 	@Override
     public Set<IPortletCookie> getPortletCookies() {
-		return portletCookies;
+		return Collections.unmodifiableSet(portletCookies);
 	}
 
 	/**
@@ -174,6 +182,42 @@ class PortalCookieImpl implements IPortalCookie {
     public void setExpires(Date expires) {
 		this.expires = expires;
 	}
+	
+	/**
+	 * @return The portlet cookie with the specified name, null if no such cookie exists
+	 */
+	synchronized IPortletCookie getPortletCookie(String name) {
+	    //Build the index on first use, add and remove are the only ways to modify the set and they keep it current
+	    if (this.portletCookiesByName == null) {
+	        final Map<String, IPortletCookie> portletCookiesByName = new HashMap<String, IPortletCookie>(this.portletCookies.size() * 2);
+	        for (final IPortletCookie portletCookie : this.portletCookies) {
+	            portletCookiesByName.put(portletCookie.getName(), portletCookie);
+	        }
+	        this.portletCookiesByName = portletCookiesByName;
+	    }
+	    
+	    return this.portletCookiesByName.get(name);
+	}
+	
+	/**
+	 * Add the portlet cookie, keeping the name index up to date
+	 */
+	synchronized void addPortletCookie(IPortletCookie portletCookie) {
+	    this.portletCookies.add(portletCookie);
+	    if (this.portletCookiesByName != null) {
+	        this.portletCookiesByName.put(portletCookie.getName(), portletCookie);
+	    }
+	}
+	
+	/**
+	 * Remove the portlet cookie, keeping the name index up to date
+	 */
+	synchronized void removePortletCookie(IPortletCookie portletCookie) {
+	    this.portletCookies.remove(portletCookie);
+	    if (this.portletCookiesByName != null) {
+	        this.portletCookiesByName.remove(portletCookie.getName());
+	    }
+	}
 
     @Override
     public String toString() {
@@ -20,17 +20,20 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.portlet.Event;
@@ -42,6 +45,9 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.events.IPortletExecutionEventFactory;
+import org.jasig.portal.portlet.container.cache.CacheState;
+import org.jasig.portal.portlet.container.cache.CachedPortletData;
+import org.jasig.portal.portlet.container.cache.IPortletCacheControlService;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionParameter;
 import org.jasig.portal.portlet.om.IPortletDescriptorKey;
@@ -50,12 +56,15 @@ import org.jasig.portal.portlet.om.IPortletEntityId;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.worker.IPortletEventExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
 import org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
+import org.jasig.portal.portlet.rendering.worker.PortletCircuitBreaker;
 import org.jasig.portal.utils.ConcurrentMapUtils;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
@@ -86,6 +95,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
     private static final String PORTLET_HEADER_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
 	private static final String PORTLET_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_RENDERING_MAP";
+    private static final String PAGE_RENDER_DEADLINE = PortletExecutionManager.class.getName() + ".PAGE_RENDER_DEADLINE";
+    private static final String DEFERRED_RENDER_ATTRIBUTE = PortletExecutionManager.class.getName() + ".DEFERRED_RENDER";
 
     protected static final String SESSION_ATTRIBUTE__PORTLET_FAILURE_CAUSE_MAP = PortletExecutionManager.class.getName() + ".PORTLET_FAILURE_CAUSE_MAP";
     
@@ -100,6 +111,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      * Queue used to track workers that did not complete in their alloted time. 
      */
     private final Queue<IPortletExecutionWorker<?>> hungWorkers = new ConcurrentLinkedQueue<IPortletExecutionWorker<?>>();
+    
+    /**
+     * Queue used to track render workers that were still running when the page render deadline passed. 
+     */
+    private final Queue<DeferredPortletRender> deferredRenders = new ConcurrentLinkedQueue<DeferredPortletRender>();
 
     private final ConcurrentMap<IPortletDescriptorKey, AtomicInteger> executionCount = ConcurrentMapUtils.makeDefaultsMap(new Function<IPortletDescriptorKey, AtomicInteger>(){
         public AtomicInteger apply(IPortletDescriptorKey key) {
@@ -110,11 +126,14 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private boolean ignoreTimeouts = false;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
+    private long pageRenderDeadline = TimeUnit.SECONDS.toMillis(15);
     private int maxEventIterations = 100;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEventCoordinationService eventCoordinationService;
     private IPortletWorkerFactory portletWorkerFactory;
     private IPortletExecutionEventFactory portletExecutionEventFactory;
+    private PortletCircuitBreaker portletCircuitBreaker;
+    private IPortletCacheControlService portletCacheControlService;
     
     /**
      * @param maxEventIterations The maximum number of iterations to spend dispatching events. Defaults to 100
@@ -163,6 +182,17 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return this.extendedTimeoutMultiplier;
     }
     
+    @Override
+    @Value("${org.jasig.portal.portlet.pageRenderDeadline:15000}")
+    public void setPageRenderDeadline(long pageRenderDeadline) {
+        this.pageRenderDeadline = pageRenderDeadline;
+    }
+
+    @Override
+    public long getPageRenderDeadline() {
+        return this.pageRenderDeadline;
+    }
+    
     @Override
     public Map<String, Integer> getPortletExecutionCounts() {
         final Map<String, Integer> counts = new TreeMap<String, Integer>();
@@ -196,6 +226,16 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         this.portletExecutionEventFactory = portletExecutionEventFactory;
     }
 
+    @Autowired
+    public void setPortletCircuitBreaker(PortletCircuitBreaker portletCircuitBreaker) {
+        this.portletCircuitBreaker = portletCircuitBreaker;
+    }
+
+    @Autowired
+    public void setPortletCacheControlService(IPortletCacheControlService portletCacheControlService) {
+        this.portletCacheControlService = portletCacheControlService;
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
             throws Exception {
@@ -228,7 +268,16 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             }
         }
         
-        if (!portletRenderExecutionWorker.isComplete()) {
+        if (portletRenderExecutionWorker.isComplete()) {
+            return;
+        }
+        
+        //Deferred renders are left running until their own timeout passes, switch them to copies of the request
+        //and response since the container recycles the originals once this request completes
+        if (portletRenderExecutionWorker.getExecutionAttribute(DEFERRED_RENDER_ATTRIBUTE) != null) {
+            portletRenderExecutionWorker.detach();
+        }
+        else {
             cancelWorker(request, portletRenderExecutionWorker);
         }
     }
@@ -247,6 +296,62 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         hungWorkers.offer(portletExecutionWorker);
     }
     
+    /**
+     * Caches the output of deferred render workers once they complete so the next page render can use it, cancels
+     * deferred workers that run past their timeout.
+     */
+    @Scheduled(fixedRate=1000)
+    public void processDeferredRenders() {
+        if (this.deferredRenders.isEmpty()) {
+            return;
+        }
+        
+        final long now = System.currentTimeMillis();
+        for (final Iterator<DeferredPortletRender> deferredItr = this.deferredRenders.iterator(); deferredItr.hasNext(); ) {
+            final DeferredPortletRender deferredRender = deferredItr.next();
+            final IPortletRenderExecutionWorker worker = deferredRender.worker;
+            
+            if (worker.getCompleteTime() > 0) {
+                deferredItr.remove();
+                this.cacheDeferredRender(deferredRender);
+            }
+            else {
+                final long startTime = worker.isStarted() ? worker.getStartedTime() : worker.getSubmittedTime();
+                if (now - startTime > deferredRender.timeout) {
+                    deferredItr.remove();
+                    this.logger.warn("{} has not completed, adding to hung-worker cleanup queue", worker);
+                    
+                    worker.cancel();
+                    
+                    this.portletExecutionEventFactory.publishPortletHungEvent(null, this, worker);
+                    hungWorkers.offer(worker);
+                }
+            }
+        }
+    }
+    
+    protected void cacheDeferredRender(DeferredPortletRender deferredRender) {
+        final IPortletRenderExecutionWorker worker = deferredRender.worker;
+        
+        final PortletRenderResult portletRenderResult;
+        final String output;
+        try {
+            portletRenderResult = worker.get(0);
+            output = worker.getOutput(0);
+        }
+        catch (Exception e) {
+            this.logger.debug("Deferred render did not complete successfully, no output will be cached: {}", worker);
+            return;
+        }
+        
+        if (output == null) {
+            return;
+        }
+        
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(portletRenderResult, output, null, null, false, null, 0);
+        this.portletCacheControlService.cacheLatePortletRenderOutput(deferredRender.cacheState, cachedPortletData);
+    }
+    
     @Scheduled(fixedRate=1000)
     public void cleanupHungWorkers() {
         if (this.hungWorkers.isEmpty()) {
@@ -341,8 +446,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
             return;
         }
         
-        final Map<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkers = new LinkedHashMap<IPortletWindowId, IPortletExecutionWorker<Long>>();
+        final Map<IPortletWindowId, IPortletEventExecutionWorker> eventWorkers = new LinkedHashMap<IPortletWindowId, IPortletEventExecutionWorker>();
+        final Map<IPortletWindowId, Long> eventWorkerTimeouts = new HashMap<IPortletWindowId, Long>();
         
+        //Event workers add themselves to this queue as soon as they complete
+        final BlockingQueue<IPortletEventExecutionWorker> completedEventWorkers = new LinkedBlockingQueue<IPortletEventExecutionWorker>();
 
         //TODO what to do if we hit the max iterations?
         int iteration = 0;
@@ -364,8 +472,9 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 
                 if (queuedEvent != null) {
                 	final Event event = queuedEvent.getEvent();
-                    final IPortletExecutionWorker<Long> portletEventExecutionWorker = this.portletWorkerFactory.createEventWorker(request, response, eventWindowId, event);
+                    final IPortletEventExecutionWorker portletEventExecutionWorker = this.portletWorkerFactory.createEventWorker(request, response, eventWindowId, event, completedEventWorkers);
                     eventWorkers.put(eventWindowId, portletEventExecutionWorker);
+                    eventWorkerTimeouts.put(eventWindowId, getPortletEventTimeout(eventWindowId, request));
                     portletEventExecutionWorker.submit();
                 }
             }
@@ -375,36 +484,65 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 return;
             }
             
-            //See if any of the events have completed
-            int completedEventWorkers = 0;
-            final Set<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> entrySet = eventWorkers.entrySet();
-            for (final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = entrySet.iterator(); eventWorkerEntryItr.hasNext();) {
-                final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry = eventWorkerEntryItr.next();
-                
-                final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                if (eventWorker.isComplete()) {
-                    final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
-                    //TODO return number of new queued events, use to break the loop earlier
-                    waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
+            /*
+             * Wait for whichever event worker completes first, or until the earliest worker deadline. Not waiting
+             * for all events since each event may spawn more events and we want to start them processing as soon
+             * as possible
+             */
+            long earliestDeadline = Long.MAX_VALUE;
+            for (final IPortletEventExecutionWorker eventWorker : eventWorkers.values()) {
+                final long deadline = getEventWorkerDeadline(eventWorker, eventWorkerTimeouts.get(eventWorker.getPortletWindowId()));
+                earliestDeadline = Math.min(earliestDeadline, deadline);
+            }
+            final long waitTime = Math.max(0, earliestDeadline - System.currentTimeMillis());
+            IPortletEventExecutionWorker completedEventWorker;
+            try {
+                completedEventWorker = completedEventWorkers.poll(waitTime, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                this.logger.warn("Interrupted while waiting for portlet events to complete, canceling " + eventWorkers.size() + " event workers", e);
+                for (final IPortletEventExecutionWorker eventWorker : eventWorkers.values()) {
+                    if (!eventWorker.isComplete()) {
+                        cancelWorker(request, eventWorker);
+                    }
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            
+            if (completedEventWorker == null) {
+                /*
+                 * No worker completed before the earliest deadline, give up on all workers that are past their
+                 * deadline. A worker that started while waiting gets its full timeout from the start time.
+                 */
+                final long now = System.currentTimeMillis();
+                for (final Iterator<Entry<IPortletWindowId, IPortletEventExecutionWorker>> eventWorkerEntryItr = eventWorkers.entrySet().iterator(); eventWorkerEntryItr.hasNext();) {
+                    final Entry<IPortletWindowId, IPortletEventExecutionWorker> eventWorkerEntry = eventWorkerEntryItr.next();
                     
-                    eventWorkerEntryItr.remove();
-                    completedEventWorkers++;
+                    final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
+                    final IPortletEventExecutionWorker eventWorker = eventWorkerEntry.getValue();
+                    if (getEventWorkerDeadline(eventWorker, eventWorkerTimeouts.get(portletWindowId)) <= now) {
+                        waitForEventWorker(request, eventQueue, eventWorker, portletWindowId, 0);
+                        
+                        eventWorkerEntryItr.remove();
+                        eventWorkerTimeouts.remove(portletWindowId);
+                    }
                 }
+                continue;
             }
             
-            /*
-             * If no event workers have completed without waiting wait for the first one and then loop again
-             * Not waiting for all events since each event may spawn more events and we want to start them
-             * processing as soon as possible
-             */
-            if (completedEventWorkers == 0) {
-                final Iterator<Entry<IPortletWindowId, IPortletExecutionWorker<Long>>> eventWorkerEntryItr = entrySet.iterator();
-                final Entry<IPortletWindowId, IPortletExecutionWorker<Long>> eventWorkerEntry = eventWorkerEntryItr.next();
-                eventWorkerEntryItr.remove();
+            //Handle every worker that has completed so far, their new events are resolved on the next iteration
+            for (; completedEventWorker != null; completedEventWorker = completedEventWorkers.poll()) {
+                final IPortletWindowId portletWindowId = completedEventWorker.getPortletWindowId();
+                if (eventWorkers.get(portletWindowId) != completedEventWorker) {
+                    //Worker already timed out and was canceled
+                    continue;
+                }
+                
+                waitForEventWorker(request, eventQueue, completedEventWorker, portletWindowId);
                 
-                final IPortletWindowId portletWindowId = eventWorkerEntry.getKey();
-                final IPortletExecutionWorker<Long> eventWorker = eventWorkerEntry.getValue();
-                waitForEventWorker(request, eventQueue, eventWorker, portletWindowId);
+                eventWorkers.remove(portletWindowId);
+                eventWorkerTimeouts.remove(portletWindowId);
             }
         }
         
@@ -413,11 +551,29 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
 
+    /**
+     * Time an event worker times out at. Matches {@link IPortletExecutionWorker#get(long)}, the timeout counts from
+     * when the worker started or, while it is still waiting for a thread, from when it was submitted.
+     */
+    static long getEventWorkerDeadline(IPortletExecutionWorker<?> eventWorker, long timeout) {
+        final long startedTime = eventWorker.getStartedTime();
+        if (startedTime > 0) {
+            return startedTime + timeout;
+        }
+        return eventWorker.getSubmittedTime() + timeout;
+    }
+
     protected void waitForEventWorker(
             HttpServletRequest request, PortletEventQueue eventQueue, 
             IPortletExecutionWorker<Long> eventWorker, IPortletWindowId portletWindowId) {
 
         final long timeout = getPortletEventTimeout(portletWindowId, request);
+        waitForEventWorker(request, eventQueue, eventWorker, portletWindowId, timeout);
+    }
+
+    protected void waitForEventWorker(
+            HttpServletRequest request, PortletEventQueue eventQueue, 
+            IPortletExecutionWorker<Long> eventWorker, IPortletWindowId portletWindowId, long timeout) {
         
         try {
             eventWorker.get(timeout);
@@ -612,7 +768,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     		HttpServletRequest request, HttpServletResponse response) {
     	if(doesPortletNeedHeaderWorker(portletWindowId, request)) {
     		final IPortletRenderExecutionWorker tracker = getRenderedPortletHeader(portletWindowId, request, response);
-    		final long timeout = getPortletRenderTimeout(portletWindowId, request);
+    		final long timeout = getPageRenderWaitTimeout(request, getPortletRenderTimeout(portletWindowId, request));
     		try {
     			final String output = tracker.getOutput(timeout);
     			return output == null ? "" : output;
@@ -669,11 +825,20 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     public String getPortletOutput(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
     	final IPortletRenderExecutionWorker tracker = getRenderedPortletBody(portletWindowId, request, response);
         final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long waitTimeout = getPageRenderWaitTimeout(request, timeout);
 
 		try {
-			final String output = tracker.getOutput(timeout);
+			final String output = tracker.getOutput(waitTimeout);
 			return output == null ? "" : output;
 		} catch (Exception e) {
+		    if (e instanceof TimeoutException && waitTimeout < timeout) {
+		        //Page render deadline passed before the portlet's timeout, leave it running and use the last output if available
+		        final String deferredOutput = this.deferPortletRender(portletWindowId, request, response, tracker, timeout);
+		        if (deferredOutput != null) {
+		            return deferredOutput;
+		        }
+		    }
+		    
 		    final IPortletFailureExecutionWorker failureWorker = this.portletWorkerFactory.createFailureWorker(request, response, portletWindowId, e);
 		    // TODO publish portlet error event?
 		    try {
@@ -716,7 +881,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
         if (disableDynamicTitle == null || !Boolean.parseBoolean(disableDynamicTitle.getValue())) {
             final IPortletRenderExecutionWorker tracker = getRenderedPortletBody(portletWindowId, request, response);
-            final long timeout = getPortletRenderTimeout(portletWindowId, request);
+            final long timeout = getPageRenderWaitTimeout(request, getPortletRenderTimeout(portletWindowId, request));
             
     		try {
     			final PortletRenderResult portletRenderResult = tracker.get(timeout);
@@ -754,7 +919,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     @Override
     public int getPortletNewItemCount(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
         final IPortletRenderExecutionWorker tracker = getRenderedPortletBody(portletWindowId, request, response);
-        final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long timeout = getPageRenderWaitTimeout(request, getPortletRenderTimeout(portletWindowId, request));
         
         try {
             final PortletRenderResult portletRenderResult = tracker.get(timeout);
@@ -773,7 +938,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     @Override
     public String getPortletLink(IPortletWindowId portletWindowId, String defaultPortletUrl, HttpServletRequest request, HttpServletResponse response) {
         final IPortletRenderExecutionWorker tracker = getRenderedPortletBody(portletWindowId, request, response);
-        final long timeout = getPortletRenderTimeout(portletWindowId, request);
+        final long timeout = getPageRenderWaitTimeout(request, getPortletRenderTimeout(portletWindowId, request));
         
         try {
             final PortletRenderResult portletRenderResult = tracker.get(timeout);
@@ -793,13 +958,17 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return defaultPortletUrl;
     }
     
-    protected final long getModifiedTimeout(IPortletDefinition portletDefinition, HttpServletRequest request, long timeout) {
+    /**
+     * The first {@link #getExtendedTimeoutExecutions()} executions of a portlet get an extended timeout, after that
+     * render and resource timeouts (by default) are adapted to the observed latency of the portlet by the {@link PortletCircuitBreaker}
+     */
+    protected final long getModifiedTimeout(IPortletDefinition portletDefinition, ExecutionType executionType, HttpServletRequest request, long timeout) {
         final IPortletDescriptorKey portletDescriptorKey = portletDefinition.getPortletDescriptorKey();
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         final int executionCount = counter.get();
         
         if (executionCount > extendedTimeoutExecutions) {
-            return timeout;
+            return this.portletCircuitBreaker.getAdaptiveTimeout(portletDefinition.getFName(), executionType, timeout);
         }
 
         if (logger.isDebugEnabled()) {
@@ -816,10 +985,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer actionTimeout = portletDefinition.getActionTimeout();
         if (actionTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, actionTimeout);
+            return getModifiedTimeout(portletDefinition, ExecutionType.ACTION, request, actionTimeout);
         }
         
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(portletDefinition, ExecutionType.ACTION, request, portletDefinition.getTimeout());
     }
     
     protected long getPortletEventTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
@@ -830,10 +999,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer eventTimeout = portletDefinition.getEventTimeout();
         if (eventTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, eventTimeout);
+            return getModifiedTimeout(portletDefinition, ExecutionType.EVENT, request, eventTimeout);
         }
         
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(portletDefinition, ExecutionType.EVENT, request, portletDefinition.getTimeout());
     }
     
     protected long getPortletRenderTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
@@ -844,10 +1013,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer renderTimeout = portletDefinition.getRenderTimeout();
         if (renderTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, renderTimeout);
+            return getModifiedTimeout(portletDefinition, ExecutionType.RENDER, request, renderTimeout);
         }
         
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(portletDefinition, ExecutionType.RENDER, request, portletDefinition.getTimeout());
     }
     
     protected long getPortletResourceTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
@@ -858,10 +1027,61 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer resourceTimeout = portletDefinition.getResourceTimeout();
         if (resourceTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, resourceTimeout);
+            return getModifiedTimeout(portletDefinition, ExecutionType.RESOURCE, request, resourceTimeout);
         }
         
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getModifiedTimeout(portletDefinition, ExecutionType.RESOURCE, request, portletDefinition.getTimeout());
+    }
+
+    /**
+     * Determine how long to wait on a render worker, the lesser of the portlet's timeout and the time remaining
+     * until the page render deadline. The deadline is set the first time a portlet render is waited on for the request.
+     */
+    protected long getPageRenderWaitTimeout(HttpServletRequest request, long timeout) {
+        if (this.ignoreTimeouts || this.pageRenderDeadline < 0) {
+            return timeout;
+        }
+        
+        final long now = System.currentTimeMillis();
+        Long deadline = (Long) request.getAttribute(PAGE_RENDER_DEADLINE);
+        if (deadline == null) {
+            deadline = now + this.pageRenderDeadline;
+            request.setAttribute(PAGE_RENDER_DEADLINE, deadline);
+        }
+        
+        return Math.min(timeout, Math.max(0, deadline - now));
+    }
+    
+    /**
+     * Leave the render worker running past the end of the request and queue it so its output is cached once it completes.
+     * 
+     * @return The last output cached for the portlet, null if there is no cached output.
+     */
+    protected String deferPortletRender(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response, 
+            IPortletRenderExecutionWorker worker, long timeout) {
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = this.portletCacheControlService.getPortletRenderState(request, portletWindowId);
+        
+        if (worker.setExecutionAttribute(DEFERRED_RENDER_ATTRIBUTE, Boolean.TRUE) == null) {
+            this.deferredRenders.offer(new DeferredPortletRender(worker, cacheState, timeout));
+        }
+        
+        final CachedPortletData<PortletRenderResult> cachedPortletData = cacheState.getCachedPortletData();
+        if (cachedPortletData == null) {
+            this.logger.debug("Page render deadline passed for {} and there is no cached output", worker);
+            return null;
+        }
+        
+        this.logger.debug("Page render deadline passed for {}, rendering output cached at {}", worker, cachedPortletData.getTimeStored());
+        final RenderPortletOutputHandler renderPortletOutputHandler = new RenderPortletOutputHandler(response.getCharacterEncoding());
+        try {
+            cachedPortletData.replay(renderPortletOutputHandler);
+        }
+        catch (IOException e) {
+            this.logger.warn("Failed to replay cached output for " + portletWindowId, e);
+            return null;
+        }
+        return renderPortletOutputHandler.getOutput();
     }
 
     protected IPortletDefinition getPortletDefinition(IPortletWindowId portletWindowId, HttpServletRequest request) {
@@ -980,4 +1200,19 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
     }
     
+    /**
+     * Render worker that was still running when the page render deadline passed
+     */
+    protected static final class DeferredPortletRender {
+        private final IPortletRenderExecutionWorker worker;
+        private final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState;
+        private final long timeout;
+        
+        public DeferredPortletRender(IPortletRenderExecutionWorker worker,
+                CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState, long timeout) {
+            this.worker = worker;
+            this.cacheState = cacheState;
+            this.timeout = timeout;
+        }
+    }
 }
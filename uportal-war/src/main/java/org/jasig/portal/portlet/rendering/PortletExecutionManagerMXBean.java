@@ -63,6 +63,16 @@ public interface PortletExecutionManagerMXBean {
      */
     long getExtendedTimeoutMultiplier();
     
+    /**
+     * @param pageRenderDeadline Maximum time in ms to wait on portlets when rendering a page, -1 to disable
+     */
+    void setPageRenderDeadline(long pageRenderDeadline);
+    
+    /**
+     * @return Maximum time in ms to wait on portlets when rendering a page, -1 to disable
+     */
+    long getPageRenderDeadline();
+    
     /**
      * @return Number of times each portlet has been executed
      */
@@ -0,0 +1,565 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.url.PortalHttpServletRequestWrapper;
+
+/**
+ * Copy of a {@link HttpServletRequest} for a portlet worker that keeps running after the request that submitted it
+ * has completed and been recycled by the container. Attributes, parameters, headers, the user and the session are
+ * copied when the request is created, the request body is not available.
+ * <p>
+ * Roles are resolved using the portal's groups for the {@link IPerson} principal, container roles are not
+ * available once the request has completed.
+ */
+public class DetachedHttpServletRequest implements HttpServletRequest {
+    private final HttpServletResponse response;
+    
+    private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+    private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+    private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Long> dateHeaders = new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Locale> locales = new ArrayList<Locale>();
+    private final Cookie[] cookies;
+    
+    private final String authType;
+    private final String contentType;
+    private final int contentLength;
+    private final String contextPath;
+    private final DispatcherType dispatcherType;
+    private final String localAddr;
+    private final String localName;
+    private final int localPort;
+    private final String method;
+    private final String pathInfo;
+    private final String pathTranslated;
+    private final String protocol;
+    private final String queryString;
+    private final String remoteAddr;
+    private final String remoteHost;
+    private final int remotePort;
+    private final String remoteUser;
+    private final String requestedSessionId;
+    private final boolean requestedSessionIdFromCookie;
+    private final boolean requestedSessionIdFromURL;
+    private final boolean requestedSessionIdValid;
+    private final String requestURI;
+    private final String requestURL;
+    private final String scheme;
+    private final boolean secure;
+    private final String serverName;
+    private final int serverPort;
+    private final ServletContext servletContext;
+    private final String servletPath;
+    private final HttpSession session;
+    private final Principal userPrincipal;
+    
+    private volatile String characterEncoding;
+
+    /**
+     * @param request The request to copy, must still be active
+     * @param response The detached response to use with this request
+     */
+    @SuppressWarnings("unchecked")
+    public DetachedHttpServletRequest(HttpServletRequest request, HttpServletResponse response) {
+        this.response = response;
+        
+        for (final Enumeration<String> attributeNames = request.getAttributeNames(); attributeNames.hasMoreElements();) {
+            final String name = attributeNames.nextElement();
+            final Object value = request.getAttribute(name);
+            if (value != null) {
+                this.attributes.put(name, value);
+            }
+        }
+        
+        for (final Map.Entry<String, String[]> parameterEntry : ((Map<String, String[]>) request.getParameterMap()).entrySet()) {
+            this.parameters.put(parameterEntry.getKey(), parameterEntry.getValue().clone());
+        }
+        
+        for (final Enumeration<String> headerNames = request.getHeaderNames(); headerNames.hasMoreElements();) {
+            final String name = headerNames.nextElement();
+            this.headers.put(name, Collections.list((Enumeration<String>) request.getHeaders(name)));
+            
+            //Let the original request parse dates, not every header is a date
+            try {
+                this.dateHeaders.put(name, request.getDateHeader(name));
+            }
+            catch (IllegalArgumentException e) {
+                //Not a date header
+            }
+        }
+        
+        for (final Enumeration<Locale> localeEnum = request.getLocales(); localeEnum.hasMoreElements();) {
+            this.locales.add(localeEnum.nextElement());
+        }
+        
+        final Cookie[] cookies = request.getCookies();
+        this.cookies = cookies != null ? cookies.clone() : null;
+        
+        this.authType = request.getAuthType();
+        this.characterEncoding = request.getCharacterEncoding();
+        this.contentType = request.getContentType();
+        this.contentLength = request.getContentLength();
+        this.contextPath = request.getContextPath();
+        this.dispatcherType = request.getDispatcherType();
+        this.localAddr = request.getLocalAddr();
+        this.localName = request.getLocalName();
+        this.localPort = request.getLocalPort();
+        this.method = request.getMethod();
+        this.pathInfo = request.getPathInfo();
+        this.pathTranslated = request.getPathTranslated();
+        this.protocol = request.getProtocol();
+        this.queryString = request.getQueryString();
+        this.remoteAddr = request.getRemoteAddr();
+        this.remoteHost = request.getRemoteHost();
+        this.remotePort = request.getRemotePort();
+        this.remoteUser = request.getRemoteUser();
+        this.requestedSessionId = request.getRequestedSessionId();
+        this.requestedSessionIdFromCookie = request.isRequestedSessionIdFromCookie();
+        this.requestedSessionIdFromURL = request.isRequestedSessionIdFromURL();
+        this.requestedSessionIdValid = request.isRequestedSessionIdValid();
+        this.requestURI = request.getRequestURI();
+        final StringBuffer requestURL = request.getRequestURL();
+        this.requestURL = requestURL != null ? requestURL.toString() : null;
+        this.scheme = request.getScheme();
+        this.secure = request.isSecure();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.servletContext = request.getServletContext();
+        this.servletPath = request.getServletPath();
+        this.session = request.getSession(false);
+        this.userPrincipal = request.getUserPrincipal();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        //The portal request and response attributes must resolve to the detached objects
+        if (PortalHttpServletRequestWrapper.ATTRIBUTE__HTTP_SERVLET_REQUEST.equals(name)) {
+            return this;
+        }
+        if (PortalHttpServletRequestWrapper.ATTRIBUTE__HTTP_SERVLET_RESPONSE.equals(name)) {
+            return this.response;
+        }
+        
+        return this.attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<String>(this.attributes.keySet()));
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        if (o == null) {
+            this.attributes.remove(name);
+        }
+        else {
+            this.attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        this.attributes.remove(name);
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = this.parameters.get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(this.parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return this.parameters.get(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = this.headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(this.headers.keySet());
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        final List<String> values = this.headers.get(name);
+        if (values == null) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        }
+        return Collections.enumeration(values);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        final Long value = this.dateHeaders.get(name);
+        if (value != null) {
+            return value;
+        }
+        if (this.getHeader(name) != null) {
+            throw new IllegalArgumentException("Header '" + name + "' cannot be converted to a date: '" + this.getHeader(name) + "'");
+        }
+        return -1;
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        final String value = this.getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public Locale getLocale() {
+        return this.locales.isEmpty() ? Locale.getDefault() : this.locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        if (this.locales.isEmpty()) {
+            return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+        }
+        return Collections.enumeration(this.locales);
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return this.cookies != null ? this.cookies.clone() : null;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return this.getSession(true);
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+        if (this.session == null && create) {
+            throw new IllegalStateException("The request has completed, a session can no longer be created");
+        }
+        return this.session;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return this.userPrincipal;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return this.remoteUser;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        if (this.userPrincipal instanceof IPerson) {
+            final IPerson person = (IPerson) this.userPrincipal;
+            return !person.isGuest() && PortalHttpServletRequestWrapper.isPersonInRole(person, role);
+        }
+        return false;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return this.characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+        this.characterEncoding = env;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        throw new IllegalStateException("The request has completed, the request body is no longer available");
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        throw new IllegalStateException("The request has completed, the request body is no longer available");
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        if (this.servletContext == null) {
+            return null;
+        }
+        
+        if (path.startsWith("/")) {
+            return this.servletContext.getRequestDispatcher(path);
+        }
+        
+        //Relative paths are relative to the servlet path
+        final String servletPath = this.servletPath != null ? this.servletPath : "";
+        return this.servletContext.getRequestDispatcher(servletPath.substring(0, servletPath.lastIndexOf('/') + 1) + path);
+    }
+
+    @Override
+    @Deprecated
+    public String getRealPath(String path) {
+        if (this.servletContext == null) {
+            return null;
+        }
+        return this.servletContext.getRealPath(path);
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return this.servletContext;
+    }
+
+    @Override
+    public String getAuthType() {
+        return this.authType;
+    }
+
+    @Override
+    public int getContentLength() {
+        return this.contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getContextPath() {
+        return this.contextPath;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return this.dispatcherType;
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return this.localAddr;
+    }
+
+    @Override
+    public String getLocalName() {
+        return this.localName;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.localPort;
+    }
+
+    @Override
+    public String getMethod() {
+        return this.method;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return this.pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return this.pathTranslated;
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.protocol;
+    }
+
+    @Override
+    public String getQueryString() {
+        return this.queryString;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return this.remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return this.remoteHost;
+    }
+
+    @Override
+    public int getRemotePort() {
+        return this.remotePort;
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return this.requestedSessionId;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return this.requestedSessionIdFromCookie;
+    }
+
+    @Override
+    @Deprecated
+    public boolean isRequestedSessionIdFromUrl() {
+        return this.requestedSessionIdFromURL;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return this.requestedSessionIdFromURL;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return this.requestedSessionIdValid;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return this.requestURL != null ? new StringBuffer(this.requestURL) : null;
+    }
+
+    @Override
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return this.secure;
+    }
+
+    @Override
+    public String getServerName() {
+        return this.serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return this.serverPort;
+    }
+
+    @Override
+    public String getServletPath() {
+        return this.servletPath;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public AsyncContext startAsync() throws IllegalStateException {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest request, ServletResponse response) throws IllegalStateException {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+        throw new ServletException("The request has completed, authentication is no longer possible");
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        throw new ServletException("The request has completed, authentication is no longer possible");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new ServletException("The request has completed, authentication is no longer possible");
+    }
+
+    @Override
+    public Part getPart(String name) throws IOException, ServletException {
+        throw new IllegalStateException("The request has completed, the request body is no longer available");
+    }
+
+    @Override
+    public Collection<Part> getParts() throws IOException, ServletException {
+        throw new IllegalStateException("The request has completed, the request body is no longer available");
+    }
+}
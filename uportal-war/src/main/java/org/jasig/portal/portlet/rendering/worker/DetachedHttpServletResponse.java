@@ -0,0 +1,319 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Response for a portlet worker that keeps running after the request that submitted it has completed and been
+ * recycled by the container. Portlet markup is captured by the portlet output handler, anything written directly to
+ * this response as well as headers, cookies and redirects are buffered and discarded since the client response has
+ * already been sent. URLs are not rewritten with the session id.
+ */
+public class DetachedHttpServletResponse implements HttpServletResponse {
+    private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Cookie> cookies = new LinkedList<Cookie>();
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    
+    private String characterEncoding;
+    private String contentType;
+    private Locale locale;
+    private int bufferSize;
+    private int status = SC_OK;
+    private boolean committed = false;
+    
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+    
+    /**
+     * @param response The response to copy the content settings from, must still be active
+     */
+    public DetachedHttpServletResponse(HttpServletResponse response) {
+        this.characterEncoding = response.getCharacterEncoding();
+        this.contentType = response.getContentType();
+        this.locale = response.getLocale();
+        this.bufferSize = response.getBufferSize();
+    }
+    
+    /**
+     * @return Cookies added to the response, they are never sent to the client
+     */
+    public synchronized List<Cookie> getCookies() {
+        return new ArrayList<Cookie>(this.cookies);
+    }
+
+    @Override
+    public synchronized void addCookie(Cookie cookie) {
+        this.cookies.add(cookie);
+    }
+
+    @Override
+    public synchronized boolean containsHeader(String name) {
+        return this.headers.containsKey(name);
+    }
+
+    @Override
+    public synchronized String getHeader(String name) {
+        final List<String> values = this.headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public synchronized Collection<String> getHeaderNames() {
+        return new ArrayList<String>(this.headers.keySet());
+    }
+
+    @Override
+    public synchronized Collection<String> getHeaders(String name) {
+        final List<String> values = this.headers.get(name);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<String>(values);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        this.setHeaderValue(name, value, true);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        this.setHeaderValue(name, value, false);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        this.setHeaderValue(name, String.valueOf(date), true);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        this.setHeaderValue(name, String.valueOf(date), false);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        this.setHeaderValue(name, String.valueOf(value), true);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        this.setHeaderValue(name, String.valueOf(value), false);
+    }
+    
+    private synchronized void setHeaderValue(String name, String value, boolean replace) {
+        List<String> values = this.headers.get(name);
+        if (values == null) {
+            values = new LinkedList<String>();
+            this.headers.put(name, values);
+        }
+        else if (replace) {
+            values.clear();
+        }
+        values.add(value);
+    }
+
+    @Override
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    @Override
+    public synchronized void sendError(int sc, String msg) throws IOException {
+        this.sendError(sc);
+    }
+
+    @Override
+    public synchronized void sendError(int sc) throws IOException {
+        this.checkCommitted();
+        this.status = sc;
+        this.committed = true;
+    }
+
+    @Override
+    public synchronized void sendRedirect(String location) throws IOException {
+        this.checkCommitted();
+        this.setHeaderValue("Location", location, true);
+        this.status = SC_MOVED_TEMPORARILY;
+        this.committed = true;
+    }
+
+    @Override
+    public synchronized int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public synchronized void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    @Deprecated
+    public synchronized void setStatus(int sc, String sm) {
+        this.status = sc;
+    }
+
+    @Override
+    public synchronized String getCharacterEncoding() {
+        return this.characterEncoding;
+    }
+
+    @Override
+    public synchronized void setCharacterEncoding(String charset) {
+        this.characterEncoding = charset;
+    }
+
+    @Override
+    public synchronized String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public synchronized void setContentType(String type) {
+        this.contentType = type;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public synchronized Locale getLocale() {
+        return this.locale;
+    }
+
+    @Override
+    public synchronized void setLocale(Locale loc) {
+        this.locale = loc;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    @Override
+    public synchronized void setBufferSize(int size) {
+        this.bufferSize = size;
+    }
+
+    @Override
+    public synchronized ServletOutputStream getOutputStream() throws IOException {
+        if (this.writer != null) {
+            throw new IllegalStateException("getWriter() has already been called on this response");
+        }
+        
+        if (this.outputStream == null) {
+            this.outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    content.write(b);
+                }
+            };
+        }
+        return this.outputStream;
+    }
+
+    @Override
+    public synchronized PrintWriter getWriter() throws IOException {
+        if (this.outputStream != null) {
+            throw new IllegalStateException("getOutputStream() has already been called on this response");
+        }
+        
+        if (this.writer == null) {
+            final String encoding = this.characterEncoding != null ? this.characterEncoding : "ISO-8859-1";
+            try {
+                this.writer = new PrintWriter(new OutputStreamWriter(this.content, encoding));
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("Unsupported character encoding: " + encoding, e);
+            }
+        }
+        return this.writer;
+    }
+
+    @Override
+    public synchronized void flushBuffer() throws IOException {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+        this.committed = true;
+    }
+
+    @Override
+    public synchronized boolean isCommitted() {
+        return this.committed;
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.resetBuffer();
+        this.headers.clear();
+        this.cookies.clear();
+        this.status = SC_OK;
+    }
+
+    @Override
+    public synchronized void resetBuffer() {
+        this.checkCommitted();
+        this.content.reset();
+    }
+    
+    private void checkCommitted() {
+        if (this.committed) {
+            throw new IllegalStateException("The response has already been committed");
+        }
+    }
+}
@@ -38,12 +38,14 @@ import javax.servlet.http.HttpSession;
 
 /**
  * Wrapper for a {@link HttpServletRequest} that makes the request inaccessible once the worker has been canceled. 
+ * The wrapped request can be replaced with a detached copy for workers that outlive their request.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class GuardingHttpServletRequest extends HttpServletRequestWrapper {
     private final AtomicBoolean canceled;
+    private volatile HttpServletRequest detachedRequest = null;
 
     public GuardingHttpServletRequest(HttpServletRequest request, AtomicBoolean canceled) {
         super(request);
@@ -54,6 +56,20 @@ public class GuardingHttpServletRequest extends HttpServletRequestWrapper {
         if (this.canceled.get()) {
             throw new IllegalStateException("The portlet worker has been canceled, the request is no longer in a valid state");
         }
+        
+        //Swap in the detached request on the thread using the wrapper
+        final HttpServletRequest detachedRequest = this.detachedRequest;
+        if (detachedRequest != null && super.getRequest() != detachedRequest) {
+            super.setRequest(detachedRequest);
+        }
+    }
+    
+    /**
+     * Replace the wrapped request with one that stays valid after the container has recycled the original
+     * request. The detached request is used by all calls made after this method returns.
+     */
+    public void detach(HttpServletRequest detachedRequest) {
+        this.detachedRequest = detachedRequest;
     }
 
     /* (non-Javadoc)
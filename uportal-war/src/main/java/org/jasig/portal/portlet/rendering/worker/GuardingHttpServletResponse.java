@@ -32,12 +32,14 @@ import javax.servlet.http.HttpServletResponseWrapper;
 
 /**
  * Wrapper for a {@link HttpServletResponse} that makes the response inaccessible once the worker has been canceled. 
+ * The wrapped response can be replaced with a detached copy for workers that outlive their request.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class GuardingHttpServletResponse extends HttpServletResponseWrapper {
     private final AtomicBoolean canceled;
+    private volatile HttpServletResponse detachedResponse = null;
 
     public GuardingHttpServletResponse(HttpServletResponse request, AtomicBoolean canceled) {
         super(request);
@@ -48,6 +50,20 @@ public class GuardingHttpServletResponse extends HttpServletResponseWrapper {
         if (this.canceled.get()) {
             throw new IllegalStateException("The portlet worker has been canceled, the response is no longer in a valid state");
         }
+        
+        //Swap in the detached response on the thread using the wrapper
+        final HttpServletResponse detachedResponse = this.detachedResponse;
+        if (detachedResponse != null && super.getResponse() != detachedResponse) {
+            super.setResponse(detachedResponse);
+        }
+    }
+    
+    /**
+     * Replace the wrapped response with one that stays valid after the container has recycled the original
+     * response. The detached response is used by all calls made after this method returns.
+     */
+    public void detach(HttpServletResponse detachedResponse) {
+        this.detachedResponse = detachedResponse;
     }
 
     /* (non-Javadoc)
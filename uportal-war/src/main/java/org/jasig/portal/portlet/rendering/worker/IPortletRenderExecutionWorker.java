@@ -33,4 +33,10 @@ public interface IPortletRenderExecutionWorker extends IPortletExecutionWorker<P
      * @return The output written by the portlet
      */
     public String getOutput(long timeout) throws Exception;
+    
+    /**
+     * Switch the worker to detached copies of the request and response so it can keep running after the request
+     * that submitted it completes. Must be called while the original request is still active.
+     */
+    public void detach();
 }
\ No newline at end of file
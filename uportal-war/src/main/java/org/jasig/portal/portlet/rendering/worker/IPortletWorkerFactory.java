@@ -19,6 +19,8 @@
 
 package org.jasig.portal.portlet.rendering.worker;
 
+import java.util.Queue;
+
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +43,12 @@ public interface IPortletWorkerFactory {
      * Create a worker that will execute an event request on the specified portlet window 
      */
     public IPortletEventExecutionWorker createEventWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId, Event event);
+    /**
+     * Create a worker that will execute an event request on the specified portlet window, the worker adds itself
+     * to the completion queue when execution completes, successfully or not.
+     */
+    public IPortletEventExecutionWorker createEventWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId, Event event, 
+            Queue<? super IPortletEventExecutionWorker> completionQueue);
     /**
      * Create a worker that will execute a render request on the specified portlet window
      */
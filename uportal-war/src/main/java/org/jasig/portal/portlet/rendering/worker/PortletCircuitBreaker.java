@@ -0,0 +1,521 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.events.PortletHungEvent;
+import org.jasig.portal.events.SynchronousPortalEventListener;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
+import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks the outcome and latency of portlet executions by fname. When the ratio of failed executions (exceptions,
+ * executions that ran past their timeout and hung workers) in the recent execution window exceeds the threshold the
+ * circuit for that portlet opens and executions are rejected in {@link #preSubmit(HttpServletRequest, HttpServletResponse, IPortletExecutionContext)}
+ * which results in the error portlet being rendered without tying up a worker thread. After the open duration a single
+ * probe execution is allowed, if it succeeds the circuit closes, if not it opens again.
+ * <p>
+ * The recorded latencies are also used by {@link #getAdaptiveTimeout(String, ExecutionType, long)} to reduce the time
+ * the portal waits on a portlet to a multiple of its observed latency percentile. Executions that time out are
+ * recorded at their timeout so a shortened timeout grows again when the portlet slows down.
+ */
+@ManagedResource("uPortal:section=Framework,name=PortletCircuitBreaker")
+@Service("portletCircuitBreaker")
+public class PortletCircuitBreaker implements ApplicationListener<PortletHungEvent>, SynchronousPortalEventListener, IPortletExecutionInterceptor, PortletCircuitBreakerMXBean {
+    /**
+     * Execution attribute set once the outcome of the execution has been recorded, used to make sure each execution
+     * is only counted once.
+     */
+    private static final String OUTCOME_RECORDED_ATTRIBUTE = PortletCircuitBreaker.class.getName() + ".OUTCOME_RECORDED";
+    
+    /**
+     * Execution attribute that tracks the thread that submitted the execution.
+     */
+    private static final String SUBMITTING_THREAD_ATTRIBUTE = PortletCircuitBreaker.class.getName() + ".SUBMITTING_THREAD";
+    
+    private enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+    
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ConcurrentMap<String, PortletCircuit> portletCircuits = new ConcurrentHashMap<String, PortletCircuit>();
+    
+    private boolean circuitBreakerEnabled = true;
+    private double failureRateThreshold = .5;
+    private int executionWindowSize = 20;
+    private int minimumExecutions = 10;
+    private long openDuration = TimeUnit.SECONDS.toMillis(30);
+    
+    private boolean adaptiveTimeoutsEnabled = true;
+    private double adaptiveTimeoutPercentile = .99;
+    private double adaptiveTimeoutMultiplier = 3;
+    private long minimumAdaptiveTimeout = TimeUnit.SECONDS.toMillis(1);
+    private int latencySampleSize = 100;
+    private volatile Set<ExecutionType> adaptiveTimeoutExecutionTypes = EnumSet.of(ExecutionType.RENDER, ExecutionType.RESOURCE);
+    
+    @Value("${org.jasig.portal.portlet.circuitBreaker.enabled:true}")
+    @Override
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+    
+    @Override
+    public boolean isCircuitBreakerEnabled() {
+        return this.circuitBreakerEnabled;
+    }
+
+    @Value("${org.jasig.portal.portlet.circuitBreaker.failureRateThreshold:.5}")
+    @Override
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    @Override
+    public double getFailureRateThreshold() {
+        return this.failureRateThreshold;
+    }
+
+    /**
+     * Number of most recent executions used to calculate the failure rate, changes only apply to portlets
+     * that have not been executed yet.
+     */
+    @Value("${org.jasig.portal.portlet.circuitBreaker.executionWindowSize:20}")
+    public void setExecutionWindowSize(int executionWindowSize) {
+        this.executionWindowSize = executionWindowSize;
+    }
+
+    /**
+     * Number of executions that must be recorded before the circuit can open or adaptive timeouts are used.
+     */
+    @Value("${org.jasig.portal.portlet.circuitBreaker.minimumExecutions:10}")
+    public void setMinimumExecutions(int minimumExecutions) {
+        this.minimumExecutions = minimumExecutions;
+    }
+
+    @Value("${org.jasig.portal.portlet.circuitBreaker.openDuration:30000}")
+    @Override
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    @Override
+    public long getOpenDuration() {
+        return this.openDuration;
+    }
+
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.enabled:true}")
+    @Override
+    public void setAdaptiveTimeoutsEnabled(boolean adaptiveTimeoutsEnabled) {
+        this.adaptiveTimeoutsEnabled = adaptiveTimeoutsEnabled;
+    }
+
+    @Override
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return this.adaptiveTimeoutsEnabled;
+    }
+
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.percentile:.99}")
+    public void setAdaptiveTimeoutPercentile(double adaptiveTimeoutPercentile) {
+        this.adaptiveTimeoutPercentile = adaptiveTimeoutPercentile;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutPercentile() {
+        return this.adaptiveTimeoutPercentile;
+    }
+
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.multiplier:3}")
+    public void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.minimum:1000}")
+    public void setMinimumAdaptiveTimeout(long minimumAdaptiveTimeout) {
+        this.minimumAdaptiveTimeout = minimumAdaptiveTimeout;
+    }
+
+    /**
+     * Execution types that get adaptive timeouts, defaults to RENDER and RESOURCE. Actions and events change state
+     * so they always get the configured timeout.
+     */
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.executionTypes:RENDER,RESOURCE}")
+    public void setAdaptiveTimeoutExecutionTypes(ExecutionType[] adaptiveTimeoutExecutionTypes) {
+        final Set<ExecutionType> executionTypes = EnumSet.noneOf(ExecutionType.class);
+        executionTypes.addAll(Arrays.asList(adaptiveTimeoutExecutionTypes));
+        this.adaptiveTimeoutExecutionTypes = executionTypes;
+    }
+
+    /**
+     * Number of most recent execution latencies used to calculate percentiles, changes only apply to portlets
+     * that have not been executed yet.
+     */
+    @Value("${org.jasig.portal.portlet.adaptiveTimeout.sampleSize:100}")
+    public void setLatencySampleSize(int latencySampleSize) {
+        this.latencySampleSize = latencySampleSize;
+    }
+
+    @Override
+    public Map<String, String> getCircuitStates() {
+        final Map<String, String> states = new TreeMap<String, String>();
+        for (final Map.Entry<String, PortletCircuit> circuitEntry : this.portletCircuits.entrySet()) {
+            states.put(circuitEntry.getKey(), circuitEntry.getValue().getState().toString());
+        }
+        return states;
+    }
+
+    @Override
+    public Map<String, Double> getFailureRates() {
+        final Map<String, Double> failureRates = new TreeMap<String, Double>();
+        for (final Map.Entry<String, PortletCircuit> circuitEntry : this.portletCircuits.entrySet()) {
+            failureRates.put(circuitEntry.getKey(), circuitEntry.getValue().getFailureRate());
+        }
+        return failureRates;
+    }
+
+    @Override
+    public Map<String, Long> getRejectedExecutionCounts() {
+        final Map<String, Long> rejectedCounts = new TreeMap<String, Long>();
+        for (final Map.Entry<String, PortletCircuit> circuitEntry : this.portletCircuits.entrySet()) {
+            rejectedCounts.put(circuitEntry.getKey(), circuitEntry.getValue().rejectedCount.get());
+        }
+        return rejectedCounts;
+    }
+
+    @Override
+    public Map<String, Long> getRenderLatencyPercentiles() {
+        final Map<String, Long> percentiles = new TreeMap<String, Long>();
+        for (final Map.Entry<String, PortletCircuit> circuitEntry : this.portletCircuits.entrySet()) {
+            percentiles.put(circuitEntry.getKey(), circuitEntry.getValue().getLatencyPercentile(ExecutionType.RENDER, this.adaptiveTimeoutPercentile));
+        }
+        return percentiles;
+    }
+
+    @Override
+    public void resetCircuit(String fname) {
+        this.portletCircuits.remove(fname);
+    }
+    
+    /**
+     * Calculate the timeout to use when waiting on an execution of the portlet. If adaptive timeouts are enabled for
+     * the execution type and enough executions have been recorded the timeout is reduced to the latency percentile multiplied by the
+     * adaptive timeout multiplier. The returned timeout is never more than the specified timeout.
+     * 
+     * @param fname The portlet fname
+     * @param executionType The type of execution
+     * @param timeout The configured timeout for the execution
+     * @return The timeout to use
+     */
+    public long getAdaptiveTimeout(String fname, ExecutionType executionType, long timeout) {
+        if (!this.adaptiveTimeoutsEnabled || timeout <= this.minimumAdaptiveTimeout || !this.adaptiveTimeoutExecutionTypes.contains(executionType)) {
+            return timeout;
+        }
+        
+        final PortletCircuit portletCircuit = this.portletCircuits.get(fname);
+        if (portletCircuit == null) {
+            return timeout;
+        }
+        
+        final long latency = portletCircuit.getLatencyPercentile(executionType, this.adaptiveTimeoutPercentile);
+        if (latency < 0) {
+            //Not enough executions recorded yet
+            return timeout;
+        }
+        
+        final long adaptiveTimeout = Math.max(this.minimumAdaptiveTimeout, (long) (latency * this.adaptiveTimeoutMultiplier));
+        return Math.min(timeout, adaptiveTimeout);
+    }
+
+    @Override
+    public void onApplicationEvent(PortletHungEvent event) {
+        //A hung worker may never complete, count it as a failure that took its full timeout now
+        final IPortletExecutionWorker<?> worker = event.getWorker();
+        if (worker.setExecutionAttribute(OUTCOME_RECORDED_ATTRIBUTE, Boolean.TRUE) == null) {
+            final PortletCircuit portletCircuit = this.getPortletCircuit(worker.getPortletFname());
+            final long timeout = worker.getApplicableTimeout();
+            if (timeout > 0) {
+                portletCircuit.recordLatency(worker.getExecutionType(), timeout);
+            }
+            portletCircuit.recordExecution(worker.getPortletFname(), true);
+        }
+    }
+
+    @Override
+    public void preSubmit(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
+        if (context.getExecutionType() == ExecutionType.FAILURE) {
+            //Never block the error portlet
+            return;
+        }
+        
+        context.setExecutionAttribute(SUBMITTING_THREAD_ATTRIBUTE, Thread.currentThread());
+        
+        if (!this.circuitBreakerEnabled) {
+            return;
+        }
+        
+        final String portletFname = context.getPortletFname();
+        final PortletCircuit portletCircuit = this.portletCircuits.get(portletFname);
+        if (portletCircuit == null || portletCircuit.allowExecution(portletFname)) {
+            return;
+        }
+        
+        //Nothing is going to execute, make sure the rejection isn't recorded as a successful execution
+        context.setExecutionAttribute(OUTCOME_RECORDED_ATTRIBUTE, Boolean.TRUE);
+        portletCircuit.rejectedCount.incrementAndGet();
+        
+        final String msg = "Denying worker execution for " + portletFname + ", the circuit is open due to a failure rate of " + portletCircuit.getFailureRate();
+        logger.debug(msg);
+        throw new IllegalStateException(msg);
+    }
+
+    @Override
+    public void preExecution(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
+        //When submission fails the pre and post execution interceptors are run in the submitting thread, don't record those
+        if (context.getExecutionAttribute(SUBMITTING_THREAD_ATTRIBUTE) == Thread.currentThread()) {
+            context.setExecutionAttribute(OUTCOME_RECORDED_ATTRIBUTE, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void postExecution(HttpServletRequest request, HttpServletResponse response,
+            IPortletExecutionContext context, Exception e) {
+        
+        if (context.getExecutionType() == ExecutionType.FAILURE) {
+            return;
+        }
+        
+        if (context.setExecutionAttribute(OUTCOME_RECORDED_ATTRIBUTE, Boolean.TRUE) != null) {
+            //Outcome already recorded or the portlet never actually executed
+            return;
+        }
+        
+        final String portletFname = context.getPortletFname();
+        final long duration = System.currentTimeMillis() - context.getStartedTime();
+        final long timeout = context.getApplicableTimeout();
+        
+        //Executions that throw or run past their timeout are failures
+        final boolean timedOut = timeout > 0 && duration >= timeout;
+        final boolean failed = e != null || timedOut;
+        
+        final PortletCircuit portletCircuit = this.getPortletCircuit(portletFname);
+        if (timedOut) {
+            //Canceled executions usually end with an exception, record them at no less than the timeout so the
+            //latency percentile reflects the slow execution instead of only the fast ones
+            portletCircuit.recordLatency(context.getExecutionType(), Math.max(duration, timeout));
+        }
+        else if (e == null) {
+            portletCircuit.recordLatency(context.getExecutionType(), duration);
+        }
+        portletCircuit.recordExecution(portletFname, failed);
+    }
+    
+    private PortletCircuit getPortletCircuit(String portletFname) {
+        PortletCircuit portletCircuit = this.portletCircuits.get(portletFname);
+        if (portletCircuit == null) {
+            portletCircuit = ConcurrentMapUtils.putIfAbsent(this.portletCircuits, portletFname, new PortletCircuit());
+        }
+        return portletCircuit;
+    }
+    
+    /**
+     * Execution history and circuit state for a single portlet
+     */
+    private final class PortletCircuit {
+        private final AtomicLong rejectedCount = new AtomicLong();
+        private final Map<ExecutionType, LatencySamples> latencies = new EnumMap<ExecutionType, LatencySamples>(ExecutionType.class);
+        
+        //Rolling window of execution outcomes, true for failed executions
+        private final boolean[] executionWindow = new boolean[Math.max(1, executionWindowSize)];
+        private int windowIndex = 0;
+        private int executionCount = 0;
+        private int failureCount = 0;
+        
+        private CircuitState state = CircuitState.CLOSED;
+        private long openedTime = 0;
+        private long probeTime = 0;
+        
+        public PortletCircuit() {
+            for (final ExecutionType executionType : ExecutionType.values()) {
+                this.latencies.put(executionType, new LatencySamples(Math.max(1, latencySampleSize)));
+            }
+        }
+        
+        public synchronized CircuitState getState() {
+            return this.state;
+        }
+        
+        public synchronized double getFailureRate() {
+            if (this.executionCount == 0) {
+                return 0;
+            }
+            return (double) this.failureCount / this.executionCount;
+        }
+        
+        public long getLatencyPercentile(ExecutionType executionType, double percentile) {
+            return this.latencies.get(executionType).getPercentile(percentile, minimumExecutions);
+        }
+        
+        public void recordLatency(ExecutionType executionType, long duration) {
+            this.latencies.get(executionType).add(duration);
+        }
+
+        /**
+         * @return true if an execution can be submitted
+         */
+        public synchronized boolean allowExecution(String portletFname) {
+            final long now = System.currentTimeMillis();
+            
+            if (this.state == CircuitState.CLOSED) {
+                return true;
+            }
+            
+            if (this.state == CircuitState.OPEN) {
+                if (now - this.openedTime < openDuration) {
+                    return false;
+                }
+                
+                logger.info("Circuit for portlet {} is half-open after {}ms, allowing a probe execution", portletFname, now - this.openedTime);
+                this.state = CircuitState.HALF_OPEN;
+                this.probeTime = now;
+                return true;
+            }
+            
+            //Half-open, only allow another probe if the last one never reported back
+            if (now - this.probeTime < openDuration) {
+                return false;
+            }
+            
+            this.probeTime = now;
+            return true;
+        }
+        
+        public synchronized void recordExecution(String portletFname, boolean failed) {
+            if (this.state == CircuitState.HALF_OPEN) {
+                if (failed) {
+                    this.open(portletFname);
+                }
+                else {
+                    logger.info("Probe execution of portlet {} succeeded, closing circuit", portletFname);
+                    this.state = CircuitState.CLOSED;
+                    Arrays.fill(this.executionWindow, false);
+                    this.windowIndex = 0;
+                    this.executionCount = 0;
+                    this.failureCount = 0;
+                }
+                return;
+            }
+            
+            if (this.state == CircuitState.OPEN) {
+                //Execution submitted before the circuit opened, ignore
+                return;
+            }
+            
+            if (this.executionCount == this.executionWindow.length) {
+                if (this.executionWindow[this.windowIndex]) {
+                    this.failureCount--;
+                }
+            }
+            else {
+                this.executionCount++;
+            }
+            
+            this.executionWindow[this.windowIndex] = failed;
+            if (failed) {
+                this.failureCount++;
+            }
+            this.windowIndex = (this.windowIndex + 1) % this.executionWindow.length;
+            
+            if (this.executionCount >= minimumExecutions && this.getFailureRate() >= failureRateThreshold) {
+                this.open(portletFname);
+            }
+        }
+        
+        private void open(String portletFname) {
+            logger.warn("Opening circuit for portlet {}, {} of the last {} executions failed. Executions will be rejected for {}ms", 
+                    new Object[] { portletFname, this.failureCount, this.executionCount, openDuration });
+            
+            this.state = CircuitState.OPEN;
+            this.openedTime = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Fixed size ring buffer of execution latencies
+     */
+    private static final class LatencySamples {
+        private final long[] samples;
+        private int index = 0;
+        private int count = 0;
+        
+        //Sorted copy of the samples, cleared when a sample is added
+        private long[] sortedSamples = null;
+        
+        public LatencySamples(int size) {
+            this.samples = new long[size];
+        }
+        
+        public synchronized void add(long duration) {
+            this.samples[this.index] = duration;
+            this.index = (this.index + 1) % this.samples.length;
+            if (this.count < this.samples.length) {
+                this.count++;
+            }
+            this.sortedSamples = null;
+        }
+        
+        /**
+         * @return The latency at the percentile, -1 if fewer than minimumSamples have been recorded
+         */
+        public synchronized long getPercentile(double percentile, int minimumSamples) {
+            if (this.count == 0 || this.count < minimumSamples) {
+                return -1;
+            }
+            
+            if (this.sortedSamples == null) {
+                this.sortedSamples = Arrays.copyOf(this.samples, this.count);
+                Arrays.sort(this.sortedSamples);
+            }
+            
+            final int percentileIndex = (int) Math.ceil(percentile * this.count) - 1;
+            return this.sortedSamples[Math.min(Math.max(percentileIndex, 0), this.count - 1)];
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+/**
+ * JMX stats and configuration for PortletCircuitBreaker
+ */
+public interface PortletCircuitBreakerMXBean {
+    
+    /**
+     * @return Circuit state (CLOSED, OPEN or HALF_OPEN) by portlet
+     */
+    Map<String, String> getCircuitStates();
+    
+    /**
+     * @return Ratio of failed executions in the current execution window by portlet
+     */
+    Map<String, Double> getFailureRates();
+    
+    /**
+     * @return Number of executions rejected due to an open circuit by portlet
+     */
+    Map<String, Long> getRejectedExecutionCounts();
+    
+    /**
+     * @return Render latency in ms at {@link #getAdaptiveTimeoutPercentile()} by portlet, -1 if not enough executions have been recorded
+     */
+    Map<String, Long> getRenderLatencyPercentiles();
+    
+    /**
+     * Close the circuit for the portlet and clear its execution history
+     */
+    void resetCircuit(String fname);
+    
+    /**
+     * @param enabled If the circuit breaker should reject executions for portlets with an open circuit
+     */
+    void setCircuitBreakerEnabled(boolean enabled);
+    
+    /**
+     * @return If the circuit breaker rejects executions for portlets with an open circuit
+     */
+    boolean isCircuitBreakerEnabled();
+    
+    /**
+     * @param failureRateThreshold Ratio of failed executions that opens the circuit
+     */
+    void setFailureRateThreshold(double failureRateThreshold);
+    
+    /**
+     * @return Ratio of failed executions that opens the circuit
+     */
+    double getFailureRateThreshold();
+    
+    /**
+     * @param openDuration Time in ms a circuit stays open before a probe execution is allowed
+     */
+    void setOpenDuration(long openDuration);
+    
+    /**
+     * @return Time in ms a circuit stays open before a probe execution is allowed
+     */
+    long getOpenDuration();
+    
+    /**
+     * @param adaptiveTimeoutsEnabled If timeouts should be reduced based on measured latency
+     */
+    void setAdaptiveTimeoutsEnabled(boolean adaptiveTimeoutsEnabled);
+    
+    /**
+     * @return If timeouts are reduced based on measured latency
+     */
+    boolean isAdaptiveTimeoutsEnabled();
+    
+    /**
+     * @return The latency percentile used to calculate adaptive timeouts
+     */
+    double getAdaptiveTimeoutPercentile();
+}
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering.worker;
 
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 
 import javax.portlet.Event;
@@ -31,16 +32,25 @@ import org.jasig.portal.portlet.rendering.IPortletRenderer;
 
 class PortletEventExecutionWorker extends PortletExecutionWorker<Long> implements IPortletEventExecutionWorker {
     private final Event event;
+    private final Queue<? super IPortletEventExecutionWorker> completionQueue;
     
     public PortletEventExecutionWorker(
             ExecutorService executorService, List<IPortletExecutionInterceptor> interceptors, IPortletRenderer portletRenderer, 
             HttpServletRequest request, HttpServletResponse response, IPortletWindow portletWindow, Event event) {
+        this(executorService, interceptors, portletRenderer, request, response, portletWindow, event, null);
+    }
+    
+    public PortletEventExecutionWorker(
+            ExecutorService executorService, List<IPortletExecutionInterceptor> interceptors, IPortletRenderer portletRenderer, 
+            HttpServletRequest request, HttpServletResponse response, IPortletWindow portletWindow, Event event,
+            Queue<? super IPortletEventExecutionWorker> completionQueue) {
         
         super(executorService, interceptors, portletRenderer, request, response, portletWindow, 
                 portletWindow.getPortletEntity().getPortletDefinition().getEventTimeout() != null
                         ? portletWindow.getPortletEntity().getPortletDefinition().getEventTimeout()
                         : portletWindow.getPortletEntity().getPortletDefinition().getTimeout());
         this.event = event;
+        this.completionQueue = completionQueue;
     }
 
     @Override
@@ -57,4 +67,11 @@ class PortletEventExecutionWorker extends PortletExecutionWorker<Long> implement
     protected Long callInternal() throws Exception {
         return portletRenderer.doEvent(portletWindowId, request, response, event);
     }
+
+    @Override
+    protected void executionCompleted() {
+        if (this.completionQueue != null) {
+            this.completionQueue.offer(this);
+        }
+    }
 }
\ No newline at end of file
@@ -60,8 +60,8 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     final IPortletWindowId portletWindowId;
     final String portletFname;
     final long timeout;
-    final HttpServletRequest request;
-    final HttpServletResponse response;
+    final GuardingHttpServletRequest request;
+    final GuardingHttpServletResponse response;
     
     private volatile Future<V> future;
     private volatile Thread workerThread;
@@ -211,6 +211,8 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
         
         workerThread = null;
+        
+        executionCompleted();
     }
     
     private void doPostExecution(Exception e) {
@@ -232,6 +234,13 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
      */
     protected abstract V callInternal() throws Exception;
     
+    /**
+     * Called on the executing thread after execution completes and {@link #isComplete()} returns true,
+     * whether the execution succeeded or not
+     */
+    protected void executionCompleted() {
+    }
+    
     @Override
     public final boolean isStarted() {
         return this.started > 0;
@@ -335,6 +344,22 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
     }
     
+    /**
+     * Switch the worker to detached copies of the request and response so it can keep running after the request
+     * that submitted it completes. Must be called while the original request is still active.
+     */
+    public final void detach() {
+        if (this.isComplete() || this.canceled.get()) {
+            return;
+        }
+        
+        final DetachedHttpServletResponse detachedResponse = new DetachedHttpServletResponse((HttpServletResponse) this.response.getResponse());
+        final DetachedHttpServletRequest detachedRequest = new DetachedHttpServletRequest((HttpServletRequest) this.request.getRequest(), detachedResponse);
+        
+        this.response.detach(detachedResponse);
+        this.request.detach(detachedRequest);
+    }
+    
     @Override
     public final int getCancelCount() {
         return this.cancelCount.get();
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering.worker;
 
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 
 import javax.portlet.Event;
@@ -106,8 +107,14 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
 
     @Override
     public IPortletEventExecutionWorker createEventWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId, Event event) {
+        return this.createEventWorker(request, response, portletWindowId, event, null);
+    }
+    
+    @Override
+    public IPortletEventExecutionWorker createEventWorker(HttpServletRequest request, HttpServletResponse response, IPortletWindowId portletWindowId, Event event,
+            Queue<? super IPortletEventExecutionWorker> completionQueue) {
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
-        return new PortletEventExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow, event);
+        return new PortletEventExecutionWorker(portletThreadPool, executionInterceptors, portletRenderer, request, response, portletWindow, event, completionQueue);
     }
 
 
@@ -31,6 +31,7 @@ import org.jasig.portal.IUserProfile;
 import org.jasig.portal.PortalException;
 import org.jasig.portal.i18n.ILocaleStore;
 import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.UserLayoutWriteBehindManager;
 import org.jasig.portal.layout.dlm.Constants;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.url.IPortalRequestUtils;
@@ -51,8 +52,14 @@ public class UserLocaleHelper {
 	private IUserInstanceManager userInstanceManager;
 	private IPortalRequestUtils portalRequestUtils;
 	private ILocaleStore localeStore;
+	private UserLayoutWriteBehindManager userLayoutWriteBehindManager;
 	
 	@Autowired
+	public void setUserLayoutWriteBehindManager(UserLayoutWriteBehindManager userLayoutWriteBehindManager) {
+        this.userLayoutWriteBehindManager = userLayoutWriteBehindManager;
+    }
+
+		@Autowired
 	public void setLocaleStore(ILocaleStore localeStore) {
         this.localeStore = localeStore;
     }
@@ -166,6 +173,7 @@ public class UserLocaleHelper {
                     // translation and won't be cleared until next logout-login (applies when using
                     // RDBMDistributedLayoutStore as user layout store).
                     person.setAttribute(Constants.PLF, null);
+                    this.userLayoutWriteBehindManager.flushUserLayout(request);
                     upm.getUserLayoutManager().loadUserLayout(true);
                 } catch (Exception e) {
                     throw new PortalException(e);
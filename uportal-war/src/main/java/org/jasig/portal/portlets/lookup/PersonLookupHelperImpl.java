@@ -24,9 +24,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -52,6 +54,8 @@ import org.springframework.webflow.context.ExternalContext;
  * @version $Revision$
  */
 public class PersonLookupHelperImpl implements IPersonLookupHelper {
+    private static final String DISPLAY_NAME_ATTRIBUTE = "displayName";
+    
     protected final Log logger = LogFactory.getLog(this.getClass());
 
     private IPersonAttributeDao personAttributeDao;
@@ -187,30 +191,40 @@ public class PersonLookupHelperImpl implements IPersonLookupHelper {
             return Collections.emptyList();
         }
 
-        // for each returned match, check to see if the current user has 
-        // permissions to view this user
-        List<IPersonAttributes> list = new ArrayList<IPersonAttributes>();
-        for (IPersonAttributes person : people) {
-            // if the current user has permission to view this person, construct
-            // a new representation of the person limited to attributes the
-            // searcher has permissions to view
-            final IPersonAttributes visiblePerson = getVisiblePerson(principal, person, permittedAttributes);
-            if (visiblePerson != null) {
-                list.add(visiblePerson);
+        // check permissions on the matches in display name order, stopping once
+        // maxResults visible people have been found. Ordering the matches is much
+        // cheaper than checking permissions on all of them.
+        final List<IPersonAttributes> list = new ArrayList<IPersonAttributes>(Math.max(Math.min(people.size(), maxResults), 0));
+        if (permittedAttributes.contains(DISPLAY_NAME_ATTRIBUTE)) {
+            final PriorityQueue<IPersonAttributes> candidates = new PriorityQueue<IPersonAttributes>(Math.max(people.size(), 1), new DisplayNameComparator());
+            candidates.addAll(people);
+            while (list.size() < maxResults && !candidates.isEmpty()) {
+                addVisiblePerson(list, principal, candidates.poll(), permittedAttributes);
             }
         }
-        
-        // sort the list by display name
-        Collections.sort(list, new DisplayNameComparator());
-        
-        // limit the list to a maximum of 10 returned results
-        if (list.size() > maxResults) {
-            list = list.subList(0, maxResults);
+        else {
+            // the display name isn't visible to the searcher so every visible person
+            // sorts the same, just take the first visible matches
+            for (final Iterator<IPersonAttributes> candidates = people.iterator(); list.size() < maxResults && candidates.hasNext();) {
+                addVisiblePerson(list, principal, candidates.next(), permittedAttributes);
+            }
         }
         
         return list;
     }
 
+    /**
+     * If the current user has permission to view the person add a new representation
+     * of the person, limited to the attributes the searcher can view, to the list.
+     */
+    protected void addVisiblePerson(List<IPersonAttributes> list, IAuthorizationPrincipal principal,
+            IPersonAttributes person, Set<String> permittedAttributes) {
+        final IPersonAttributes visiblePerson = getVisiblePerson(principal, person, permittedAttributes);
+        if (visiblePerson != null) {
+            list.add(visiblePerson);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.portlets.lookup.IPersonLookupHelper#findPerson(org.jasig.portal.security.IPerson, java.lang.String)
      */
@@ -35,6 +35,8 @@ import org.jasig.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.portletlayout.PortletLayoutAggregation;
 import org.jasig.portal.events.aggr.portletlayout.PortletLayoutAggregationDao;
+import org.jasig.portal.events.aggr.portletlayout.PortletLayoutRanking;
+import org.jasig.portal.events.aggr.portletlayout.PortletLayoutRankingService;
 import org.jasig.portal.events.aggr.portlets.AggregatedPortletMapping;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
@@ -78,6 +80,12 @@ public class PopularPortletsController {
     private PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao;
     private AggregatedGroupLookupDao aggregatedGroupLookupDao;
     private IPortletDefinitionDao portletDefinitionDao;
+    private PortletLayoutRankingService portletLayoutRankingService;
+
+    @Autowired
+    public void setPortletLayoutRankingService(PortletLayoutRankingService portletLayoutRankingService) {
+        this.portletLayoutRankingService = portletLayoutRankingService;
+    }
 
     @Autowired
     public void setPortletDefinitionDao(IPortletDefinitionDao portletDefinitionDao) {
@@ -125,6 +133,26 @@ public class PopularPortletsController {
     }
     
     private List<PortletUsage> buildEventCounts(Integer days, IPerson user, Locale locale) {
+        final EntityIdentifier ei = user.getEntityIdentifier();
+        final AuthorizationService authService = AuthorizationService.instance();
+        final IAuthorizationPrincipal ap = authService.newPrincipal(ei.getKey(), ei.getType());
+        
+        //Use the precomputed ranking if one is maintained for the number of days
+        final List<PortletLayoutRanking> ranking = this.portletLayoutRankingService.getRanking(days);
+        if (ranking != null) {
+            final ArrayList<PortletUsage> results = new ArrayList<PortletUsage>(ranking.size());
+            for (final PortletLayoutRanking portletRanking : ranking) {
+                final PortletUsage portletUsage = createPortletUsage(portletRanking.getFname(), ap, locale);
+                if (portletUsage != null) {
+                    portletUsage.incrementCount(portletRanking.getAddCount());
+                    results.add(portletUsage);
+                }
+            }
+            
+            Collections.sort(results);
+            return results;
+        }
+        
         final DateTime end = new DateTime();
         final DateTime begin = end.minusDays(days);
         
@@ -132,10 +160,6 @@ public class PopularPortletsController {
         final AggregatedGroupMapping group = aggregatedGroupLookupDao.getGroupMapping(everyone.getKey());
         final List<PortletLayoutAggregation> aggregations = portletLayoutDao.getAggregationsForAllPortlets(begin, end, AGGREGATION_INTERVAL, group);
         
-        final EntityIdentifier ei = user.getEntityIdentifier();
-        final AuthorizationService authService = AuthorizationService.instance();
-        final IAuthorizationPrincipal ap = authService.newPrincipal(ei.getKey(), ei.getType());
-        
         final Map<String, PortletUsage> resultBuilder = new HashMap<String, PortletUsage>();
         
         for (final PortletLayoutAggregation aggregation : aggregations) {
@@ -143,19 +167,11 @@ public class PopularPortletsController {
             final String fname = portlet.getFname();
             PortletUsage portletUsage = resultBuilder.get(fname);
             if (portletUsage == null) {
-                final IPortletDefinition portletDefinition = this.portletDefinitionDao.getPortletDefinitionByFname(fname);
-                
-                if (portletDefinition == null || !ap.canSubscribe(portletDefinition.getPortletDefinitionId().getStringId())) {
-                    //Skip portlets that no longer exist or cannot be subscribed to
+                portletUsage = createPortletUsage(fname, ap, locale);
+                if (portletUsage == null) {
                     continue;
                 }
                 
-                portletUsage = new PortletUsage(
-                        portletDefinition.getPortletDefinitionId().getLongId(), 
-                        fname, 
-                        portletDefinition.getTitle(locale.toString()), 
-                        portletDefinition.getDescription(locale.toString()));
-                
                 resultBuilder.put(fname, portletUsage);
             }
             
@@ -167,4 +183,22 @@ public class PopularPortletsController {
         
         return results;
     }
+    
+    /**
+     * @return A PortletUsage with a count of 0, null if the portlet no longer exists or cannot be subscribed to
+     */
+    private PortletUsage createPortletUsage(String fname, IAuthorizationPrincipal ap, Locale locale) {
+        final IPortletDefinition portletDefinition = this.portletDefinitionDao.getPortletDefinitionByFname(fname);
+        
+        if (portletDefinition == null || !ap.canSubscribe(portletDefinition.getPortletDefinitionId().getStringId())) {
+            //Skip portlets that no longer exist or cannot be subscribed to
+            return null;
+        }
+        
+        return new PortletUsage(
+                portletDefinition.getPortletDefinitionId().getLongId(), 
+                fname, 
+                portletDefinition.getTitle(locale.toString()), 
+                portletDefinition.getDescription(locale.toString()));
+    }
 }
@@ -18,6 +18,9 @@
  */
 package org.jasig.portal.portlets.statistics;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -31,7 +34,11 @@ import java.util.TreeSet;
 
 import javax.portlet.ResourceURL;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.google.visualization.datasource.base.TypeMismatchException;
@@ -41,17 +48,23 @@ import com.google.visualization.datasource.datatable.TableCell;
 import com.google.visualization.datasource.datatable.TableRow;
 import com.google.visualization.datasource.datatable.value.DateTimeValue;
 import com.google.visualization.datasource.datatable.value.DateValue;
+import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.TimeOfDayValue;
 import com.google.visualization.datasource.datatable.value.Value;
 import com.google.visualization.datasource.datatable.value.ValueType;
 import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalHelper;
+import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.BaseAggregation;
 import org.jasig.portal.events.aggr.BaseAggregationDao;
 import org.jasig.portal.events.aggr.BaseAggregationDateTimeComparator;
 import org.jasig.portal.events.aggr.BaseAggregationKey;
 import org.jasig.portal.events.aggr.BaseGroupedAggregationDiscriminator;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.TimedAggregationHistogram;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMappingNameComparator;
@@ -62,6 +75,7 @@ import org.joda.time.format.DateTimeFormatterBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.ModelAttribute;
@@ -105,6 +119,13 @@ public abstract class BaseStatisticsReportController<
     @Autowired
     protected AggregatedGroupLookupDao aggregatedGroupDao;
     
+    @Autowired
+    private IEventAggregationManagementDao eventAggregationManagementDao;
+    
+    @Autowired
+    @Qualifier("org.jasig.portal.portlets.statistics.BaseStatisticsReportController.aggregationCache")
+    private Ehcache aggregationCache;
+    
     @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.portlets.statistics.maxIntervals}")
     private int maxIntervals = 4000;
     
@@ -393,6 +414,52 @@ public abstract class BaseStatisticsReportController<
         }
         return showFullHeaderDescriptions;
     }
+    
+    /**
+     * Add a column description for each percentile requested in the form, must be called by reports
+     * that use {@link #addPercentileRowValues(List, TimedAggregationHistogram, BaseTimedReportForm)}
+     * 
+     * @param columnDescriptions The column descriptions for the report column, the description of the first is used as the prefix for the percentile columns
+     * @param form The original query form
+     */
+    protected static void addPercentileColumnDescriptions(List<ColumnDescription> columnDescriptions, BaseTimedReportForm form) {
+        final ColumnDescription countColumn = columnDescriptions.get(0);
+        for (final Double percentile : form.getPercentiles()) {
+            final String suffix = " p" + formatPercentile(percentile) + " (ms)";
+            columnDescriptions.add(new ColumnDescription(countColumn.getId() + suffix, ValueType.NUMBER, countColumn.getLabel() + suffix));
+        }
+    }
+    
+    /**
+     * Add the value for each percentile requested in the form, in milliseconds
+     * 
+     * @param values The values for the report column
+     * @param aggr The aggregation, null if there is no data for the row
+     * @param form The original query form
+     */
+    protected static void addPercentileRowValues(List<Value> values, TimedAggregationHistogram aggr, BaseTimedReportForm form) {
+        for (final Double percentile : form.getPercentiles()) {
+            if (aggr == null) {
+                values.add(NumberValue.getNullValue());
+                continue;
+            }
+            
+            final double nanos = aggr.getPercentile(percentile);
+            if (Double.isNaN(nanos)) {
+                values.add(NumberValue.getNullValue());
+            }
+            else {
+                values.add(new NumberValue(nanos / 1000000));
+            }
+        }
+    }
+    
+    private static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return Long.toString((long) percentile);
+        }
+        return Double.toString(percentile);
+    }
 
     /**
      * Build the aggregation {@link DataTable}
@@ -454,8 +521,8 @@ public abstract class BaseStatisticsReportController<
         //Query for all aggregation data in the time range for all groups.  Only the
         //interval and discriminator data is used from the keys.
         final Set<K> keys = createAggregationsQueryKeyset(columnGroups, form);
-        final BaseAggregationDao<T, K> baseAggregationDao = this.getBaseAggregationDao();
-        final Collection<T> aggregations = baseAggregationDao.getAggregations(
+        final Collection<T> aggregations = this.getAggregations(
+                interval,
                 startDateTime,
                 endDateTime,
                 keys,
@@ -533,6 +600,127 @@ public abstract class BaseStatisticsReportController<
         return table;
     }
 
+    /**
+     * Get the aggregations for the date range. Aggregations for closed intervals never change so they are cached in
+     * date range buckets, see {@link #getCacheBucketEnd(AggregationInterval, DateTime)}. Only the buckets missing from
+     * the cache and the range after the last closed bucket are loaded from the database.
+     * 
+     * @see BaseAggregationDao#getAggregations(DateTime, DateTime, Set, AggregatedGroupMapping...)
+     */
+    protected final Collection<T> getAggregations(AggregationInterval interval, DateTime start, DateTime end, Set<K> keys,
+            AggregatedGroupMapping... groups) {
+        
+        final BaseAggregationDao<T, K> baseAggregationDao = this.getBaseAggregationDao();
+        
+        final DateTime closedEnd = this.getClosedIntervalsEnd(interval);
+        if (closedEnd == null || !closedEnd.isAfter(start)) {
+            //Nothing in the range is closed
+            return baseAggregationDao.getAggregations(start, end, keys, groups);
+        }
+        
+        final Set<K> keySet = ImmutableSet.copyOf(keys);
+        final Set<AggregatedGroupMapping> groupSet = ImmutableSet.copyOf(groups);
+        
+        final List<T> aggregations = new ArrayList<T>();
+        
+        //Missing buckets are collected into contiguous runs that are loaded with a single query 
+        final List<AggregationCacheKey> missingBuckets = new ArrayList<AggregationCacheKey>();
+        
+        DateTime bucketStart = start;
+        while (bucketStart.isBefore(end)) {
+            final DateTime bucketEnd = this.getCacheBucketEnd(interval, bucketStart);
+            if (bucketEnd.isAfter(closedEnd) || bucketEnd.isAfter(end)) {
+                //Bucket isn't completely closed or is cut off by the end of the report
+                break;
+            }
+            
+            final AggregationCacheKey cacheKey = new AggregationCacheKey(this.getClass(), interval, bucketStart, bucketEnd, keySet, groupSet);
+            final Element element = this.aggregationCache.get(cacheKey);
+            if (element != null) {
+                this.loadAggregationBuckets(missingBuckets, aggregations, keys, groups);
+                
+                @SuppressWarnings("unchecked")
+                final List<T> cachedAggregations = (List<T>) element.getObjectValue();
+                aggregations.addAll(cachedAggregations);
+            }
+            else {
+                missingBuckets.add(cacheKey);
+            }
+            
+            bucketStart = bucketEnd;
+        }
+        this.loadAggregationBuckets(missingBuckets, aggregations, keys, groups);
+        
+        //Load the remainder of the range that includes open intervals
+        if (bucketStart.isBefore(end)) {
+            aggregations.addAll(baseAggregationDao.getAggregations(bucketStart, end, keys, groups));
+        }
+        
+        return aggregations;
+    }
+    
+    /**
+     * Load the aggregations for a contiguous run of buckets with one query, the buckets are then cached
+     * individually. The list of buckets is cleared after loading. The DAO fetches the dimension, group and
+     * subclass relations with the aggregations so the cached entities can be read outside of their session.
+     */
+    private void loadAggregationBuckets(List<AggregationCacheKey> buckets, List<T> aggregations, Set<K> keys, AggregatedGroupMapping[] groups) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        
+        final DateTime start = buckets.get(0).start;
+        final DateTime end = buckets.get(buckets.size() - 1).end;
+        final List<T> loadedAggregations = this.getBaseAggregationDao().getAggregations(start, end, keys, groups);
+        aggregations.addAll(loadedAggregations);
+        
+        for (final AggregationCacheKey bucket : buckets) {
+            final ImmutableList.Builder<T> bucketAggregations = ImmutableList.builder();
+            for (final T aggregation : loadedAggregations) {
+                final DateTime dateTime = aggregation.getDateTime();
+                if (!dateTime.isBefore(bucket.start) && dateTime.isBefore(bucket.end)) {
+                    bucketAggregations.add(aggregation);
+                }
+            }
+            this.aggregationCache.put(new Element(bucket, bucketAggregations.build()));
+        }
+        
+        buckets.clear();
+    }
+    
+    /**
+     * @return The start of the interval that contains the oldest unclosed aggregation, null if nothing has been closed
+     */
+    protected final DateTime getClosedIntervalsEnd(AggregationInterval interval) {
+        final IEventAggregatorStatus cleanUnclosedStatus = this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.CLEAN_UNCLOSED, false);
+        if (cleanUnclosedStatus == null || cleanUnclosedStatus.getLastEventDate() == null) {
+            return null;
+        }
+        
+        final AggregationIntervalInfo intervalInfo = this.intervalHelper.getIntervalInfo(interval, cleanUnclosedStatus.getLastEventDate());
+        if (intervalInfo == null) {
+            return null;
+        }
+        
+        return intervalInfo.getStart();
+    }
+    
+    /**
+     * Determines the size of the cached date range buckets. Intervals with a time part are cached by day,
+     * days by month and all larger intervals by year.
+     * 
+     * @return The exclusive end of the cache bucket that starts at bucketStart
+     */
+    protected DateTime getCacheBucketEnd(AggregationInterval interval, DateTime bucketStart) {
+        if (interval.isHasTimePart()) {
+            return bucketStart.toDateMidnight().plusDays(1).toDateTime();
+        }
+        if (interval == AggregationInterval.DAY) {
+            return bucketStart.toDateMidnight().withDayOfMonth(1).plusMonths(1).toDateTime();
+        }
+        return bucketStart.toDateMidnight().withDayOfYear(1).plusYears(1).toDateTime();
+    }
+    
     // Return the set of AggregatedGroupMappings based upon the set of column groups.
     // Since an AggregatedGroupMapping may occur multiple times in the column groups,
     // use a Set to filter down to unique values.
@@ -543,4 +731,57 @@ public abstract class BaseStatisticsReportController<
         }
         return groupMappings.toArray(new AggregatedGroupMapping[0]);
     }
+    
+    /**
+     * Key for a bucket of cached aggregations
+     */
+    private static final class AggregationCacheKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final String reportType;
+        private final AggregationInterval interval;
+        private final DateTime start;
+        private final DateTime end;
+        private final Set<?> keys;
+        private final Set<AggregatedGroupMapping> groups;
+        private final int hashCode;
+        
+        public AggregationCacheKey(Class<?> reportType, AggregationInterval interval, DateTime start, DateTime end, 
+                Set<?> keys, Set<AggregatedGroupMapping> groups) {
+            this.reportType = reportType.getName();
+            this.interval = interval;
+            this.start = start;
+            this.end = end;
+            this.keys = keys;
+            this.groups = groups;
+            this.hashCode = Arrays.hashCode(new Object[] { this.reportType, interval, start, end, keys, groups });
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof AggregationCacheKey))
+                return false;
+            final AggregationCacheKey other = (AggregationCacheKey) obj;
+            return this.hashCode == other.hashCode &&
+                    this.interval == other.interval &&
+                    this.reportType.equals(other.reportType) &&
+                    this.start.equals(other.start) &&
+                    this.end.equals(other.end) &&
+                    this.keys.equals(other.keys) &&
+                    this.groups.equals(other.groups);
+        }
+
+        @Override
+        public String toString() {
+            return "AggregationCacheKey [reportType=" + this.reportType + ", interval=" + this.interval + ", start="
+                    + this.start + ", end=" + this.end + ", keys=" + this.keys + ", groups=" + this.groups + "]";
+        }
+    }
 }
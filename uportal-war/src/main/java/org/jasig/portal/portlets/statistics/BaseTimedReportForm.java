@@ -0,0 +1,42 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.portlets.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base form for reports on aggregations that include timing info
+ */
+public abstract class BaseTimedReportForm extends BaseReportForm {
+    private List<Double> percentiles = new ArrayList<Double>();
+
+    /**
+     * @return Percentiles, from 0 to 100, to report in addition to the count. Empty by default.
+     */
+    public final List<Double> getPercentiles() {
+        return percentiles;
+    }
+
+    public final void setPercentiles(List<Double> percentiles) {
+        this.percentiles = percentiles;
+    }
+}
@@ -22,7 +22,7 @@ package org.jasig.portal.portlets.statistics;
 import java.util.HashSet;
 import java.util.Set;
 
-public class PortletExecutionReportForm extends BaseReportForm {
+public class PortletExecutionReportForm extends BaseTimedReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
@@ -18,7 +18,7 @@
  */
 package org.jasig.portal.portlets.statistics;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -280,13 +280,19 @@ public class PortletExecutionStatisticsController
                 new TitleAndCount(groupName, groupSize)
         };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        final List<ColumnDescription> columnDescriptions = new ArrayList<ColumnDescription>(
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form));
+        addPercentileColumnDescriptions(columnDescriptions, form);
+        return columnDescriptions;
     }
 
     @Override
     protected List<Value> createRowValues(PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
         int count = aggr != null ? aggr.getExecutionCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        final List<Value> values = new ArrayList<Value>(1 + form.getPercentiles().size());
+        values.add(new NumberValue(count));
+        addPercentileRowValues(values, aggr, form);
+        return values;
     }
 
 }
@@ -22,7 +22,7 @@ package org.jasig.portal.portlets.statistics;
 import java.util.ArrayList;
 import java.util.List;
 
-public class TabRenderReportForm extends BaseReportForm {
+public class TabRenderReportForm extends BaseTimedReportForm {
 
     private List<Long> tabs = new ArrayList<Long>();
 
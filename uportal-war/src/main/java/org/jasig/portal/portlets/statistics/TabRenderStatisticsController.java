@@ -18,7 +18,7 @@
  */
 package org.jasig.portal.portlets.statistics;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -218,13 +218,19 @@ public class TabRenderStatisticsController extends
                 new ReportTitleAndColumnDescriptionStrategy.TitleAndCount(groupName, form.getGroups().size())
         };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        final List<ColumnDescription> columnDescriptions = new ArrayList<ColumnDescription>(
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form));
+        addPercentileColumnDescriptions(columnDescriptions, form);
+        return columnDescriptions;
     }
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
         int count = aggr != null ? aggr.getRenderCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        final List<Value> values = new ArrayList<Value>(1 + form.getPercentiles().size());
+        values.add(new NumberValue(count));
+        addPercentileRowValues(values, aggr, form);
+        return values;
     }
 
 }
@@ -19,22 +19,21 @@
 
 package org.jasig.portal.rest;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.portlet.WindowState;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.IUserProfile;
-import org.jasig.portal.layout.IUserLayoutStore;
-import org.jasig.portal.layout.dlm.DistributedUserLayout;
-import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
-import org.jasig.portal.portlet.om.IPortletDefinition;
-import org.jasig.portal.portlet.om.IPortletDefinitionParameter;
+import org.jasig.portal.layout.IUserLayoutManager;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.rest.layout.LayoutPortlet;
 import org.jasig.portal.security.IPerson;
@@ -49,23 +48,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.ModelAndView;
 import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 @Controller
 public class LayoutRESTController {
+    private static final String LAYOUT_PROJECTION_ATTRIBUTE = LayoutRESTController.class.getName() + ".LAYOUT_PROJECTION";
     
     protected final Log log = LogFactory.getLog(getClass());
     
-    IUserLayoutStore userLayoutStore;
-    
-    @Autowired(required = true)
-    public void setUserLayoutStore(IUserLayoutStore userLayoutStore) {
-        this.userLayoutStore = userLayoutStore;
-    }
-    
     IPersonManager personManager;
     
     @Autowired(required = true)
@@ -87,18 +85,18 @@ public class LayoutRESTController {
         this.userInstanceManager = userInstanceManager;
     }
     
-    private IPortletDefinitionDao portletDao;
-    
-    @Autowired(required = true)
-    public void setPortletDao(IPortletDefinitionDao portletDao) {
-        this.portletDao = portletDao;
-    }
-    
+    /**
+     * Returns the portlets in the user's layout. The response has an ETag computed from the user, profile and
+     * the layout manager's cache key, if the client sends a matching If-None-Match header a 304 is returned.
+     * The portlet list is cached in the session and only rebuilt when the ETag changes.
+     * <p>
+     * The portlet title, description and iconUrl are read from the layout document, which copies them from
+     * the portlet definition when the layout is loaded, so the list always matches the rendered layout and
+     * the layout cache key versions all of it.
+     */
     @RequestMapping(value="/layoutDoc", method = RequestMethod.GET)
     public ModelAndView getRESTController(HttpServletRequest request, HttpServletResponse response) {
         final IPerson person = personManager.getPerson(request);
-        List<LayoutPortlet> portlets = new ArrayList<LayoutPortlet>();
-        
         
         try {
             
@@ -107,42 +105,40 @@ public class LayoutRESTController {
             final IUserPreferencesManager upm = ui.getPreferencesManager();
 
             final IUserProfile profile = upm.getUserProfile();
-            final DistributedUserLayout userLayout = userLayoutStore.getUserLayout(person, profile);
-            Document document = userLayout.getLayout();
+            final IUserLayoutManager userLayoutManager = upm.getUserLayoutManager();
             
-            NodeList portletNodes = document.getElementsByTagName("channel");
-            for (int i = 0; i < portletNodes.getLength(); i++) {
-                try {
-                    
-                    LayoutPortlet portlet = new LayoutPortlet();
-                    NamedNodeMap attributes = portletNodes.item(i).getAttributes();
-                    portlet.setTitle(attributes.getNamedItem("title").getNodeValue());
-                    portlet.setDescription(attributes.getNamedItem("description").getNodeValue());
-                    portlet.setNodeId(attributes.getNamedItem("ID").getNodeValue());
-                    
-                    IPortletDefinition def = portletDao.getPortletDefinitionByFname(attributes.getNamedItem("fname").getNodeValue());
-                    IPortletDefinitionParameter iconParam = def.getParameter("iconUrl");
-                    if (iconParam != null) {
-                        portlet.setIconUrl(iconParam.getValue());                        
-                    }
-                    
-                    // get the maximized URL for this portlet
-                    final IPortalUrlBuilder portalUrlBuilder = urlProvider.getPortalUrlBuilderByLayoutNode(request, attributes.getNamedItem("ID").getNodeValue(), UrlType.RENDER);
-                    final IPortletWindowId targetPortletWindowId = portalUrlBuilder.getTargetPortletWindowId();
-                    if (targetPortletWindowId != null) {
-                        final IPortletUrlBuilder portletUrlBuilder = portalUrlBuilder.getPortletUrlBuilder(targetPortletWindowId);
-                        portletUrlBuilder.setWindowState(WindowState.MAXIMIZED);
+            //The layout cache key changes every time the layout is loaded or modified
+            final Hasher hasher = Hashing.md5().newHasher();
+            putField(hasher, person.getUserName());
+            hasher.putInt(profile.getProfileId());
+            putField(hasher, userLayoutManager.getCacheKey());
+            
+            final String etag = "\"" + hasher.hash().toString() + "\"";
+            if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+                return null;
+            }
+            
+            final HttpSession session = request.getSession();
+            LayoutProjection layoutProjection = (LayoutProjection) session.getAttribute(LAYOUT_PROJECTION_ATTRIBUTE);
+            if (layoutProjection == null || !layoutProjection.etag.equals(etag)) {
+                final Document document = userLayoutManager.getUserLayoutDOM();
+                final NodeList portletNodes = document.getElementsByTagName("channel");
+                
+                final List<LayoutPortlet> portlets = new ArrayList<LayoutPortlet>(portletNodes.getLength());
+                for (int i = 0; i < portletNodes.getLength(); i++) {
+                    try {
+                        portlets.add(this.createLayoutPortlet(request, (Element) portletNodes.item(i)));
+                    } catch (Exception e) {
+                        log.warn("Exception construction JSON representation of mobile portlet", e);
                     }
-                    portlet.setUrl(portalUrlBuilder.getUrlString());
-                    portlets.add(portlet);
-
-                } catch (Exception e) {
-                    log.warn("Exception construction JSON representation of mobile portlet", e);
                 }
+                
+                layoutProjection = new LayoutProjection(etag, portlets);
+                session.setAttribute(LAYOUT_PROJECTION_ATTRIBUTE, layoutProjection);
             }
             
             ModelAndView mv = new ModelAndView();
-            mv.addObject("layout", portlets);
+            mv.addObject("layout", layoutProjection.portlets);
             mv.setViewName("json");
             return mv;
         } catch (Exception e) {
@@ -151,5 +147,67 @@ public class LayoutRESTController {
         
         return null;
     }
+    
+    /**
+     * Length prefix each variable length field so that adjacent values can't run together
+     */
+    private static void putField(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        }
+        else {
+            hasher.putInt(value.length()).putString(value);
+        }
+    }
+    
+    private LayoutPortlet createLayoutPortlet(HttpServletRequest request, Element portletElement) {
+        final String nodeId = portletElement.getAttribute("ID");
+        
+        LayoutPortlet portlet = new LayoutPortlet();
+        portlet.setTitle(portletElement.getAttribute("title"));
+        portlet.setDescription(portletElement.getAttribute("description"));
+        portlet.setNodeId(nodeId);
+        portlet.setIconUrl(this.getParameterValue(portletElement, "iconUrl"));
+        
+        // get the maximized URL for this portlet
+        final IPortalUrlBuilder portalUrlBuilder = urlProvider.getPortalUrlBuilderByLayoutNode(request, nodeId, UrlType.RENDER);
+        final IPortletWindowId targetPortletWindowId = portalUrlBuilder.getTargetPortletWindowId();
+        if (targetPortletWindowId != null) {
+            final IPortletUrlBuilder portletUrlBuilder = portalUrlBuilder.getPortletUrlBuilder(targetPortletWindowId);
+            portletUrlBuilder.setWindowState(WindowState.MAXIMIZED);
+        }
+        portlet.setUrl(portalUrlBuilder.getUrlString());
+        return portlet;
+    }
+    
+    /**
+     * Returns the value of the named portlet parameter copied into the layout, the last one wins so that
+     * user overrides appended after the definition's parameters take precedence.
+     */
+    private String getParameterValue(Element portletElement, String name) {
+        String value = null;
+        for (Node child = portletElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && "parameter".equals(child.getNodeName())
+                    && name.equals(((Element) child).getAttribute("name"))) {
+                value = ((Element) child).getAttribute("value");
+            }
+        }
+        return value;
+    }
+    
+    /**
+     * Portlet list returned for a specific ETag
+     */
+    private static final class LayoutProjection implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final String etag;
+        private final List<LayoutPortlet> portlets;
+        
+        public LayoutProjection(String etag, List<LayoutPortlet> portlets) {
+            this.etag = etag;
+            this.portlets = Collections.unmodifiableList(portlets);
+        }
+    }
 
 }
@@ -0,0 +1,99 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+import org.jasig.portal.events.metrics.PortalMetrics;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.IPersonManager;
+import org.jasig.portal.services.AuthorizationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Plain text view of the live {@link PortalMetrics}, one <code>name value</code> pair per line. Only
+ * available to portal administrators.
+ */
+@Controller
+public class PortalMetricsController {
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+    
+    private IPersonManager personManager;
+    private PortalMetrics portalMetrics;
+
+    @Autowired
+    public void setPersonManager(IPersonManager personManager) {
+        this.personManager = personManager;
+    }
+
+    @Autowired
+    public void setPortalMetrics(PortalMetrics portalMetrics) {
+        this.portalMetrics = portalMetrics;
+    }
+
+    @RequestMapping(value="/metrics.txt", method = RequestMethod.GET)
+    public void getMetrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final IPerson person = personManager.getPerson(request);
+        final EntityIdentifier ei = person.getEntityIdentifier();
+        final IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        if (!ap.hasPermission(IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET)) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        final PrintWriter writer = response.getWriter();
+        
+        writer.println("render.requestsPerSecond " + this.portalMetrics.getRenderRequestsPerSecond());
+        writer.println("login.count " + this.portalMetrics.getLoginCount());
+        writer.println("session.concurrent " + this.portalMetrics.getConcurrentSessionCount());
+        writer.println("portletWorker.active " + this.portalMetrics.getPortletWorkerActiveCount());
+        writer.println("portletWorker.maximum " + this.portalMetrics.getPortletWorkerMaximumCount());
+        writer.println("portletWorker.saturation " + this.portalMetrics.getPortletWorkerSaturation());
+        
+        printPercentiles(writer, "render.time", this.portalMetrics.getPortalRenderTimes());
+        for (final Map.Entry<String, LatencyHistogram> renderTimeEntry : this.portalMetrics.getPortletRenderTimes().entrySet()) {
+            printPercentiles(writer, "portlet." + renderTimeEntry.getKey() + ".renderTime", renderTimeEntry.getValue());
+        }
+        
+        writer.flush();
+    }
+    
+    private static void printPercentiles(PrintWriter writer, String name, LatencyHistogram histogram) {
+        writer.println(name + ".count " + histogram.getTotalCount());
+        for (final double percentile : PERCENTILES) {
+            final double millis = histogram.getPercentile(percentile) / 1000000;
+            writer.println(name + ".p" + (int) percentile + " " + millis);
+        }
+    }
+}
@@ -19,7 +19,11 @@
 
 package org.jasig.portal.rest.layout;
 
-public class LayoutPortlet {
+import java.io.Serializable;
+
+public class LayoutPortlet implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
     private String nodeId;
     private String title;
     private String description;
@@ -19,14 +19,26 @@
 
 package org.jasig.portal.security.provider;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.EntityTypes;
+import org.jasig.portal.concurrency.CachingException;
+import org.jasig.portal.concurrency.IEntityCachingService;
 import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.groups.IGroupMember;
@@ -35,7 +47,10 @@ import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionPolicy;
+import org.jasig.portal.security.IPermissionSet;
 import org.jasig.portal.services.GroupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -64,13 +79,33 @@ import org.springframework.stereotype.Service;
  *  Principal -- Small group (DENY) -- Bigger group -- Huge group
  *  Principal -- Some other group -- Bigger other group (GRANT) -- Huge group
  *  Results in GRANT because there is an unblocked path to a GRANT.
+ *
+ *  The permissions reachable through an unblocked path are computed once per principal
+ *  and cached until permissions or groups are changed, see {@link #getUnblockedGrants}.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
 public class AnyUnblockedGrantPermissionPolicy
     implements IPermissionPolicy {
 
+    public static final String UNBLOCKED_GRANTS_CACHE_NAME = "org.jasig.portal.security.provider.AnyUnblockedGrantPermissionPolicy.UNBLOCKED_GRANTS";
+
     protected final Log log = LogFactory.getLog(getClass());
     
+    private IEntityCachingService entityCachingService;
+    private Ehcache unblockedGrantsCache;
+    
+    @Autowired
+    public void setEntityCachingService(IEntityCachingService entityCachingService) {
+        this.entityCachingService = entityCachingService;
+    }
+
+    /**
+     * Cache of the grants reachable by each principal, if not set the groups tree is walked for every check
+     */
+    @Autowired(required = false)
+    public void setUnblockedGrantsCache(@Qualifier(UNBLOCKED_GRANTS_CACHE_NAME) Ehcache unblockedGrantsCache) {
+        this.unblockedGrantsCache = unblockedGrantsCache;
+    }
 
     public boolean doesPrincipalHavePermission(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity, String target) throws AuthorizationException {
         // the API states that the service, owner, and activity arguments must 
@@ -140,9 +175,7 @@ public class AnyUnblockedGrantPermissionPolicy
         // no explicit permission.  Search for an unblocked GRANT.
         boolean hasUnblockedPathToGrant;
         try {
-            // track groups we've already explored to avoid infinite loop
-            Set<IGroupMember> seenGroups = new HashSet<IGroupMember>(100);
-            hasUnblockedPathToGrant = hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
+            hasUnblockedPathToGrant = hasUnblockedPathToGrant(service, principal, owner, activity, target);
         } catch (Exception e) {
             log.error("Error searching for unblocked path to grant for principal [" + principal + "]", e);
             // fail closed
@@ -161,6 +194,21 @@ public class AnyUnblockedGrantPermissionPolicy
 
     }
 
+    /**
+     * Searches for a GRANT reachable from the principal through containing groups without an intervening DENY, uses
+     * the cached unblocked grants for the principal if a cache is configured.
+     */
+    boolean hasUnblockedPathToGrant(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity, String target) throws GroupsException, CachingException {
+        final UnblockedGrants unblockedGrants = getUnblockedGrants(service, principal);
+        if (unblockedGrants != null) {
+            return unblockedGrants.contains(owner, activity, target);
+        }
+        
+        // track groups we've already explored to avoid infinite loop
+        Set<IGroupMember> seenGroups = new HashSet<IGroupMember>(100);
+        return hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
+    }
+
     private boolean hasUnblockedPathToGrant(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity, String target, Set<IGroupMember> seenGroups) throws GroupsException {
 
     	if (log.isTraceEnabled()) {
@@ -234,6 +282,181 @@ public class AnyUnblockedGrantPermissionPolicy
         return false;
     }
 
+    /**
+     * Returns the permissions the principal is granted through an unblocked path of containing groups. The result
+     * is cached until the {@link IPermissionSet} or {@link IEntityGroup} entity versions change or until a loaded
+     * permission becomes effective or expires.
+     * 
+     * @return null if no cache is configured
+     */
+    protected UnblockedGrants getUnblockedGrants(IAuthorizationService service, IAuthorizationPrincipal principal) throws GroupsException, CachingException {
+        if (this.unblockedGrantsCache == null) {
+            return null;
+        }
+        
+        //Read the version before computing so a concurrent change invalidates the result
+        final String version = 
+                this.entityCachingService.getEntityTypeVersion(IPermissionSet.class) + "|" +
+                this.entityCachingService.getEntityTypeVersion(EntityTypes.GROUP_ENTITY_TYPE);
+        final long now = System.currentTimeMillis();
+        
+        final String key = principal.getPrincipalString();
+        final Element element = this.unblockedGrantsCache.get(key);
+        if (element != null) {
+            final UnblockedGrants unblockedGrants = (UnblockedGrants) element.getObjectValue();
+            if (unblockedGrants.isValid(version, now)) {
+                return unblockedGrants;
+            }
+        }
+        
+        final UnblockedGrants unblockedGrants = computeUnblockedGrants(service, principal, version, now);
+        this.unblockedGrantsCache.put(new Element(key, unblockedGrants));
+        return unblockedGrants;
+    }
+    
+    /**
+     * Loads every group containing the principal along with the group's active permissions, then determines which
+     * of the GRANTed permissions have an unblocked path from the principal using the same rules as
+     * {@link #hasUnblockedPathToGrant(IAuthorizationService, IAuthorizationPrincipal, String, String, String, Set)}
+     */
+    private UnblockedGrants computeUnblockedGrants(IAuthorizationService service, IAuthorizationPrincipal principal, String version, long now) throws GroupsException {
+        final IGroupMember principalAsGroupMember = service.getGroupMember(principal);
+        
+        final Map<IGroupMember, List<IGroupMember>> containingGroups = new HashMap<IGroupMember, List<IGroupMember>>();
+        final Map<IGroupMember, Set<PermissionKey>> groupGrants = new HashMap<IGroupMember, Set<PermissionKey>>();
+        final Map<IGroupMember, Set<PermissionKey>> groupDenies = new HashMap<IGroupMember, Set<PermissionKey>>();
+        final Set<IGroupMember> failedGroups = new HashSet<IGroupMember>();
+        long validUntil = Long.MAX_VALUE;
+        
+        final LinkedList<IGroupMember> toVisit = new LinkedList<IGroupMember>();
+        toVisit.add(principalAsGroupMember);
+        while (!toVisit.isEmpty()) {
+            final IGroupMember member = toVisit.removeFirst();
+            
+            final List<IGroupMember> parents = new ArrayList<IGroupMember>();
+            containingGroups.put(member, parents);
+            
+            final Iterator<IGroupMember> immediatelyContainingGroups;
+            try {
+                immediatelyContainingGroups = member.getContainingGroups();
+            }
+            catch (GroupsException e) {
+                // the principal's own groups are required, a broken parent just ends that path
+                if (member == principalAsGroupMember) {
+                    throw e;
+                }
+                log.error("Error evaluating containing groups of [" + member + "]", e);
+                continue;
+            }
+            
+            while (immediatelyContainingGroups.hasNext()) {
+                final IGroupMember parentGroup = immediatelyContainingGroups.next();
+                if (parentGroup == null || failedGroups.contains(parentGroup)) {
+                    continue;
+                }
+                
+                if (!groupGrants.containsKey(parentGroup)) {
+                    final Set<IPermission> activeParentPermissions;
+                    try {
+                        final IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
+                        final IPermission[] parentPermissions = service.getPermissionsForPrincipal(parentPrincipal, null, null, null);
+                        activeParentPermissions = activePermissions(parentPermissions);
+                        validUntil = Math.min(validUntil, getNextPermissionChange(parentPermissions, now));
+                    }
+                    catch (Exception e) {
+                        // problem evaluating this path, but let's not let it stop
+                        // us from exploring other paths.
+                        log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
+                        failedGroups.add(parentGroup);
+                        continue;
+                    }
+                    
+                    final Set<PermissionKey> grants = new HashSet<PermissionKey>();
+                    final Set<PermissionKey> denies = new HashSet<PermissionKey>();
+                    for (final IPermission permission : activeParentPermissions) {
+                        if (IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType())) {
+                            grants.add(new PermissionKey(permission));
+                        }
+                        else if (IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                            denies.add(new PermissionKey(permission));
+                        }
+                    }
+                    groupGrants.put(parentGroup, grants);
+                    groupDenies.put(parentGroup, denies);
+                    
+                    toVisit.add(parentGroup);
+                }
+                
+                parents.add(parentGroup);
+            }
+        }
+        
+        final Set<PermissionKey> unblockedGrants = new HashSet<PermissionKey>();
+        for (final Set<PermissionKey> grants : groupGrants.values()) {
+            for (final PermissionKey permissionKey : grants) {
+                if (!unblockedGrants.contains(permissionKey)) {
+                    final Set<IGroupMember> seenGroups = new HashSet<IGroupMember>();
+                    if (hasUnblockedPathToGrant(principalAsGroupMember, permissionKey, containingGroups, groupGrants, groupDenies, seenGroups)) {
+                        unblockedGrants.add(permissionKey);
+                    }
+                }
+            }
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Principal [" + principal + "] has " + unblockedGrants.size() + " unblocked grants through " + groupGrants.size() + " containing groups");
+        }
+        
+        return new UnblockedGrants(version, validUntil, unblockedGrants);
+    }
+    
+    private boolean hasUnblockedPathToGrant(IGroupMember member, PermissionKey permissionKey,
+            Map<IGroupMember, List<IGroupMember>> containingGroups, Map<IGroupMember, Set<PermissionKey>> groupGrants,
+            Map<IGroupMember, Set<PermissionKey>> groupDenies, Set<IGroupMember> seenGroups) {
+        
+        if (!seenGroups.add(member)) {
+            return false;
+        }
+        
+        final List<IGroupMember> parents = containingGroups.get(member);
+        if (parents == null) {
+            return false;
+        }
+        
+        for (final IGroupMember parentGroup : parents) {
+            final boolean parentPermissionsContainsDeny = groupDenies.get(parentGroup).contains(permissionKey);
+            if (!parentPermissionsContainsDeny) {
+                if (groupGrants.get(parentGroup).contains(permissionKey)) {
+                    return true;
+                }
+                
+                if (hasUnblockedPathToGrant(parentGroup, permissionKey, containingGroups, groupGrants, groupDenies, seenGroups)) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return The first time after now that one of the permissions becomes effective or expires
+     */
+    private long getNextPermissionChange(IPermission[] perms, long now) {
+        long nextChange = Long.MAX_VALUE;
+        for (final IPermission p : perms) {
+            final Date effective = p.getEffective();
+            if (effective != null && effective.getTime() > now) {
+                nextChange = Math.min(nextChange, effective.getTime());
+            }
+            final Date expires = p.getExpires();
+            if (expires != null && expires.getTime() > now) {
+                nextChange = Math.min(nextChange, expires.getTime());
+            }
+        }
+        return nextChange;
+    }
+
     /**
      * Returns a Set containing those IPermission instances where the present
      * date is neither after the permission expiration if present nor before
@@ -296,5 +519,81 @@ public class AnyUnblockedGrantPermissionPolicy
         return false;
 
     }
+    
+    /**
+     * Permissions a principal is granted through an unblocked path along with the data needed to
+     * determine if they are still valid.
+     */
+    protected static final class UnblockedGrants {
+        private final String version;
+        private final long validUntil;
+        private final Set<PermissionKey> grants;
+        
+        UnblockedGrants(String version, long validUntil, Set<PermissionKey> grants) {
+            this.version = version;
+            this.validUntil = validUntil;
+            this.grants = Collections.unmodifiableSet(grants);
+        }
+        
+        public boolean isValid(String currentVersion, long now) {
+            return this.version.equals(currentVersion) && now < this.validUntil;
+        }
+        
+        public boolean contains(String owner, String activity, String target) {
+            return this.grants.contains(new PermissionKey(owner, activity, target));
+        }
+    }
+    
+    private static final class PermissionKey {
+        private final String owner;
+        private final String activity;
+        private final String target;
+        private final int hash;
+        
+        public PermissionKey(IPermission permission) {
+            this(permission.getOwner(), permission.getActivity(), permission.getTarget());
+        }
+        
+        public PermissionKey(String owner, String activity, String target) {
+            this.owner = owner;
+            this.activity = activity;
+            this.target = target;
+            
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((owner == null) ? 0 : owner.hashCode());
+            result = prime * result + ((activity == null) ? 0 : activity.hashCode());
+            result = prime * result + ((target == null) ? 0 : target.hashCode());
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            final PermissionKey other = (PermissionKey) obj;
+            return this.hash == other.hash &&
+                    isEqual(this.owner, other.owner) &&
+                    isEqual(this.activity, other.activity) &&
+                    isEqual(this.target, other.target);
+        }
+        
+        private static boolean isEqual(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
 
+        @Override
+        public String toString() {
+            return "PermissionKey [owner=" + this.owner + ", activity=" + this.activity + ", target=" + this.target + "]";
+        }
+    }
 }
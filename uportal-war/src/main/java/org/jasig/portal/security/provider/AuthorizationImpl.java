@@ -154,8 +154,8 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().add(permissions);
-        if ( this.cachePermissions )
-            { removeFromPermissionsCache(permissions); }
+        // always invalidate so data derived from the permissions sees the change
+        removeFromPermissionsCache(permissions);
     }
 }
 
@@ -1029,8 +1029,8 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().delete(permissions);
-        if ( this.cachePermissions )
-            { removeFromPermissionsCache(permissions); }
+        // always invalidate so data derived from the permissions sees the change
+        removeFromPermissionsCache(permissions);
     }
 }
 
@@ -1045,8 +1045,8 @@ throws AuthorizationException
     if (permissions.length > 0)
     {
         getPermissionStore().update(permissions);
-        if ( this.cachePermissions )
-            { removeFromPermissionsCache(permissions); }
+        // always invalidate so data derived from the permissions sees the change
+        removeFromPermissionsCache(permissions);
     }
 }
 }
@@ -158,4 +158,8 @@ public class EntityCachingService implements IEntityCachingService {
     public void update(IBasicEntity ent) throws CachingException {
         EntityCachingServiceLocator.getEntityCachingService().update(ent);
     }
+
+    public String getEntityTypeVersion(Class<? extends IBasicEntity> type) throws CachingException {
+        return EntityCachingServiceLocator.getEntityCachingService().getEntityTypeVersion(type);
+    }
 }
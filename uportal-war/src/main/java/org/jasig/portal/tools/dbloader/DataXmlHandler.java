@@ -19,6 +19,7 @@
 
 package org.jasig.portal.tools.dbloader;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -37,7 +38,8 @@ import org.xml.sax.SAXException;
 
 /**
  * Generates and executes SQL INSERT statements as the data XML document is
- * parsed.
+ * parsed. Consecutive rows with the same table and columns are executed as
+ * JDBC batches, committing every batchSize rows.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -46,12 +48,32 @@ public class DataXmlHandler extends BaseDbXmlHandler {
     private final JdbcOperations jdbcOperations;
     private final TransactionOperations transactionOperations;
     private final Map<String, Map<String, Integer>> tableColumnInfo;
+    private final int batchSize;
     private final List<String> script = new LinkedList<String>();
     
+    //Batches waiting to be executed, in document order
+    private final List<InsertBatch> pendingBatches = new LinkedList<InsertBatch>();
+    private int pendingRowCount = 0;
+    
+    //Statistics for the load report
+    private long startTime;
+    private long tableStartTime;
+    private int tableRowCount;
+    private int tableCount = 0;
+    private long rowCount = 0;
+    
     public DataXmlHandler(JdbcOperations jdbcOperations, TransactionOperations transactionOperations, Map<String, Map<String, Integer>> tableColumnTypes) {
+        this(jdbcOperations, transactionOperations, tableColumnTypes, 1);
+    }
+    
+    /**
+     * @param batchSize Number of rows to insert per transaction, 1 inserts every row in its own transaction
+     */
+    public DataXmlHandler(JdbcOperations jdbcOperations, TransactionOperations transactionOperations, Map<String, Map<String, Integer>> tableColumnTypes, int batchSize) {
         this.jdbcOperations = jdbcOperations;
         this.transactionOperations = transactionOperations;
         this.tableColumnInfo = tableColumnTypes;
+        this.batchSize = Math.max(1, batchSize);
     }
     
     public List<String> getScript() {
@@ -63,6 +85,25 @@ public class DataXmlHandler extends BaseDbXmlHandler {
     private String currentValue = null;
     private Map<String, String> rowData;
 
+    /* (non-Javadoc)
+     * @see org.xml.sax.helpers.DefaultHandler#startDocument()
+     */
+    @Override
+    public void startDocument() throws SAXException {
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /* (non-Javadoc)
+     * @see org.xml.sax.helpers.DefaultHandler#endDocument()
+     */
+    @Override
+    public void endDocument() throws SAXException {
+        this.flushBatches();
+        
+        final long duration = System.currentTimeMillis() - this.startTime;
+        this.logger.info("Loaded " + this.rowCount + " rows into " + this.tableCount + " tables in " + duration + "ms (" + getRowsPerSecond(this.rowCount, duration) + " rows/sec)");
+    }
+
     /* (non-Javadoc)
      * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
      */
@@ -71,6 +112,10 @@ public class DataXmlHandler extends BaseDbXmlHandler {
         if ("row".equals(name)) {
             this.rowData = new LinkedHashMap<String, String>();
         }
+        else if ("table".equals(name)) {
+            this.tableStartTime = System.currentTimeMillis();
+            this.tableRowCount = 0;
+        }
         
         this.chars = new StringBuilder();
     }
@@ -103,6 +148,12 @@ public class DataXmlHandler extends BaseDbXmlHandler {
             this.rowData = null;
         }
         else if ("table".equals(name)) {
+            //Rows are counted as they are queued, flush so the table timing includes the inserts
+            this.flushBatches();
+            
+            final long duration = System.currentTimeMillis() - this.tableStartTime;
+            this.logger.info("Loaded " + this.tableRowCount + " rows into " + this.currentTable + " in " + duration + "ms (" + getRowsPerSecond(this.tableRowCount, duration) + " rows/sec)");
+            this.tableCount++;
             this.currentTable = null;
         }
         
@@ -141,15 +192,80 @@ public class DataXmlHandler extends BaseDbXmlHandler {
         }
         
         final String sql = "INSERT INTO " + this.currentTable + " (" + columns + ") VALUES (" + parameters + ")";
-        if (this.logger.isInfoEnabled()) {
-            this.logger.info(sql + "\t" + Arrays.asList(values) + "\t" + Arrays.asList(ArrayUtils.toObject(types)));
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug(sql + "\t" + Arrays.asList(values) + "\t" + Arrays.asList(ArrayUtils.toObject(types)));
+        }
+        
+        //Add to the last batch if it is for the same statement, otherwise start a new one to preserve row order
+        InsertBatch batch = this.pendingBatches.isEmpty() ? null : this.pendingBatches.get(this.pendingBatches.size() - 1);
+        if (batch == null || !batch.matches(sql, types)) {
+            batch = new InsertBatch(sql, types);
+            this.pendingBatches.add(batch);
         }
+        batch.addRow(values);
+        
+        this.pendingRowCount++;
+        this.tableRowCount++;
+        this.rowCount++;
+        
+        if (this.pendingRowCount >= this.batchSize) {
+            this.flushBatches();
+        }
+    }
+    
+    /**
+     * Execute all pending batches in a single transaction
+     */
+    protected final void flushBatches() {
+        if (this.pendingBatches.isEmpty()) {
+            return;
+        }
+        
+        final List<InsertBatch> batches = new ArrayList<InsertBatch>(this.pendingBatches);
+        this.pendingBatches.clear();
+        this.pendingRowCount = 0;
 
         this.transactionOperations.execute(new TransactionCallbackWithoutResult() {
 			@Override
 			protected void doInTransactionWithoutResult(TransactionStatus status) {
-                jdbcOperations.update(sql, values, types);
+                for (final InsertBatch batch : batches) {
+                    if (batch.rows.size() == 1) {
+                        jdbcOperations.update(batch.sql, batch.rows.get(0), batch.types);
+                    }
+                    else {
+                        jdbcOperations.batchUpdate(batch.sql, batch.rows, batch.types);
+                    }
+                }
             }
         });
     }
+    
+    private static long getRowsPerSecond(long rows, long duration) {
+        if (duration <= 0) {
+            return rows;
+        }
+        return (rows * 1000) / duration;
+    }
+    
+    /**
+     * Rows to be inserted using the same SQL statement
+     */
+    private static final class InsertBatch {
+        private final String sql;
+        private final int[] types;
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+        
+        public InsertBatch(String sql, int[] types) {
+            this.sql = sql;
+            this.types = types;
+        }
+        
+        public boolean matches(String sql, int[] types) {
+            return this.sql.equals(sql) && Arrays.equals(this.types, types);
+        }
+        
+        public void addRow(Object[] values) {
+            this.rows.add(values);
+        }
+    }
 }
@@ -51,6 +51,7 @@ import org.jasig.portal.hibernate.HibernateConfigurationAware;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Lazy;
@@ -84,6 +85,16 @@ public class HibernateDbLoader implements IDbLoader, ResourceLoaderAware, Hibern
     private JdbcOperations jdbcOperations;
     private TransactionOperations transactionOperations;
     private ResourceLoader resourceLoader;
+    private int batchSize = 500;
+    
+    /**
+     * Number of rows inserted per transaction when populating tables, rows are sent to the database
+     * in JDBC batches. Set to 1 to insert each row in its own transaction.
+     */
+    @Value("${org.jasig.portal.tools.dbloader.HibernateDbLoader.batchSize:500}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
     
 	@Autowired
 	public void setJdbcOperations(
@@ -303,7 +314,7 @@ public class HibernateDbLoader implements IDbLoader, ResourceLoaderAware, Hibern
 
         //Setup parser with custom handler to generate Table model and parse
         final SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-        final DataXmlHandler dh = new DataXmlHandler(jdbcOperations, transactionOperations, tableColumnTypes);
+        final DataXmlHandler dh = new DataXmlHandler(jdbcOperations, transactionOperations, tableColumnTypes, this.batchSize);
         saxParser.parse(new InputSource(dataFile.getInputStream()), dh);
     }
 }
@@ -206,7 +206,18 @@ public class PortalHttpServletRequestWrapper extends AbstractHttpServletRequestW
         if (isUserInRole) {
             return true;
         }
+
+        //Load the group information about the current user
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(this.getWrappedRequest());
+        final IPerson person = userInstance.getPerson();
         
+        return isPersonInRole(person, role);
+    }
+    
+    /**
+     * Determines if a group exists for the specified role and if the person is a member of it.
+     */
+    public static boolean isPersonInRole(IPerson person, String role) {
         //Find the group for the role, if not found return false
         IGroupMember groupForRole = GroupService.findGroup(role);
         if (groupForRole == null) {
@@ -216,15 +227,12 @@ public class PortalHttpServletRequestWrapper extends AbstractHttpServletRequestW
             }
             
             if (results.length > 1) {
-                this.logger.warn(results.length + " groups were found for role '" + role + "'. The first result will be used.");
+                LogFactory.getLog(PortalHttpServletRequestWrapper.class).warn(results.length + " groups were found for role '" + role + "'. The first result will be used.");
             }
             
             groupForRole = GroupService.getGroupMember(results[0]);
         }
 
-        //Load the group information about the current user
-        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(this.getWrappedRequest());
-        final IPerson person = userInstance.getPerson();
         final EntityIdentifier personEntityId = person.getEntityIdentifier();
         final IGroupMember personGroupMember = GroupService.getGroupMember(personEntityId);
         
@@ -24,6 +24,7 @@ import java.util.Set;
 import javax.annotation.Resource;
 
 import org.jasig.portal.events.LogoutEvent;
+import org.jasig.portal.events.SynchronousPortalEventListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
@@ -31,12 +32,13 @@ import org.springframework.stereotype.Component;
 import com.google.common.collect.ImmutableSet;
 
 /**
- * Purges cache entries tagged for a specific user when they login or logout
+ * Purges cache entries tagged for a specific user when they login or logout. Runs on the publishing thread
+ * so the entries are gone before the logout request completes.
  * 
  * @author Eric Dalquist
  */
 @Component
-public class UsernameTaggedCacheEntryPurger implements ApplicationListener<LogoutEvent> {
+public class UsernameTaggedCacheEntryPurger implements ApplicationListener<LogoutEvent>, SynchronousPortalEventListener {
     public static final String TAG_TYPE = "username";
     
     public static CacheEntryTag createCacheEntryTag(String username) {
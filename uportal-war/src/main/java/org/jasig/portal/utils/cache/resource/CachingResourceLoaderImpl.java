@@ -23,7 +23,12 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
@@ -37,24 +42,41 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.Resource;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
 /**
  * Uses an {@link Ehcache} to handle caching of the resources.
+ * <p>
+ * Once the check interval for a cached resource expires only one thread checks it for modification
+ * (and reloads it if needed), all other threads continue to use the currently cached version. If an
+ * {@link ExecutorService} is configured the check is run in the background and the requesting thread
+ * also uses the currently cached version.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 @Service
-public class CachingResourceLoaderImpl implements CachingResourceLoader {
+@ManagedResource("uPortal:section=Framework,name=CachingResourceLoader")
+public class CachingResourceLoaderImpl implements CachingResourceLoader, CachingResourceLoaderMXBean {
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     
     private final CachedResourceEntryFactory entryFactory = new CachedResourceEntryFactory();
     
+    //Resources currently being checked for modification, used to allow only one check per resource at a time
+    private final ConcurrentMap<Resource, Boolean> resourcesInCheck = new ConcurrentHashMap<Resource, Boolean>();
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong failedReloadCount = new AtomicLong();
+    private final OperationTimer missTimer = new OperationTimer();
+    private final OperationTimer checkTimer = new OperationTimer();
+    private final OperationTimer reloadTimer = new OperationTimer();
+    
     private long checkInterval = TimeUnit.MINUTES.toMillis(1);
     
     private Ehcache resourceCache;
     private ResourcesElementsProvider resourcesElementsProvider;
+    private ExecutorService checkExecutor;
 
     @Autowired
     public void setResourceCache(
@@ -62,6 +84,15 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
         this.resourceCache = new SelfPopulatingCache(resourceCache, this.entryFactory);
     }
     
+    /**
+     * Executor used to check cached resources for modification in the background. If not set
+     * checks are done in the requesting thread.
+     */
+    @Autowired(required=false)
+    public void setCheckExecutor(@Qualifier("uPortalTaskExecutor") ExecutorService checkExecutor) {
+        this.checkExecutor = checkExecutor;
+    }
+    
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
         this.resourcesElementsProvider = resourcesElementsProvider;
@@ -73,7 +104,60 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
     public void setCheckInterval(long checkInterval) {
         this.checkInterval = checkInterval;
     }
+    
+    @Override
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missTimer.getCount();
+    }
+
+    @Override
+    public long getCheckCount() {
+        return this.checkTimer.getCount();
+    }
 
+    @Override
+    public long getReloadCount() {
+        return this.reloadTimer.getCount();
+    }
+
+    @Override
+    public long getFailedReloadCount() {
+        return this.failedReloadCount.get();
+    }
+
+    @Override
+    public int getChecksInProgress() {
+        return this.resourcesInCheck.size();
+    }
+
+    @Override
+    public double getAverageMissLoadTime() {
+        return this.missTimer.getAverageTime();
+    }
+
+    @Override
+    public double getAverageCheckTime() {
+        return this.checkTimer.getAverageTime();
+    }
+
+    @Override
+    public double getAverageReloadTime() {
+        return this.reloadTimer.getAverageTime();
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.hitCount.set(0);
+        this.failedReloadCount.set(0);
+        this.missTimer.reset();
+        this.checkTimer.reset();
+        this.reloadTimer.reset();
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.utils.cache.CachingResourceLoader#getResource(org.springframework.core.io.Resource, org.jasig.portal.utils.cache.ResourceBuilder)
@@ -87,7 +171,7 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
      * @see org.jasig.portal.utils.cache.CachingResourceLoader#getResource(org.springframework.core.io.Resource, org.jasig.portal.utils.cache.ResourceBuilder, org.jasig.portal.utils.cache.ResourceLoaderOptions)
      */
     @Override
-    public <T> CachedResource<T> getResource(Resource resource, Loader<T> builder, long checkInterval) throws IOException {
+    public <T> CachedResource<T> getResource(final Resource resource, final Loader<T> builder, long checkInterval) throws IOException {
         if (Included.PLAIN == this.resourcesElementsProvider.getDefaultIncludedType()) {
             this.logger.trace("Resoure Aggregation Disabled, ignoring resource cache and loading '" + resource + "' directly");
             return this.loadResource(resource, builder);
@@ -97,7 +181,7 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
         final GetResourceArguments<T> arguments = new GetResourceArguments<T>(resource, builder);
         final Element element = this.entryFactory.getWithData(this.resourceCache, resource, arguments);
 
-        CachedResource<T> cachedResource = (CachedResource<T>)element.getObjectValue();
+        final CachedResource<T> cachedResource = (CachedResource<T>)element.getObjectValue();
         if (this.logger.isTraceEnabled()) {
             this.logger.trace("Found " + cachedResource + " in cache");
         }
@@ -108,31 +192,96 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
             if (this.logger.isTraceEnabled()) {
                 this.logger.trace(cachedResource + " is within checkInterval " + checkInterval + ", returning");
             }
+            this.hitCount.incrementAndGet();
+            return cachedResource;
+        }
+        
+        //Only one thread checks the resource, everyone else uses the currently cached version
+        if (this.resourcesInCheck.putIfAbsent(resource, Boolean.TRUE) != null) {
+            if (this.logger.isTraceEnabled()) {
+                this.logger.trace(cachedResource + " is already being checked for modification, returning");
+            }
+            this.hitCount.incrementAndGet();
             return cachedResource;
         }
         if (this.logger.isTraceEnabled()) {
             this.logger.trace(cachedResource + " is older than checkInterval " + checkInterval + ", checking for modification");
         }
-
-        //If the resource has not been modified return the cached resource. 
-        final boolean resourceModified = this.checkIfModified(cachedResource);
-        if (!resourceModified) {
-            cachedResource.setLastCheckTime(System.currentTimeMillis());
-            this.resourceCache.put(element); //do a cache put to notify the cache the object has been modified
-            return cachedResource;
-        }
-        
-        //The resource has been modified, reload it.
-        cachedResource = this.loadResource(resource, builder);
         
-        //Cache the loaded resource
-        this.resourceCache.put(new Element(resource, cachedResource));
-        
-        if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Loaded and cached " + cachedResource);
+        final ExecutorService checkExecutor = this.checkExecutor;
+        if (checkExecutor != null) {
+            try {
+                checkExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            checkAndReloadResource(resource, builder, element);
+                        }
+                        catch (Exception e) {
+                            //Don't retry until the check interval passes again
+                            cachedResource.setLastCheckTime(System.currentTimeMillis());
+                            logger.warn("Failed to reload " + resource + ", the previously loaded version will continue to be used", e);
+                        }
+                    }
+                });
+                
+                this.hitCount.incrementAndGet();
+                return cachedResource;
+            }
+            catch (RejectedExecutionException e) {
+                this.logger.debug("Background check of {} was rejected, checking in the current thread", resource);
+            }
         }
         
-        return cachedResource;
+        return this.checkAndReloadResource(resource, builder, element);
+    }
+    
+    /**
+     * Check if the cached resource has been modified and reload it if needed. Must only be called by the
+     * thread that added the resource to {@link #resourcesInCheck}
+     */
+    protected <T> CachedResource<T> checkAndReloadResource(Resource resource, Loader<T> builder, Element element) throws IOException {
+        try {
+            final CachedResource<T> cachedResource = (CachedResource<T>)element.getObjectValue();
+            
+            //If the resource has not been modified return the cached resource. 
+            final long checkStart = System.nanoTime();
+            final boolean resourceModified = this.checkIfModified(cachedResource);
+            this.checkTimer.record(System.nanoTime() - checkStart);
+            if (!resourceModified) {
+                cachedResource.setLastCheckTime(System.currentTimeMillis());
+                this.resourceCache.put(element); //do a cache put to notify the cache the object has been modified
+                return cachedResource;
+            }
+            
+            //The resource has been modified, reload it.
+            final long reloadStart = System.nanoTime();
+            final CachedResource<T> reloadedResource;
+            try {
+                reloadedResource = this.loadResource(resource, builder);
+            }
+            catch (IOException e) {
+                this.failedReloadCount.incrementAndGet();
+                throw e;
+            }
+            catch (RuntimeException e) {
+                this.failedReloadCount.incrementAndGet();
+                throw e;
+            }
+            this.reloadTimer.record(System.nanoTime() - reloadStart);
+            
+            //Cache the loaded resource
+            this.resourceCache.put(new Element(resource, reloadedResource));
+            
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("Loaded and cached " + reloadedResource);
+            }
+            
+            return reloadedResource;
+        }
+        finally {
+            this.resourcesInCheck.remove(resource);
+        }
     }
     
     /**
@@ -217,7 +366,43 @@ public class CachingResourceLoaderImpl implements CachingResourceLoader {
 
         @Override
         protected Object createEntry(Object key, GetResourceArguments<?> threadData) throws Exception {
-            return loadResource(threadData.resource, threadData.builder);
+            final long start = System.nanoTime();
+            final CachedResource<?> cachedResource = loadResource(threadData.resource, threadData.builder);
+            missTimer.record(System.nanoTime() - start);
+            return cachedResource;
+        }
+    }
+    
+    /**
+     * Tracks the number of times an operation was run and the total time spent running it
+     */
+    private static final class OperationTimer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        
+        public void record(long nanos) {
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(nanos);
+        }
+        
+        public long getCount() {
+            return this.count.get();
+        }
+        
+        /**
+         * @return average time in ms
+         */
+        public double getAverageTime() {
+            final long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+            return (double) this.totalNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+        
+        public void reset() {
+            this.count.set(0);
+            this.totalNanos.set(0);
         }
     }
 }
@@ -0,0 +1,76 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.cache.resource;
+
+/**
+ * JMX view of the cache statistics tracked by {@link CachingResourceLoaderImpl}
+ */
+public interface CachingResourceLoaderMXBean {
+    
+    /**
+     * @return Number of requests served from the cache without loading the resource
+     */
+    long getHitCount();
+    
+    /**
+     * @return Number of requests that had to load the resource because it was not cached
+     */
+    long getMissCount();
+    
+    /**
+     * @return Number of modification checks run against cached resources
+     */
+    long getCheckCount();
+    
+    /**
+     * @return Number of cached resources reloaded because a modification was detected
+     */
+    long getReloadCount();
+    
+    /**
+     * @return Number of modification checks or reloads that failed, the previously loaded resource remains in use
+     */
+    long getFailedReloadCount();
+    
+    /**
+     * @return Number of modification checks currently running
+     */
+    int getChecksInProgress();
+    
+    /**
+     * @return Average time in ms spent loading a resource on a cache miss
+     */
+    double getAverageMissLoadTime();
+    
+    /**
+     * @return Average time in ms spent checking a resource for modification
+     */
+    double getAverageCheckTime();
+    
+    /**
+     * @return Average time in ms spent reloading a modified resource
+     */
+    double getAverageReloadTime();
+    
+    /**
+     * Reset all counters and timings
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,566 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+/**
+ * Lock-free alternative to {@link QualityOfServiceBlockingQueue}. Elements are placed into per-key
+ * {@link ConcurrentLinkedQueue}s based on the key returned by {@link #getElementKey(Object)} and keys
+ * with queued elements are kept in a ready ring. Consumers take the key at the head of the ring, poll
+ * one element from its queue and, if the key still has elements, put it back at the tail of the ring
+ * which results in the same keyed round-robin ordering as {@link QualityOfServiceBlockingQueue}.
+ * <p/>
+ * Producers and consumers never share a lock, the total size is tracked with an {@link AtomicInteger}
+ * and threads are only parked via {@link LockSupport} when the queue is empty (consumers) or at
+ * capacity (producers).
+ * <p/>
+ * Unlike {@link QualityOfServiceBlockingQueue} {@link #peek()} is a point in time view, a concurrent
+ * consumer may remove the peeked element before the calling thread does. The key ordering is always
+ * round-robin, there is no equivalent of {@link QualityOfServiceBlockingQueue#getNextElementKey()}
+ * for subclasses to choose the next key.
+ *
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class ConcurrentQualityOfServiceBlockingQueue<K, T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final ConcurrentMap<K, KeyedQueue<T>> keyedQueues = new ConcurrentHashMap<K, KeyedQueue<T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet());
+
+    //Ring of key queues that have elements, a key queue is in the ring at most once (see KeyedQueue.ready)
+    private final Queue<KeyedQueue<T>> readyQueues = new ConcurrentLinkedQueue<KeyedQueue<T>>();
+
+    //Threads parked waiting for an element or for capacity
+    private final Queue<Thread> takeWaiters = new ConcurrentLinkedQueue<Thread>();
+    private final Queue<Thread> putWaiters = new ConcurrentLinkedQueue<Thread>();
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final int capacity;
+
+    public ConcurrentQualityOfServiceBlockingQueue() {
+        this.capacity = Integer.MAX_VALUE;
+    }
+
+    public ConcurrentQualityOfServiceBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the key for the specified element
+     */
+    protected abstract K getElementKey(T e);
+
+    /**
+     * @return A read only Set of the keys in the queue
+     */
+    public final Set<K> getKeySet() {
+        return queueKeySet;
+    }
+
+    /**
+     * @return true if there are no elements for the specified key
+     */
+    public final boolean isKeyEmpty(K key) {
+        final KeyedQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return true;
+        }
+
+        return queue.elements.isEmpty();
+    }
+
+    /**
+     * @return The number of elements in the queue for the specified key
+     */
+    public final int getKeySize(K key) {
+        final KeyedQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+
+        return queue.elements.size();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object)
+     */
+    @Override
+    public final boolean offer(T e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        //Reserve space for the element before making it visible to consumers
+        if (!this.reserveCapacity()) {
+            return false;
+        }
+
+        final KeyedQueue<T> queue = this.getOrCreateQueue(e);
+        queue.elements.add(e);
+        this.markReady(queue);
+
+        //Only costs a read of the waiter queue head when no consumers are parked
+        signal(this.takeWaiters);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public final void put(T e) throws InterruptedException {
+        this.offer(e, -1, null);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.offer(e)) {
+            return true;
+        }
+
+        final boolean timed = timeout >= 0;
+        final long deadline = timed ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        final Thread currentThread = Thread.currentThread();
+        try {
+            while (true) {
+                //Register before re-checking so a concurrent remove can't be missed
+                this.putWaiters.add(currentThread);
+                if (this.offer(e)) {
+                    return true;
+                }
+
+                if (!park(timed, deadline)) {
+                    return false;
+                }
+                this.putWaiters.remove(currentThread);
+            }
+        }
+        finally {
+            this.putWaiters.remove(currentThread);
+
+            //Pass along a wakeup that may have been consumed by this thread
+            if (this.count.get() < this.capacity) {
+                signal(this.putWaiters);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public final T take() throws InterruptedException {
+        return this.poll(-1, null);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T e = this.poll();
+        if (e != null) {
+            return e;
+        }
+
+        final boolean timed = timeout >= 0;
+        final long deadline = timed ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        final Thread currentThread = Thread.currentThread();
+        try {
+            while (true) {
+                //Register before re-checking so a concurrent offer can't be missed
+                this.takeWaiters.add(currentThread);
+                e = this.poll();
+                if (e != null) {
+                    return e;
+                }
+
+                if (!park(timed, deadline)) {
+                    return null;
+                }
+                this.takeWaiters.remove(currentThread);
+            }
+        }
+        finally {
+            this.takeWaiters.remove(currentThread);
+
+            //Pass along a wakeup that may have been consumed by this thread
+            if (!this.readyQueues.isEmpty()) {
+                signal(this.takeWaiters);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public final T poll() {
+        while (true) {
+            final KeyedQueue<T> queue = this.readyQueues.poll();
+            if (queue == null) {
+                return null;
+            }
+
+            final T e = queue.elements.poll();
+            if (e == null) {
+                //All elements for the key were removed via remove(Object), drop it from the ring
+                this.markIdle(queue);
+                continue;
+            }
+
+            //Put the key at the end of the ring if it still has elements, this is the round-robin step
+            if (queue.elements.isEmpty()) {
+                this.markIdle(queue);
+            }
+            else {
+                this.addReady(queue);
+            }
+
+            this.count.decrementAndGet();
+            signal(this.putWaiters);
+            return e;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public final T peek() {
+        for (final KeyedQueue<T> queue : this.readyQueues) {
+            final T e = queue.elements.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public final int remainingCapacity() {
+        return this.capacity - this.count.get();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remove(java.lang.Object)
+     */
+    @Override
+    public final boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyedQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+
+        //The ready ring is cleaned up lazily by poll()
+        final boolean removed = queue.elements.remove(o);
+        if (removed) {
+            this.count.decrementAndGet();
+            signal(this.putWaiters);
+        }
+        return removed;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#contains(java.lang.Object)
+     */
+    @Override
+    public final boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyedQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+
+        return queue.elements.contains(o);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int count = 0;
+        while (count < maxElements) {
+            final T e = this.poll();
+            if (e == null) {
+                break;
+            }
+
+            c.add(e);
+            count++;
+        }
+
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public final int size() {
+        return this.count.get();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#isEmpty()
+     */
+    @Override
+    public final boolean isEmpty() {
+        return this.count.get() == 0;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#iterator()
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        return new ElementIterator();
+    }
+
+    /**
+     * Atomically increments the element count if the queue is not at capacity
+     *
+     * @return true if space was reserved, false if the queue is full
+     */
+    private boolean reserveCapacity() {
+        while (true) {
+            final int c = this.count.get();
+            if (c >= this.capacity) {
+                return false;
+            }
+
+            if (this.count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds the queue to the ready ring if it is not already in it
+     */
+    private void markReady(KeyedQueue<T> queue) {
+        if (queue.ready.compareAndSet(false, true)) {
+            this.addReady(queue);
+        }
+    }
+
+    /**
+     * Adds the queue to the tail of the ready ring and wakes a parked consumer. A consumer may
+     * have found the ring empty and parked while this queue was held by the thread adding it.
+     */
+    private void addReady(KeyedQueue<T> queue) {
+        this.readyQueues.add(queue);
+        signal(this.takeWaiters);
+    }
+
+    /**
+     * Marks a queue that was removed from the ready ring as idle, re-adding it if an element was
+     * added between the caller's emptiness check and the flag being cleared.
+     */
+    private void markIdle(KeyedQueue<T> queue) {
+        queue.ready.set(false);
+        if (!queue.elements.isEmpty()) {
+            this.markReady(queue);
+        }
+    }
+
+    /**
+     * @return The Queue to use for the specified element
+     */
+    private KeyedQueue<T> getOrCreateQueue(T e) {
+        final K key = this.getElementKey(e);
+        KeyedQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = new KeyedQueue<T>();
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Unpark the first thread waiting in the specified waiter queue
+     */
+    private static void signal(Queue<Thread> waiters) {
+        final Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Park the current thread until it is unparked, the deadline passes or it is interrupted
+     *
+     * @param timed If true the thread is parked until at most deadline, if false it parks until unparked
+     * @param deadline The {@link System#nanoTime()} to park until, only used if timed is true
+     * @return false if the deadline has passed
+     * @throws InterruptedException If the thread was interrupted while parked
+     */
+    private boolean park(boolean timed, long deadline) throws InterruptedException {
+        if (timed) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        else {
+            LockSupport.park(this);
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        return true;
+    }
+
+    /**
+     * Elements for a single key plus a flag tracking if the key is currently in the ready ring
+     */
+    private static final class KeyedQueue<T> {
+        private final Queue<T> elements = new ConcurrentLinkedQueue<T>();
+        private final AtomicBoolean ready = new AtomicBoolean(false);
+    }
+
+    /**
+     * Iterates over the Queue's in the keyedQueues Map
+     */
+    private final class ElementIterator implements Iterator<T> {
+        private final Iterator<KeyedQueue<T>> queueIterator;
+        private Iterator<T> elementIterator = null;
+
+        public ElementIterator() {
+            this.queueIterator = keyedQueues.values().iterator();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            while (this.elementIterator == null || !this.elementIterator.hasNext()) {
+                if (!this.queueIterator.hasNext()) {
+                    return false;
+                }
+                this.elementIterator = this.queueIterator.next().elements.iterator();
+            }
+
+            return true;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return this.elementIterator.next();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#remove()
+         */
+        @Override
+        public void remove() {
+            this.elementIterator.remove();
+            count.decrementAndGet();
+            signal(putWaiters);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.AbstractCollection#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder str = new StringBuilder((this.keyedQueues.size() * 50) + 2);
+
+        str.append("{");
+
+        for (final Iterator<Entry<K, KeyedQueue<T>>> entryItr = this.keyedQueues.entrySet().iterator(); entryItr.hasNext(); ) {
+            final Entry<K, KeyedQueue<T>> entry = entryItr.next();
+            final K key = entry.getKey();
+            final KeyedQueue<T> queue = entry.getValue();
+            str.append(key).append("=").append(queue.elements.size());
+
+            if (entryItr.hasNext()) {
+                str.append(", ");
+            }
+        }
+
+        str.append("}");
+        return str.toString();
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.groups.IEntityGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link CachingEntityLockStore} against an in-memory persistent store. Two servers are simulated
+ * with two stores that share the persistent store, they use separate version maps unless a test is
+ * checking replication so that conflicts must be caught by the persistent store check.
+ */
+public class CachingEntityLockStoreTest {
+    private static final Class<IEntityGroup> ENTITY_TYPE = IEntityGroup.class;
+
+    private TestLockStore persistentStore;
+    private Map<String, String> lockVersions;
+    private CachingEntityLockStore serverA;
+    private CachingEntityLockStore serverB;
+
+    @Before
+    public void setup() {
+        this.persistentStore = new TestLockStore();
+        this.lockVersions = new ConcurrentHashMap<String, String>();
+        this.serverA = new CachingEntityLockStore(this.persistentStore, this.lockVersions);
+        this.serverB = new CachingEntityLockStore(this.persistentStore, new ConcurrentHashMap<String, String>());
+    }
+
+    @After
+    public void teardown() {
+        this.serverA.destroy();
+        this.serverB.destroy();
+    }
+
+    @Test
+    public void testConflictingWriteLocksOnTwoServers() throws Exception {
+        assertEquals(0, this.serverA.find(ENTITY_TYPE, "1", null, null, null).length);
+        assertEquals(0, this.serverB.find(ENTITY_TYPE, "1", null, null, null).length);
+
+        this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "a"));
+
+        //Server B did not keep the unlocked entity so it loads the new lock, grants are still checked against the persistent store
+        assertEquals(1, this.serverB.find(ENTITY_TYPE, "1", null, null, null).length);
+        try {
+            this.serverB.add(newLock("1", IEntityLockService.WRITE_LOCK, "b"));
+            fail("Conflicting write lock was granted");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+
+        final IEntityLock[] storedLocks = this.persistentStore.find(ENTITY_TYPE, "1", null, null, null);
+        assertEquals(1, storedLocks.length);
+        assertEquals("a", storedLocks[0].getLockOwner());
+
+        //Server B reloads the entity after the conflict
+        assertEquals(1, this.serverB.find(ENTITY_TYPE, "1", null, null, null).length);
+    }
+
+    @Test
+    public void testReadLockConflictsWithWriteLock() throws Exception {
+        this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "a"));
+
+        try {
+            this.serverB.add(newLock("1", IEntityLockService.READ_LOCK, "b"));
+            fail("Read lock was granted while a write lock is held");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+
+        //Read locks do not conflict with each other
+        this.serverA.add(newLock("2", IEntityLockService.READ_LOCK, "a"));
+        this.serverB.add(newLock("2", IEntityLockService.READ_LOCK, "b"));
+        assertEquals(2, this.persistentStore.find(ENTITY_TYPE, "2", null, null, null).length);
+    }
+
+    @Test
+    public void testConvertConflict() throws Exception {
+        final IEntityLock lockA = newLock("1", IEntityLockService.READ_LOCK, "a");
+        this.serverA.add(lockA);
+        this.serverB.add(newLock("1", IEntityLockService.READ_LOCK, "b"));
+
+        try {
+            this.serverA.update(lockA, expiresIn(60000), IEntityLockService.WRITE_LOCK);
+            fail("Read lock was converted to a write lock while another read lock is held");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+
+        //The conversion was rolled back in the persistent store
+        final IEntityLock[] storedLocks = this.persistentStore.find(ENTITY_TYPE, "1", null, null, "a");
+        assertEquals(1, storedLocks.length);
+        assertEquals(IEntityLockService.READ_LOCK, storedLocks[0].getLockType());
+        assertEquals(lockA.getExpirationTime(), storedLocks[0].getExpirationTime());
+    }
+
+    @Test
+    public void testAddFailureIsThrown() throws Exception {
+        this.persistentStore.failWrites = true;
+
+        try {
+            this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "a"));
+            fail("Persist failure was not thrown");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+
+        assertEquals(0, this.serverA.find(ENTITY_TYPE, "1", null, null, null).length);
+        assertNull(this.lockVersions.get(CachingEntityLockStore.getCacheKey(ENTITY_TYPE, "1")));
+    }
+
+    @Test
+    public void testUpdateFailureIsThrown() throws Exception {
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "a");
+        this.serverA.add(lock);
+        this.persistentStore.failWrites = true;
+
+        try {
+            this.serverA.update(lock, expiresIn(120000));
+            fail("Persist failure was not thrown");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+
+        //The in-memory lock still has the expiration that was persisted
+        assertEquals(1, this.serverA.find(ENTITY_TYPE, "1", null, lock.getExpirationTime(), null).length);
+    }
+
+    @Test
+    public void testFailedReleaseReloads() throws Exception {
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "a");
+        this.serverA.add(lock);
+
+        this.persistentStore.failWrites = true;
+        this.serverA.delete(lock);
+        this.serverA.flush();
+
+        //The lock is still in the persistent store so it is loaded again
+        assertEquals(1, this.serverA.find(ENTITY_TYPE, "1", null, null, null).length);
+    }
+
+    @Test
+    public void testReleaseThenLock() throws Exception {
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "a");
+        this.serverA.add(lock);
+        this.serverA.delete(lock);
+
+        //The queued release must be written before the new lock is checked for conflicts
+        this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "b"));
+
+        final IEntityLock[] storedLocks = this.persistentStore.find(ENTITY_TYPE, "1", null, null, null);
+        assertEquals(1, storedLocks.length);
+        assertEquals("b", storedLocks[0].getLockOwner());
+    }
+
+    @Test
+    public void testExpiredLocksDeletedOnAdd() throws Exception {
+        this.serverA.add(newLock("1", IEntityLockService.READ_LOCK, "a", expiresIn(50)));
+        Thread.sleep(100);
+
+        this.serverA.add(newLock("1", IEntityLockService.READ_LOCK, "b"));
+        this.serverA.flush();
+
+        final IEntityLock[] storedLocks = this.persistentStore.find(ENTITY_TYPE, "1", null, null, null);
+        assertEquals(1, storedLocks.length);
+        assertEquals("b", storedLocks[0].getLockOwner());
+    }
+
+    @Test
+    public void testOwnerLookupInMemory() throws Exception {
+        this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "a"));
+        this.serverA.add(newLock("2", IEntityLockService.READ_LOCK, "a"));
+        this.serverA.add(newLock("2", IEntityLockService.READ_LOCK, "b"));
+
+        final int finds = this.persistentStore.finds.get();
+        assertEquals(2, this.serverA.find(null, null, null, null, "a").length);
+        assertEquals(1, this.serverA.find(ENTITY_TYPE, null, null, null, "b").length);
+        assertEquals(1, this.serverA.findUnexpired(new Date(), null, null, IEntityLockService.WRITE_LOCK, "a").length);
+        assertEquals(finds, this.persistentStore.finds.get());
+
+        final IEntityLock[] locks = this.serverA.find(ENTITY_TYPE, "1", null, null, "a");
+        this.serverA.delete(locks[0]);
+        assertEquals(1, this.serverA.find(null, null, null, null, "a").length);
+    }
+
+    @Test
+    public void testLockTableOnlyHoldsLockedEntities() throws Exception {
+        //Lookups of entities without locks are not kept
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, this.serverA.find(ENTITY_TYPE, Integer.toString(i), null, null, null).length);
+            assertEquals(0, this.serverA.findUnexpired(new Date(), ENTITY_TYPE, Integer.toString(i), null, null).length);
+        }
+        assertEquals(0, this.serverA.getLockTableSize());
+
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "a");
+        this.serverA.add(lock);
+        assertEquals(1, this.serverA.getLockTableSize());
+
+        //Dropped once the release has been written
+        this.serverA.delete(lock);
+        this.serverA.flush();
+        assertEquals(0, this.serverA.getLockTableSize());
+        assertEquals(0, this.serverA.find(ENTITY_TYPE, "1", null, null, null).length);
+        assertEquals(0, this.serverA.getLockTableSize());
+    }
+
+    @Test
+    public void testReplicatedVersionReload() throws Exception {
+        final CachingEntityLockStore serverC = new CachingEntityLockStore(this.persistentStore, this.lockVersions);
+        try {
+            assertEquals(0, serverC.find(ENTITY_TYPE, "1", null, null, null).length);
+
+            this.serverA.add(newLock("1", IEntityLockService.WRITE_LOCK, "a"));
+            assertEquals(1, serverC.find(ENTITY_TYPE, "1", null, null, null).length);
+        }
+        finally {
+            serverC.destroy();
+        }
+    }
+
+    @Test
+    public void testDestroyFlushesPendingWrites() throws Exception {
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "a");
+        this.serverA.add(lock);
+        this.serverA.delete(lock);
+        this.serverA.destroy();
+
+        assertEquals(0, this.persistentStore.find(ENTITY_TYPE, "1", null, null, null).length);
+    }
+
+    private static IEntityLock newLock(String key, int lockType, String owner) {
+        return newLock(key, lockType, owner, expiresIn(60000));
+    }
+
+    private static IEntityLock newLock(String key, int lockType, String owner, Date expiration) {
+        return new EntityLockImpl(ENTITY_TYPE, key, lockType, expiration, owner);
+    }
+
+    private static Date expiresIn(long millis) {
+        return new Date(System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * Persistent store that behaves like {@link RDBMEntityLockStore} without a database
+     */
+    private static final class TestLockStore implements IEntityLockStore {
+        private final List<IEntityLock> locks = new ArrayList<IEntityLock>();
+        private final AtomicInteger finds = new AtomicInteger();
+        private volatile boolean failWrites = false;
+
+        @Override
+        public synchronized void add(IEntityLock lock) throws LockingException {
+            this.checkFailure();
+            this.locks.add(copy(lock, lock.getExpirationTime(), lock.getLockType()));
+        }
+
+        @Override
+        public synchronized void delete(IEntityLock lock) throws LockingException {
+            this.checkFailure();
+            this.locks.remove(lock);
+        }
+
+        @Override
+        public synchronized void deleteAll() throws LockingException {
+            this.locks.clear();
+        }
+
+        @Override
+        public synchronized void deleteExpired(Date expiration) throws LockingException {
+            for (final Iterator<IEntityLock> lockItr = this.locks.iterator(); lockItr.hasNext();) {
+                if (!lockItr.next().getExpirationTime().after(expiration)) {
+                    lockItr.remove();
+                }
+            }
+        }
+
+        @Override
+        public synchronized IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner) throws LockingException {
+            this.finds.incrementAndGet();
+
+            final List<IEntityLock> matches = new ArrayList<IEntityLock>();
+            for (final IEntityLock lock : this.locks) {
+                if ((entityType == null || entityType.equals(lock.getEntityType())) &&
+                    (entityKey == null || entityKey.equals(lock.getEntityKey())) &&
+                    (lockType == null || lockType.intValue() == lock.getLockType()) &&
+                    (expiration == null || expiration.equals(lock.getExpirationTime())) &&
+                    (lockOwner == null || lockOwner.equals(lock.getLockOwner()))) {
+
+                    matches.add(copy(lock, lock.getExpirationTime(), lock.getLockType()));
+                }
+            }
+            return matches.toArray(new IEntityLock[matches.size()]);
+        }
+
+        @Override
+        public synchronized IEntityLock[] findUnexpired(Date expiration, Class entityType, String entityKey, Integer lockType, String lockOwner) throws LockingException {
+            final List<IEntityLock> matches = new ArrayList<IEntityLock>();
+            for (final IEntityLock lock : this.find(entityType, entityKey, lockType, null, lockOwner)) {
+                if (lock.getExpirationTime().after(expiration)) {
+                    matches.add(lock);
+                }
+            }
+            return matches.toArray(new IEntityLock[matches.size()]);
+        }
+
+        @Override
+        public void update(IEntityLock lock, Date newExpiration) throws LockingException {
+            this.update(lock, newExpiration, null);
+        }
+
+        @Override
+        public synchronized void update(IEntityLock lock, Date newExpiration, Integer newLockType) throws LockingException {
+            this.checkFailure();
+
+            final int index = this.locks.indexOf(lock);
+            if (index < 0) {
+                throw new LockingException("Problem updating " + lock);
+            }
+            final int lockType = newLockType == null ? lock.getLockType() : newLockType.intValue();
+            this.locks.set(index, copy(lock, newExpiration, lockType));
+        }
+
+        private void checkFailure() throws LockingException {
+            if (this.failWrites) {
+                throw new LockingException("Simulated persistent store failure");
+            }
+        }
+
+        private static IEntityLock copy(IEntityLock lock, Date expiration, int lockType) {
+            return new EntityLockImpl(lock.getEntityType(), lock.getEntityKey(), lockType, new Date(expiration.getTime()), lock.getLockOwner());
+        }
+    }
+}
@@ -25,6 +25,8 @@ import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.concurrent.Callable;
@@ -316,5 +318,41 @@ public class ClusterLockServiceImplTest {
 		assertFalse(result.isExecuted());
 	}
 	
+	@Test
+	public void testRemoteLockCachedUntilLeaseEnds() throws InterruptedException {
+		final String mutexName = "TEST";
+		
+		final ClusterMutex clusterMutex = new ClusterMutex(mutexName);
+		clusterMutex.lock("server_2");
+		
+		when(portalInfoProvider.getUniqueServerName()).thenReturn("server_1");
+		when(clusterLockDao.getClusterMutex(mutexName)).thenReturn(clusterMutex);
+		when(clusterLockDao.getLock(mutexName)).thenReturn(null);
+		this.clusterLockService.setAbandonedLockAge(Duration.millis(200));
+		
+		final Function<ClusterMutex, Boolean> lockFunction = new Function<ClusterMutex, Boolean>() {
+			@Override
+			public Boolean apply(ClusterMutex input) {
+				return Boolean.TRUE;
+			}
+		};
+		
+		assertEquals(LockStatus.SKIPPED_LOCKED, this.clusterLockService.doInTryLock(mutexName, lockFunction).getLockStatus());
+		verify(clusterLockDao, times(1)).getLock(mutexName);
+		
+		//Within the lease of server_2 the database is not checked
+		assertEquals(LockStatus.SKIPPED_LOCKED, this.clusterLockService.doInTryLock(mutexName, lockFunction).getLockStatus());
+		verify(clusterLockDao, times(1)).getLock(mutexName);
+		
+		//The lease ends before the 5s remoteLockCacheDuration, the database is checked again
+		Thread.sleep(250);
+		assertEquals(LockStatus.SKIPPED_LOCKED, this.clusterLockService.doInTryLock(mutexName, lockFunction).getLockStatus());
+		verify(clusterLockDao, times(2)).getLock(mutexName);
+		
+		//The lease of server_2 has already ended so nothing is cached
+		assertEquals(LockStatus.SKIPPED_LOCKED, this.clusterLockService.doInTryLock(mutexName, lockFunction).getLockStatus());
+		verify(clusterLockDao, times(3)).getLock(mutexName);
+	}
+	
 	//test exec serv not actually execing
 }
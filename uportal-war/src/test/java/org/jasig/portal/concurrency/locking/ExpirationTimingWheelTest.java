@@ -0,0 +1,77 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpirationTimingWheelTest {
+
+    @Test
+    public void testExpiration() {
+        final ExpirationTimingWheel<String> wheel = new ExpirationTimingWheel<String>(100, 8, 0);
+
+        wheel.schedule("a", 150);
+        wheel.schedule("b", 200);
+        wheel.schedule("c", 450);
+
+        assertTrue(wheel.advance(100).isEmpty());
+        assertEquals(Arrays.asList("a", "b"), wheel.advance(200));
+        assertTrue(wheel.advance(400).isEmpty());
+        assertEquals(Arrays.asList("c"), wheel.advance(500));
+        assertTrue(wheel.advance(600).isEmpty());
+    }
+
+    @Test
+    public void testWrapAround() {
+        final ExpirationTimingWheel<String> wheel = new ExpirationTimingWheel<String>(100, 4, 0);
+
+        //Same bucket, different rotations of the wheel
+        wheel.schedule("a", 100);
+        wheel.schedule("b", 500);
+        wheel.schedule("c", 900);
+
+        assertEquals(Arrays.asList("a"), wheel.advance(100));
+        assertTrue(wheel.advance(400).isEmpty());
+        assertEquals(Arrays.asList("b"), wheel.advance(500));
+
+        //Jump more than a full rotation
+        wheel.schedule("d", 1200);
+        final List<String> expired = wheel.advance(5000);
+        assertEquals(new HashSet<String>(Arrays.asList("c", "d")), new HashSet<String>(expired));
+    }
+
+    @Test
+    public void testAlreadyExpired() {
+        final ExpirationTimingWheel<String> wheel = new ExpirationTimingWheel<String>(100, 8, 0);
+
+        assertTrue(wheel.advance(1000).isEmpty());
+
+        wheel.schedule("a", 50);
+        assertTrue(wheel.advance(1050).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.advance(1100));
+    }
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -48,6 +49,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * @author Eric Dalquist
  * @version $Revision$
@@ -203,6 +206,47 @@ public class JpaClusterLockDaoTest extends BasePortalJpaDaoTest {
         assertFalse(mutex.isLocked());
     }
     
+    @Test
+    public void testUpdateLocks() throws InterruptedException  {
+        reset(portalInfoProvider);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("ServerA");
+
+        final String mutexNameA = "testUpdateLocksA";
+        final String mutexNameB = "testUpdateLocksB";
+        final String mutexNameC = "testUpdateLocksC";
+
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                assertNotNull(clusterLockDao.getLock(mutexNameA));
+                assertNotNull(clusterLockDao.getLock(mutexNameB));
+                assertNotNull(clusterLockDao.getClusterMutex(mutexNameC));
+            }
+        });
+        
+        final long lastUpdate = clusterLockDao.getClusterMutex(mutexNameA).getLastUpdate();
+        Thread.sleep(10);
+        
+        //C is not locked so it can't be updated
+        final Set<String> notUpdated = execute(new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() throws Exception {
+                return clusterLockDao.updateLocks(ImmutableSet.of(mutexNameA, mutexNameB, mutexNameC));
+            }
+        });
+        assertEquals(ImmutableSet.of(mutexNameC), notUpdated);
+        
+        ClusterMutex mutex = clusterLockDao.getClusterMutex(mutexNameA);
+        assertTrue(mutex.isLocked());
+        assertTrue(mutex.getLastUpdate() > lastUpdate);
+        
+        clusterLockDao.releaseLock(mutexNameA);
+        clusterLockDao.releaseLock(mutexNameB);
+        
+        mutex = clusterLockDao.getClusterMutex(mutexNameA);
+        assertFalse(mutex.isLocked());
+    }
+    
     @Test
     public void testNotAbandoned() throws Exception  {
         //Used to make a 'mutable string'
@@ -0,0 +1,314 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.security.SystemPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class AsyncPortalEventMulticasterTest {
+    private AsyncPortalEventMulticaster multicaster;
+    
+    @Before
+    public void setup() throws Exception {
+        this.multicaster = new AsyncPortalEventMulticaster();
+        this.multicaster.afterPropertiesSet();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        this.multicaster.destroy();
+    }
+    
+    @Test
+    public void testPortalEventsDispatchedAsync() throws Exception {
+        final RecordingListener<LogoutEvent> logoutListener = new RecordingListener<LogoutEvent>(1) {};
+        final RecordingListener<LoginEvent> loginListener = new RecordingListener<LoginEvent>(1) {};
+        this.multicaster.addApplicationListener(logoutListener);
+        this.multicaster.addApplicationListener(loginListener);
+        
+        final LoginEvent loginEvent = createLoginEvent();
+        this.multicaster.multicastEvent(loginEvent);
+        
+        assertTrue(loginListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, loginListener.events.size());
+        assertSame(loginEvent, loginListener.events.get(0));
+        assertNotSame(Thread.currentThread(), loginListener.threads.get(0));
+        
+        //Logout listener is not routed to for login events
+        assertEquals(0, logoutListener.events.size());
+        assertEquals(1, this.multicaster.getRoutedEventTypeCount());
+        
+        final Map<String, Long> eventCounts = this.multicaster.getListenerEventCount();
+        assertEquals(1, eventCounts.size());
+        assertEquals(Long.valueOf(1), eventCounts.values().iterator().next());
+    }
+    
+    @Test
+    public void testLogoutEventsSynchronous() throws Exception {
+        final RecordingListener<LogoutEvent> logoutListener = new RecordingListener<LogoutEvent>(1) {};
+        this.multicaster.addApplicationListener(logoutListener);
+        
+        final LogoutEvent logoutEvent = new LogoutEvent(createEventBuilder());
+        this.multicaster.multicastEvent(logoutEvent);
+        
+        //Handled before multicastEvent returns
+        assertEquals(1, logoutListener.events.size());
+        assertSame(logoutEvent, logoutListener.events.get(0));
+        assertSame(Thread.currentThread(), logoutListener.threads.get(0));
+    }
+    
+    @Test
+    public void testSynchronousListener() throws Exception {
+        final RecordingListener<LoginEvent> synchronousListener = new SynchronousLoginListener(1);
+        final RecordingListener<LoginEvent> asynchronousListener = new RecordingListener<LoginEvent>(1) {};
+        this.multicaster.addApplicationListener(synchronousListener);
+        this.multicaster.addApplicationListener(asynchronousListener);
+        
+        this.multicaster.multicastEvent(createLoginEvent());
+        
+        assertEquals(1, synchronousListener.events.size());
+        assertSame(Thread.currentThread(), synchronousListener.threads.get(0));
+        
+        assertTrue(asynchronousListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, asynchronousListener.events.size());
+        assertNotSame(Thread.currentThread(), asynchronousListener.threads.get(0));
+    }
+    
+    @Test
+    public void testDeferredEventCreation() throws Exception {
+        final RecordingListener<LoginEvent> loginListener = new RecordingListener<LoginEvent>(1) {};
+        this.multicaster.addApplicationListener(loginListener);
+        
+        final Thread[] createThread = new Thread[1];
+        this.multicaster.multicastEvent(LoginEvent.class, new Callable<LoginEvent>() {
+            @Override
+            public LoginEvent call() throws Exception {
+                createThread[0] = Thread.currentThread();
+                return createLoginEvent();
+            }
+        });
+        
+        assertTrue(loginListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, loginListener.events.size());
+        assertNotSame(Thread.currentThread(), createThread[0]);
+    }
+    
+    @Test
+    public void testDeferredEventCreationSynchronousListener() throws Exception {
+        final RecordingListener<LoginEvent> synchronousListener = new SynchronousLoginListener(1);
+        this.multicaster.addApplicationListener(synchronousListener);
+        
+        final Thread[] createThread = new Thread[1];
+        this.multicaster.multicastEvent(LoginEvent.class, new Callable<LoginEvent>() {
+            @Override
+            public LoginEvent call() throws Exception {
+                createThread[0] = Thread.currentThread();
+                return createLoginEvent();
+            }
+        });
+        
+        //The event must exist before the synchronous listener can be called
+        assertSame(Thread.currentThread(), createThread[0]);
+        assertEquals(1, synchronousListener.events.size());
+        assertSame(Thread.currentThread(), synchronousListener.threads.get(0));
+    }
+    
+    @Test
+    public void testQueueFullDispatchesOnPublishingThread() throws Exception {
+        this.multicaster.destroy();
+        this.multicaster = new AsyncPortalEventMulticaster();
+        this.multicaster.setQueueCapacity(1);
+        this.multicaster.setQueueFullTimeout(50);
+        this.multicaster.afterPropertiesSet();
+        
+        final Thread publishingThread = Thread.currentThread();
+        final CountDownLatch dispatchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseDispatch = new CountDownLatch(1);
+        final RecordingListener<LoginEvent> loginListener = new RecordingListener<LoginEvent>(3) {
+            @Override
+            public void onApplicationEvent(LoginEvent event) {
+                //Only the dispatch thread is held up
+                if (Thread.currentThread() != publishingThread) {
+                    dispatchStarted.countDown();
+                    try {
+                        releaseDispatch.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.onApplicationEvent(event);
+            }
+        };
+        this.multicaster.addApplicationListener(loginListener);
+        
+        //First event blocks the dispatch thread, second fills the queue, third is dispatched by the publisher
+        this.multicaster.multicastEvent(createLoginEvent());
+        assertTrue(dispatchStarted.await(5, TimeUnit.SECONDS));
+        this.multicaster.multicastEvent(createLoginEvent());
+        final LoginEvent overflowEvent = createLoginEvent();
+        this.multicaster.multicastEvent(overflowEvent);
+        
+        assertEquals(1, this.multicaster.getBlockedEventCount());
+        assertEquals(1, this.multicaster.getCallerDispatchedEventCount());
+        assertEquals(1, loginListener.events.size());
+        assertSame(overflowEvent, loginListener.events.get(0));
+        assertSame(publishingThread, loginListener.threads.get(0));
+        
+        //No event is lost
+        releaseDispatch.countDown();
+        assertTrue(loginListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, loginListener.events.size());
+    }
+    
+    @Test
+    public void testSynchronousListenerTypes() throws Exception {
+        this.multicaster.setSynchronousListenerTypes(ImmutableSet.<Class<?>>of(AllowedLoginListener.class));
+        
+        final RecordingListener<LoginEvent> allowedListener = new AllowedLoginListener(1);
+        final RecordingListener<LoginEvent> asynchronousListener = new RecordingListener<LoginEvent>(1) {};
+        this.multicaster.addApplicationListener(allowedListener);
+        this.multicaster.addApplicationListener(asynchronousListener);
+        
+        this.multicaster.multicastEvent(createLoginEvent());
+        
+        assertEquals(1, allowedListener.events.size());
+        assertSame(Thread.currentThread(), allowedListener.threads.get(0));
+        
+        assertTrue(asynchronousListener.latch.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), asynchronousListener.threads.get(0));
+    }
+    
+    @Test
+    public void testListenerFailureIsolated() throws Exception {
+        final RecordingListener<LogoutEvent> logoutListener = new RecordingListener<LogoutEvent>(2) {};
+        this.multicaster.addApplicationListener(new ApplicationListener<LogoutEvent>() {
+            @Override
+            public void onApplicationEvent(LogoutEvent event) {
+                throw new IllegalStateException("Expected failure");
+            }
+        });
+        this.multicaster.addApplicationListener(logoutListener);
+        
+        this.multicaster.multicastEvent(new LogoutEvent(createEventBuilder()));
+        this.multicaster.multicastEvent(new LogoutEvent(createEventBuilder()));
+        
+        assertTrue(logoutListener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, logoutListener.events.size());
+        
+        long failures = 0;
+        for (final Long failureCount : this.multicaster.getListenerFailureCount().values()) {
+            failures += failureCount;
+        }
+        assertEquals(2, failures);
+    }
+    
+    @Test
+    public void testNonPortalEventsSynchronous() throws Exception {
+        final RecordingListener<ApplicationEvent> listener = new RecordingListener<ApplicationEvent>(1) {};
+        this.multicaster.addApplicationListener(listener);
+        
+        this.multicaster.multicastEvent(new ApplicationEvent(this) {
+            private static final long serialVersionUID = 1L;
+        });
+        
+        assertEquals(1, listener.events.size());
+        assertSame(Thread.currentThread(), listener.threads.get(0));
+    }
+    
+    @Test
+    public void testSessionDestroyedEventSynchronous() throws Exception {
+        final RecordingListener<HttpSessionDestroyedEvent> listener = new RecordingListener<HttpSessionDestroyedEvent>(1) {};
+        this.multicaster.addApplicationListener(listener);
+        
+        //Session destroyed listeners flush user state and must finish before the session is gone
+        this.multicaster.multicastEvent(new HttpSessionDestroyedEvent(new MockHttpSession()));
+        
+        assertEquals(1, listener.events.size());
+        assertSame(Thread.currentThread(), listener.threads.get(0));
+    }
+    
+    private LoginEvent createLoginEvent() {
+        return new LoginEvent(createEventBuilder(), ImmutableSet.of("Everyone"), ImmutableMap.<String, List<String>>of());
+    }
+    
+    private PortalEvent.PortalEventBuilder createEventBuilder() {
+        return new PortalEvent.PortalEventBuilder(this, "example.com", "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE);
+    }
+    
+    /**
+     * Must be subclassed so the event type can be resolved when routing events
+     */
+    private static class RecordingListener<E extends ApplicationEvent> implements ApplicationListener<E> {
+        private final List<E> events = new CopyOnWriteArrayList<E>();
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        private final CountDownLatch latch;
+        
+        public RecordingListener(int expectedEvents) {
+            this.latch = new CountDownLatch(expectedEvents);
+        }
+        
+        @Override
+        public void onApplicationEvent(E event) {
+            this.events.add(event);
+            this.threads.add(Thread.currentThread());
+            this.latch.countDown();
+        }
+    }
+    
+    /**
+     * Login listener that is configured to be invoked on the publishing thread
+     */
+    private static class AllowedLoginListener extends RecordingListener<LoginEvent> {
+        public AllowedLoginListener(int expectedEvents) {
+            super(expectedEvents);
+        }
+    }
+    
+    /**
+     * Login listener that is invoked on the publishing thread
+     */
+    private static class SynchronousLoginListener extends RecordingListener<LoginEvent> implements SynchronousPortalEventListener {
+        public SynchronousLoginListener(int expectedEvents) {
+            super(expectedEvents);
+        }
+    }
+}
@@ -19,22 +19,46 @@
 
 package org.jasig.portal.events.aggr.login;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+
+import javax.naming.CompositeName;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
 
 import org.apache.commons.lang.RandomStringUtils;
+import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
 import org.jasig.portal.events.aggr.DateDimension;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDaoTest;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.portlets.statistics.LoginTotalsStatisticsController;
+import org.joda.time.DateTime;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableSet;
 
 /**
  * @author Eric Dalquist
@@ -46,6 +70,8 @@ public class JpaLoginAggregationDaoTest
         extends JpaBaseAggregationDaoTest<LoginAggregationImpl, LoginAggregationKey, LoginAggregationDiscriminator> {
     @Autowired
     private LoginAggregationPrivateDao loginAggregationDao;
+    @Autowired
+    private IEventAggregationManagementDao eventAggregationManagementDao;
     
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey> getAggregationDao() {
@@ -81,4 +107,108 @@ public class JpaLoginAggregationDaoTest
         final LoginAggregationImpl aggr = loginAggregationDao.createAggregation(key);
         return Collections.<LoginAggregationKey, LoginAggregationImpl>singletonMap(key, aggr);
     }
+    
+    @Test
+    public void testReportAggregationCache() throws Exception {
+        final IEntityGroup entityGroupA = mock(IEntityGroup.class);
+        when(entityGroupA.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupA.getName()).thenReturn("Group A");
+        when(compositeGroupService.findGroup("local.0")).thenReturn(entityGroupA);
+        
+        final DateTime day1 = new DateTime(2012, 1, 1, 0, 0);
+        final DateTime day2 = day1.plusDays(1);
+        final DateTime day3 = day1.plusDays(2);
+        final DateTime day4 = day1.plusDays(3);
+        
+        final DateTime instant1 = day1.plusHours(10);
+        final DateTime instant2 = day2.plusHours(11);
+        final DateTime instant3 = day3.plusHours(12);
+        populateDateTimeDimensions(instant1, instant1.plusMinutes(1), null);
+        populateDateTimeDimensions(instant2, instant2.plusMinutes(1), null);
+        populateDateTimeDimensions(instant3, instant3.plusMinutes(1), null);
+        
+        createClosedAggregation(instant1);
+        createClosedAggregation(instant2);
+        
+        //Everything before day3 is closed
+        setCleanUnclosedDate(day3);
+        
+        final CacheManager cacheManager = new CacheManager(new Configuration().name(this.getClass().getName()));
+        try {
+            final Cache aggregationCache = new Cache(new CacheConfiguration("aggregationCache", 100));
+            cacheManager.addCache(aggregationCache);
+            
+            final ReportController reportController = new ReportController();
+            ReflectionTestUtils.setField(reportController, "loginDao", loginAggregationDao);
+            ReflectionTestUtils.setField(reportController, "intervalHelper", aggregationIntervalHelper);
+            ReflectionTestUtils.setField(reportController, "eventAggregationManagementDao", eventAggregationManagementDao);
+            ReflectionTestUtils.setField(reportController, "aggregationCache", aggregationCache);
+            
+            assertReportAggregations(reportController, day1, day4, 2);
+            assertEquals(2, aggregationCache.getSize());
+            
+            //An aggregation written in the open day is visible, the open day is not cached
+            createClosedAggregation(instant3);
+            assertReportAggregations(reportController, day1, day4, 3);
+            assertEquals(2, aggregationCache.getSize());
+            
+            //Once day3 is closed it is cached as well
+            setCleanUnclosedDate(day4);
+            assertReportAggregations(reportController, day1, day4, 3);
+            assertEquals(3, aggregationCache.getSize());
+            assertReportAggregations(reportController, day1, day4, 3);
+        }
+        finally {
+            cacheManager.shutdown();
+        }
+    }
+    
+    private void createClosedAggregation(final DateTime instant) {
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                final AggregationIntervalInfo intervalInfo = aggregationIntervalHelper.getIntervalInfo(AggregationInterval.FIVE_MINUTE, instant);
+                
+                final LoginAggregationImpl aggregation = loginAggregationDao.createAggregation(createAggregationKey(intervalInfo, groupA));
+                aggregation.countUser("user");
+                aggregation.intervalComplete(5);
+                loginAggregationDao.updateAggregation(aggregation);
+            }
+        });
+    }
+    
+    private void setCleanUnclosedDate(final DateTime lastEventDate) {
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final IEventAggregatorStatus cleanUnclosedStatus = eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.CLEAN_UNCLOSED, true);
+                cleanUnclosedStatus.setLastEventDate(lastEventDate);
+                eventAggregationManagementDao.updateEventAggregatorStatus(cleanUnclosedStatus);
+            }
+        });
+    }
+    
+    private void assertReportAggregations(final ReportController reportController, final DateTime start, final DateTime end, final int expected) {
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                final Set<LoginAggregationKey> keys = ImmutableSet.<LoginAggregationKey>of(createAggregationKey(AggregationInterval.FIVE_MINUTE, groupA));
+                
+                final Collection<LoginAggregation> aggregations = reportController.findAggregations(AggregationInterval.FIVE_MINUTE, start, end, keys, groupA);
+                assertEquals(expected, aggregations.size());
+            }
+        });
+    }
+    
+    /**
+     * Exposes the cached aggregation lookup of the login report
+     */
+    private static final class ReportController extends LoginTotalsStatisticsController {
+        public Collection<LoginAggregation> findAggregations(AggregationInterval interval, DateTime start, DateTime end,
+                Set<LoginAggregationKey> keys, AggregatedGroupMapping... groups) {
+            return this.getAggregations(interval, start, end, keys, groups);
+        }
+    }
 }
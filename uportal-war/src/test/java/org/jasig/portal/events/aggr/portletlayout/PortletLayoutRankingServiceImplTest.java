@@ -0,0 +1,144 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.portletlayout;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jasig.portal.events.aggr.AggregationInterval;
+import org.jasig.portal.events.aggr.DateDimension;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.portlets.AggregatedPortletMapping;
+import org.joda.time.DateMidnight;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortletLayoutRankingServiceImplTest {
+    private PortletLayoutRankingServiceImpl rankingService;
+    @Mock private PortletLayoutAggregationDao<PortletLayoutAggregation> portletLayoutDao;
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private IEventAggregatorStatus eventAggregatorStatus;
+    @Mock private AggregatedGroupMapping everyone;
+
+    @Before
+    public void setup() {
+        this.rankingService = new PortletLayoutRankingServiceImpl() {
+            @Override
+            protected AggregatedGroupMapping getRankingGroup() {
+                return everyone;
+            }
+        };
+        this.rankingService.setPortletLayoutDao(this.portletLayoutDao);
+        this.rankingService.setEventAggregationManagementDao(this.eventAggregationManagementDao);
+        this.rankingService.setRankingWindows(ImmutableSet.of(1, 7));
+        this.rankingService.setRefreshInterval(Duration.standardHours(1));
+
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, false)).thenReturn(this.eventAggregatorStatus);
+    }
+
+    @Test
+    public void testRollingRankings() {
+        when(this.eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(2012, 6, 10, 5, 0, 0, 0));
+        final List<PortletLayoutAggregation> firstLoad = Arrays.asList(
+                createAggregation(new DateMidnight(2012, 6, 9), "a", 2),
+                createAggregation(new DateMidnight(2012, 6, 9), "b", 1),
+                createAggregation(new DateMidnight(2012, 6, 5), "b", 5));
+        when(this.portletLayoutDao.getAggregationsForAllPortlets(
+                new DateMidnight(2012, 6, 3).toDateTime(), new DateMidnight(2012, 6, 10).toDateTime(), AggregationInterval.DAY, this.everyone))
+            .thenReturn(firstLoad);
+
+        assertEquals(Arrays.asList(new PortletLayoutRanking("a", 2), new PortletLayoutRanking("b", 1)).toString(),
+                this.rankingService.getRanking(1).toString());
+        assertEquals(Arrays.asList(new PortletLayoutRanking("b", 6), new PortletLayoutRanking("a", 2)).toString(),
+                this.rankingService.getRanking(7).toString());
+        assertNull(this.rankingService.getRanking(30));
+
+        //Another day is aggregated, only the new day should be loaded
+        when(this.eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(2012, 6, 11, 1, 0, 0, 0));
+        final List<PortletLayoutAggregation> secondLoad = Arrays.asList(
+                createAggregation(new DateMidnight(2012, 6, 10), "c", 4));
+        when(this.portletLayoutDao.getAggregationsForAllPortlets(
+                new DateMidnight(2012, 6, 10).toDateTime(), new DateMidnight(2012, 6, 11).toDateTime(), AggregationInterval.DAY, this.everyone))
+            .thenReturn(secondLoad);
+
+        //Not refreshed until the refresh interval passes or a day is closed
+        assertEquals(2, this.rankingService.getRanking(1).size());
+
+        this.rankingService.intervalClosed(AggregationInterval.DAY);
+
+        assertEquals(Arrays.asList(new PortletLayoutRanking("c", 4)).toString(),
+                this.rankingService.getRanking(1).toString());
+        assertEquals(Arrays.asList(new PortletLayoutRanking("b", 6), new PortletLayoutRanking("c", 4), new PortletLayoutRanking("a", 2)).toString(),
+                this.rankingService.getRanking(7).toString());
+    }
+
+    @Test
+    public void testMaxRankingSize() {
+        this.rankingService.setMaxRankingSize(2);
+
+        when(this.eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(2012, 6, 10, 5, 0, 0, 0));
+        final List<PortletLayoutAggregation> aggregations = Arrays.asList(
+                createAggregation(new DateMidnight(2012, 6, 9), "a", 2),
+                createAggregation(new DateMidnight(2012, 6, 9), "b", 7),
+                createAggregation(new DateMidnight(2012, 6, 9), "c", 1),
+                createAggregation(new DateMidnight(2012, 6, 9), "d", 3));
+        when(this.portletLayoutDao.getAggregationsForAllPortlets(
+                new DateMidnight(2012, 6, 3).toDateTime(), new DateMidnight(2012, 6, 10).toDateTime(), AggregationInterval.DAY, this.everyone))
+            .thenReturn(aggregations);
+
+        assertEquals(Arrays.asList(new PortletLayoutRanking("b", 7), new PortletLayoutRanking("d", 3)).toString(),
+                this.rankingService.getRanking(7).toString());
+    }
+
+    @Test
+    public void testNoAggregatedEvents() {
+        assertEquals(0, this.rankingService.getRanking(7).size());
+    }
+
+    private static PortletLayoutAggregation createAggregation(DateMidnight day, String fname, int addCount) {
+        final DateDimension dateDimension = mock(DateDimension.class);
+        when(dateDimension.getDate()).thenReturn(day);
+
+        final AggregatedPortletMapping portletMapping = mock(AggregatedPortletMapping.class);
+        when(portletMapping.getFname()).thenReturn(fname);
+
+        final PortletLayoutAggregation aggregation = mock(PortletLayoutAggregation.class);
+        when(aggregation.getDateDimension()).thenReturn(dateDimension);
+        when(aggregation.getPortletMapping()).thenReturn(portletMapping);
+        when(aggregation.getAddCount()).thenReturn(addCount);
+        return aggregation;
+    }
+}
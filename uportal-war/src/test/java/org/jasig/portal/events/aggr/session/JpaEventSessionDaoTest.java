@@ -100,6 +100,10 @@ public class JpaEventSessionDaoTest extends BaseAggrEventsJpaDaoTest {
                 assertEquals(eventSessionId2, eventSession2.getEventSessionId());
                 final Set<AggregatedGroupMapping> groupMappings2 = eventSession2.getGroupMappings();
                 assertEquals(2, groupMappings2.size());
+                
+                //Sessions with the same groups share a group signature
+                assertEquals(eventSession1.getGroupSignature(), eventSession2.getGroupSignature());
+                assertEquals(groupMappings1, groupMappings2);
             }
         });
         
@@ -0,0 +1,94 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.events.aggr.stat;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            final long lowerBound = LatencyHistogram.getBucketLowerBound(index);
+            assertTrue(value + " is below bucket " + index, value >= lowerBound);
+            assertTrue(value + " is above bucket " + index, value < lowerBound + LatencyHistogram.getBucketWidth(index));
+        }
+        
+        assertTrue(LatencyHistogram.getBucketIndex(Long.MAX_VALUE) < LatencyHistogram.BUCKET_COUNT);
+    }
+    
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(Double.isNaN(histogram.getPercentile(50)));
+        
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordValue(i * 1000000);
+        }
+        
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(500000000, histogram.getPercentile(50), 500000000 * 0.125);
+        assertEquals(950000000, histogram.getPercentile(95), 950000000 * 0.125);
+        assertEquals(990000000, histogram.getPercentile(99), 990000000 * 0.125);
+        assertEquals(1000000, histogram.getPercentile(0), 1000000 * 0.125);
+    }
+    
+    @Test
+    public void testMergeAndCompactString() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        final LatencyHistogram combined = new LatencyHistogram();
+        for (int i = 0; i < 500; i++) {
+            first.recordValue(i * 1000);
+            second.recordValue(i * 7000);
+            combined.recordValue(i * 1000);
+            combined.recordValue(i * 7000);
+        }
+        
+        first.merge(second);
+        assertEquals(combined, first);
+        assertEquals(1000, first.getTotalCount());
+        
+        final LatencyHistogram parsed = LatencyHistogram.fromCompactString(first.toCompactString());
+        assertEquals(first, parsed);
+        assertEquals(first.getTotalCount(), parsed.getTotalCount());
+        assertEquals(first.getPercentile(90), parsed.getPercentile(90));
+        
+        assertEquals(0, LatencyHistogram.fromCompactString(null).getTotalCount());
+    }
+    
+    @Test
+    public void testMaxCompactStringLength() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int maxIndex = LatencyHistogram.getBucketIndex(Long.MAX_VALUE);
+        for (int index = 0; index <= maxIndex; index++) {
+            histogram.recordValue(LatencyHistogram.getBucketLowerBound(index), Long.MAX_VALUE);
+        }
+        
+        final String compact = histogram.toCompactString();
+        assertEquals(maxIndex + 1, compact.split(",").length);
+        assertTrue(compact.length() + " is longer than the TIME_HISTOGRAM column", compact.length() <= LatencyHistogram.MAX_COMPACT_STRING_LENGTH);
+        assertEquals(histogram, LatencyHistogram.fromCompactString(compact));
+    }
+}
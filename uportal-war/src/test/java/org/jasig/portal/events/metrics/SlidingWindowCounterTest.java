@@ -0,0 +1,52 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import static junit.framework.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlidingWindowCounterTest {
+    @Test
+    public void testSlidingWindow() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(10, 1000);
+        assertEquals(10000, counter.getWindow());
+        
+        final long start = 1000000;
+        assertEquals(0, counter.getCount(start));
+        
+        counter.increment(start);
+        counter.increment(start + 500);
+        counter.increment(start + 1500);
+        assertEquals(3, counter.getCount(start + 1500));
+        
+        //First slot drops out of the window
+        assertEquals(3, counter.getCount(start + 9999));
+        assertEquals(1, counter.getCount(start + 10000));
+        assertEquals(0, counter.getCount(start + 11000));
+        
+        //Wrapping around the ring resets the slot
+        counter.increment(start + 10000);
+        assertEquals(2, counter.getCount(start + 10000));
+        
+        counter.reset();
+        assertEquals(0, counter.getCount(start + 10000));
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.metrics;
+
+import static junit.framework.Assert.assertEquals;
+
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+import org.junit.Test;
+
+public class SlidingWindowHistogramTest {
+    @Test
+    public void testSlidingWindow() {
+        final SlidingWindowHistogram histogram = new SlidingWindowHistogram(10, 1000);
+        assertEquals(10000, histogram.getWindow());
+        
+        final long start = 1000000;
+        assertEquals(0, histogram.snapshot(start).getTotalCount());
+        
+        //Slow values in the first slot, fast values after
+        for (int i = 0; i < 10; i++) {
+            histogram.recordValue(start, 1000000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.recordValue(start + 1500, 10);
+        }
+        
+        LatencyHistogram snapshot = histogram.snapshot(start + 1500);
+        assertEquals(20, snapshot.getTotalCount());
+        assertEquals(1000000, snapshot.getPercentile(99), 1000000 / 8);
+        
+        //Slow values drop out of the window and no longer affect the percentiles
+        assertEquals(20, histogram.snapshot(start + 9999).getTotalCount());
+        snapshot = histogram.snapshot(start + 10000);
+        assertEquals(10, snapshot.getTotalCount());
+        assertEquals(10, snapshot.getPercentile(99), 1);
+        assertEquals(0, histogram.snapshot(start + 11000).getTotalCount());
+        
+        //Wrapping around the ring resets the slot
+        histogram.recordValue(start + 10000, 10);
+        assertEquals(11, histogram.snapshot(start + 10000).getTotalCount());
+        
+        histogram.reset();
+        assertEquals(0, histogram.snapshot(start + 10000).getTotalCount());
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class EntityGroupNameCatalogTest {
+    private static final int PERSON_TYPE = 1;
+    private static final int PORTLET_TYPE = 2;
+
+    @Test
+    public void testSearchMethods() throws Exception {
+        final EntityGroupNameCatalog catalog = createCatalog();
+
+        assertKeys(catalog.search("students", IGroupConstants.IS, PERSON_TYPE), "1");
+        assertKeys(catalog.search("stud", IGroupConstants.STARTS_WITH, PERSON_TYPE), "1", "2");
+        assertKeys(catalog.search("STAFF", IGroupConstants.ENDS_WITH, PERSON_TYPE), "3", "4");
+        assertKeys(catalog.search("Staff", IGroupConstants.CONTAINS, PERSON_TYPE), "3", "4", "5");
+        assertKeys(catalog.search("ent", IGroupConstants.CONTAINS, PERSON_TYPE), "1", "2");
+        assertKeys(catalog.search("xyz", IGroupConstants.CONTAINS, PERSON_TYPE));
+    }
+
+    @Test
+    public void testShortQueries() throws Exception {
+        final EntityGroupNameCatalog catalog = createCatalog();
+
+        assertKeys(catalog.search("ff", IGroupConstants.ENDS_WITH, PERSON_TYPE), "3", "4");
+        assertKeys(catalog.search("a", IGroupConstants.CONTAINS, PERSON_TYPE), "3", "4", "5");
+        assertKeys(catalog.search("", IGroupConstants.STARTS_WITH, PERSON_TYPE), "1", "2", "3", "4", "5");
+    }
+
+    @Test
+    public void testEntityTypes() throws Exception {
+        final EntityGroupNameCatalog catalog = createCatalog();
+
+        assertKeys(catalog.search("staff", IGroupConstants.CONTAINS, PORTLET_TYPE), "6");
+        assertKeys(catalog.search("staff", IGroupConstants.CONTAINS, 99));
+    }
+
+    @Test
+    public void testUpdateAndRemove() throws Exception {
+        final EntityGroupNameCatalog catalog = createCatalog();
+
+        catalog.put("1", PERSON_TYPE, "Alumni");
+        assertKeys(catalog.search("students", IGroupConstants.IS, PERSON_TYPE));
+        assertKeys(catalog.search("alum", IGroupConstants.STARTS_WITH, PERSON_TYPE), "1");
+        assertKeys(catalog.search("ent", IGroupConstants.CONTAINS, PERSON_TYPE), "2");
+
+        catalog.remove("2");
+        assertKeys(catalog.search("ent", IGroupConstants.CONTAINS, PERSON_TYPE));
+        assertEquals(5, catalog.size());
+
+        catalog.remove("2");
+        assertEquals(5, catalog.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMethod() throws Exception {
+        createCatalog().search("staff", 99, PERSON_TYPE);
+    }
+
+    private EntityGroupNameCatalog createCatalog() {
+        final EntityGroupNameCatalog catalog = new EntityGroupNameCatalog();
+        catalog.put("1", PERSON_TYPE, "Students");
+        catalog.put("2", PERSON_TYPE, "Student Workers");
+        catalog.put("3", PERSON_TYPE, "Faculty and Staff");
+        catalog.put("4", PERSON_TYPE, "Staff");
+        catalog.put("5", PERSON_TYPE, "Staff Retirees");
+        catalog.put("6", PORTLET_TYPE, "Staff Portlets");
+        return catalog;
+    }
+
+    private void assertKeys(List<String> keys, String... expected) {
+        final Set<String> expectedKeys = new HashSet<String>(Arrays.asList(expected));
+        assertEquals(expectedKeys, new HashSet<String>(keys));
+        assertTrue(keys.size() == expectedKeys.size());
+    }
+}
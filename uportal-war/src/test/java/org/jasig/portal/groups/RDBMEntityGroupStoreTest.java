@@ -0,0 +1,251 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.spring.locator.PortalDbLocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests when {@link RDBMEntityGroupStore} reloads its {@link EntityGroupNameCatalog} and
+ * how its batched membership queries are split
+ */
+public class RDBMEntityGroupStoreTest {
+    private TestGroupStore groupStore;
+    private PortalDbLocator portalDbLocator;
+    private Connection connection;
+    
+    @Before
+    public void setup() throws Exception {
+        this.groupStore = new TestGroupStore();
+        this.groupStore.setGroupNameCatalogMaxAge(Long.MAX_VALUE);
+        
+        this.connection = mock(Connection.class);
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(this.connection);
+        this.portalDbLocator = new PortalDbLocator(dataSource);
+        this.portalDbLocator.afterPropertiesSet();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        this.portalDbLocator.destroy();
+    }
+    
+    @Test
+    public void testCatalogReused() throws Exception {
+        final EntityGroupNameCatalog catalog = this.groupStore.getGroupNameCatalog();
+        
+        assertSame(catalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(1, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testCatalogDisabled() throws Exception {
+        this.groupStore.setGroupNameCatalogMaxAge(0);
+        
+        assertNull(this.groupStore.getGroupNameCatalog());
+        assertEquals(0, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testVersionChange() throws Exception {
+        final EntityGroupNameCatalog catalog = this.groupStore.getGroupNameCatalog();
+        
+        this.groupStore.version = "2";
+        final EntityGroupNameCatalog reloadedCatalog = this.groupStore.getGroupNameCatalog();
+        assertNotSame(catalog, reloadedCatalog);
+        assertEquals(2, this.groupStore.loads);
+        
+        assertSame(reloadedCatalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(2, this.groupStore.loads);
+        
+        //Losing the version is also a change
+        this.groupStore.version = null;
+        assertNotSame(reloadedCatalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(3, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testMaxAge() throws Exception {
+        this.groupStore.setGroupNameCatalogMaxAge(1);
+        
+        final EntityGroupNameCatalog catalog = this.groupStore.getGroupNameCatalog();
+        Thread.sleep(10);
+        
+        assertNotSame(catalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(2, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testModificationAfterLoad() throws Exception {
+        final EntityGroupNameCatalog catalog = this.groupStore.getGroupNameCatalog();
+        assertEquals(1, catalog.size());
+        
+        //Local changes are applied to the loaded catalog
+        this.groupStore.groupNameCatalogRemove(createGroup("1"));
+        
+        assertSame(catalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(0, catalog.size());
+        assertEquals(1, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testModificationDuringLoad() throws Exception {
+        this.groupStore.modifyDuringLoad = true;
+        final EntityGroupNameCatalog catalog = this.groupStore.getGroupNameCatalog();
+        
+        //The modification may be missing from the loaded catalog so it is loaded again
+        this.groupStore.modifyDuringLoad = false;
+        final EntityGroupNameCatalog reloadedCatalog = this.groupStore.getGroupNameCatalog();
+        assertNotSame(catalog, reloadedCatalog);
+        assertEquals(2, this.groupStore.loads);
+        
+        assertSame(reloadedCatalog, this.groupStore.getGroupNameCatalog());
+        assertEquals(2, this.groupStore.loads);
+    }
+    
+    @Test
+    public void testMemberGroupKeysSingleBatch() throws Exception {
+        final PreparedStatement statement = mockStatement(new String[] { "1", "local", "a" }, new String[] { "100", "local", "b" });
+        when(this.connection.prepareStatement(anyString())).thenReturn(statement);
+        
+        final Map<String, String[]> memberGroupKeys = this.groupStore.findMemberGroupKeys(createGroups(100));
+        
+        assertEquals(100, memberGroupKeys.size());
+        assertEquals(Arrays.asList("local.a"), Arrays.asList(memberGroupKeys.get("local.1")));
+        assertEquals(Arrays.asList("local.b"), Arrays.asList(memberGroupKeys.get("local.100")));
+        assertEquals(0, memberGroupKeys.get("local.2").length);
+        
+        final ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        verify(this.connection).prepareStatement(sqlCaptor.capture());
+        assertEquals(100, StringUtils.countMatches(sqlCaptor.getValue(), "?"));
+        verify(statement).setString(100, "100");
+        verify(this.connection).close();
+    }
+    
+    @Test
+    public void testMemberGroupKeysSplitBatch() throws Exception {
+        final PreparedStatement firstStatement = mockStatement(new String[] { "1", "local", "a" });
+        final PreparedStatement secondStatement = mockStatement(new String[] { "101", "local", "b" });
+        when(this.connection.prepareStatement(anyString())).thenReturn(firstStatement, secondStatement);
+        
+        final Map<String, String[]> memberGroupKeys = this.groupStore.findMemberGroupKeys(createGroups(101));
+        
+        assertEquals(101, memberGroupKeys.size());
+        assertEquals(Arrays.asList("local.a"), Arrays.asList(memberGroupKeys.get("local.1")));
+        assertEquals(Arrays.asList("local.b"), Arrays.asList(memberGroupKeys.get("local.101")));
+        assertEquals(0, memberGroupKeys.get("local.100").length);
+        
+        //The 101st group goes in a second query on the same connection
+        final ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        verify(this.connection, times(2)).prepareStatement(sqlCaptor.capture());
+        assertEquals(100, StringUtils.countMatches(sqlCaptor.getAllValues().get(0), "?"));
+        assertEquals(1, StringUtils.countMatches(sqlCaptor.getAllValues().get(1), "?"));
+        verify(firstStatement).setString(100, "100");
+        verify(secondStatement).setString(1, "101");
+        verify(this.connection).close();
+    }
+    
+    /**
+     * @param rows group local key, member service and member key of each membership row
+     */
+    private static PreparedStatement mockStatement(String[]... rows) throws Exception {
+        final ResultSet results = mock(ResultSet.class);
+        final Boolean[] moreRows = new Boolean[rows.length];
+        Arrays.fill(moreRows, Boolean.TRUE);
+        moreRows[rows.length - 1] = Boolean.FALSE;
+        when(results.next()).thenReturn(Boolean.TRUE, moreRows);
+        for (int column = 1; column <= 3; column++) {
+            final String[] values = new String[rows.length];
+            for (int row = 0; row < rows.length; row++) {
+                values[row] = rows[row][column - 1];
+            }
+            when(results.getString(column)).thenReturn(values[0], Arrays.copyOfRange(values, 1, values.length));
+        }
+        
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).thenReturn(results);
+        return statement;
+    }
+    
+    private static List<IEntityGroup> createGroups(int count) {
+        final List<IEntityGroup> groups = new ArrayList<IEntityGroup>();
+        for (int i = 1; i <= count; i++) {
+            groups.add(createGroup(String.valueOf(i)));
+        }
+        return groups;
+    }
+    
+    private static IEntityGroup createGroup(String key) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getLocalKey()).thenReturn(key);
+        when(group.getKey()).thenReturn("local." + key);
+        return group;
+    }
+    
+    private static class TestGroupStore extends RDBMEntityGroupStore {
+        private String version = "1";
+        private boolean modifyDuringLoad = false;
+        private int loads = 0;
+        
+        @Override
+        String getGroupNameCatalogVersion() {
+            return this.version;
+        }
+        
+        @Override
+        EntityGroupNameCatalog loadGroupNameCatalog() throws GroupsException {
+            this.loads++;
+            
+            final EntityGroupNameCatalog catalog = new EntityGroupNameCatalog();
+            catalog.put("1", 1, "Students");
+            
+            if (this.modifyDuringLoad) {
+                this.groupNameCatalogRemove(createGroup("2"));
+            }
+            
+            return catalog;
+        }
+    }
+}
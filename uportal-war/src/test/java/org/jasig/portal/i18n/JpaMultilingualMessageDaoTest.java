@@ -19,6 +19,7 @@
 package org.jasig.portal.i18n;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.LinkedHashSet;
 import java.util.Locale;
@@ -47,6 +48,7 @@ public class JpaMultilingualMessageDaoTest extends BasePortalJpaDaoTest {
             @Override
             public Object call() throws Exception {
                 final String code = "Test message";
+                final String initialVersion = messageDao.getMessagesVersion();
                 
                 // test #createMessage
                 final Message msgUS = messageDao.createMessage(code, new Locale("en_US"), "Test message");
@@ -54,6 +56,10 @@ public class JpaMultilingualMessageDaoTest extends BasePortalJpaDaoTest {
                 final Message msgLV = messageDao.createMessage(code, new Locale("lv_LV"), "Testa ziņojums");
                 final Message msgDE = messageDao.createMessage(code, new Locale("de_DE"), "Testnachricht");
                 
+                // test #getMessagesVersion
+                final String createdVersion = messageDao.getMessagesVersion();
+                assertFalse(createdVersion.equals(initialVersion));
+                
                 // test #getMessage
                 final Message actual1 = messageDao.getMessage(code, new Locale("lv_LV"));
                 assertEquals(msgLV, actual1);
@@ -61,6 +67,7 @@ public class JpaMultilingualMessageDaoTest extends BasePortalJpaDaoTest {
                 // test #updateMessage
                 msgLV.setValue("Labots testa ziņojums");
                 messageDao.updateMessage(msgLV);
+                assertFalse(createdVersion.equals(messageDao.getMessagesVersion()));
                 
                 final Message actual2 = messageDao.getMessage(code, new Locale("lv_LV"));
                 assertEquals(msgLV, actual2);
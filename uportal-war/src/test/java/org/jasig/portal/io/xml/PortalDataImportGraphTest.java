@@ -0,0 +1,162 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.jasig.portal.io.xml.PortalDataImportGraph.ImportNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortalDataImportGraphTest {
+    private static final PortalDataKey USER_KEY = new PortalDataKey(new QName("user"), null, "4.0");
+    private static final PortalDataKey GROUP_KEY = new PortalDataKey(new QName("group"), null, "4.0");
+    private static final PortalDataKey PROFILE_KEY = new PortalDataKey(new QName("profile"), null, "4.0");
+    private static final PortalDataKey LAYOUT_KEY = new PortalDataKey(new QName("layout"), null, "4.0");
+    
+    @Mock private IPortalDataType userType;
+    @Mock private IPortalDataType groupType;
+    @Mock private IPortalDataType profileType;
+    @Mock private IPortalDataType layoutType;
+    
+    private final Resource adminUser = new FileSystemResource("admin.user.xml");
+    private final Resource guestUser = new FileSystemResource("guest.user.xml");
+    private final Resource everyoneGroup = new FileSystemResource("everyone.group.xml");
+    private final Resource adminProfile = new FileSystemResource("admin.profile.xml");
+    private final Resource guestProfile = new FileSystemResource("guest.profile.xml");
+    private final Resource adminLayout = new FileSystemResource("admin.layout.xml");
+    private final Resource guestLayout = new FileSystemResource("guest.layout.xml");
+    
+    private Map<PortalDataKey, Collection<Resource>> dataToImport;
+    private Map<PortalDataKey, IPortalDataType> dataKeyTypes;
+    private Map<Resource, String> resourceUsernames;
+    
+    @Before
+    public void setup() {
+        dataToImport = new LinkedHashMap<PortalDataKey, Collection<Resource>>();
+        dataToImport.put(USER_KEY, Arrays.asList(adminUser, guestUser));
+        dataToImport.put(GROUP_KEY, Arrays.asList(everyoneGroup));
+        dataToImport.put(PROFILE_KEY, Arrays.asList(adminProfile, guestProfile));
+        dataToImport.put(LAYOUT_KEY, Arrays.asList(adminLayout, guestLayout));
+        
+        dataKeyTypes = ImmutableMap.of(USER_KEY, userType, GROUP_KEY, groupType, PROFILE_KEY, profileType, LAYOUT_KEY, layoutType);
+        
+        resourceUsernames = new HashMap<Resource, String>();
+        resourceUsernames.put(adminUser, "admin");
+        resourceUsernames.put(guestUser, "guest");
+        resourceUsernames.put(adminProfile, "admin");
+        resourceUsernames.put(guestProfile, "guest");
+        resourceUsernames.put(adminLayout, "admin");
+        resourceUsernames.put(guestLayout, "guest");
+    }
+    
+    @Test
+    public void testDefaultImportOrder() {
+        final Map<IPortalDataType, Set<IPortalDataType>> noDependencies = Collections.emptyMap();
+        final PortalDataImportGraph importGraph = new PortalDataImportGraph(dataToImport, dataKeyTypes, noDependencies, noDependencies, resourceUsernames);
+        
+        assertEquals(7, importGraph.getRemainingCount());
+        
+        //Every type waits for all of the types before it
+        final List<ImportNode> users = importGraph.getReadyNodes();
+        assertEquals(Arrays.asList(adminUser, guestUser), getResources(users));
+        
+        assertTrue(importGraph.complete(users.get(0)).isEmpty());
+        final List<ImportNode> groups = importGraph.complete(users.get(1));
+        assertEquals(Arrays.asList(everyoneGroup), getResources(groups));
+        
+        final List<ImportNode> profiles = importGraph.complete(groups.get(0));
+        assertEquals(Arrays.asList(adminProfile, guestProfile), getResources(profiles));
+        
+        assertTrue(importGraph.complete(profiles.get(1)).isEmpty());
+        final List<ImportNode> layouts = importGraph.complete(profiles.get(0));
+        assertEquals(Arrays.asList(adminLayout, guestLayout), getResources(layouts));
+        
+        importGraph.complete(layouts.get(0));
+        importGraph.complete(layouts.get(1));
+        assertEquals(0, importGraph.getRemainingCount());
+    }
+    
+    @Test
+    public void testUserDependencies() {
+        final Map<IPortalDataType, Set<IPortalDataType>> typeDependencies = ImmutableMap.<IPortalDataType, Set<IPortalDataType>>of(
+                profileType, ImmutableSet.<IPortalDataType>of(),
+                layoutType, ImmutableSet.of(groupType));
+        final Map<IPortalDataType, Set<IPortalDataType>> userTypeDependencies = ImmutableMap.<IPortalDataType, Set<IPortalDataType>>of(
+                profileType, ImmutableSet.of(userType),
+                layoutType, ImmutableSet.of(userType, profileType));
+        final PortalDataImportGraph importGraph = new PortalDataImportGraph(dataToImport, dataKeyTypes, typeDependencies, userTypeDependencies, resourceUsernames);
+        
+        final List<ImportNode> users = importGraph.getReadyNodes();
+        assertEquals(Arrays.asList(adminUser, guestUser), getResources(users));
+        
+        //The admin profile only waits for the admin user, the group still waits for all users
+        final List<ImportNode> adminProfiles = importGraph.complete(users.get(0));
+        assertEquals(Arrays.asList(adminProfile), getResources(adminProfiles));
+        
+        //The admin layout also waits for the group
+        assertTrue(importGraph.complete(adminProfiles.get(0)).isEmpty());
+        
+        final List<ImportNode> guestReady = importGraph.complete(users.get(1));
+        assertEquals(Arrays.asList(everyoneGroup, guestProfile), getResources(guestReady));
+        
+        final List<ImportNode> adminLayouts = importGraph.complete(guestReady.get(0));
+        assertEquals(Arrays.asList(adminLayout), getResources(adminLayouts));
+        
+        final List<ImportNode> guestLayouts = importGraph.complete(guestReady.get(1));
+        assertEquals(Arrays.asList(guestLayout), getResources(guestLayouts));
+        
+        //The guest layout finished last, it was held up by the guest profile which was held up by the guest user
+        importGraph.complete(adminLayouts.get(0));
+        importGraph.complete(guestLayouts.get(0));
+        assertEquals(0, importGraph.getRemainingCount());
+        assertEquals(Arrays.asList(guestUser, guestProfile, guestLayout), getResources(importGraph.getCriticalPath()));
+    }
+    
+    private List<Resource> getResources(List<ImportNode> importNodes) {
+        final List<Resource> resources = new LinkedList<Resource>();
+        for (final ImportNode importNode : importNodes) {
+            resources.add(importNode.getResource());
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.PortalException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.web.session.HttpSessionDestroyedEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UserLayoutWriteBehindManagerTest {
+    private UserLayoutWriteBehindManager writeBehindManager;
+    @Mock private IUserLayoutManager userLayoutManager;
+    @Mock private IUserLayoutManager otherUserLayoutManager;
+    
+    private MockHttpSession session;
+    private MockHttpServletRequest request;
+    
+    @Before
+    public void setup() {
+        writeBehindManager = new UserLayoutWriteBehindManager();
+        writeBehindManager.setSaveDelay(2000);
+        writeBehindManager.setMaxSaveDelay(10000);
+        
+        session = new MockHttpSession();
+        request = new MockHttpServletRequest();
+        request.setSession(session);
+    }
+    
+    @Test
+    public void testSavesCoalesced() {
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        //Not idle long enough yet
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis());
+        verify(userLayoutManager, never()).saveUserLayout();
+        
+        //Idle for the save delay, the three changes are saved once
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis() + 2000);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis() + 4000);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testMaxSaveDelay() {
+        writeBehindManager.setSaveDelay(60000);
+        
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis());
+        verify(userLayoutManager, never()).saveUserLayout();
+        
+        //Saved once pending for the max delay even though the layout is not idle for the save delay
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis() + 10000);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testNoSaveDelay() {
+        writeBehindManager.setSaveDelay(0);
+        
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testFlushUserLayout() {
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        writeBehindManager.flushUserLayout(request);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        
+        //Nothing left to flush
+        writeBehindManager.flushUserLayout(request);
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testFlushOnSessionDestroyed() {
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        //Logout invalidates the session which publishes the destroyed event
+        writeBehindManager.onApplicationEvent(new HttpSessionDestroyedEvent(session));
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testFlushOnDestroy() throws Exception {
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        writeBehindManager.destroy();
+        verify(userLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testFailedSaveRetried() {
+        writeBehindManager.setRetryDelay(1000);
+        doThrow(new PortalException("Simulated save failure")).doNothing().when(userLayoutManager).saveUserLayout();
+        
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        //Failure is logged and the save is put back in the queue
+        final long firstAttempt = System.currentTimeMillis() + 2000;
+        writeBehindManager.flushPendingSaves(firstAttempt);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        
+        //Not retried until the retry delay has passed
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis() + 500);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        
+        writeBehindManager.flushPendingSaves(System.currentTimeMillis() + 60000);
+        verify(userLayoutManager, times(2)).saveUserLayout();
+        
+        //Nothing left once the retry succeeds
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        verify(userLayoutManager, times(2)).saveUserLayout();
+    }
+    
+    @Test
+    public void testFlushFailureThrown() {
+        final PortalException failure = new PortalException("Simulated save failure");
+        doThrow(failure).doNothing().when(userLayoutManager).saveUserLayout();
+        
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        try {
+            writeBehindManager.onApplicationEvent(new HttpSessionDestroyedEvent(session));
+            fail("Flush failure should be thrown");
+        }
+        catch (PortalException e) {
+            assertSame(failure, e);
+        }
+        
+        //The changes are still pending after the session is gone
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        verify(userLayoutManager, times(2)).saveUserLayout();
+    }
+    
+    @Test
+    public void testDestroyFailureThrown() throws Exception {
+        final PortalException failure = new PortalException("Simulated save failure");
+        doThrow(failure).when(userLayoutManager).saveUserLayout();
+        
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        try {
+            writeBehindManager.destroy();
+            fail("Flush failure should be thrown");
+        }
+        catch (PortalException e) {
+            assertSame(failure, e);
+        }
+    }
+    
+    @Test
+    public void testLayoutManagerChanged() {
+        writeBehindManager.saveUserLayout(request, userLayoutManager);
+        
+        //The old layout manager's changes are saved before the new one is tracked
+        writeBehindManager.saveUserLayout(request, otherUserLayoutManager);
+        verify(userLayoutManager, times(1)).saveUserLayout();
+        verify(otherUserLayoutManager, never()).saveUserLayout();
+        
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        verify(otherUserLayoutManager, times(1)).saveUserLayout();
+    }
+    
+    @Test
+    public void testSaveSerializedWithLayoutChanges() throws Exception {
+        final AtomicBoolean changing = new AtomicBoolean(false);
+        final AtomicInteger partialSaves = new AtomicInteger();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (changing.get()) {
+                    partialSaves.incrementAndGet();
+                }
+                return null;
+            }
+        }).when(userLayoutManager).saveUserLayout();
+        
+        //Request thread changes the layout while holding the layout manager's monitor, like UpdatePreferencesServlet
+        final Thread requestThread = new Thread("layout-changes") {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    synchronized (userLayoutManager) {
+                        changing.set(true);
+                        Thread.yield();
+                        changing.set(false);
+                        writeBehindManager.saveUserLayout(request, userLayoutManager);
+                    }
+                }
+            }
+        };
+        requestThread.start();
+        
+        //Flush as fast as possible on this thread, standing in for the scheduler
+        while (requestThread.isAlive()) {
+            writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        }
+        requestThread.join();
+        writeBehindManager.flushPendingSaves(Long.MAX_VALUE);
+        
+        verify(userLayoutManager, atLeastOnce()).saveUserLayout();
+        assertEquals(0, partialSaves.get());
+    }
+}
@@ -18,8 +18,10 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.mock;
@@ -34,6 +36,7 @@ import javax.portlet.WindowState;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
 
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
@@ -345,4 +348,50 @@ public class PortletCacheControlServiceImplTest {
         final CachedPortletResourceData<Long> actualCachedPortletData = secondCacheState.getCachedPortletData();
         assertNotNull(actualCachedPortletData);
     }
+    
+    @Test
+    public void testCacheLatePortletRenderOutput() {
+        final PrivatePortletCacheKey privateCacheKey = new PrivatePortletCacheKey("session", new MockPortletWindowId("123"), null, null);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        cacheState.setPrivatePortletCacheKey(privateCacheKey);
+        
+        //Nothing cached yet, late output is stored
+        final CachedPortletData<PortletRenderResult> lateData = new CachedPortletData<PortletRenderResult>(null, "late", null, null, false, null, 0);
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, lateData);
+        assertSame(lateData, privateScopeRenderCache.get(privateCacheKey).getObjectValue());
+        
+        //Later late output replaces expired late output
+        final CachedPortletData<PortletRenderResult> laterData = new CachedPortletData<PortletRenderResult>(null, "later", null, null, false, null, 0);
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, laterData);
+        assertSame(laterData, privateScopeRenderCache.get(privateCacheKey).getObjectValue());
+        
+        //Data cached by the portlet that has not expired is never replaced
+        final CachedPortletData<PortletRenderResult> validData = new CachedPortletData<PortletRenderResult>(null, "valid", null, null, false, null, 300);
+        privateScopeRenderCache.put(new Element(privateCacheKey, validData));
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, lateData);
+        assertSame(validData, privateScopeRenderCache.get(privateCacheKey).getObjectValue());
+        
+        //Data that never expires is never replaced
+        final CachedPortletData<PortletRenderResult> foreverData = new CachedPortletData<PortletRenderResult>(null, "forever", null, null, false, null, -1);
+        privateScopeRenderCache.put(new Element(privateCacheKey, foreverData));
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, lateData);
+        assertSame(foreverData, privateScopeRenderCache.get(privateCacheKey).getObjectValue());
+        
+        //Expired data with an etag can still be revalidated by the portlet so it is not replaced
+        final CachedPortletData<PortletRenderResult> etagData = new CachedPortletData<PortletRenderResult>(null, "etag", null, null, false, "etag", 0);
+        privateScopeRenderCache.put(new Element(privateCacheKey, etagData));
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, lateData);
+        assertSame(etagData, privateScopeRenderCache.get(privateCacheKey).getObjectValue());
+    }
+    
+    @Test
+    public void testCacheLatePortletRenderOutputPublicData() {
+        //Publicly cached data was found, there is no private key to store late output under
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        
+        final CachedPortletData<PortletRenderResult> lateData = new CachedPortletData<PortletRenderResult>(null, "late", null, null, false, null, 0);
+        cacheControlService.cacheLatePortletRenderOutput(cacheState, lateData);
+        assertEquals(0, privateScopeRenderCache.getSize());
+        assertEquals(0, publicScopeRenderCache.getSize());
+    }
 }
@@ -23,12 +23,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.Date;
 import java.util.concurrent.Callable;
 
 import javax.servlet.http.Cookie;
 
 import org.jasig.portal.portlet.dao.IPortletCookieDao;
 import org.jasig.portal.portlet.om.IPortalCookie;
+import org.jasig.portal.portlet.om.IPortletCookie;
 import org.jasig.portal.test.BasePortalJpaDaoTest;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -109,4 +111,113 @@ public class JpaPortletCookieDaoImplTest extends BasePortalJpaDaoTest {
             }
         });
 	}
+	
+	@Test
+	public void testPurgeExpiredCookies() throws Exception {
+	    //An expiring portal cookie and a current portal cookie with one expired and one current portlet cookie
+        final String[] values = this.execute(new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                final IPortalCookie expiringPortalCookie = portletCookieDao.createPortalCookie(1);
+                portletCookieDao.addOrUpdatePortletCookie(expiringPortalCookie, createCookie("parentExpired", "value", 3600));
+                
+                final IPortalCookie portalCookie = portletCookieDao.createPortalCookie(3600);
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, createCookie("expired", "value", 1));
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, createCookie("current", "value", 3600));
+                
+                return new String[] { expiringPortalCookie.getValue(), portalCookie.getValue() };
+            }
+        });
+        
+        Thread.sleep(1500);
+        
+        this.execute(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                portletCookieDao.purgeExpiredCookies();
+                return null;
+            }
+        });
+        
+        this.execute(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                assertNull(portletCookieDao.getPortalCookie(values[0]));
+                
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(values[1]);
+                assertNotNull(portalCookie);
+                assertEquals(1, portalCookie.getPortletCookies().size());
+                assertNull(getPortletCookie(portalCookie, "expired"));
+                assertNotNull(getPortletCookie(portalCookie, "current"));
+                
+                return null;
+            }
+        });
+	}
+	
+	@Test
+	public void testUnchangedCookieNotWritten() {
+        final String value = this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.createPortalCookie(3600);
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, createCookie("cookieName", "cookieValue", 3600));
+                return portalCookie.getValue();
+            }
+        });
+        
+        final Date expires = this.execute(new Callable<Date>() {
+            @Override
+            public Date call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(value);
+                return getPortletCookie(portalCookie, "cookieName").getExpires();
+            }
+        });
+        
+        //Re-setting the same cookie moves the expiration by less than the update interval, nothing is written
+        this.execute(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(value);
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, createCookie("cookieName", "cookieValue", 3600));
+                return null;
+            }
+        });
+        
+        this.execute(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(value);
+                assertEquals(expires, getPortletCookie(portalCookie, "cookieName").getExpires());
+                
+                //A changed value is written
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, createCookie("cookieName", "newValue", 3600));
+                return null;
+            }
+        });
+        
+        this.execute(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(value);
+                assertEquals("newValue", getPortletCookie(portalCookie, "cookieName").getValue());
+                return null;
+            }
+        });
+	}
+	
+	private static Cookie createCookie(String name, String value, int maxAge) {
+	    final Cookie cookie = new Cookie(name, value);
+	    cookie.setMaxAge(maxAge);
+	    return cookie;
+	}
+	
+	private static IPortletCookie getPortletCookie(IPortalCookie portalCookie, String name) {
+	    for (final IPortletCookie portletCookie : portalCookie.getPortletCookies()) {
+	        if (name.equals(portletCookie.getName())) {
+	            return portletCookie;
+	        }
+	    }
+	    return null;
+	}
 }
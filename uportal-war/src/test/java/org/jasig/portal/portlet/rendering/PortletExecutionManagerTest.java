@@ -0,0 +1,529 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import javax.portlet.Event;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.events.IPortletExecutionEventFactory;
+import org.jasig.portal.portlet.container.cache.CachedPortletData;
+import org.jasig.portal.portlet.container.cache.IPortletCacheControlService;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.worker.IPortletEventExecutionWorker;
+import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link PortletExecutionManager}
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PortletExecutionManagerTest {
+    @Mock private IPortletWorkerFactory portletWorkerFactory;
+    @Mock private IPortletEventCoordinationService eventCoordinationService;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortletExecutionEventFactory portletExecutionEventFactory;
+    @Mock private IPortletCacheControlService portletCacheControlService;
+    @Mock private IPortletRenderExecutionWorker renderWorker;
+    @Mock private IPortletWindowId windowA;
+    @Mock private IPortletWindowId windowB;
+    @Mock private Event event;
+    
+    private final List<String> executionLog = Collections.synchronizedList(new LinkedList<String>());
+    private final Queue<TestEventWorker> eventWorkers = new LinkedList<TestEventWorker>();
+    private long eventTimeout = 1000;
+    
+    private final PortletExecutionManager portletExecutionManager = new PortletExecutionManager() {
+        @Override
+        protected long getPortletEventTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
+            return eventTimeout;
+        }
+    };
+    
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private PortletEventQueue eventQueue;
+    
+    @Before
+    public void setup() {
+        portletExecutionManager.setPortletWorkerFactory(portletWorkerFactory);
+        portletExecutionManager.setEventCoordinationService(eventCoordinationService);
+        portletExecutionManager.setPortletWindowRegistry(portletWindowRegistry);
+        portletExecutionManager.setPortletExecutionEventFactory(portletExecutionEventFactory);
+        portletExecutionManager.setPortletCacheControlService(portletCacheControlService);
+        
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        eventQueue = new PortletEventQueue();
+        
+        //Hand out the scripted workers in order, connected to the manager's completion queue
+        when(portletWorkerFactory.createEventWorker(same(request), same(response), any(IPortletWindowId.class), any(Event.class), any(Queue.class))).thenAnswer(new Answer<IPortletEventExecutionWorker>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public IPortletEventExecutionWorker answer(InvocationOnMock invocation) throws Throwable {
+                final TestEventWorker eventWorker = eventWorkers.poll();
+                assertEquals(eventWorker.portletWindowId, invocation.getArguments()[2]);
+                eventWorker.completionQueue = (Queue<? super IPortletEventExecutionWorker>) invocation.getArguments()[4];
+                return eventWorker;
+            }
+        });
+    }
+    
+    @Test
+    public void testEventsDispatchedInCompletionOrder() {
+        final TestEventWorker a1 = new TestEventWorker("a1", windowA);
+        final TestEventWorker b1 = new TestEventWorker("b1", windowB) {
+            @Override
+            protected void onGet() {
+                //Handling b1 queues a second event for window B
+                queueEvent(windowB);
+            }
+        };
+        b1.completeOnSubmit = true;
+        final TestEventWorker b2 = new TestEventWorker("b2", windowB) {
+            @Override
+            protected void onSubmit() {
+                //a1 only completes after the event b1 triggered is dispatched
+                a1.complete();
+            }
+        };
+        b2.completeOnSubmit = true;
+        
+        queueEvent(windowA);
+        queueEvent(windowB);
+        eventWorkers.add(windowAFirst() ? a1 : b1);
+        eventWorkers.add(windowAFirst() ? b1 : a1);
+        eventWorkers.add(b2);
+        
+        portletExecutionManager.doPortletEvents(eventQueue, request, response);
+        
+        assertTrue(eventWorkers.isEmpty());
+        
+        //b1 was handled and b2 dispatched while a1 was still running
+        assertTrue(executionLog.contains("get b1 1000"));
+        assertTrue(executionLog.contains("get a1 1000"));
+        assertTrue(executionLog.indexOf("get b1 1000") < executionLog.indexOf("submit b2"));
+        assertTrue(executionLog.indexOf("submit b2") < executionLog.indexOf("get a1 1000"));
+        assertTrue(executionLog.contains("get b2 1000"));
+        
+        assertEquals(0, a1.getCancelCount());
+        assertEquals(0, b1.getCancelCount());
+        assertEquals(0, b2.getCancelCount());
+    }
+    
+    @Test
+    public void testHungEventWorker() {
+        eventTimeout = 50;
+        
+        final TestEventWorker a1 = new TestEventWorker("a1", windowA);
+        final TestEventWorker b1 = new TestEventWorker("b1", windowB);
+        b1.completeOnSubmit = true;
+        
+        queueEvent(windowA);
+        queueEvent(windowB);
+        eventWorkers.add(windowAFirst() ? a1 : b1);
+        eventWorkers.add(windowAFirst() ? b1 : a1);
+        
+        portletExecutionManager.doPortletEvents(eventQueue, request, response);
+        
+        //b1 is handled normally, a1 is retrieved without waiting once its deadline passes and then canceled
+        assertTrue(executionLog.contains("get b1 50"));
+        assertTrue(executionLog.contains("get a1 0"));
+        assertEquals(0, b1.getCancelCount());
+        assertEquals(1, a1.getCancelCount());
+        verify(portletExecutionEventFactory).publishPortletHungEvent(same(request), eq(portletExecutionManager), same(a1));
+    }
+    
+    @Test
+    public void testEventWorkerDeadline() {
+        final TestEventWorker a1 = new TestEventWorker("a1", windowA);
+        a1.submittedTime = 1000;
+        
+        //Waiting for a thread counts against the timeout
+        assertEquals(1500, PortletExecutionManager.getEventWorkerDeadline(a1, 500));
+        
+        //Once started the full timeout counts from the start time
+        a1.startedTime = 4000;
+        assertEquals(4500, PortletExecutionManager.getEventWorkerDeadline(a1, 500));
+    }
+    
+    @Test
+    public void testLateStartingEventWorkerNotCanceled() throws Exception {
+        eventTimeout = 500;
+        
+        //a1 waits 300ms for a thread then runs for 300ms, past submit + timeout but within start + timeout
+        final TestEventWorker a1 = new TestEventWorker("a1", windowA) {
+            @Override
+            protected void onSubmit() {
+                final TestEventWorker worker = this;
+                final Thread thread = new Thread("late-start-" + name) {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(300);
+                            worker.startedTime = System.currentTimeMillis();
+                            Thread.sleep(300);
+                            worker.complete();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        };
+        
+        queueEvent(windowA);
+        eventWorkers.add(a1);
+        
+        portletExecutionManager.doPortletEvents(eventQueue, request, response);
+        
+        assertTrue(a1.isComplete());
+        assertEquals(0, a1.getCancelCount());
+        assertTrue(executionLog.contains("get a1 500"));
+    }
+    
+    @Test
+    public void testPageRenderWaitTimeout() {
+        portletExecutionManager.setPageRenderDeadline(1000);
+        
+        //The first wait sets the deadline for the request
+        assertEquals(500, portletExecutionManager.getPageRenderWaitTimeout(request, 500));
+        final long waitTimeout = portletExecutionManager.getPageRenderWaitTimeout(request, 5000);
+        assertTrue(waitTimeout > 900 && waitTimeout <= 1000);
+        
+        //Once the deadline passes renders are not waited on
+        request.setAttribute(PortletExecutionManager.class.getName() + ".PAGE_RENDER_DEADLINE", System.currentTimeMillis() - 10);
+        assertEquals(0, portletExecutionManager.getPageRenderWaitTimeout(request, 5000));
+        
+        //No deadline when disabled or timeouts are ignored
+        portletExecutionManager.setPageRenderDeadline(-1);
+        assertEquals(5000, portletExecutionManager.getPageRenderWaitTimeout(request, 5000));
+        portletExecutionManager.setPageRenderDeadline(1000);
+        portletExecutionManager.setIgnoreTimeouts(true);
+        assertEquals(5000, portletExecutionManager.getPageRenderWaitTimeout(request, 5000));
+    }
+    
+    @Test
+    public void testDeferredRenderReplaysCachedOutput() {
+        final TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        when(portletCacheControlService.getPortletRenderState(request, windowA)).thenReturn(cacheState);
+        when(renderWorker.setExecutionAttribute(anyString(), eq(Boolean.TRUE))).thenReturn(null, Boolean.TRUE);
+        when(renderWorker.getOutput(0)).thenReturn("late output");
+        
+        //Without cached output the caller renders the error portlet
+        assertNull(portletExecutionManager.deferPortletRender(windowA, request, response, renderWorker, 1000));
+        
+        //Expired output is still replayed
+        cacheState.setCachedPortletData(new CachedPortletData<PortletRenderResult>(null, "cached output", null, null, false, null, 0));
+        assertEquals("cached output", portletExecutionManager.deferPortletRender(windowA, request, response, renderWorker, 1000));
+        
+        //The worker was only queued by the first call, once complete its output is cached
+        when(renderWorker.getCompleteTime()).thenReturn(System.currentTimeMillis());
+        portletExecutionManager.processDeferredRenders();
+        portletExecutionManager.processDeferredRenders();
+        verify(portletCacheControlService, times(1)).cacheLatePortletRenderOutput(same(cacheState), any(CachedPortletData.class));
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDeferredRenderOutputCached() throws Exception {
+        final TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        when(portletCacheControlService.getPortletRenderState(request, windowA)).thenReturn(cacheState);
+        when(renderWorker.isStarted()).thenReturn(true);
+        when(renderWorker.getStartedTime()).thenReturn(System.currentTimeMillis());
+        when(renderWorker.getOutput(0)).thenReturn("late output");
+        
+        portletExecutionManager.deferPortletRender(windowA, request, response, renderWorker, 60000);
+        
+        //Still running within its timeout, left alone
+        portletExecutionManager.processDeferredRenders();
+        verify(portletCacheControlService, never()).cacheLatePortletRenderOutput(any(TestingCacheState.class), any(CachedPortletData.class));
+        verify(renderWorker, never()).cancel();
+        
+        when(renderWorker.getCompleteTime()).thenReturn(System.currentTimeMillis());
+        portletExecutionManager.processDeferredRenders();
+        
+        final ArgumentCaptor<CachedPortletData> cachedDataCaptor = ArgumentCaptor.forClass(CachedPortletData.class);
+        verify(portletCacheControlService).cacheLatePortletRenderOutput(same(cacheState), cachedDataCaptor.capture());
+        assertEquals("late output", cachedDataCaptor.getValue().getCachedWriterOutput());
+        
+        //Late output is stored expired so it is only used when the deadline passes
+        assertTrue(cachedDataCaptor.getValue().getExpirationTime() <= System.currentTimeMillis());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHungDeferredRender() throws Exception {
+        final TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        when(portletCacheControlService.getPortletRenderState(request, windowA)).thenReturn(cacheState);
+        
+        //Waiting on a thread longer than the timeout
+        when(renderWorker.getSubmittedTime()).thenReturn(System.currentTimeMillis() - 2000);
+        
+        portletExecutionManager.deferPortletRender(windowA, request, response, renderWorker, 1000);
+        portletExecutionManager.processDeferredRenders();
+        
+        verify(renderWorker).cancel();
+        verify(portletExecutionEventFactory).publishPortletHungEvent(null, portletExecutionManager, renderWorker);
+        
+        //Only handled once
+        portletExecutionManager.processDeferredRenders();
+        verify(renderWorker, times(1)).cancel();
+        verify(portletCacheControlService, never()).cacheLatePortletRenderOutput(any(TestingCacheState.class), any(CachedPortletData.class));
+    }
+    
+    @Test
+    public void testDeferredRenderFailureNotCached() throws Exception {
+        final TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = new TestingCacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        when(portletCacheControlService.getPortletRenderState(request, windowA)).thenReturn(cacheState);
+        when(renderWorker.getCompleteTime()).thenReturn(System.currentTimeMillis());
+        when(renderWorker.get(0)).thenThrow(new IllegalStateException("render failed"));
+        
+        portletExecutionManager.deferPortletRender(windowA, request, response, renderWorker, 1000);
+        portletExecutionManager.processDeferredRenders();
+        
+        verify(portletCacheControlService, never()).cacheLatePortletRenderOutput(same(cacheState), any(CachedPortletData.class));
+    }
+    
+    @Test
+    public void testDeferredRenderDetachedAfterCompletion() throws Exception {
+        when(renderWorker.isRetrieved()).thenReturn(true);
+        when(renderWorker.getExecutionAttribute(anyString())).thenReturn(Boolean.TRUE);
+        
+        //Deferred renders keep running on copies of the request and response
+        portletExecutionManager.checkWorkerCompletion(request, renderWorker);
+        verify(renderWorker).detach();
+        verify(renderWorker, never()).cancel();
+        
+        //Other unfinished renders are canceled
+        final IPortletRenderExecutionWorker hungWorker = mock(IPortletRenderExecutionWorker.class);
+        when(hungWorker.isRetrieved()).thenReturn(true);
+        when(hungWorker.getPortletWindowId()).thenReturn(windowB);
+        portletExecutionManager.checkWorkerCompletion(request, hungWorker);
+        verify(hungWorker, never()).detach();
+        verify(hungWorker).cancel();
+        verify(portletExecutionEventFactory).publishPortletHungEvent(request, portletExecutionManager, hungWorker);
+        
+        //Complete workers are left alone
+        final IPortletRenderExecutionWorker completeWorker = mock(IPortletRenderExecutionWorker.class);
+        when(completeWorker.isRetrieved()).thenReturn(true);
+        when(completeWorker.isComplete()).thenReturn(true);
+        portletExecutionManager.checkWorkerCompletion(request, completeWorker);
+        verify(completeWorker, never()).detach();
+        verify(completeWorker, never()).cancel();
+    }
+    
+    private void queueEvent(IPortletWindowId portletWindowId) {
+        final QueuedEvent queuedEvent = new QueuedEvent(portletWindowId, event);
+        eventQueue.addEvents(Collections.singleton(queuedEvent));
+        eventQueue.offerEvent(portletWindowId, queuedEvent);
+    }
+    
+    /**
+     * Windows are dispatched in {@link PortletEventQueue} iteration order
+     */
+    private boolean windowAFirst() {
+        for (final IPortletWindowId portletWindowId : eventQueue) {
+            return portletWindowId == windowA;
+        }
+        throw new IllegalStateException("No events queued");
+    }
+    
+    private class TestEventWorker implements IPortletEventExecutionWorker {
+        protected final String name;
+        private final IPortletWindowId portletWindowId;
+        private volatile Queue<? super IPortletEventExecutionWorker> completionQueue;
+        private volatile boolean completeOnSubmit = false;
+        private volatile boolean complete = false;
+        private volatile boolean retrieved = false;
+        private volatile long submittedTime = 0;
+        private volatile long startedTime = 0;
+        private volatile int cancelCount = 0;
+        
+        public TestEventWorker(String name, IPortletWindowId portletWindowId) {
+            this.name = name;
+            this.portletWindowId = portletWindowId;
+        }
+        
+        protected void onSubmit() {
+        }
+        
+        protected void onGet() {
+        }
+        
+        public void complete() {
+            if (this.startedTime == 0) {
+                this.startedTime = System.currentTimeMillis();
+            }
+            this.complete = true;
+            this.completionQueue.offer(this);
+        }
+
+        @Override
+        public void submit() {
+            executionLog.add("submit " + name);
+            this.submittedTime = System.currentTimeMillis();
+            if (this.completeOnSubmit) {
+                this.complete();
+            }
+            this.onSubmit();
+        }
+
+        @Override
+        public Long get(long timeout) throws Exception {
+            executionLog.add("get " + name + " " + timeout);
+            this.retrieved = true;
+            this.onGet();
+            return 0l;
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelCount++;
+        }
+
+        @Override
+        public int getCancelCount() {
+            return this.cancelCount;
+        }
+
+        @Override
+        public boolean isRetrieved() {
+            return this.retrieved;
+        }
+
+        @Override
+        public long waitForStart(long timeout) throws InterruptedException {
+            return this.startedTime;
+        }
+
+        @Override
+        public Event getEvent() {
+            return event;
+        }
+
+        @Override
+        public ExecutionType getExecutionType() {
+            return ExecutionType.EVENT;
+        }
+
+        @Override
+        public Object setExecutionAttribute(String name, Object value) {
+            return null;
+        }
+
+        @Override
+        public Object getExecutionAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public IPortletWindowId getPortletWindowId() {
+            return this.portletWindowId;
+        }
+
+        @Override
+        public String getPortletFname() {
+            return this.name;
+        }
+
+        @Override
+        public long getApplicableTimeout() {
+            return eventTimeout;
+        }
+
+        @Override
+        public boolean isSubmitted() {
+            return this.submittedTime > 0;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return this.startedTime > 0;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return this.complete;
+        }
+
+        @Override
+        public long getSubmittedTime() {
+            return this.submittedTime;
+        }
+
+        @Override
+        public long getStartedTime() {
+            return this.startedTime;
+        }
+
+        @Override
+        public long getCompleteTime() {
+            return 0;
+        }
+
+        @Override
+        public long getWait() {
+            return 0;
+        }
+
+        @Override
+        public long getDuration() {
+            return 0;
+        }
+        
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+
+import org.jasig.portal.url.PortalHttpServletRequestWrapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Tests for switching a portlet worker's request and response to detached copies
+ */
+public class DetachedHttpServletRequestTest {
+    private final AtomicBoolean canceled = new AtomicBoolean();
+    
+    private MockHttpServletRequest containerRequest;
+    private MockHttpServletResponse containerResponse;
+    private MockHttpSession session;
+    private GuardingHttpServletRequest request;
+    private GuardingHttpServletResponse response;
+    
+    @Before
+    public void setup() {
+        session = new MockHttpSession();
+        
+        containerRequest = new MockHttpServletRequest("GET", "/uPortal/f/welcome/normal/render.uP");
+        containerRequest.setSession(session);
+        containerRequest.setAttribute("attr", "value");
+        containerRequest.addParameter("param", new String[] { "a", "b" });
+        containerRequest.addHeader("User-Agent", "test-agent");
+        containerRequest.addHeader("If-Modified-Since", 1000l);
+        
+        containerResponse = new MockHttpServletResponse();
+        containerResponse.setCharacterEncoding("UTF-8");
+        
+        request = new GuardingHttpServletRequest(containerRequest, canceled);
+        response = new GuardingHttpServletResponse(containerResponse, canceled);
+    }
+    
+    @Test
+    public void testDetachedRequest() {
+        detach();
+        
+        //The container recycles the request
+        containerRequest.clearAttributes();
+        containerRequest.removeAllParameters();
+        containerRequest.setMethod("POST");
+        
+        assertEquals("value", request.getAttribute("attr"));
+        assertEquals("a", request.getParameter("param"));
+        assertEquals(2, request.getParameterValues("param").length);
+        assertEquals("GET", request.getMethod());
+        assertEquals("/uPortal/f/welcome/normal/render.uP", request.getRequestURI());
+        assertEquals("test-agent", request.getHeader("user-agent"));
+        assertEquals(1000l, request.getDateHeader("If-Modified-Since"));
+        assertEquals(-1, request.getDateHeader("X-Missing"));
+        assertSame(session, request.getSession(false));
+        
+        //Attributes set by the worker stay with the detached request
+        request.setAttribute("title", "Late Title");
+        assertEquals("Late Title", request.getAttribute("title"));
+        assertNull(containerRequest.getAttribute("title"));
+        
+        //The portal request and response resolve to the detached copies
+        final Object portalRequest = request.getAttribute(PortalHttpServletRequestWrapper.ATTRIBUTE__HTTP_SERVLET_REQUEST);
+        assertTrue(portalRequest instanceof DetachedHttpServletRequest);
+        assertSame(portalRequest, request.getRequest());
+        assertTrue(request.getAttribute(PortalHttpServletRequestWrapper.ATTRIBUTE__HTTP_SERVLET_RESPONSE) instanceof DetachedHttpServletResponse);
+    }
+    
+    @Test
+    public void testDetachedResponse() throws Exception {
+        detach();
+        
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write("ignored");
+        response.sendRedirect("/elsewhere");
+        
+        assertEquals("UTF-8", response.getCharacterEncoding());
+        assertEquals("/url", response.encodeURL("/url"));
+        assertTrue(response.isCommitted());
+        
+        //Nothing reaches the container's response
+        assertFalse(containerResponse.containsHeader("Cache-Control"));
+        assertEquals("", containerResponse.getContentAsString());
+        assertNull(containerResponse.getRedirectedUrl());
+    }
+    
+    @Test
+    public void testNoSessionCreated() {
+        containerRequest.setSession(null);
+        detach();
+        
+        assertNull(request.getSession(false));
+        try {
+            request.getSession(true);
+            fail("IllegalStateException expected");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+    
+    @Test
+    public void testCanceledAfterDetach() {
+        detach();
+        canceled.set(true);
+        
+        try {
+            request.getAttribute("attr");
+            fail("IllegalStateException expected");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+    
+    /**
+     * Same as {@link PortletExecutionWorker#detach()}, the spring mock request doesn't implement the servlet 3 methods
+     */
+    private void detach() {
+        final HttpServletRequest servlet3Request = mock(HttpServletRequest.class, delegatesTo(request.getRequest()));
+        doReturn(DispatcherType.REQUEST).when(servlet3Request).getDispatcherType();
+        doReturn(null).when(servlet3Request).getServletContext();
+        
+        final DetachedHttpServletResponse detachedResponse = new DetachedHttpServletResponse(containerResponse);
+        response.detach(detachedResponse);
+        request.detach(new DetachedHttpServletRequest(servlet3Request, detachedResponse));
+    }
+}
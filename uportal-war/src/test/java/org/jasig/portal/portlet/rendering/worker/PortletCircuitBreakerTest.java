@@ -0,0 +1,254 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletCircuitBreakerTest {
+    private PortletCircuitBreaker circuitBreaker;
+    
+    @Before
+    public void setup() {
+        this.circuitBreaker = new PortletCircuitBreaker();
+        this.circuitBreaker.setExecutionWindowSize(4);
+        this.circuitBreaker.setMinimumExecutions(4);
+        this.circuitBreaker.setFailureRateThreshold(.5);
+        this.circuitBreaker.setMinimumAdaptiveTimeout(100);
+        this.circuitBreaker.setAdaptiveTimeoutMultiplier(3);
+    }
+    
+    @Test
+    public void testCircuitOpensAndCloses() throws Exception {
+        this.circuitBreaker.setOpenDuration(50);
+        
+        execute("fname", null);
+        execute("fname", null);
+        execute("fname", new Exception());
+        assertEquals("CLOSED", this.circuitBreaker.getCircuitStates().get("fname"));
+        
+        execute("fname", new Exception());
+        assertEquals("OPEN", this.circuitBreaker.getCircuitStates().get("fname"));
+        
+        //Open circuit rejects executions
+        try {
+            execute("fname", null);
+            fail("IllegalStateException expected");
+        }
+        catch (IllegalStateException e) {
+            //Expected
+        }
+        assertEquals(Long.valueOf(1), this.circuitBreaker.getRejectedExecutionCounts().get("fname"));
+        
+        //Other portlets are not affected
+        execute("other", null);
+        
+        //After the open duration a failed probe opens the circuit again
+        Thread.sleep(60);
+        execute("fname", new Exception());
+        assertEquals("OPEN", this.circuitBreaker.getCircuitStates().get("fname"));
+        
+        //A successful probe closes it
+        Thread.sleep(60);
+        execute("fname", null);
+        assertEquals("CLOSED", this.circuitBreaker.getCircuitStates().get("fname"));
+        assertEquals(0.0, this.circuitBreaker.getFailureRates().get("fname"));
+    }
+    
+    @Test
+    public void testAdaptiveTimeout() throws Exception {
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", IPortletExecutionContext.ExecutionType.RENDER, 10000));
+        
+        for (int i = 0; i < 4; i++) {
+            execute("fname", null, 200);
+        }
+        
+        //3 times the ~200ms latency
+        final long adaptiveTimeout = this.circuitBreaker.getAdaptiveTimeout("fname", IPortletExecutionContext.ExecutionType.RENDER, 10000);
+        assertTrue(adaptiveTimeout >= 600 && adaptiveTimeout < 10000);
+        
+        //Never more than the configured timeout
+        assertEquals(500, this.circuitBreaker.getAdaptiveTimeout("fname", IPortletExecutionContext.ExecutionType.RENDER, 500));
+        
+        //No samples for other execution types
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", IPortletExecutionContext.ExecutionType.RESOURCE, 10000));
+        
+        this.circuitBreaker.setAdaptiveTimeoutsEnabled(false);
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", IPortletExecutionContext.ExecutionType.RENDER, 10000));
+    }
+    
+    @Test
+    public void testAdaptiveTimeoutExecutionTypes() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            execute("fname", null, 200, ExecutionType.ACTION, 10000);
+            execute("fname", null, 200, ExecutionType.EVENT, 10000);
+        }
+        
+        //Actions and events are not adapted by default
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.ACTION, 10000));
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.EVENT, 10000));
+        
+        this.circuitBreaker.setAdaptiveTimeoutExecutionTypes(new ExecutionType[] { ExecutionType.ACTION });
+        final long adaptiveTimeout = this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.ACTION, 10000);
+        assertTrue(adaptiveTimeout >= 600 && adaptiveTimeout < 10000);
+        assertEquals(10000, this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.EVENT, 10000));
+    }
+    
+    @Test
+    public void testTimedOutExecutionsGrowAdaptiveTimeout() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            execute("fname", null, 200);
+        }
+        final long adaptiveTimeout = this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.RENDER, 10000);
+        assertTrue(adaptiveTimeout >= 600 && adaptiveTimeout < 1000);
+        
+        //Canceled at the adapted timeout, the interrupted portlet throws
+        execute("fname", new InterruptedException(), adaptiveTimeout, ExecutionType.RENDER, adaptiveTimeout);
+        final long grownTimeout = this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.RENDER, 10000);
+        assertTrue(grownTimeout >= adaptiveTimeout * 3);
+        
+        //Still capped by the configured timeout
+        execute("fname", new InterruptedException(), grownTimeout, ExecutionType.RENDER, grownTimeout);
+        assertEquals(5000, this.circuitBreaker.getAdaptiveTimeout("fname", ExecutionType.RENDER, 5000));
+    }
+    
+    protected void execute(String fname, Exception e) {
+        execute(fname, e, 0);
+    }
+    
+    protected void execute(String fname, Exception e, long duration) {
+        execute(fname, e, duration, ExecutionType.RENDER, 10000);
+    }
+    
+    protected void execute(final String fname, final Exception e, final long duration, ExecutionType executionType, long timeout) {
+        final TestExecutionContext context = new TestExecutionContext(fname, duration, executionType, timeout);
+        this.circuitBreaker.preSubmit(null, null, context);
+        
+        //Run the execution lifecycle from a different thread like the portlet thread pool would
+        final Thread worker = new Thread() {
+            @Override
+            public void run() {
+                circuitBreaker.preExecution(null, null, context);
+                circuitBreaker.postExecution(null, null, context, e);
+            }
+        };
+        worker.start();
+        try {
+            worker.join();
+        }
+        catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        }
+    }
+    
+    private static final class TestExecutionContext implements IPortletExecutionContext {
+        private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
+        private final String fname;
+        private final long started;
+        private final ExecutionType executionType;
+        private final long timeout;
+        
+        public TestExecutionContext(String fname, long duration, ExecutionType executionType, long timeout) {
+            this.fname = fname;
+            this.started = System.currentTimeMillis() - duration;
+            this.executionType = executionType;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public ExecutionType getExecutionType() {
+            return this.executionType;
+        }
+
+        @Override
+        public Object setExecutionAttribute(String name, Object value) {
+            return this.executionAttributes.put(name, value);
+        }
+
+        @Override
+        public Object getExecutionAttribute(String name) {
+            return this.executionAttributes.get(name);
+        }
+
+        @Override
+        public IPortletWindowId getPortletWindowId() {
+            return null;
+        }
+
+        @Override
+        public String getPortletFname() {
+            return this.fname;
+        }
+
+        @Override
+        public long getApplicableTimeout() {
+            return this.timeout;
+        }
+
+        @Override
+        public boolean isSubmitted() {
+            return true;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return false;
+        }
+
+        @Override
+        public long getSubmittedTime() {
+            return this.started;
+        }
+
+        @Override
+        public long getStartedTime() {
+            return this.started;
+        }
+
+        @Override
+        public long getCompleteTime() {
+            return 0;
+        }
+
+        @Override
+        public long getWait() {
+            return 0;
+        }
+
+        @Override
+        public long getDuration() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlets.lookup;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPerson;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.NamedPersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PersonLookupHelperImplTest {
+    @Mock private IPersonAttributeDao personAttributeDao;
+    @Mock private IAuthorizationPrincipal principal;
+    @Mock private IPerson searcher;
+    
+    private PersonLookupHelperImpl personLookupHelper;
+    
+    @Before
+    public void setup() {
+        personLookupHelper = new PersonLookupHelperImpl() {
+            @Override
+            protected IAuthorizationPrincipal getPrincipalForUser(IPerson person) {
+                return principal;
+            }
+        };
+        personLookupHelper.setPersonAttributeDao(personAttributeDao);
+        personLookupHelper.setMaxResults(2);
+        
+        when(personAttributeDao.getPossibleUserAttributeNames()).thenReturn(ImmutableSet.of("sn", "displayName"));
+    }
+    
+    @Test
+    public void testSearchOrderedAndLimited() {
+        when(principal.hasPermission(eq(IPersonLookupHelper.USERS_OWNER), eq(IPersonLookupHelper.VIEW_ATTRIBUTE_PERMISSION), anyString())).thenReturn(true);
+        when(principal.hasPermission(eq(IPersonLookupHelper.USERS_OWNER), eq(IPersonLookupHelper.VIEW_USER_PERMISSION), anyString())).thenReturn(true);
+        when(principal.hasPermission(IPersonLookupHelper.USERS_OWNER, IPersonLookupHelper.VIEW_USER_PERMISSION, "hidden")).thenReturn(false);
+        
+        final Set<IPersonAttributes> people = new LinkedHashSet<IPersonAttributes>();
+        people.add(createPerson("dsmith", "Smith, Dan"));
+        people.add(createPerson("asmith", "Smith, Alice"));
+        people.add(createPerson("hidden", "Smith, Aaron"));
+        people.add(createPerson("csmith", "Smith, Carl"));
+        people.add(createPerson("bsmith", "Smith, Bob"));
+        when(personAttributeDao.getPeople(ImmutableMap.<String, Object>of("sn", "smith"))).thenReturn(people);
+        
+        final List<IPersonAttributes> results = personLookupHelper.searchForPeople(searcher, ImmutableMap.<String, Object>of("sn", "smith"));
+        
+        assertEquals(2, results.size());
+        assertEquals("asmith", results.get(0).getName());
+        assertEquals("bsmith", results.get(1).getName());
+        
+        //Permission checks stop once enough visible people are found
+        verify(principal, never()).hasPermission(IPersonLookupHelper.USERS_OWNER, IPersonLookupHelper.VIEW_USER_PERMISSION, "csmith");
+        verify(principal, never()).hasPermission(IPersonLookupHelper.USERS_OWNER, IPersonLookupHelper.VIEW_USER_PERMISSION, "dsmith");
+    }
+    
+    @Test
+    public void testSearchWithoutVisibleDisplayName() {
+        when(principal.hasPermission(IPersonLookupHelper.USERS_OWNER, IPersonLookupHelper.VIEW_ATTRIBUTE_PERMISSION, "sn")).thenReturn(true);
+        when(principal.hasPermission(eq(IPersonLookupHelper.USERS_OWNER), eq(IPersonLookupHelper.VIEW_USER_PERMISSION), anyString())).thenReturn(true);
+        when(principal.hasPermission(IPersonLookupHelper.USERS_OWNER, IPersonLookupHelper.VIEW_USER_PERMISSION, "hidden")).thenReturn(false);
+        
+        final Set<IPersonAttributes> people = new LinkedHashSet<IPersonAttributes>();
+        people.add(createPerson("hidden", "Smith, Aaron"));
+        people.add(createPerson("dsmith", "Smith, Dan"));
+        people.add(createPerson("asmith", "Smith, Alice"));
+        people.add(createPerson("csmith", "Smith, Carl"));
+        when(personAttributeDao.getPeople(ImmutableMap.<String, Object>of("sn", "smith"))).thenReturn(people);
+        
+        final List<IPersonAttributes> results = personLookupHelper.searchForPeople(searcher, ImmutableMap.<String, Object>of("sn", "smith"));
+        
+        //Results are in match order and don't include the display name
+        assertEquals(2, results.size());
+        assertEquals("dsmith", results.get(0).getName());
+        assertEquals("asmith", results.get(1).getName());
+        assertNull(results.get(0).getAttributeValue("displayName"));
+    }
+    
+    private IPersonAttributes createPerson(String name, String displayName) {
+        final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+        attributes.put("sn", Collections.<Object>singletonList("Smith"));
+        attributes.put("displayName", Collections.<Object>singletonList(displayName));
+        return new NamedPersonImpl(name, attributes);
+    }
+}
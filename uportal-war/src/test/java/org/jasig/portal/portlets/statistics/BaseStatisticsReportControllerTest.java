@@ -0,0 +1,230 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlets.statistics;
+
+import static junit.framework.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.events.aggr.AggregationInterval;
+import org.jasig.portal.events.aggr.AggregationIntervalHelper;
+import org.jasig.portal.events.aggr.AggregationIntervalInfo;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus;
+import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.login.LoginAggregation;
+import org.jasig.portal.events.aggr.login.LoginAggregationDao;
+import org.jasig.portal.events.aggr.login.LoginAggregationKey;
+import org.jasig.portal.events.aggr.login.LoginAggregationKeyImpl;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests the closed interval aggregation cache in {@link BaseStatisticsReportController}
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BaseStatisticsReportControllerTest {
+    private static final AggregationInterval INTERVAL = AggregationInterval.FIVE_MINUTE;
+    
+    private static final DateTime DAY_1 = new DateTime(2012, 1, 1, 0, 0);
+    private static final DateTime DAY_2 = DAY_1.plusDays(1);
+    private static final DateTime DAY_3 = DAY_1.plusDays(2);
+    private static final DateTime DAY_4 = DAY_1.plusDays(3);
+    
+    @InjectMocks private LoginTotalsStatisticsController controller = new LoginTotalsStatisticsController();
+    @Mock private LoginAggregationDao<LoginAggregation> loginDao;
+    @Mock private AggregationIntervalHelper intervalHelper;
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private IEventAggregatorStatus cleanUnclosedStatus;
+    @Mock private AggregatedGroupMapping group;
+    
+    private CacheManager cacheManager;
+    private Cache aggregationCache;
+    private Set<LoginAggregationKey> keys;
+    
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration().name(this.getClass().getName()));
+        this.aggregationCache = new Cache(new CacheConfiguration("aggregationCache", 100));
+        this.cacheManager.addCache(this.aggregationCache);
+        ReflectionTestUtils.setField(this.controller, "aggregationCache", this.aggregationCache);
+        
+        this.keys = Collections.<LoginAggregationKey>singleton(new LoginAggregationKeyImpl(INTERVAL, this.group));
+        
+        when(this.eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.CLEAN_UNCLOSED, false)).thenReturn(this.cleanUnclosedStatus);
+    }
+    
+    @After
+    public void teardown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testNothingClosed() {
+        final LoginAggregation aggr1 = mockAggregation(DAY_1.plusHours(10));
+        when(this.loginDao.getAggregations(DAY_1, DAY_4, this.keys, this.group)).thenReturn(Arrays.asList(aggr1));
+        
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1);
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1);
+        
+        verify(this.loginDao, times(2)).getAggregations(DAY_1, DAY_4, this.keys, this.group);
+        assertEquals(0, this.aggregationCache.getSize());
+    }
+    
+    @Test
+    public void testClosedBucketsCached() {
+        setClosedEnd(DAY_3.plusHours(12));
+        
+        final LoginAggregation aggr1 = mockAggregation(DAY_1.plusHours(10));
+        final LoginAggregation aggr2 = mockAggregation(DAY_2.plusHours(10));
+        final LoginAggregation aggr3 = mockAggregation(DAY_3.plusHours(10));
+        when(this.loginDao.getAggregations(DAY_1, DAY_3, this.keys, this.group)).thenReturn(Arrays.asList(aggr2, aggr1));
+        when(this.loginDao.getAggregations(DAY_3, DAY_4, this.keys, this.group)).thenReturn(Arrays.asList(aggr3));
+        
+        //Miss, the closed days are loaded with one query and cached per day
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3);
+        assertEquals(2, this.aggregationCache.getSize());
+        
+        //Hit, only the open day is queried
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3);
+        
+        verify(this.loginDao, times(1)).getAggregations(DAY_1, DAY_3, this.keys, this.group);
+        verify(this.loginDao, times(2)).getAggregations(DAY_3, DAY_4, this.keys, this.group);
+        verifyNoMoreInteractions(this.loginDao);
+    }
+    
+    @Test
+    public void testPartialHit() {
+        setClosedEnd(DAY_3.plusHours(12));
+        
+        final LoginAggregation aggr1 = mockAggregation(DAY_1.plusHours(10));
+        final LoginAggregation aggr2 = mockAggregation(DAY_2.plusHours(10));
+        when(this.loginDao.getAggregations(DAY_1, DAY_2, this.keys, this.group)).thenReturn(Arrays.asList(aggr1));
+        when(this.loginDao.getAggregations(DAY_2, DAY_3, this.keys, this.group)).thenReturn(Arrays.asList(aggr2));
+        
+        assertAggregations(this.getAggregations(DAY_2, DAY_3), aggr2);
+        
+        //Only the missing first day is loaded
+        assertAggregations(this.getAggregations(DAY_1, DAY_3), aggr1, aggr2);
+        
+        verify(this.loginDao, times(1)).getAggregations(DAY_1, DAY_2, this.keys, this.group);
+        verify(this.loginDao, times(1)).getAggregations(DAY_2, DAY_3, this.keys, this.group);
+        verifyNoMoreInteractions(this.loginDao);
+    }
+    
+    @Test
+    public void testNewlyWrittenIntervalVisible() {
+        setClosedEnd(DAY_3.plusHours(12));
+        
+        final LoginAggregation aggr1 = mockAggregation(DAY_1.plusHours(10));
+        final LoginAggregation aggr2 = mockAggregation(DAY_2.plusHours(10));
+        final LoginAggregation aggr3 = mockAggregation(DAY_3.plusHours(10));
+        final LoginAggregation aggr4 = mockAggregation(DAY_3.plusHours(20));
+        when(this.loginDao.getAggregations(DAY_1, DAY_3, this.keys, this.group)).thenReturn(Arrays.asList(aggr1, aggr2));
+        when(this.loginDao.getAggregations(DAY_3, DAY_4, this.keys, this.group)).thenReturn(Arrays.asList(aggr3));
+        
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3);
+        
+        //An aggregation is written in the open day, it is visible on the next request
+        when(this.loginDao.getAggregations(DAY_3, DAY_4, this.keys, this.group)).thenReturn(Arrays.asList(aggr4, aggr3));
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3, aggr4);
+        
+        //The day is closed, it is loaded and cached once more
+        setClosedEnd(DAY_4.plusHours(12));
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3, aggr4);
+        assertAggregations(this.getAggregations(DAY_1, DAY_4), aggr1, aggr2, aggr3, aggr4);
+        assertEquals(3, this.aggregationCache.getSize());
+        
+        verify(this.loginDao, times(1)).getAggregations(DAY_1, DAY_3, this.keys, this.group);
+        verify(this.loginDao, times(3)).getAggregations(DAY_3, DAY_4, this.keys, this.group);
+        verifyNoMoreInteractions(this.loginDao);
+    }
+    
+    @Test
+    public void testKeysAndGroupsSeparateBuckets() {
+        setClosedEnd(DAY_3.plusHours(12));
+        
+        final AggregatedGroupMapping otherGroup = mock(AggregatedGroupMapping.class);
+        final LoginAggregation aggr1 = mockAggregation(DAY_1.plusHours(10));
+        final LoginAggregation aggr2 = mockAggregation(DAY_1.plusHours(11));
+        when(this.loginDao.getAggregations(DAY_1, DAY_2, this.keys, this.group)).thenReturn(Arrays.asList(aggr1));
+        when(this.loginDao.getAggregations(DAY_1, DAY_2, this.keys, otherGroup)).thenReturn(Arrays.asList(aggr2));
+        
+        assertAggregations(this.controller.getAggregations(INTERVAL, DAY_1, DAY_2, this.keys, this.group), aggr1);
+        assertAggregations(this.controller.getAggregations(INTERVAL, DAY_1, DAY_2, this.keys, otherGroup), aggr2);
+        assertEquals(2, this.aggregationCache.getSize());
+    }
+    
+    @Test
+    public void testCacheBucketEnd() {
+        final DateTime dateTime = new DateTime(2012, 3, 14, 15, 9);
+        
+        assertEquals(new DateTime(2012, 3, 15, 0, 0), this.controller.getCacheBucketEnd(AggregationInterval.HOUR, dateTime));
+        assertEquals(new DateTime(2012, 4, 1, 0, 0), this.controller.getCacheBucketEnd(AggregationInterval.DAY, dateTime));
+        assertEquals(new DateTime(2013, 1, 1, 0, 0), this.controller.getCacheBucketEnd(AggregationInterval.MONTH, dateTime));
+    }
+    
+    private Collection<LoginAggregation> getAggregations(DateTime start, DateTime end) {
+        return this.controller.getAggregations(INTERVAL, start, end, this.keys, this.group);
+    }
+    
+    private void setClosedEnd(DateTime lastEventDate) {
+        final AggregationIntervalInfo intervalInfo = mock(AggregationIntervalInfo.class);
+        when(intervalInfo.getStart()).thenReturn(INTERVAL.determineStart(lastEventDate));
+        
+        when(this.cleanUnclosedStatus.getLastEventDate()).thenReturn(lastEventDate);
+        when(this.intervalHelper.getIntervalInfo(INTERVAL, lastEventDate)).thenReturn(intervalInfo);
+    }
+    
+    private static LoginAggregation mockAggregation(DateTime dateTime) {
+        final LoginAggregation aggregation = mock(LoginAggregation.class);
+        when(aggregation.getDateTime()).thenReturn(dateTime);
+        return aggregation;
+    }
+    
+    private static void assertAggregations(Collection<LoginAggregation> actual, LoginAggregation... expected) {
+        final List<LoginAggregation> expectedList = Arrays.asList(expected);
+        assertEquals(expectedList.size(), actual.size());
+        assertEquals(new HashSet<LoginAggregation>(expectedList), new HashSet<LoginAggregation>(actual));
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rest;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.rest.layout.LayoutPortlet;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.IPersonManager;
+import org.jasig.portal.url.IPortalUrlBuilder;
+import org.jasig.portal.url.IPortalUrlProvider;
+import org.jasig.portal.url.UrlType;
+import org.jasig.portal.user.IUserInstance;
+import org.jasig.portal.user.IUserInstanceManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.web.servlet.ModelAndView;
+import org.w3c.dom.Document;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LayoutRESTControllerTest {
+    private static final String LAYOUT =
+            "<layout><folder ID=\"s1\">" +
+            "<channel ID=\"n1\" fname=\"weather\" title=\"Weather\" description=\"Forecast\">" +
+            "<parameter name=\"iconUrl\" value=\"/weather.png\"/></channel>" +
+            "<channel ID=\"n2\" fname=\"news\" title=\"News\" description=\"Headlines\"/>" +
+            "</folder></layout>";
+    
+    @InjectMocks private LayoutRESTController controller;
+    @Mock private IPersonManager personManager;
+    @Mock private IPortalUrlProvider urlProvider;
+    @Mock private IUserInstanceManager userInstanceManager;
+    @Mock private IPerson person;
+    @Mock private IUserInstance userInstance;
+    @Mock private IUserPreferencesManager preferencesManager;
+    @Mock private IUserProfile profile;
+    @Mock private IUserLayoutManager userLayoutManager;
+    @Mock private IPortalUrlBuilder portalUrlBuilder;
+    
+    private MockHttpSession session;
+    
+    @Before
+    public void setup() throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(LAYOUT.getBytes("UTF-8")));
+        
+        session = new MockHttpSession();
+        
+        when(personManager.getPerson(any(HttpServletRequest.class))).thenReturn(person);
+        when(person.getUserName()).thenReturn("student");
+        when(userInstanceManager.getUserInstance(any(HttpServletRequest.class))).thenReturn(userInstance);
+        when(userInstance.getPreferencesManager()).thenReturn(preferencesManager);
+        when(preferencesManager.getUserProfile()).thenReturn(profile);
+        when(profile.getProfileId()).thenReturn(1);
+        when(preferencesManager.getUserLayoutManager()).thenReturn(userLayoutManager);
+        when(userLayoutManager.getCacheKey()).thenReturn("key1");
+        when(userLayoutManager.getUserLayoutDOM()).thenReturn(document);
+        when(urlProvider.getPortalUrlBuilderByLayoutNode(any(HttpServletRequest.class), anyString(), any(UrlType.class))).thenReturn(portalUrlBuilder);
+        when(portalUrlBuilder.getUrlString()).thenReturn("/url");
+    }
+    
+    @Test
+    public void testInitialRequest() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final ModelAndView mv = controller.getRESTController(request(null), response);
+        
+        assertNotNull(mv);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNotNull(response.getHeader("ETag"));
+        
+        @SuppressWarnings("unchecked")
+        final List<LayoutPortlet> portlets = (List<LayoutPortlet>) mv.getModel().get("layout");
+        assertEquals(2, portlets.size());
+        assertEquals("n1", portlets.get(0).getNodeId());
+        assertEquals("Weather", portlets.get(0).getTitle());
+        assertEquals("Forecast", portlets.get(0).getDescription());
+        assertEquals("/weather.png", portlets.get(0).getIconUrl());
+        assertEquals("/url", portlets.get(0).getUrl());
+        assertNull(portlets.get(1).getIconUrl());
+    }
+    
+    @Test
+    public void testNotModified() throws Exception {
+        final MockHttpServletResponse first = new MockHttpServletResponse();
+        controller.getRESTController(request(null), first);
+        final String etag = (String) first.getHeader("ETag");
+        
+        final MockHttpServletResponse second = new MockHttpServletResponse();
+        final ModelAndView mv = controller.getRESTController(request(etag), second);
+        
+        assertNull(mv);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, second.getStatus());
+        
+        //The layout is only walked once, the 304 doesn't touch the DOM
+        verify(userLayoutManager, times(1)).getUserLayoutDOM();
+    }
+    
+    @Test
+    public void testSessionCachedProjection() throws Exception {
+        final ModelAndView first = controller.getRESTController(request(null), new MockHttpServletResponse());
+        final ModelAndView second = controller.getRESTController(request(null), new MockHttpServletResponse());
+        
+        assertSame(first.getModel().get("layout"), second.getModel().get("layout"));
+        verify(userLayoutManager, times(1)).getUserLayoutDOM();
+    }
+    
+    @Test
+    public void testLayoutModified() throws Exception {
+        final MockHttpServletResponse first = new MockHttpServletResponse();
+        controller.getRESTController(request(null), first);
+        final String etag = (String) first.getHeader("ETag");
+        
+        when(userLayoutManager.getCacheKey()).thenReturn("key2");
+        
+        final MockHttpServletResponse second = new MockHttpServletResponse();
+        final ModelAndView mv = controller.getRESTController(request(etag), second);
+        
+        assertNotNull(mv);
+        assertEquals(HttpServletResponse.SC_OK, second.getStatus());
+        assertFalse(etag.equals(second.getHeader("ETag")));
+        verify(userLayoutManager, times(2)).getUserLayoutDOM();
+    }
+    
+    private MockHttpServletRequest request(String ifNoneMatch) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/layoutDoc");
+        request.setSession(session);
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return request;
+    }
+}
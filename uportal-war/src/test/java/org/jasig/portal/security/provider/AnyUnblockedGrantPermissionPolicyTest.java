@@ -0,0 +1,341 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.IBasicEntity;
+import org.jasig.portal.concurrency.caching.CacheFactoryEntityCachingService;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPermissionSet;
+import org.jasig.portal.utils.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Compares the cached unblocked grants of {@link AnyUnblockedGrantPermissionPolicy} with the original walk of
+ * the groups tree for every check.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AnyUnblockedGrantPermissionPolicyTest {
+    private static final String OWNER = "UP_TEST";
+    private static final List<String> ACTIVITIES = Arrays.asList("VIEW", "EDIT");
+    private static final List<String> TARGETS = Arrays.asList("T1", "T2");
+    
+    @Mock private IAuthorizationService service;
+    
+    private final Map<IGroupMember, List<IGroupMember>> containingGroups = new HashMap<IGroupMember, List<IGroupMember>>();
+    private final Map<String, List<IPermission>> permissions = new HashMap<String, List<IPermission>>();
+    
+    private CacheManager cacheManager;
+    private CacheFactoryEntityCachingService entityCachingService;
+    private AnyUnblockedGrantPermissionPolicy cachedPolicy;
+    private AnyUnblockedGrantPermissionPolicy uncachedPolicy;
+    
+    @Before
+    public void setup() throws Exception {
+        this.cacheManager = new CacheManager(new Configuration().name(this.getClass().getName()));
+        final Cache unblockedGrantsCache = new Cache(new CacheConfiguration("unblockedGrantsCache", 100));
+        this.cacheManager.addCache(unblockedGrantsCache);
+        
+        this.entityCachingService = new CacheFactoryEntityCachingService();
+        this.entityCachingService.setCacheFactory(new MapCacheFactory());
+        
+        this.cachedPolicy = new AnyUnblockedGrantPermissionPolicy();
+        this.cachedPolicy.setEntityCachingService(this.entityCachingService);
+        this.cachedPolicy.setUnblockedGrantsCache(unblockedGrantsCache);
+        
+        this.uncachedPolicy = new AnyUnblockedGrantPermissionPolicy();
+        this.uncachedPolicy.setEntityCachingService(this.entityCachingService);
+        
+        when(service.getPermissionsForPrincipal(any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString())).thenAnswer(new Answer<IPermission[]>() {
+            @Override
+            public IPermission[] answer(InvocationOnMock invocation) throws Throwable {
+                final Object[] args = invocation.getArguments();
+                final IAuthorizationPrincipal principal = (IAuthorizationPrincipal) args[0];
+                
+                final List<IPermission> principalPermissions = permissions.get(principal.getPrincipalString());
+                if (principalPermissions == null) {
+                    return new IPermission[0];
+                }
+                
+                //null owner, activity or target matches everything
+                final List<IPermission> matches = new ArrayList<IPermission>();
+                for (final IPermission permission : principalPermissions) {
+                    if ((args[1] == null || args[1].equals(permission.getOwner())) &&
+                            (args[2] == null || args[2].equals(permission.getActivity())) &&
+                            (args[3] == null || args[3].equals(permission.getTarget()))) {
+                        matches.add(permission);
+                    }
+                }
+                return matches.toArray(new IPermission[matches.size()]);
+            }
+        });
+    }
+    
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testDenyBlocksPath() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember small = group("small");
+        final IGroupMember bigger = group("bigger");
+        contains(principal, small);
+        contains(small, bigger);
+        permission(small, IPermission.PERMISSION_TYPE_DENY, "VIEW", "T1");
+        permission(bigger, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        permission(bigger, IPermission.PERMISSION_TYPE_GRANT, "EDIT", "T1");
+        
+        assertPoliciesMatch(principal);
+        
+        //The DENY only blocks the activity it is for
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "EDIT", "T1"));
+    }
+    
+    @Test
+    public void testDenyBlocksOnePathNotAnother() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember small = group("small");
+        final IGroupMember other = group("other");
+        final IGroupMember bigger = group("bigger");
+        final IGroupMember biggerOther = group("biggerOther");
+        final IGroupMember huge = group("huge");
+        contains(principal, small);
+        contains(principal, other);
+        contains(small, bigger);
+        contains(other, biggerOther);
+        contains(bigger, huge);
+        contains(biggerOther, huge);
+        permission(small, IPermission.PERMISSION_TYPE_DENY, "VIEW", "T1");
+        permission(small, IPermission.PERMISSION_TYPE_DENY, "VIEW", "T2");
+        permission(other, IPermission.PERMISSION_TYPE_DENY, "VIEW", "T2");
+        permission(huge, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        permission(huge, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T2");
+        
+        assertPoliciesMatch(principal);
+        
+        //T1 is only blocked on the path through small, T2 is blocked on both paths
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T2"));
+    }
+    
+    @Test
+    public void testGrantAndDenyOnSameGroup() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember small = group("small");
+        final IGroupMember bigger = group("bigger");
+        contains(principal, small);
+        contains(small, bigger);
+        permission(small, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        permission(small, IPermission.PERMISSION_TYPE_DENY, "VIEW", "T1");
+        permission(bigger, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        
+        assertPoliciesMatch(principal);
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+    }
+    
+    @Test
+    public void testGrantsThroughMultipleAncestorPaths() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember g1 = group("g1");
+        final IGroupMember g2 = group("g2");
+        final IGroupMember g3 = group("g3");
+        final IGroupMember g4 = group("g4");
+        contains(principal, g1);
+        contains(principal, g2);
+        contains(g1, g3);
+        contains(g2, g3);
+        contains(g2, g4);
+        //A cycle in the groups tree
+        contains(g3, g1);
+        permission(g3, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        permission(g4, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T2");
+        permission(g4, IPermission.PERMISSION_TYPE_GRANT, "EDIT", "T2");
+        permission(g1, IPermission.PERMISSION_TYPE_DENY, "EDIT", "T1");
+        
+        assertPoliciesMatch(principal);
+        
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T2"));
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "EDIT", "T2"));
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "EDIT", "T1"));
+    }
+    
+    @Test
+    public void testGroupVersionInvalidates() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember g1 = group("g1");
+        final IGroupMember g2 = group("g2");
+        contains(principal, g1);
+        permission(g2, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        
+        assertPoliciesMatch(principal);
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+        
+        //Membership changes are only seen once the group entity type version changes
+        contains(g1, g2);
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+        
+        final IBasicEntity groupEntity = mock(IBasicEntity.class);
+        when(groupEntity.getEntityIdentifier()).thenReturn(new EntityIdentifier("g1", IEntityGroup.class));
+        this.entityCachingService.update(groupEntity);
+        
+        assertPoliciesMatch(principal);
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T1"));
+    }
+    
+    @Test
+    public void testRemoveFromPermissionsCacheInvalidates() throws Exception {
+        final IAuthorizationPrincipal principal = principal("student");
+        final IGroupMember g1 = group("g1");
+        contains(principal, g1);
+        permission(g1, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T1");
+        
+        assertPoliciesMatch(principal);
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T2"));
+        
+        //Permission changes are only seen once the permission set entity type version changes
+        final IPermission grant = permission(g1, IPermission.PERMISSION_TYPE_GRANT, "VIEW", "T2");
+        assertFalse(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T2"));
+        
+        //Same call AuthorizationImpl.removeFromPermissionsCache makes for each principal of the changed permissions
+        this.entityCachingService.remove(IPermissionSet.class, grant.getPrincipal());
+        
+        assertPoliciesMatch(principal);
+        assertTrue(cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, "VIEW", "T2"));
+    }
+    
+    /**
+     * Check every activity and target against both policies
+     */
+    private void assertPoliciesMatch(IAuthorizationPrincipal principal) throws Exception {
+        for (final String activity : ACTIVITIES) {
+            for (final String target : TARGETS) {
+                final boolean uncached = uncachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, activity, target);
+                final boolean cached = cachedPolicy.hasUnblockedPathToGrant(service, principal, OWNER, activity, target);
+                assertEquals(activity + " on " + target, uncached, cached);
+            }
+        }
+    }
+    
+    private IAuthorizationPrincipal principal(String name) throws Exception {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        final IGroupMember member = mock(IGroupMember.class);
+        when(principal.getPrincipalString()).thenReturn(name);
+        when(service.getGroupMember(principal)).thenReturn(member);
+        when(service.newPrincipal(member)).thenReturn(principal);
+        
+        final List<IGroupMember> parents = new ArrayList<IGroupMember>();
+        this.containingGroups.put(member, parents);
+        when(member.getContainingGroups()).thenAnswer(new Answer<Iterator<IGroupMember>>() {
+            @Override
+            public Iterator<IGroupMember> answer(InvocationOnMock invocation) throws Throwable {
+                return new ArrayList<IGroupMember>(parents).iterator();
+            }
+        });
+        
+        return principal;
+    }
+    
+    private IGroupMember group(String name) throws Exception {
+        return service.getGroupMember(principal(name));
+    }
+    
+    private void contains(IAuthorizationPrincipal principal, IGroupMember group) throws Exception {
+        contains(service.getGroupMember(principal), group);
+    }
+    
+    private void contains(IGroupMember member, IGroupMember group) {
+        this.containingGroups.get(member).add(group);
+    }
+    
+    private IPermission permission(IGroupMember group, String type, String activity, String target) throws Exception {
+        final String principalString = service.newPrincipal(group).getPrincipalString();
+        
+        final PermissionImpl permission = new PermissionImpl(OWNER);
+        permission.setPrincipal(principalString);
+        permission.setType(type);
+        permission.setActivity(activity);
+        permission.setTarget(target);
+        
+        List<IPermission> principalPermissions = this.permissions.get(principalString);
+        if (principalPermissions == null) {
+            principalPermissions = new ArrayList<IPermission>();
+            this.permissions.put(principalString, principalPermissions);
+        }
+        principalPermissions.add(permission);
+        return permission;
+    }
+    
+    private static final class MapCacheFactory implements CacheFactory {
+        private final Map<String, Map<?, ?>> caches = new ConcurrentHashMap<String, Map<?, ?>>();
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <K extends Serializable, V> Map<K, V> getCache(String cacheName) throws IllegalArgumentException {
+            Map<?, ?> cache = this.caches.get(cacheName);
+            if (cache == null) {
+                cache = new ConcurrentHashMap<K, V>();
+                this.caches.put(cacheName, cache);
+            }
+            return (Map<K, V>) cache;
+        }
+
+        @Override
+        public <K extends Serializable, V> Map<K, V> getCache() {
+            return this.getCache(DEFAULT);
+        }
+    }
+}
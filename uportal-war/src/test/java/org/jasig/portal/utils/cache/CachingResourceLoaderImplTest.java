@@ -21,6 +21,7 @@ package org.jasig.portal.utils.cache;
 
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -29,6 +30,7 @@ import static org.easymock.EasyMock.verify;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -37,6 +39,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import net.sf.ehcache.Ehcache;
@@ -44,6 +47,7 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 
 import org.apache.commons.io.IOUtils;
+import org.easymock.Capture;
 import org.jasig.portal.utils.cache.resource.CachedResource;
 import org.jasig.portal.utils.cache.resource.CachingResourceLoaderImpl;
 import org.jasig.portal.utils.cache.resource.LoadedResource;
@@ -216,6 +220,65 @@ public class CachingResourceLoaderImplTest {
         assertTrue(cachedResource1 == cachedResource);
     }
     
+    @Test
+    public void testCachedModifiedBackgroundLoad() throws Exception {
+        final Resource doc1Resouce = new FileSystemResource(doc1);
+
+        final CachingResourceLoaderImpl loader = new CachingResourceLoaderImpl();
+        
+        final Ehcache cache = createMock(Ehcache.class);
+        final CachedResource<?> cachedResource = createMock(CachedResource.class);
+        final ResourcesElementsProvider elementsProvider = createMock(ResourcesElementsProvider.class);
+        final ExecutorService executor = createMock(ExecutorService.class);
+        
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).times(2);
+        expect(cache.getInternalContext()).andReturn(null).anyTimes();
+        expect(cache.getCacheConfiguration()).andReturn(new CacheConfiguration());
+        expect(cache.get(doc1Resouce))
+            .andReturn(new Element(doc1Resouce, cachedResource)).times(2);
+        
+        final long lastModified = doc1.lastModified();
+        
+        expect(cachedResource.getResource()).andReturn(doc1Resouce);
+        expect(cachedResource.getLastCheckTime()).andReturn(lastModified - TimeUnit.MINUTES.toMillis(5)).times(2);
+        expect(cachedResource.getLastLoadTime()).andReturn(lastModified - TimeUnit.MINUTES.toMillis(5));
+        
+        //Only the first request should schedule a check
+        final Capture<Runnable> checkTask = new Capture<Runnable>();
+        executor.execute(capture(checkTask));
+        expectLastCall();
+        
+        final Capture<Element> reloadedElement = new Capture<Element>();
+        cache.put(capture(reloadedElement));
+        expectLastCall();
+        
+        replay(cache, cachedResource, elementsProvider, executor);
+        
+        loader.setResourceCache(cache);
+        loader.setResourcesElementsProvider(elementsProvider);
+        loader.setCheckExecutor(executor);
+        
+        //Both requests get the current version while the check is pending
+        final CachedResource<String> cachedResource1 = loader.getResource(doc1Resouce, StringResourceBuilder.INSTANCE);
+        assertSame(cachedResource, cachedResource1);
+        assertEquals(1, loader.getChecksInProgress());
+        
+        final CachedResource<String> cachedResource2 = loader.getResource(doc1Resouce, StringResourceBuilder.INSTANCE);
+        assertSame(cachedResource, cachedResource2);
+        
+        checkTask.getValue().run();
+        
+        verify(cache, cachedResource, elementsProvider, executor);
+        
+        assertEquals(0, loader.getChecksInProgress());
+        assertEquals(2, loader.getHitCount());
+        assertEquals(1, loader.getReloadCount());
+        
+        final CachedResource<String> reloadedResource = (CachedResource<String>)reloadedElement.getValue().getObjectValue();
+        final String expected = IOUtils.toString(new FileReader(doc1));
+        assertEquals(expected, reloadedResource.getCachedResource());
+    }
+    
     @Test
     public void testCachedWithinInterval() throws Exception {
         final Resource doc1Resouce = new FileSystemResource(doc1);
@@ -0,0 +1,327 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.threading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for {@link ConcurrentQualityOfServiceBlockingQueue}, also contains a throughput comparison with
+ * {@link QualityOfServiceBlockingQueue}
+ */
+public class ConcurrentQualityOfServiceBlockingQueueTest {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Test
+    public void testRoundRobinOrdering() throws Exception {
+        final BlockingQueue<String> queue = new PrefixKeyedConcurrentQueue(100);
+
+        queue.add("a:1");
+        queue.add("a:2");
+        queue.add("a:3");
+        queue.add("b:1");
+        queue.add("c:1");
+        queue.add("c:2");
+
+        assertEquals(6, queue.size());
+
+        assertEquals("a:1", queue.take());
+        assertEquals("b:1", queue.take());
+        assertEquals("c:1", queue.take());
+        assertEquals("a:2", queue.take());
+        assertEquals("c:2", queue.take());
+        assertEquals("a:3", queue.take());
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        final BlockingQueue<String> queue = new PrefixKeyedConcurrentQueue(2);
+
+        assertTrue(queue.offer("a:1"));
+        assertTrue(queue.offer("b:1"));
+        assertFalse(queue.offer("c:1"));
+        assertFalse(queue.offer("c:1", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        assertTrue(queue.remove("a:1"));
+        assertTrue(queue.offer("c:1"));
+
+        assertEquals("b:1", queue.poll());
+        assertEquals("c:1", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testBlockingTake() throws Exception {
+        final BlockingQueue<String> queue = new PrefixKeyedConcurrentQueue(10);
+
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final String[] taken = new String[1];
+        final Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    taken[0] = queue.take();
+                }
+                catch (InterruptedException e) {
+                    //Ignore
+                }
+            }
+        };
+        consumer.start();
+
+        started.await();
+        queue.put("a:1");
+        consumer.join(1000);
+
+        assertEquals("a:1", taken[0]);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testIteratorAndRemove() throws Exception {
+        final PrefixKeyedConcurrentQueue queue = new PrefixKeyedConcurrentQueue(10);
+
+        queue.add("a:1");
+        queue.add("a:2");
+        queue.add("b:1");
+
+        assertTrue(queue.contains("a:2"));
+        assertEquals(2, queue.getKeySize("a"));
+
+        for (final Iterator<String> itr = queue.iterator(); itr.hasNext(); ) {
+            if ("a:1".equals(itr.next())) {
+                itr.remove();
+            }
+        }
+        assertEquals(2, queue.size());
+
+        assertTrue(queue.remove("b:1"));
+        assertTrue(queue.isKeyEmpty("b"));
+
+        final Set<String> keys = queue.getKeySet();
+        assertTrue(keys.contains("a"));
+
+        assertEquals("a:2", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    /**
+     * Several consumers taking from a single key that is filled before they start so no producer
+     * wakes them. A consumer that finds the ready ring empty while another consumer holds the key
+     * must be woken when the key is put back on the ring, if it isn't the consumers park with
+     * elements still queued and the test times out.
+     */
+    @Test
+    public void testMultipleConsumersSameKey() throws Exception {
+        final BlockingQueue<String> queue = new PrefixKeyedConcurrentQueue(Integer.MAX_VALUE);
+        final int consumers = 4;
+        final int elements = 200000;
+
+        for (int i = 0; i < elements; i++) {
+            queue.put("a:" + i);
+        }
+        for (int c = 0; c < consumers; c++) {
+            queue.put("a:stop");
+        }
+
+        final CountDownLatch done = new CountDownLatch(consumers);
+        final AtomicLong consumed = new AtomicLong();
+        for (int c = 0; c < consumers; c++) {
+            final Thread consumer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!"a:stop".equals(queue.take())) {
+                            consumed.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+
+        assertTrue("Consumers did not finish, a wakeup was lost", done.await(30, TimeUnit.SECONDS));
+        assertEquals(elements, consumed.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Compares producer/consumer throughput of the lock based and lock-free queue implementations
+     * at 4, 16 and 64 threads. Ignored as it is a benchmark and not a functional test.
+     */
+    @Ignore
+    @Test
+    public void testThroughputComparison() throws Exception {
+        final int[] threadCounts = { 4, 16, 64 };
+        final int operations = 1000000;
+
+        //Warm up both implementations
+        runThroughput(new PrefixKeyedLockingQueue(1000), 4, operations);
+        runThroughput(new PrefixKeyedConcurrentQueue(1000), 4, operations);
+
+        for (final int threads : threadCounts) {
+            final long locking = runThroughput(new PrefixKeyedLockingQueue(1000), threads, operations);
+            final long concurrent = runThroughput(new PrefixKeyedConcurrentQueue(1000), threads, operations);
+
+            logger.info("{} threads: {}={} ops/s, {}={} ops/s", new Object[] { threads,
+                    QualityOfServiceBlockingQueue.class.getSimpleName(), locking,
+                    ConcurrentQualityOfServiceBlockingQueue.class.getSimpleName(), concurrent });
+        }
+    }
+
+    /**
+     * Half of the threads produce and half consume
+     *
+     * @return operations per second
+     */
+    protected long runThroughput(final BlockingQueue<String> queue, int threads, int operations) throws Exception {
+        final int producers = threads / 2;
+        final int consumers = threads - producers;
+        final int perProducer = operations / producers;
+        final int perConsumer = (perProducer * producers) / consumers;
+
+        final String[] keys = new String[16];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "fname" + i + ":";
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong consumed = new AtomicLong();
+
+        for (int p = 0; p < producers; p++) {
+            final int offset = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(keys[(i + offset) % keys.length]);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        for (int c = 0; c < consumers; c++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perConsumer; i++) {
+                            queue.take();
+                            consumed.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long duration = System.nanoTime() - startTime;
+
+        return (consumed.get() * TimeUnit.SECONDS.toNanos(1)) / duration;
+    }
+
+    private static String getPrefix(String e) {
+        return e.substring(0, e.indexOf(':'));
+    }
+
+    private static final class PrefixKeyedConcurrentQueue extends ConcurrentQualityOfServiceBlockingQueue<String, String> {
+        public PrefixKeyedConcurrentQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return getPrefix(e);
+        }
+    }
+
+    private static final class PrefixKeyedLockingQueue extends QualityOfServiceBlockingQueue<String, String> {
+        private Iterator<String> keyIterator = this.getKeySet().iterator();
+
+        public PrefixKeyedLockingQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return getPrefix(e);
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            String key;
+            do {
+                if (!this.keyIterator.hasNext()) {
+                    this.keyIterator = this.getKeySet().iterator();
+                }
+                key = this.keyIterator.next();
+            } while (this.isKeyEmpty(key));
+
+            return key;
+        }
+    }
+}